@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** The Java Flight Recorder implementation of {@link SearchEvents}.<br>
+ * This is the only class that refers to <tt>jdk.jfr</tt>, so it lives in
+ * the <tt>jfr</tt> source folder, which is built against Java 11 or later;
+ * {@link SearchEvents} loads it by name.
+ * 
+ * @author Brian_Entei */
+final class FlightRecorderEvents extends SearchEvents {
+	
+	/** A whole search, from its first file to the end of its watch (if it
+	 * watched for changes). */
+	@Name("com.gmail.br45entei.Search")
+	@Label("Search")
+	@Category(CATEGORY)
+	@Description("A find & replace search")
+	@StackTrace(false)
+	static final class Search extends Event {
+		
+		@Label("Source Folder")
+		String source;
+		@Label("Destination")
+		String destination;
+		@Label("Files")
+		long files;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+		@Label("Replacements")
+		long replacements;
+		
+	}
+	
+	/** The listing of a folder's children. */
+	@Name("com.gmail.br45entei.FolderListed")
+	@Label("Folder Listed")
+	@Category(CATEGORY)
+	@Description("A folder whose children were listed by a search")
+	@StackTrace(false)
+	static final class FolderListed extends Event {
+		
+		@Label("Path")
+		String path;
+		@Label("Children")
+		int children;
+		
+	}
+	
+	/** All of the work done for one file: searching through it and writing
+	 * (or copying, or skipping) its output. */
+	@Name("com.gmail.br45entei.FileProcessed")
+	@Label("File Processed")
+	@Category(CATEGORY)
+	@Description("A file that was searched through, copied or skipped")
+	@StackTrace(false)
+	static final class FileProcessed extends Event {
+		
+		@Label("Path")
+		String path;
+		@Label("Size")
+		@DataAmount
+		long bytes;
+		@Label("Replacements")
+		int replacements;
+		
+	}
+	
+	/** A byte-copy of a file. */
+	@Name("com.gmail.br45entei.FileCopied")
+	@Label("File Copied")
+	@Category(CATEGORY)
+	@Description("A file that was copied without being changed")
+	@StackTrace(false)
+	static final class FileCopied extends Event {
+		
+		@Label("Source")
+		String source;
+		@Label("Destination")
+		String destination;
+		@Label("Size")
+		@DataAmount
+		long bytes;
+		
+	}
+	
+	/** One phase of searching through a file line-by-line: reading its
+	 * lines, matching the search-strings in them, or writing the output. */
+	@Name("com.gmail.br45entei.SearchPhase")
+	@Label("Search Phase")
+	@Category(CATEGORY)
+	@Description("Reading, matching or writing the lines of a file")
+	@StackTrace(false)
+	static final class SearchPhase extends Event {
+		
+		@Label("Path")
+		String path;
+		@Label("Phase")
+		String phase;
+		@Label("Size")
+		@DataAmount
+		long bytes;
+		@Label("Matches")
+		int matches;
+		
+	}
+	
+	/** Begins the given event.
+	 * 
+	 * @return The event */
+	private static final Event begin(Event event) {
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	Object beginSearch() {
+		return begin(new Search());
+	}
+	
+	@Override
+	void endSearch(Object event, File source, File destination, long files, long bytes, long replacements) {
+		Search search = (Search) event;
+		search.end();
+		if(search.shouldCommit()) {
+			search.source = source.getAbsolutePath();
+			search.destination = destination.getAbsolutePath();
+			search.files = files;
+			search.bytes = bytes;
+			search.replacements = replacements;
+			search.commit();
+		}
+	}
+	
+	@Override
+	Object beginFolderListed() {
+		return begin(new FolderListed());
+	}
+	
+	@Override
+	void endFolderListed(Object event, String path, int children) {
+		FolderListed listed = (FolderListed) event;
+		listed.end();
+		if(listed.shouldCommit()) {
+			listed.path = path;
+			listed.children = children;
+			listed.commit();
+		}
+	}
+	
+	@Override
+	Object beginFileProcessed() {
+		return begin(new FileProcessed());
+	}
+	
+	@Override
+	void endFileProcessed(Object event, String path, long bytes, int replacements) {
+		FileProcessed processed = (FileProcessed) event;
+		processed.end();
+		if(processed.shouldCommit()) {
+			processed.path = path;
+			processed.bytes = bytes;
+			processed.replacements = replacements;
+			processed.commit();
+		}
+	}
+	
+	@Override
+	Object beginFileCopied() {
+		return begin(new FileCopied());
+	}
+	
+	@Override
+	void endFileCopied(Object event, File source, File destination, long bytes) {
+		FileCopied copied = (FileCopied) event;
+		copied.end();
+		if(copied.shouldCommit()) {
+			copied.source = source.getAbsolutePath();
+			copied.destination = destination.getAbsolutePath();
+			copied.bytes = bytes;
+			copied.commit();
+		}
+	}
+	
+	@Override
+	Object beginPhase() {
+		return begin(new SearchPhase());
+	}
+	
+	@Override
+	void endPhase(Object event, String phase, File file, long bytes, int matches) {
+		SearchPhase searchPhase = (SearchPhase) event;
+		searchPhase.end();
+		if(searchPhase.shouldCommit()) {
+			searchPhase.path = file.getAbsolutePath();
+			searchPhase.phase = phase;
+			searchPhase.bytes = bytes;
+			searchPhase.matches = matches;
+			searchPhase.commit();
+		}
+	}
+	
+}
@@ -0,0 +1,28 @@
+@echo off
+rem Launches BatchFindAndReplace with an application class data sharing (AppCDS)
+rem archive, which holds its classes already parsed and verified so that short
+rem command line runs don't spend most of their time starting up.
+rem
+rem On Java 19 and up, the archive is written next to the jar
+rem (BatchFindAndReplace.jsa) by the first run, made again whenever the jar
+rem changes, and used by every other run. Older versions of Java ignore it (see
+rem bfr.sh for Java 13 to 18).
+rem
+rem Environment variables:
+rem   JAVA            The java executable to use (default: java)
+rem   BFR_JAR         The jar to run (default: BatchFindAndReplace.jar next to
+rem                   this script)
+rem   BFR_CDS_ARCHIVE The archive to use (default: the jar's name, with .jsa)
+rem   BFR_CDS         Set to 0 to run without the archive
+rem   BFR_JAVA_OPTS   Extra options for the JVM (such as -Xmx2g)
+
+setlocal
+if not defined JAVA set "JAVA=java"
+if not defined BFR_JAR set "BFR_JAR=%~dp0BatchFindAndReplace.jar"
+if not defined BFR_CDS_ARCHIVE for %%J in ("%BFR_JAR%") do set "BFR_CDS_ARCHIVE=%%~dpnJ.jsa"
+
+set "CDS_OPTS="
+if not "%BFR_CDS%"=="0" set CDS_OPTS=-XX:+IgnoreUnrecognizedVMOptions -XX:+AutoCreateSharedArchive "-XX:SharedArchiveFile=%BFR_CDS_ARCHIVE%"
+
+"%JAVA%" %CDS_OPTS% %BFR_JAVA_OPTS% -jar "%BFR_JAR%" %*
+exit /b %ERRORLEVEL%
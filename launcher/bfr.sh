@@ -0,0 +1,44 @@
+#!/bin/sh
+# Launches BatchFindAndReplace with an application class data sharing (AppCDS)
+# archive, which holds its classes already parsed and verified so that short
+# command line runs don't spend most of their time starting up.
+#
+# The archive is written next to the jar (BatchFindAndReplace.jsa) by the
+# first run, and is used by every run after that. It is made again whenever
+# the jar is newer than it. Java 19 and up manage the archive themselves;
+# Java 13 to 18 write it at the end of a run; older versions run without it.
+#
+# Environment variables:
+#   JAVA            The java executable to use (default: java)
+#   BFR_JAR         The jar to run (default: BatchFindAndReplace.jar next to
+#                   this script)
+#   BFR_CDS_ARCHIVE The archive to use (default: the jar's name, with .jsa)
+#   BFR_CDS         Set to 0 to run without the archive
+#   BFR_JAVA_OPTS   Extra options for the JVM (such as -Xmx2g)
+
+dir=$(cd "$(dirname "$0")" && pwd)
+jar=${BFR_JAR:-$dir/BatchFindAndReplace.jar}
+jsa=${BFR_CDS_ARCHIVE:-${jar%.jar}.jsa}
+java=${JAVA:-java}
+
+# "1.8.0_292" is Java 8; "17.0.2" is Java 17:
+version=$("$java" -version 2>&1 | sed -n 's/.*version "\([0-9]*\)[^"]*".*/\1/p' | head -n 1)
+if [ "$version" = "1" ]; then
+	version=8
+fi
+
+set -- -jar "$jar" "$@"
+if [ "${BFR_CDS:-1}" != "0" ] && [ -n "$version" ]; then
+	if [ "$version" -ge 19 ]; then
+		set -- -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile="$jsa" "$@"
+	elif [ "$version" -ge 13 ]; then
+		if [ -f "$jsa" ] && [ "$jsa" -nt "$jar" ]; then
+			set -- -XX:SharedArchiveFile="$jsa" "$@"
+		else
+			set -- -XX:ArchiveClassesAtExit="$jsa" "$@"
+		fi
+	fi
+fi
+
+# shellcheck disable=SC2086
+exec "$java" $BFR_JAVA_OPTS "$@"
@@ -0,0 +1,83 @@
+#!/bin/sh
+# Soak and scale tests BatchFindAndReplace against synthetic trees (see the
+# SoakTest class): huge numbers of small files, a large tree of mixed sizes,
+# deeply nested folders and a single huge file. Each tree is generated the
+# first time it is needed, from a fixed seed, and kept for later runs so that
+# runs before and after an upgrade search exactly the same files.
+#
+# Every scenario is searched in a JVM of its own, and its throughput, peak
+# resident set size, peak heap and garbage collection are appended to the
+# report. The last run of each scenario is then compared with the one before.
+# The script fails (exits with 1) if any search fails or doesn't replace
+# every needle that was planted in its tree.
+#
+# Usage: soak-test.sh [search options]   (such as -fileWorkers 4; they are
+#                                         passed on to every search)
+#
+# Environment variables:
+#   JAVA               The java executable to use (default: java)
+#   BFR_JAR            The jar to run (default: BatchFindAndReplace.jar next
+#                      to this script)
+#   BFR_TOOLS          The compiled tools source folder, which holds the
+#                      SoakTest class (default: tools next to this script)
+#   BFR_JAVA_OPTS      Extra options for the JVM (such as -Xmx2g)
+#   BFR_SOAK_DIR       Where the trees, their output and the report are kept
+#                      (default: $TMPDIR/bfr-soak)
+#   BFR_SOAK_SCALE     small (default; a few GiB in all) or full (10 million
+#                      files, a 100 GiB tree and a 100 GiB file; needs about
+#                      twice that much free disk space for the output)
+#   BFR_SOAK_SCENARIOS The scenarios to run (default: "many-small mixed deep
+#                      huge-file")
+
+dir=$(cd "$(dirname "$0")" && pwd)
+jar=${BFR_JAR:-$dir/BatchFindAndReplace.jar}
+tools=${BFR_TOOLS:-$dir/tools}
+java=${JAVA:-java}
+work=${BFR_SOAK_DIR:-${TMPDIR:-/tmp}/bfr-soak}
+scale=${BFR_SOAK_SCALE:-small}
+if [ ! -f "$jar" ]; then
+	echo "Jar \"$jar\" not found (set BFR_JAR)" >&2
+	exit 2
+fi
+if [ ! -d "$tools" ]; then
+	echo "Tools folder \"$tools\" not found (set BFR_TOOLS)" >&2
+	exit 2
+fi
+mkdir -p "$work" || exit 2
+
+# Prints the options that the given scenario's tree is generated with:
+tree_options() {
+	case "$scale:$1" in
+	small:many-small) echo "-files 100k -sizes 1kb:60,8kb:30,64kb:10 -filesPerFolder 500 -fanout 32 -binary 0.05 -duplicates 0.1" ;;
+	full:many-small) echo "-files 10m -sizes 1kb:60,8kb:30,64kb:10 -filesPerFolder 500 -fanout 32 -binary 0.05 -duplicates 0.1" ;;
+	small:mixed) echo "-files 5k -binary 0.1 -duplicates 0.2" ;;
+	full:mixed) echo "-files 500k -binary 0.1 -duplicates 0.2" ;;
+	small:deep) echo "-files 10k -sizes 4kb -filesPerFolder 50 -depth 200 -fanout 2" ;;
+	full:deep) echo "-files 100k -sizes 4kb -filesPerFolder 50 -depth 200 -fanout 2" ;;
+	small:huge-file) echo "-files 0 -huge 1x2gb" ;;
+	full:huge-file) echo "-files 0 -huge 1x100gb" ;;
+	*) return 1 ;;
+	esac
+}
+
+soak() {
+	# shellcheck disable=SC2086
+	"$java" $BFR_JAVA_OPTS -cp "$jar:$tools" com.gmail.br45entei.main.SoakTest "$@"
+}
+
+failed=0
+for scenario in ${BFR_SOAK_SCENARIOS:-many-small mixed deep huge-file}; do
+	options=$(tree_options "$scenario") || { echo "Unknown scenario \"$scenario\" (or scale \"$scale\")" >&2; exit 2; }
+	tree="$work/$scale-$scenario"
+	if [ ! -f "$tree.soak" ]; then
+		rm -rf "$tree"
+		echo "Generating tree \"$tree\"..."
+		# shellcheck disable=SC2086
+		soak generate "$tree" $options || exit 2
+	fi
+	echo "Running scenario \"$scenario\"..."
+	soak run "$tree" -clean -label "$scale-$scenario" -report "$work/soak-report.tsv" "$@" || failed=1
+	rm -rf "$tree-out"
+done
+soak compare "$work/soak-report.tsv"
+exit $failed
@@ -0,0 +1,66 @@
+#!/bin/sh
+# Measures how long a short command line run of BatchFindAndReplace takes from
+# launch to exit, with and without the AppCDS archive (see bfr.sh), so that
+# startup time regressions are caught.
+#
+# Each run searches a small folder that is created for the benchmark, and the
+# median of several runs is reported in milliseconds. If BFR_STARTUP_LIMIT_MS
+# is set, the script fails (exits with 1) when the median run with the archive
+# takes longer than that.
+#
+# Usage: startup-benchmark.sh [runs]   (default: 10 runs; needs GNU date)
+#
+# Environment variables: JAVA, BFR_JAR and BFR_JAVA_OPTS as for bfr.sh, and
+# BFR_STARTUP_LIMIT_MS.
+
+runs=${1:-10}
+dir=$(cd "$(dirname "$0")" && pwd)
+jar=${BFR_JAR:-$dir/BatchFindAndReplace.jar}
+if [ ! -f "$jar" ]; then
+	echo "Jar \"$jar\" not found (set BFR_JAR)" >&2
+	exit 2
+fi
+work=$(mktemp -d "${TMPDIR:-/tmp}/bfr-startup.XXXXXX") || exit 2
+trap 'rm -rf "$work"' EXIT
+mkdir -p "$work/src/sub"
+for i in 1 2 3 4 5; do
+	printf 'foo line %s\nbar line %s\n' "$i" "$i" > "$work/src/file$i.txt"
+	printf 'foo %s\n' "$i" > "$work/src/sub/file$i.txt"
+done
+export BFR_JAR="$jar"
+export BFR_CDS_ARCHIVE="$work/startup.jsa"
+
+# Runs the search once, printing how long it took in milliseconds:
+run() {
+	rm -rf "$work/dest"
+	start=$(date +%s%N)
+	"$dir/bfr.sh" -source "$work/src" -dest "$work/dest" -find foo -replace baz -recursive -noPreScan -quiet > /dev/null 2>&1 || return 1
+	end=$(date +%s%N)
+	echo $(((end - start) / 1000000))
+}
+
+# Prints the median of the numbers on its input:
+median() {
+	sort -n | awk '{ v[NR] = $1 } END { if(NR == 0) exit 1; print (NR % 2) ? v[(NR + 1) / 2] : int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+# Runs the search the given number of times, printing the median time:
+measure() {
+	i=0
+	while [ "$i" -lt "$runs" ]; do
+		run || { echo "The benchmark run failed" >&2; exit 2; }
+		i=$((i + 1))
+	done | median
+}
+
+without=$(BFR_CDS=0 measure) || exit 2
+#The first run with the archive creates it:
+run > /dev/null || { echo "The benchmark run failed" >&2; exit 2; }
+with=$(measure) || exit 2
+echo "Startup without the AppCDS archive: $without ms"
+echo "Startup with the AppCDS archive:    $with ms"
+if [ -n "$BFR_STARTUP_LIMIT_MS" ] && [ "$with" -gt "$BFR_STARTUP_LIMIT_MS" ]; then
+	echo "Startup took longer than the limit of $BFR_STARTUP_LIMIT_MS ms" >&2
+	exit 1
+fi
+exit 0
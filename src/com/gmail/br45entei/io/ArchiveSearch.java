@@ -0,0 +1,535 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/** Searches through the entries of a ZIP archive (such as a <tt>.jar</tt>
+ * file), re-packing only the entries that contain a search-string.<br>
+ * The archive's central directory is read to find its entries, and each
+ * entry that can be searched is inflated and searched line-by-line with the
+ * same {@link SearchPlan} that is used for files. Entries that don't contain
+ * any search-strings (and entries that can't be searched, such as encrypted
+ * ones, nested archives and directories) are copied over raw, without being
+ * inflated and deflated again, so re-packing an archive costs little more
+ * than copying it plus compressing the entries that changed.<br>
+ * Unlike files, changed entries keep their own line endings.<br>
+ * <br>
+ * As with {@link ChunkedFileSearch}, the output is written to a temporary
+ * file that replaces the destination file once the whole archive has been
+ * searched, and nothing is written at all if no matches are found.
+ * Multi-disk and ZIP64 archives are not supported; {@link #run()} throws a
+ * {@link ZipException} for them (and for corrupt archives) without touching
+ * the destination file, so that they can be searched as plain files
+ * instead.
+ * 
+ * @author Brian_Entei */
+final class ArchiveSearch {
+	
+	/** The file extensions of the archives that are searched through */
+	static final String[] ARCHIVE_EXTENSIONS = {".zip", ".jar", ".war", ".ear"};
+	
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final int LOCAL_HEADER_SIZE = 30, CENTRAL_HEADER_SIZE = 46, END_SIZE = 22;
+	/** The general purpose flags: encrypted, and sizes in a data descriptor */
+	private static final int FLAG_ENCRYPTED = 0x01, FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int STORED = 0, DEFLATED = 8;
+	/** The most bytes that are copied as-is at once (so that copies can be
+	 * charged against the search's rate limits as they go) */
+	private static final long TRANSFER_SIZE = 8L * 1024L * 1024L;
+	
+	/** @param name The name of a file
+	 * @return True if the given file is an archive that can be searched
+	 *         through */
+	static final boolean isArchive(String name) {
+		name = name.toLowerCase();
+		for(String extension : ARCHIVE_EXTENSIONS) {
+			if(name.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/** One entry of the archive, as listed in its central directory. */
+	private static final class Entry {
+		
+		final String name;
+		/** The entry's central directory header (with its name, extra field
+		 * and comment), which is patched and written back out */
+		final byte[] header;
+		final int flags, method;
+		final long crc, compressedSize, size, offset;
+		/** The offset of the entry's local header in the output (the same as
+		 * in the source archive until an earlier entry is re-packed) */
+		long newOffset;
+		
+		Entry(byte[] header) {
+			ByteBuffer buf = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+			this.header = header;
+			this.flags = buf.getShort(8) & 0xFFFF;
+			this.method = buf.getShort(10) & 0xFFFF;
+			this.crc = buf.getInt(16) & 0xFFFFFFFFL;
+			this.compressedSize = buf.getInt(20) & 0xFFFFFFFFL;
+			this.size = buf.getInt(24) & 0xFFFFFFFFL;
+			this.offset = this.newOffset = buf.getInt(42) & 0xFFFFFFFFL;
+			this.name = new String(header, CENTRAL_HEADER_SIZE, buf.getShort(28) & 0xFFFF, (this.flags & 0x800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+		}
+		
+	}
+	
+	private final FindReplaceSearch search;
+	private final SearchPlan plan;
+	private final File src, dest;
+	private final PrintStream pr;
+	private final boolean onlyTextEntries;
+	private final long maxEntrySize;
+	
+	private FileChannel in;
+	private FileChannel out = null;
+	private File temp = null;
+	private boolean writeFailed = false;
+	private final ByteArrayOutputStream replaced = new ByteArrayOutputStream();
+	
+	/** @param search The search that this archive is a part of
+	 * @param plan The search-strings to search for
+	 * @param src The archive to read from
+	 * @param dest The archive to write to (may be the same as the source
+	 *            archive)
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @param onlyTextEntries Whether or not to only search through entries
+	 *            with {@link FindReplaceSearch#commonTextFileExtensions common
+	 *            text file extensions} (and manifests)
+	 * @param maxEntrySize The largest (uncompressed) entry that will be read
+	 *            into memory and searched through */
+	ArchiveSearch(FindReplaceSearch search, SearchPlan plan, File src, File dest, PrintStream pr, boolean onlyTextEntries, long maxEntrySize) {
+		this.search = search;
+		this.plan = plan;
+		this.src = src;
+		this.dest = dest;
+		this.pr = pr;
+		this.onlyTextEntries = onlyTextEntries;
+		this.maxEntrySize = Math.min(Integer.MAX_VALUE - 8, maxEntrySize);
+	}
+	
+	/** @return True if the last call to {@link #run()} failed because the
+	 *         destination file could not be written to (rather than because
+	 *         the source file could not be read) */
+	boolean isWriteFailure() {
+		return this.writeFailed;
+	}
+	
+	/** Searches through the entries of the source archive, and writes the
+	 * re-packed archive to the destination file if any matches were found.
+	 * 
+	 * @return The number of matches that were found and replaced, or
+	 *         <tt>-1</tt> if the search was stopped before the archive was
+	 *         done
+	 * @throws ZipException Thrown if the source file is not an archive that
+	 *             can be searched through (the destination file is left
+	 *             untouched)
+	 * @throws IOException Thrown if the source file could not be read or the
+	 *             destination file could not be written to */
+	long run() throws IOException {
+		this.writeFailed = false;
+		long matches = 0L;
+		boolean success = false;
+		try(FileInputStream fis = new FileInputStream(this.src); FileChannel in = fis.getChannel()) {
+			this.in = in;
+			final long size = in.size();
+			final ByteBuffer end = this.readEnd(size);
+			final long directoryOffset = end.getInt(16) & 0xFFFFFFFFL;
+			final Entry[] entries = this.readEntries(end, directoryOffset);
+			//Each entry runs up to the start of the next one (so data descriptors and any padding are copied with it):
+			Entry[] byOffset = entries.clone();
+			Arrays.sort(byOffset, (a, b) -> Long.compare(a.offset, b.offset));
+			for(int i = 0; i < byOffset.length; i++) {
+				final Entry entry = byOffset[i];
+				final long entryEnd = i + 1 < byOffset.length ? byOffset[i + 1].offset : directoryOffset;
+				if(!this.search.pauseSleep()) {
+					return -1L;
+				}
+				int found = this.searchable(entry) ? this.searchEntry(entry, entryEnd) : 0;
+				if(found < 0) {
+					return -1L;
+				}
+				if(found > 0) {
+					matches += found;
+				} else if(this.out != null) {
+					entry.newOffset = this.out.position();
+					this.copy(entry.offset, entryEnd);
+				}
+				this.search.setFileProgress(entryEnd);
+			}
+			if(this.out != null) {
+				this.finish(entries, end);
+			}
+			success = true;
+		} catch(FindReplaceSearch.Stopped ex) {
+			return -1L;
+		} finally {
+			this.in = null;
+			if(this.out != null) {
+				try {
+					this.out.close();
+				} catch(IOException ex) {
+					if(success) {
+						this.writeFailed = true;
+						throw ex;
+					}
+				} finally {
+					this.out = null;
+				}
+			}
+			if(!success && this.temp != null) {
+				this.temp.delete();
+			}
+		}
+		if(matches > 0L) {
+			try {
+				this.search.commitOutput(this.temp, this.dest);
+			} catch(IOException ex) {
+				this.writeFailed = true;
+				this.temp.delete();
+				throw ex;
+			}
+		}
+		return matches;
+	}
+	
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		if(!this.search.throttleRead(buf.remaining())) {
+			throw new FindReplaceSearch.Stopped();
+		}
+		while(buf.hasRemaining()) {
+			int read = this.in.read(buf, position);
+			if(read == -1) {
+				throw new EOFException(String.format("\"%s\" was truncated while it was being searched", this.src.getAbsolutePath()));
+			}
+			position += read;
+		}
+		buf.flip();
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		this.readFully(buf, position);
+		return buf;
+	}
+	
+	/** Finds and reads the end of central directory record (including the
+	 * archive comment). */
+	private ByteBuffer readEnd(long size) throws IOException {
+		final int length = (int) Math.min(size, END_SIZE + 0xFFFF);
+		final ByteBuffer tail = this.read(size - length, length);
+		for(int i = length - END_SIZE; i >= 0; i--) {
+			if(tail.getInt(i) != END_OF_CENTRAL_DIRECTORY || i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) != length) {
+				continue;
+			}
+			if(i >= 20 && tail.getInt(i - 20) == ZIP64_LOCATOR) {
+				throw new ZipException("ZIP64 archives are not supported");
+			}
+			tail.position(i);
+			ByteBuffer end = tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+			if(end.getShort(4) != 0 || end.getShort(6) != 0 || end.getShort(8) != end.getShort(10)) {
+				throw new ZipException("Multi-disk archives are not supported");
+			}
+			return end;
+		}
+		throw new ZipException("Not a ZIP archive (no end of central directory record was found)");
+	}
+	
+	/** Reads the central directory's entries. */
+	private Entry[] readEntries(ByteBuffer end, long directoryOffset) throws IOException {
+		final int count = end.getShort(10) & 0xFFFF;
+		final long directorySize = end.getInt(12) & 0xFFFFFFFFL;
+		if(directoryOffset + directorySize > this.in.size() || directorySize > Integer.MAX_VALUE) {
+			throw new ZipException("Invalid central directory");
+		}
+		ByteBuffer directory = this.read(directoryOffset, (int) directorySize);
+		Entry[] entries = new Entry[count];
+		for(int i = 0; i < count; i++) {
+			if(directory.remaining() < CENTRAL_HEADER_SIZE || directory.getInt(directory.position()) != CENTRAL_HEADER) {
+				throw new ZipException("Invalid central directory header");
+			}
+			int position = directory.position();
+			int length = CENTRAL_HEADER_SIZE + (directory.getShort(position + 28) & 0xFFFF) + (directory.getShort(position + 30) & 0xFFFF) + (directory.getShort(position + 32) & 0xFFFF);
+			if(length > directory.remaining()) {
+				throw new ZipException("Invalid central directory header");
+			}
+			byte[] header = new byte[length];
+			directory.get(header);
+			Entry entry = entries[i] = new Entry(header);
+			if(entry.compressedSize == 0xFFFFFFFFL || entry.size == 0xFFFFFFFFL || entry.offset == 0xFFFFFFFFL) {
+				throw new ZipException("ZIP64 archives are not supported");
+			}
+			if(entry.offset >= directoryOffset) {
+				throw new ZipException(String.format("Invalid offset for entry \"%s\"", entry.name));
+			}
+		}
+		return entries;
+	}
+	
+	/** @return True if the given entry should be inflated and searched
+	 *         through */
+	private boolean searchable(Entry entry) {
+		if(entry.name.endsWith("/") || (entry.flags & FLAG_ENCRYPTED) != 0 || (entry.method != STORED && entry.method != DEFLATED)) {
+			return false;
+		}
+		if(entry.size > this.maxEntrySize || entry.compressedSize > this.maxEntrySize || isArchive(entry.name)) {
+			return false;
+		}
+		String name = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+		return !this.onlyTextEntries || FindReplaceSearch.isConsideredTextFile(name) || entry.name.equalsIgnoreCase("META-INF/MANIFEST.MF");
+	}
+	
+	/** Inflates and searches through the given entry, writing it out
+	 * re-packed if any matches were found. The memory that this takes is
+	 * reserved from the {@link MemoryBudget} first.
+	 * 
+	 * @return The number of matches that were found and replaced, or
+	 *         <tt>-1</tt> if the search was stopped */
+	private int searchEntry(Entry entry, long entryEnd) throws IOException {
+		//The compressed entry, its inflated contents, the replaced contents and the re-packed entry:
+		final long reserved = entry.compressedSize + 3L * entry.size;
+		final MemoryBudget budget = MemoryBudget.getGlobal();
+		if(!budget.reserve(reserved, this.search::pauseSleep)) {
+			return -1;
+		}
+		try {
+			return this.inflateAndSearch(entry, entryEnd);
+		} finally {
+			budget.release(reserved);
+		}
+	}
+	
+	/** @see #searchEntry(Entry, long) */
+	private int inflateAndSearch(Entry entry, long entryEnd) throws IOException {
+		ByteBuffer local = this.read(entry.offset, LOCAL_HEADER_SIZE);
+		if(local.getInt(0) != LOCAL_HEADER) {
+			throw new ZipException(String.format("Invalid local header for entry \"%s\"", entry.name));
+		}
+		final int localLength = LOCAL_HEADER_SIZE + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+		final long dataOffset = entry.offset + localLength;
+		if(dataOffset + entry.compressedSize > entryEnd) {
+			throw new ZipException(String.format("Invalid size for entry \"%s\"", entry.name));
+		}
+		final byte[] data = this.inflate(entry, this.read(dataOffset, (int) entry.compressedSize).array());
+		
+		final SearchPlan plan = this.plan;
+		final ByteArrayOutputStream replaced = this.replaced;
+		replaced.reset();
+		final int[] lastIndex = {0};
+		final boolean[] stopped = {false};
+		long lineNum = 1L;
+		int matches = 0;
+		int pos = 0;
+		while(pos < data.length && !stopped[0]) {
+			int newline = pos;
+			while(newline < data.length && data[newline] != '\n') {
+				newline++;
+			}
+			final long lineNumber = lineNum;
+			final int lineStart = pos, lineEnd = newline > pos && data[newline - 1] == '\r' ? newline - 1 : newline;
+			matches += plan.findMatches(data, pos, lineEnd, (offset, length, replacement) -> {
+				replaced.write(data, lastIndex[0], offset - lastIndex[0]);
+				replaced.write(replacement, 0, replacement.length);
+				this.search.recordMatch(this.src, entry.name, lineNumber, offset, data, lineStart, lineEnd, offset, length, replacement);
+				this.pr.println(String.format("\tFound \"%s\" in entry \"%s\"; Replacing with: \"%s\";", new String(data, offset, length, StandardCharsets.ISO_8859_1), entry.name, new String(replacement, StandardCharsets.ISO_8859_1)));
+				lastIndex[0] = offset + length;
+				stopped[0] = !this.search.pauseSleep();
+				return !stopped[0];
+			});
+			pos = newline + 1;
+			lineNum++;
+		}
+		if(stopped[0]) {
+			return -1;
+		}
+		if(matches == 0) {
+			return 0;
+		}
+		replaced.write(data, lastIndex[0], data.length - lastIndex[0]);
+		this.pr.println(String.format("\tRe-packing entry \"%s\"...", entry.name));
+		
+		final byte[] contents = replaced.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(contents, 0, contents.length);
+		final byte[] packed = entry.method == DEFLATED ? deflate(contents) : contents;
+		if(this.out == null) {
+			this.open();
+			this.copy(0L, entry.offset);
+		}
+		entry.newOffset = this.out.position();
+		//The sizes are known up front now, so the new entry never needs a data descriptor:
+		local.clear();
+		local.putShort(6, (short) (local.getShort(6) & ~FLAG_DATA_DESCRIPTOR));
+		local.putInt(14, (int) crc.getValue());
+		local.putInt(18, packed.length);
+		local.putInt(22, contents.length);
+		this.write(local);
+		this.copy(entry.offset + LOCAL_HEADER_SIZE, dataOffset);
+		this.write(ByteBuffer.wrap(packed));
+		ByteBuffer header = ByteBuffer.wrap(entry.header).order(ByteOrder.LITTLE_ENDIAN);
+		header.putShort(8, (short) (entry.flags & ~FLAG_DATA_DESCRIPTOR));
+		header.putInt(16, (int) crc.getValue());
+		header.putInt(20, packed.length);
+		header.putInt(24, contents.length);
+		return matches;
+	}
+	
+	private byte[] inflate(Entry entry, byte[] compressed) throws IOException {
+		byte[] data;
+		if(entry.method == STORED) {
+			data = compressed;
+		} else {
+			data = new byte[(int) entry.size];
+			Inflater inflater = new Inflater(true);
+			try {
+				inflater.setInput(compressed);
+				int length = 0;
+				while(length < data.length && !inflater.finished()) {
+					int inflated = inflater.inflate(data, length, data.length - length);
+					if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					length += inflated;
+				}
+				if(length != data.length) {
+					throw new ZipException(String.format("Invalid size for entry \"%s\"", entry.name));
+				}
+			} catch(DataFormatException ex) {
+				throw new ZipException(String.format("Invalid compressed data for entry \"%s\": %s", entry.name, ex.getMessage()));
+			} finally {
+				inflater.end();
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		if(crc.getValue() != entry.crc) {
+			throw new ZipException(String.format("Invalid CRC-32 for entry \"%s\"", entry.name));
+		}
+		return data;
+	}
+	
+	private static final byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream packed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+			byte[] buf = new byte[8192];
+			while(!deflater.finished()) {
+				int length = deflater.deflate(buf);
+				packed.write(buf, 0, length);
+			}
+			return packed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private void open() throws IOException {
+		this.temp = new File(this.dest.getPath().concat(ChunkedFileSearch.TEMP_FILE_SUFFIX));
+		try {
+			this.out = new FileOutputStream(this.temp).getChannel();
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+	private void write(ByteBuffer buf) throws IOException {
+		if(!this.search.throttleWrite(buf.remaining())) {
+			throw new FindReplaceSearch.Stopped();
+		}
+		try {
+			while(buf.hasRemaining()) {
+				this.out.write(buf);
+			}
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+	/** Copies the given range of the source archive to the output as-is. */
+	private void copy(long from, long to) throws IOException {
+		try {
+			while(from < to) {
+				long transferred = this.in.transferTo(from, Math.min(to - from, TRANSFER_SIZE), this.out);
+				if(transferred <= 0L) {
+					throw new EOFException(String.format("\"%s\" was truncated while it was being searched", this.src.getAbsolutePath()));
+				}
+				from += transferred;
+				if(!this.search.throttleRead(transferred) || !this.search.throttleWrite(transferred)) {
+					throw new FindReplaceSearch.Stopped();
+				}
+			}
+		} catch(EOFException | FindReplaceSearch.Stopped ex) {
+			throw ex;
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+	/** Writes out the central directory (with the entries' new offsets and
+	 * sizes) and the end of central directory record. */
+	private void finish(Entry[] entries, ByteBuffer end) throws IOException {
+		final long directoryOffset = this.out.position();
+		for(Entry entry : entries) {
+			ByteBuffer header = ByteBuffer.wrap(entry.header).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(42, (int) entry.newOffset);
+			this.write(header);
+		}
+		final long directorySize = this.out.position() - directoryOffset;
+		if(this.out.position() > 0xFFFFFFFFL) {
+			this.writeFailed = true;
+			throw new IOException(String.format("The re-packed archive \"%s\" would need ZIP64, which is not supported", this.dest.getAbsolutePath()));
+		}
+		ByteBuffer record = ByteBuffer.allocate(end.limit()).order(ByteOrder.LITTLE_ENDIAN);
+		record.put(end.duplicate());
+		record.putInt(12, (int) directorySize);
+		record.putInt(16, (int) directoryOffset);
+		record.flip();
+		this.write(record);
+	}
+	
+}
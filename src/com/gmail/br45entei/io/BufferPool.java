@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** A pool of direct {@link ByteBuffer}s that are reused by the threads that
+ * read and write files, so that copying thousands of small files (or a few
+ * huge ones) doesn't allocate a new buffer for each file.<br>
+ * Buffers come in power-of-two size classes between {@link #MIN_BUFFER_SIZE}
+ * and {@link #MAX_BUFFER_SIZE}, and each thread keeps one buffer of each
+ * size class that it has used.
+ * 
+ * @author Brian_Entei */
+public final class BufferPool {
+	
+	/** The block size that is assumed when the file system's actual block size
+	 * can't be determined */
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+	/** The smallest buffer size that will be handed out */
+	public static final int MIN_BUFFER_SIZE = 4096;
+	/** The largest buffer size that will be handed out */
+	public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+	
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+	
+	private static final ThreadLocal<ByteBuffer[]> buffers = ThreadLocal.withInitial(() -> new ByteBuffer[SIZE_CLASSES]);
+	
+	/** <tt>FileStore.getBlockSize()</tt> only exists on Java 10 and up */
+	private static final Method getBlockSize;
+	
+	static {
+		Method method;
+		try {
+			method = FileStore.class.getMethod("getBlockSize");
+		} catch(NoSuchMethodException | SecurityException ex) {
+			method = null;
+		}
+		getBlockSize = method;
+	}
+	
+	private BufferPool() {
+	}
+	
+	private static final int sizeClassOf(int size) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(MIN_BUFFER_SIZE, size) - 1);
+		return Math.min(SIZE_CLASSES - 1, shift - MIN_SHIFT);
+	}
+	
+	/** Returns the block size of the file system that the given file or folder
+	 * resides on.
+	 * 
+	 * @param file The file or folder to check
+	 * @return The block size of the file's file system, or
+	 *         {@link #DEFAULT_BLOCK_SIZE} if it couldn't be determined */
+	public static final int getBlockSize(File file) {
+		if(getBlockSize == null || file == null) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+		Path path = file.toPath();
+		while(path != null && !Files.exists(path)) {
+			path = path.getParent();
+		}
+		if(path == null) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+		try {
+			long blockSize = ((Long) getBlockSize.invoke(Files.getFileStore(path))).longValue();
+			return blockSize <= 0L || blockSize > MAX_BUFFER_SIZE || Long.bitCount(blockSize) != 1 ? DEFAULT_BLOCK_SIZE : (int) blockSize;
+		} catch(IOException | ReflectiveOperationException | RuntimeException ex) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+	}
+	
+	/** Picks a buffer size suitable for reading or writing a file of the given
+	 * size: small files get a buffer that is just large enough to hold them
+	 * (rounded up to the block size) so that they can be read with a single
+	 * call, and large files get the largest buffer available.
+	 * 
+	 * @param fileSize The size of the file that will be read or written
+	 * @param blockSize The block size of the file system the file resides on
+	 * @return The buffer size to use */
+	public static final int chooseBufferSize(long fileSize, int blockSize) {
+		blockSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, blockSize));
+		if(fileSize <= blockSize) {
+			return blockSize;
+		}
+		if(fileSize >= MAX_BUFFER_SIZE) {
+			return MAX_BUFFER_SIZE;
+		}
+		//Round up to the next power of two, which is always a multiple of the (power of two) block size:
+		return MIN_BUFFER_SIZE << sizeClassOf((int) fileSize);
+	}
+	
+	/** Takes a direct buffer of at least the given size out of the current
+	 * thread's pool, allocating a new one if the pool doesn't have one.<br>
+	 * The buffer should be given back with {@link #release(ByteBuffer)} once
+	 * it is no longer needed.
+	 * 
+	 * @param size The minimum size of the buffer (values larger than
+	 *            {@link #MAX_BUFFER_SIZE} are reduced to it)
+	 * @return A cleared direct buffer */
+	public static final ByteBuffer acquire(int size) {
+		int sizeClass = sizeClassOf(size);
+		ByteBuffer[] pool = buffers.get();
+		ByteBuffer buf = pool[sizeClass];
+		if(buf != null) {
+			pool[sizeClass] = null;
+			buf.clear();
+			return buf;
+		}
+		return ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+	}
+	
+	/** Gives the given buffer back to the current thread's pool so that it can
+	 * be reused.
+	 * 
+	 * @param buf The buffer that was returned by {@link #acquire(int)} */
+	public static final void release(ByteBuffer buf) {
+		if(buf == null || !buf.isDirect()) {
+			return;
+		}
+		int capacity = buf.capacity();
+		if(Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE || capacity > MAX_BUFFER_SIZE) {
+			return;
+		}
+		buffers.get()[sizeClassOf(capacity)] = buf;
+	}
+	
+}
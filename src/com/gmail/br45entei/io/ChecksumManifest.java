@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** A list of the files that a search wrote to its destination folder, each
+ * with its size and the CRC-32 of its contents, so that the destination can
+ * be {@link #verify(File, File, PrintStream) verified} later on without
+ * reading the source files again.<br>
+ * The checksums are worked out from the bytes as they are written (see
+ * {@link FindReplaceSearch#setManifestFile(File)}), so writing the manifest
+ * doesn't read anything back. Only output that is written without passing
+ * through the search (re-packed archive entries and hard links) is read back
+ * once to be checksummed.<br>
+ * <br>
+ * The manifest is a text file with one line per file:
+ * <tt>&lt;crc32 in hex&gt; &lt;size&gt; &lt;path&gt;</tt>, where the path is
+ * relative to the destination folder and uses <tt>/</tt> as its separator.
+ * Lines that start with <tt>#</tt> are comments. A file that was written more
+ * than once (such as by a watching search) is listed again each time, and
+ * the last entry counts.
+ * 
+ * @author Brian_Entei */
+public final class ChecksumManifest implements Closeable {
+	
+	/** The file extension that manifests are written with by default */
+	public static final String FILE_EXTENSION = ".crc32";
+	
+	private static final String HEADER = "# Batch Find & Replace checksum manifest: <crc32> <size> <path>";
+	
+	private final File file;
+	private final Writer out;
+	private int count = 0;
+	
+	/** Opens a manifest for writing.
+	 * 
+	 * @param file The manifest file
+	 * @param append Whether to append to the manifest (when resuming a
+	 *            search) rather than starting it over
+	 * @throws IOException Thrown if the manifest could not be opened */
+	ChecksumManifest(File file, boolean append) throws IOException {
+		this.file = file;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null) {
+			parent.mkdirs();
+		}
+		append &= file.isFile() && file.length() > 0L;
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8), 65536);
+		if(!append) {
+			this.out.write(HEADER);
+			this.out.write('\n');
+		}
+	}
+	
+	/** @return The manifest file */
+	File getFile() {
+		return this.file;
+	}
+	
+	/** @return The number of files that have been listed in this manifest since
+	 *         it was opened */
+	synchronized int getCount() {
+		return this.count;
+	}
+	
+	/** Lists a file that was written to the destination folder.
+	 * 
+	 * @param path The file's path, relative to the destination folder
+	 * @param size The file's size
+	 * @param checksum The CRC-32 of the file's contents
+	 * @throws IOException Thrown if the manifest could not be written to */
+	synchronized void record(String path, long size, long checksum) throws IOException {
+		if(File.separatorChar != '/') {
+			path = path.replace(File.separatorChar, '/');
+		}
+		while(path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		this.out.write(String.format("%08x %s %s\n", Long.valueOf(checksum), Long.toString(size), path));
+		this.count++;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		this.out.close();
+	}
+	
+	/** Reads a file and works out the CRC-32 of its contents.
+	 * 
+	 * @param file The file to read
+	 * @return The file's CRC-32
+	 * @throws IOException Thrown if the file could not be read */
+	static final long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try(FileInputStream fis = new FileInputStream(file); FileChannel in = fis.getChannel()) {
+			ByteBuffer buf = BufferPool.acquire(BufferPool.chooseBufferSize(in.size(), BufferPool.DEFAULT_BLOCK_SIZE));
+			try {
+				while(in.read(buf) != -1) {
+					buf.flip();
+					crc.update(buf);
+					buf.clear();
+				}
+			} finally {
+				BufferPool.release(buf);
+			}
+		}
+		return crc.getValue();
+	}
+	
+	/** Checks the files that are listed in a manifest against the files in the
+	 * given folder, printing each file that is missing or doesn't match.
+	 * 
+	 * @param manifest The manifest file
+	 * @param folder The folder that the manifest lists the files of (the
+	 *            destination folder of the search that wrote it)
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @return The number of files that are missing or don't match
+	 * @throws IOException Thrown if the manifest could not be read */
+	public static final int verify(File manifest, File folder, PrintStream pr) throws IOException {
+		Map<String, long[]> entries = new LinkedHashMap<>();
+		try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNum = 0;
+			while((line = br.readLine()) != null) {
+				lineNum++;
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int space = line.indexOf(' '), space2 = space < 0 ? -1 : line.indexOf(' ', space + 1);
+				if(space2 < 0) {
+					throw new IOException(String.format("Line %s of manifest \"%s\" is malformed: %s", Integer.toString(lineNum), manifest.getAbsolutePath(), line));
+				}
+				try {
+					entries.put(line.substring(space2 + 1), new long[] {Long.parseLong(line.substring(0, space), 16), Long.parseLong(line.substring(space + 1, space2))});
+				} catch(NumberFormatException ex) {
+					throw new IOException(String.format("Line %s of manifest \"%s\" is malformed: %s", Integer.toString(lineNum), manifest.getAbsolutePath(), line), ex);
+				}
+			}
+		}
+		pr.println(String.format("Verifying %s file(s) in \"%s\" against manifest \"%s\"...", Integer.toString(entries.size()), folder.getAbsolutePath(), manifest.getAbsolutePath()));
+		int failures = 0;
+		for(Map.Entry<String, long[]> entry : entries.entrySet()) {
+			final File file = new File(folder, entry.getKey().replace('/', File.separatorChar));
+			final long checksum = entry.getValue()[0], size = entry.getValue()[1];
+			if(!file.isFile()) {
+				pr.println(String.format("\tMissing: \"%s\"", file.getAbsolutePath()));
+				failures++;
+				continue;
+			}
+			if(file.length() != size) {
+				pr.println(String.format("\tSize mismatch: \"%s\" is %s bytes long, but should be %s", file.getAbsolutePath(), Long.toString(file.length()), Long.toString(size)));
+				failures++;
+				continue;
+			}
+			try {
+				long actual = checksum(file);
+				if(actual != checksum) {
+					pr.println(String.format("\tChecksum mismatch: \"%s\" has a CRC-32 of %08x, but should have %08x", file.getAbsolutePath(), Long.valueOf(actual), Long.valueOf(checksum)));
+					failures++;
+				}
+			} catch(IOException ex) {
+				pr.println(String.format("\tUnreadable: \"%s\": %s", file.getAbsolutePath(), ex.getMessage()));
+				failures++;
+			}
+		}
+		pr.println(String.format("Verification complete: %s of %s file(s) passed.", Integer.toString(entries.size() - failures), Integer.toString(entries.size())));
+		pr.flush();
+		return failures;
+	}
+	
+}
@@ -0,0 +1,568 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+/** Searches through a single large file by splitting it into chunks that are
+ * matched in parallel on a {@link ForkJoinPool}, and then stitching the
+ * matches back together in order.<br>
+ * The output is identical to that of the in-memory search in
+ * {@link FindReplaceSearch#findAndReplace(File, File, PrintStream)}: matches
+ * never span lines, the <tt>\r</tt> of a <tt>\r\n</tt> line ending is never
+ * matched, and the text between matches is copied over as it is (or, if line
+ * endings aren't being {@link FindReplaceSearch#setLineEndingsPreserved(boolean)
+ * preserved}, with its line endings written out as the system's line
+ * separator). When line endings are preserved, the text before the first
+ * match is transferred straight from the source file to the output file
+ * without being read into memory.<br>
+ * <br>
+ * Each chunk is read together with as many of the following bytes as the
+ * longest search-string is long, so that every match that starts inside of
+ * the chunk can be found without looking at the next one. A chunk that starts
+ * in the middle of a line can't know whether a match from the previous chunk
+ * runs into it, so its first line is searched as if none does; while
+ * stitching, if one does, that line is searched again from the end of that
+ * match until the two searches agree (which rarely takes more than one
+ * match).<br>
+ * Up to two chunks per thread are in flight at once, as long as their
+ * buffers fit into the {@link MemoryBudget}; when it runs out, only one chunk
+ * is read at a time.<br>
+ * The output is written to a temporary file that replaces the destination
+ * file once the whole file has been searched, so a stopped search never
+ * leaves a partially written file behind (and the source file can be the
+ * destination file).
+ * 
+ * @author Brian_Entei */
+final class ChunkedFileSearch {
+	
+	/** The size of the chunks that files are split into */
+	static final int CHUNK_SIZE = 8 * 1024 * 1024;
+	/** How many bytes of a chunk are searched through between checks for
+	 * whether the search was paused or stopped, or the file timed out */
+	static final int CHECK_INTERVAL = 64 * 1024;
+	/** The suffix of the temporary file that the output is written to */
+	static final String TEMP_FILE_SUFFIX = ".bfrtmp";
+	
+	private static volatile ForkJoinPool pool = null;
+	
+	/** @return The pool that chunks are matched on, which has one thread per
+	 *         available processor */
+	static final ForkJoinPool getPool() {
+		ForkJoinPool pool = ChunkedFileSearch.pool;
+		if(pool == null) {
+			synchronized(ChunkedFileSearch.class) {
+				if((pool = ChunkedFileSearch.pool) == null) {
+					ChunkedFileSearch.pool = pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+				}
+			}
+		}
+		return pool;
+	}
+	
+	/** The matches found within one chunk of the file. */
+	private static final class Chunk {
+		
+		final long start, end;
+		/** The offset in the file of <tt>data[0]</tt> */
+		long base;
+		byte[] data;
+		int length;
+		/** The end of the chunk's first line's contents, and the start of its
+		 * second line (or {@link Integer#MAX_VALUE} if it has none). Matches
+		 * before <tt>syncFrom</tt> may have to be searched for again if the
+		 * first line started in the previous chunk. */
+		int firstLineEnd, syncFrom = Integer.MAX_VALUE;
+		int count = 0;
+		int[] offsets = new int[64], lengths = new int[64];
+		byte[][] replacements = new byte[64][];
+		IOException error = null;
+		boolean aborted = false;
+		
+		Chunk(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		
+		void add(int offset, int length, byte[] replacement) {
+			if(this.count == this.offsets.length) {
+				this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+				this.lengths = Arrays.copyOf(this.lengths, this.count * 2);
+				this.replacements = Arrays.copyOf(this.replacements, this.count * 2);
+			}
+			this.offsets[this.count] = offset;
+			this.lengths[this.count] = length;
+			this.replacements[this.count++] = replacement;
+		}
+		
+	}
+	
+	private final FindReplaceSearch search;
+	private final SearchPlan plan;
+	private final File src, dest;
+	private final PrintStream pr;
+	private final int bufferSize;
+	private final int maxLength;
+	/** The size of the chunks that the file is split into */
+	int chunkSize = CHUNK_SIZE;
+	private final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+	/** Whether the text between matches is written out as it is */
+	private final boolean verbatim;
+	/** Recycled chunk buffers */
+	private final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+	
+	private FileChannel in;
+	private long size;
+	private OutputStream out = null;
+	/** The channel of the output file, if bytes can be transferred to it
+	 * directly (without passing through {@link #out}) */
+	private FileChannel channel = null;
+	private File temp = null;
+	private boolean pendingCR = false;
+	private boolean writeFailed = false;
+	/** The bytes that have been written since the last chunk was charged
+	 * against the write rate limit */
+	private long unthrottled = 0L;
+	
+	/** @param search The search that this file is a part of
+	 * @param plan The search-strings to search for
+	 * @param src The file to read from
+	 * @param dest The file to write to (may be the same as the source file)
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @param bufferSize The size of the buffer to write with */
+	ChunkedFileSearch(FindReplaceSearch search, SearchPlan plan, File src, File dest, PrintStream pr, int bufferSize) {
+		this.search = search;
+		this.plan = plan;
+		this.src = src;
+		this.dest = dest;
+		this.pr = pr;
+		this.bufferSize = bufferSize;
+		this.maxLength = Math.max(1, plan.getMaxPatternLength());
+		this.verbatim = search.isLineEndingsPreserved();
+	}
+	
+	/** @return True if the last call to {@link #run()} failed because the
+	 *         destination file could not be written to (rather than because
+	 *         the source file could not be read) */
+	boolean isWriteFailure() {
+		return this.writeFailed;
+	}
+	
+	/** Searches through the source file, and writes the output to the
+	 * destination file if any matches were found.
+	 * 
+	 * @return The number of matches that were found and replaced, or
+	 *         <tt>-1</tt> if the search was stopped before the file was done
+	 * @throws IOException Thrown if the source file could not be read or the
+	 *             destination file could not be written to */
+	long run() throws IOException {
+		this.writeFailed = false;
+		this.unthrottled = 0L;
+		final ForkJoinPool pool = getPool();
+		final int window = pool.getParallelism() * 2;
+		final MemoryBudget budget = MemoryBudget.getGlobal();
+		//The chunks are searched through on the pool's threads, so they are handed this file's timeout:
+		final BooleanSupplier check = this.search.getFileCheck();
+		long matches = 0L, reserved = 0L, chunkBytes = 0L;
+		boolean success = false;
+		try(FileInputStream fis = new FileInputStream(this.src); FileChannel in = fis.getChannel()) {
+			this.in = in;
+			this.size = in.size();
+			final long chunkCount = (this.size + this.chunkSize - 1L) / this.chunkSize;
+			chunkBytes = Math.min(this.chunkSize + this.maxLength + 1L, this.size);
+			ArrayDeque<ForkJoinTask<Chunk>> tasks = new ArrayDeque<>();
+			long submitted = 0L;
+			long position = 0L;//Everything before this has been handled
+			try {
+				for(long index = 0L; index < chunkCount; index++) {
+					//Only the first chunk in flight may wait for the memory budget (so that this never waits on itself):
+					while(submitted < chunkCount && tasks.size() < window && (tasks.isEmpty() ? budget.reserve(chunkBytes, this.search::pauseSleep) : budget.tryReserve(chunkBytes))) {
+						reserved += chunkBytes;
+						final long start = submitted++ * this.chunkSize;
+						tasks.add(pool.submit(() -> this.scan(start, Math.min(this.size, start + this.chunkSize), check)));
+					}
+					if(tasks.isEmpty()) {
+						return -1L;
+					}
+					Chunk chunk = tasks.poll().join();
+					if(chunk.error != null) {
+						throw chunk.error;
+					}
+					if(chunk.aborted || !this.search.pauseSleep()) {
+						return -1L;
+					}
+					long[] result = this.stitch(chunk, position);
+					position = result[0];
+					matches += result[1];
+					if(!this.search.throttleWrite(this.unthrottled)) {
+						return -1L;
+					}
+					this.unthrottled = 0L;
+					this.buffers.add(chunk.data);
+					budget.release(chunkBytes);
+					reserved -= chunkBytes;
+					this.search.setFileProgress(chunk.end);
+				}
+			} catch(FindReplaceSearch.Stopped ex) {
+				return -1L;
+			} finally {
+				for(ForkJoinTask<Chunk> task : tasks) {
+					task.cancel(false);
+				}
+				budget.release(reserved);
+			}
+			if(this.out != null) {
+				this.finish();
+			}
+			success = true;
+		} finally {
+			this.in = null;
+			if(this.out != null) {
+				try {
+					this.out.close();
+				} catch(IOException ex) {
+					if(success) {
+						this.writeFailed = true;
+						throw ex;
+					}
+				} finally {
+					this.out = null;
+					this.channel = null;
+				}
+			}
+			if(!success && this.temp != null) {
+				this.temp.delete();
+			}
+		}
+		if(matches > 0L) {
+			try {
+				this.search.commitOutput(this.temp, this.dest);
+			} catch(IOException ex) {
+				this.writeFailed = true;
+				this.temp.delete();
+				throw ex;
+			}
+		}
+		return matches;
+	}
+	
+	private static final int indexOf(byte[] data, byte b, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** Reads and searches through one chunk. Called on the pool's threads.
+	 * 
+	 * @param check The file's {@link FindReplaceSearch#getFileCheck() check},
+	 *            which is called every {@link #CHECK_INTERVAL} bytes */
+	private Chunk scan(long start, long end, BooleanSupplier check) {
+		final Chunk chunk = new Chunk(start, end);
+		final long readFrom = Math.max(0L, start - 1L), readTo = Math.min(this.size, end + this.maxLength);
+		final int length = (int) (readTo - readFrom);
+		if(!check.getAsBoolean() || !this.search.throttleRead(length)) {
+			chunk.aborted = true;
+			return chunk;
+		}
+		byte[] data = this.buffers.poll();
+		if(data == null || data.length < length) {
+			data = new byte[(int) Math.min(this.chunkSize + this.maxLength + 1L, this.size)];
+		}
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+			long position = readFrom;
+			while(buf.hasRemaining()) {
+				int read = this.in.read(buf, position);
+				if(read == -1) {
+					throw new EOFException(String.format("\"%s\" was truncated while it was being searched", this.src.getAbsolutePath()));
+				}
+				position += read;
+			}
+		} catch(IOException ex) {
+			chunk.error = ex;
+			return chunk;
+		}
+		chunk.base = readFrom;
+		chunk.data = data;
+		chunk.length = length;
+		
+		final int chunkEnd = (int) (end - readFrom);
+		int pos = (int) (start - readFrom);
+		final boolean lineStart = start == 0L || data[pos - 1] == '\n';
+		boolean first = true;
+		int checked = pos;
+		while(pos < chunkEnd) {
+			if(pos - checked >= CHECK_INTERVAL) {
+				checked = pos;
+				if(!check.getAsBoolean()) {
+					chunk.aborted = true;
+					return chunk;
+				}
+			}
+			int newline = indexOf(data, (byte) '\n', pos, length);
+			int lineEnd;
+			if(newline != -1) {
+				lineEnd = newline > pos && data[newline - 1] == '\r' ? newline - 1 : newline;
+			} else if(readTo == this.size) {
+				lineEnd = length > pos && data[length - 1] == '\r' ? length - 1 : length;
+			} else {
+				lineEnd = length - 1;//The last byte is only there to tell whether a '\r' ends the line
+			}
+			if(first) {
+				first = false;
+				chunk.firstLineEnd = lineEnd;
+				chunk.syncFrom = lineStart ? pos : (newline == -1 ? Integer.MAX_VALUE : newline + 1);
+			}
+			this.plan.findMatches(data, pos, lineEnd, (offset, matchLength, replacement) -> {
+				if(offset >= chunkEnd) {
+					return false;
+				}
+				chunk.add(offset, matchLength, replacement);
+				return true;
+			});
+			if(newline == -1) {
+				break;
+			}
+			pos = newline + 1;
+		}
+		return chunk;
+	}
+	
+	/** Writes out the given chunk's matches (and the text between them),
+	 * correcting the matches in its first line if a match from the previous
+	 * chunk ran into it.
+	 * 
+	 * @param chunk The chunk to write out
+	 * @param position The offset in the file that everything before has been
+	 *            handled
+	 * @return The new position, and the number of matches that were written */
+	private long[] stitch(final Chunk chunk, long position) throws IOException {
+		final byte[] data = chunk.data;
+		final int chunkEnd = (int) (chunk.end - chunk.base);
+		long matches = 0L;
+		int i = 0;
+		if(position > chunk.start) {
+			//A match from the previous chunk ended inside of this chunk's first line:
+			int resume = (int) (position - chunk.base);
+			while(true) {
+				int previousEnd = (int) (chunk.start - chunk.base);
+				for(i = 0; i < chunk.count && chunk.offsets[i] < resume; i++) {
+					previousEnd = chunk.offsets[i] + chunk.lengths[i];
+				}
+				if(previousEnd <= resume) {
+					break;//This chunk's own search was already past this point, so it agrees from here on
+				}
+				final int[] match = {-1, -1};
+				final byte[][] replacement = {null};
+				this.plan.findMatches(data, resume, chunk.firstLineEnd, (offset, length, bytes) -> {
+					if(offset < chunkEnd) {
+						match[0] = offset;
+						match[1] = length;
+						replacement[0] = bytes;
+					}
+					return false;
+				});
+				if(match[0] == -1) {
+					//There are no more matches in the first line, so skip the ones that this chunk found there:
+					while(i < chunk.count && chunk.offsets[i] < chunk.syncFrom) {
+						i++;
+					}
+					break;
+				}
+				position = this.emit(chunk, position, match[0], match[1], replacement[0]);
+				matches++;
+				resume = (int) (position - chunk.base);
+			}
+		}
+		for(; i < chunk.count; i++) {
+			position = this.emit(chunk, position, chunk.offsets[i], chunk.lengths[i], chunk.replacements[i]);
+			matches++;
+		}
+		if(position < chunk.end) {
+			if(this.out != null) {
+				this.writeSource(data, (int) (position - chunk.base), (int) (chunk.end - position));
+			}
+			position = chunk.end;
+		}
+		return new long[] {position, matches};
+	}
+	
+	/** Writes out the text between the given position and the given match,
+	 * followed by the match's replacement.
+	 * 
+	 * @return The offset in the file of the end of the match */
+	private long emit(Chunk chunk, long position, int offset, int length, byte[] replacement) throws IOException {
+		final byte[] data = chunk.data;
+		final long matchStart = chunk.base + offset;
+		if(this.out == null) {
+			this.open();
+			this.copySource(0L, matchStart);
+		} else {
+			this.writeSource(data, (int) (position - chunk.base), (int) (matchStart - position));
+		}
+		this.search.recordMatch(this.src, null, -1L, matchStart, data, 0, chunk.length, offset, length, replacement);
+		this.pr.println(String.format("\tFound \"%s\" at byte %s; Replacing with: \"%s\";", new String(data, offset, length, StandardCharsets.ISO_8859_1), Long.toString(matchStart), new String(replacement, StandardCharsets.ISO_8859_1)));
+		if(this.pendingCR) {
+			this.pendingCR = false;
+			this.write(new byte[] {'\r'}, 0, 1);
+		}
+		this.write(replacement, 0, replacement.length);
+		return matchStart + length;
+	}
+	
+	private void open() throws IOException {
+		this.temp = new File(this.dest.getPath().concat(TEMP_FILE_SUFFIX));
+		try {
+			FileOutputStream fos = new FileOutputStream(this.temp);
+			OutputStream checked = this.search.checked(fos);
+			this.out = new BufferedOutputStream(checked, this.bufferSize);
+			//Bytes can only skip the output stream if they don't need to be checksummed on the way:
+			this.channel = checked == fos ? fos.getChannel() : null;
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+	private void write(byte[] data, int offset, int length) throws IOException {
+		try {
+			this.out.write(data, offset, length);
+			this.unthrottled += length;
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+	/** Writes out text from the source file, replacing its line endings with
+	 * the system's line separator unless they are being preserved. */
+	private void writeSource(byte[] data, int offset, int length) throws IOException {
+		if(length <= 0) {
+			return;
+		}
+		if(this.verbatim) {
+			this.write(data, offset, length);
+			return;
+		}
+		final int end = offset + length;
+		int from = offset;
+		if(this.pendingCR) {
+			this.pendingCR = false;
+			if(data[offset] != '\n') {
+				this.write(new byte[] {'\r'}, 0, 1);
+			}
+		}
+		for(int i = offset; i < end; i++) {
+			if(data[i] == '\n') {
+				this.write(data, from, (i > from && data[i - 1] == '\r' ? i - 1 : i) - from);
+				this.write(this.lineSeparator, 0, this.lineSeparator.length);
+				from = i + 1;
+			}
+		}
+		if(from < end && data[end - 1] == '\r') {
+			//Hold on to it until we know whether or not it is part of a line ending:
+			this.pendingCR = true;
+			this.write(data, from, end - 1 - from);
+		} else {
+			this.write(data, from, end - from);
+		}
+	}
+	
+	/** Writes out the given range of the source file, read straight from the
+	 * file. */
+	private void copySource(long from, long to) throws IOException {
+		if(this.verbatim && this.channel != null) {
+			try {
+				this.out.flush();
+			} catch(IOException ex) {
+				this.writeFailed = true;
+				throw ex;
+			}
+			while(from < to) {
+				final long length = Math.min(to - from, CHUNK_SIZE);
+				if(!this.search.throttleRead(length)) {
+					throw new FindReplaceSearch.Stopped();
+				}
+				long transferred;
+				try {
+					transferred = this.in.transferTo(from, length, this.channel);
+				} catch(IOException ex) {
+					this.writeFailed = true;
+					throw ex;
+				}
+				if(transferred <= 0L) {
+					throw new EOFException(String.format("\"%s\" was truncated while it was being searched", this.src.getAbsolutePath()));
+				}
+				this.unthrottled += transferred;
+				from += transferred;
+			}
+			return;
+		}
+		byte[] buf = new byte[65536];
+		while(from < to) {
+			ByteBuffer wrapped = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, to - from));
+			int read = this.in.read(wrapped, from);
+			if(read == -1) {
+				throw new EOFException(String.format("\"%s\" was truncated while it was being searched", this.src.getAbsolutePath()));
+			}
+			if(!this.search.throttleRead(read)) {
+				throw new FindReplaceSearch.Stopped();
+			}
+			this.writeSource(buf, 0, read);
+			from += read;
+		}
+	}
+	
+	/** Ends the last line the same way that the in-memory search does. */
+	private void finish() throws IOException {
+		//A '\r' at the very end of the file is removed from the last line:
+		this.pendingCR = false;
+		ByteBuffer last = ByteBuffer.allocate(1);
+		if(!this.verbatim && this.size > 0L && this.in.read(last, this.size - 1L) == 1 && last.get(0) != '\n') {
+			this.write(this.lineSeparator, 0, this.lineSeparator.length);
+		}
+		try {
+			this.out.flush();
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+	}
+	
+}
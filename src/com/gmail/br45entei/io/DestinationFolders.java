@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Keeps track of the folders in the destination folder that a search has
+ * made sure exist, so that each folder is only checked for (and created)
+ * once, instead of once for every file that is written to it.<br>
+ * The folders that the search creates are remembered until
+ * {@link #finish(PrintStream)} is called, which deletes the ones that no file
+ * was written to (such as when every file in them failed, or was skipped),
+ * and copies the attributes of the source folders that they mirror onto the
+ * rest if attributes are being preserved (which has to wait until the folders'
+ * files have all been written, as writing a file changes its folder's
+ * modification time).<br>
+ * Each search has its own, which its file workers share.
+ * 
+ * @author Brian_Entei */
+final class DestinationFolders {
+	
+	private final boolean preserveAttributes;
+	/** The folders that are known to exist */
+	private final Set<File> existing = new HashSet<>();
+	/** The folders that were created, in the order that they were created in
+	 * (parents first), each with the source folder that it mirrors (or
+	 * <tt>null</tt>) */
+	private final Map<File, File> created = new LinkedHashMap<>();
+	/** The created folders that nothing has been written to yet */
+	private final Set<File> empty = new HashSet<>();
+	
+	/** @param preserveAttributes Whether or not to copy the attributes of the
+	 *            source folders onto the folders that are created */
+	DestinationFolders(boolean preserveAttributes) {
+		this.preserveAttributes = preserveAttributes;
+	}
+	
+	/** Makes sure that the given folder exists, creating it (and any of its
+	 * parents that don't exist) if need be.
+	 * 
+	 * @param folder The folder that a file is about to be written to
+	 * @param source The source folder that it mirrors, or <tt>null</tt>
+	 * @return False if the folder doesn't exist and could not be created */
+	synchronized boolean prepare(File folder, File source) {
+		if(this.existing.contains(folder)) {
+			return true;
+		}
+		List<File> missing = new ArrayList<>(), sources = new ArrayList<>();
+		File parent = folder;
+		while(parent != null && !this.existing.contains(parent) && !parent.isDirectory()) {
+			missing.add(parent);
+			sources.add(source);
+			parent = parent.getParentFile();
+			source = source == null ? null : source.getParentFile();
+		}
+		if(parent != null) {
+			this.existing.add(parent);
+		}
+		for(int i = missing.size() - 1; i >= 0; i--) {
+			File create = missing.get(i);
+			if(!create.mkdir() && !create.isDirectory()) {
+				return false;
+			}
+			this.existing.add(create);
+			this.created.put(create, sources.get(i));
+			this.empty.add(create);
+		}
+		return true;
+	}
+	
+	/** Records that a file was written to the given folder, so that it (and
+	 * its parents) won't be deleted as empty.
+	 * 
+	 * @param folder The folder that was written to */
+	synchronized void written(File folder) {
+		while(folder != null && this.empty.remove(folder)) {
+			folder = folder.getParentFile();
+		}
+	}
+	
+	/** Deletes the created folders that nothing was written to, and copies the
+	 * attributes of their source folders onto the rest (if attributes are
+	 * being preserved). Folders that are created after this are handled by the
+	 * next call.
+	 * 
+	 * @param pr The {@link PrintStream} to print status messages to */
+	synchronized void finish(PrintStream pr) {
+		List<Map.Entry<File, File>> created = new ArrayList<>(this.created.entrySet());
+		this.created.clear();
+		//Children before their parents, so that emptied parents can be deleted and children don't change their parents' modification times:
+		for(int i = created.size() - 1; i >= 0; i--) {
+			final File folder = created.get(i).getKey(), source = created.get(i).getValue();
+			if(this.empty.remove(folder)) {
+				if(folder.delete()) {
+					this.existing.remove(folder);
+				}
+				continue;
+			}
+			if(this.preserveAttributes && source != null) {
+				try {
+					copyAttributes(readAttributes(source), folder);
+				} catch(IOException | UnsupportedOperationException ex) {
+					pr.println(String.format("Unable to copy the attributes of folder \"%s\" to \"%s\": %s", source.getAbsolutePath(), folder.getAbsolutePath(), ex.getMessage()));
+				}
+			}
+		}
+	}
+	
+	/** Reads the attributes of a file in a single call: its POSIX attributes
+	 * on file systems that have them, or else its DOS attributes, or else
+	 * just its times.
+	 * 
+	 * @param file The file to read the attributes of
+	 * @return The file's attributes
+	 * @throws IOException Thrown if the attributes could not be read */
+	static final BasicFileAttributes readAttributes(File file) throws IOException {
+		Path path = file.toPath();
+		try {
+			return Files.readAttributes(path, PosixFileAttributes.class);
+		} catch(UnsupportedOperationException ex) {
+		}
+		try {
+			return Files.readAttributes(path, DosFileAttributes.class);
+		} catch(UnsupportedOperationException ex) {
+		}
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+	
+	/** Copies attributes that were read with {@link #readAttributes(File)}
+	 * onto a file: its permissions (or DOS attributes) and its times.
+	 * Ownership is left as it is, as changing it takes privileges that a
+	 * search usually doesn't have.
+	 * 
+	 * @param attributes The attributes to copy
+	 * @param file The file to copy them onto
+	 * @throws IOException Thrown if the attributes could not be set */
+	static final void copyAttributes(BasicFileAttributes attributes, File file) throws IOException {
+		Path path = file.toPath();
+		if(attributes instanceof PosixFileAttributes) {
+			PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+			if(view != null) {
+				view.setPermissions(((PosixFileAttributes) attributes).permissions());
+			}
+		}
+		Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+		//Set last, as read-only files can't have their times set on some systems:
+		if(attributes instanceof DosFileAttributes) {
+			DosFileAttributeView view = Files.getFileAttributeView(path, DosFileAttributeView.class);
+			if(view != null) {
+				DosFileAttributes dos = (DosFileAttributes) attributes;
+				view.setHidden(dos.isHidden());
+				view.setArchive(dos.isArchive());
+				view.setSystem(dos.isSystem());
+				view.setReadOnly(dos.isReadOnly());
+			}
+		}
+	}
+	
+}
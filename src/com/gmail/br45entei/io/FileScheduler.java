@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Hands the files that a search finds out to a number of worker threads,
+ * which process them at the same time.<br>
+ * Files wait in a single queue that every worker takes its next task from
+ * as soon as it is free, so no worker sits idle while another still has
+ * work waiting. The queue is kept in the {@link FindReplaceSearch.FileOrder
+ * order} that the search asks for: the order that the files were found in,
+ * or largest first, so that a large file that is found late doesn't become
+ * the one file that the whole search ends up waiting on.<br>
+ * Small files are handed out in batches, so that each one doesn't pay for a
+ * trip through the queue of its own. The folder walk that submits files is
+ * held up once {@link #MAX_QUEUED_FILES} files are waiting, so that the queue
+ * doesn't grow without bound on very large trees.
+ * 
+ * @author Brian_Entei */
+final class FileScheduler {
+	
+	/** Processes a single file on a worker thread.
+	 * 
+	 * @author Brian_Entei */
+	static interface Worker {
+		
+		/** @param file The file to process
+		 * @param path The file's path, relative to the source folder
+		 * @param size The file's size
+		 * @return False if the search was stopped before the file was done */
+		boolean process(File file, String path, long size);
+		
+	}
+	
+	/** The size below which files are batched together */
+	static final long SMALL_FILE_SIZE = 64L * 1024L;
+	/** The most files that are put into a single batch */
+	static final int BATCH_FILES = 64;
+	/** The most bytes that are put into a single batch */
+	static final long BATCH_BYTES = 1024L * 1024L;
+	/** The most files that may be waiting in the queue before the folder walk
+	 * is held up */
+	static final int MAX_QUEUED_FILES = 65536;
+	
+	/** A file, or a batch of small files, for a worker to process */
+	private static final class Task {
+		final long sequence;
+		final List<File> files = new ArrayList<>();
+		final List<String> paths = new ArrayList<>();
+		final List<Long> sizes = new ArrayList<>();
+		long bytes = 0L;
+		
+		Task(long sequence) {
+			this.sequence = sequence;
+		}
+		
+		void add(File file, String path, long size) {
+			this.files.add(file);
+			this.paths.add(path);
+			this.sizes.add(Long.valueOf(size));
+			this.bytes += size;
+		}
+		
+	}
+	
+	private final Worker worker;
+	private final PriorityQueue<Task> queue;
+	private final Thread[] threads;
+	/** The batch of small files that is being filled */
+	private Task batch = null;
+	private long sequence = 0L;
+	private int queuedFiles = 0, idleWorkers = 0;
+	private boolean closed = false, stopped = false;
+	private Throwable error = null;
+	
+	/** Creates a new scheduler and starts its workers.
+	 * 
+	 * @param workers The number of worker threads to start
+	 * @param order The order to hand files out in
+	 * @param worker Processes each file
+	 * @param name The name of the worker threads */
+	FileScheduler(int workers, FindReplaceSearch.FileOrder order, Worker worker, String name) {
+		this.worker = worker;
+		Comparator<Task> discovery = (a, b) -> Long.compare(a.sequence, b.sequence);
+		this.queue = new PriorityQueue<>(order == FindReplaceSearch.FileOrder.LARGEST_FIRST ? ((Comparator<Task>) (a, b) -> Long.compare(b.bytes, a.bytes)).thenComparing(discovery) : discovery);
+		this.threads = new Thread[Math.max(1, workers)];
+		for(int i = 0; i < this.threads.length; i++) {
+			this.threads[i] = new Thread(this::work, String.format("%s-%s", name, Integer.toString(i + 1)));
+			this.threads[i].setDaemon(true);
+			this.threads[i].start();
+		}
+	}
+	
+	/** Adds a file to the queue, waiting first if the queue is full.
+	 * 
+	 * @param file The file to process
+	 * @param path The file's path, relative to the source folder
+	 * @param size The file's size
+	 * @return False if the search was stopped (by a worker) */
+	synchronized boolean submit(File file, String path, long size) {
+		while(!this.stopped && this.queuedFiles >= MAX_QUEUED_FILES) {
+			try {
+				this.wait(100L);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		if(this.stopped) {
+			return false;
+		}
+		if(size >= SMALL_FILE_SIZE) {
+			Task task = new Task(this.sequence++);
+			task.add(file, path, size);
+			this.enqueue(task);
+			return true;
+		}
+		if(this.batch == null) {
+			this.batch = new Task(this.sequence++);
+		}
+		this.batch.add(file, path, size);
+		//Batches are handed out early rather than keep a worker waiting on them:
+		if(this.batch.files.size() >= BATCH_FILES || this.batch.bytes >= BATCH_BYTES || (this.queue.isEmpty() && this.idleWorkers > 0)) {
+			this.enqueue(this.batch);
+			this.batch = null;
+		}
+		return true;
+	}
+	
+	private void enqueue(Task task) {
+		this.queue.add(task);
+		this.queuedFiles += task.files.size();
+		this.notifyAll();
+	}
+	
+	/** Waits for every file that was submitted to be processed (or for the
+	 * search to be stopped), and then lets the workers finish.
+	 * 
+	 * @return False if the search was stopped before every file was done */
+	boolean finish() {
+		synchronized(this) {
+			if(this.batch != null) {
+				this.enqueue(this.batch);
+				this.batch = null;
+			}
+			this.closed = true;
+			this.notifyAll();
+		}
+		for(Thread thread : this.threads) {
+			while(thread.isAlive()) {
+				try {
+					thread.join();
+				} catch(InterruptedException ex) {
+					this.stop();
+				}
+			}
+		}
+		synchronized(this) {
+			if(this.error instanceof RuntimeException) {
+				throw (RuntimeException) this.error;
+			}
+			if(this.error instanceof Error) {
+				throw (Error) this.error;
+			}
+			return !this.stopped;
+		}
+	}
+	
+	/** Stops handing out files; the workers stop once they are done with the
+	 * files that they are processing. */
+	synchronized void stop() {
+		this.stopped = true;
+		this.queue.clear();
+		this.queuedFiles = 0;
+		this.batch = null;
+		this.notifyAll();
+	}
+	
+	/** @return The next task to process, or <tt>null</tt> once there are no
+	 *         more */
+	private synchronized Task take() {
+		while(!this.stopped) {
+			Task task = this.queue.poll();
+			if(task != null) {
+				this.queuedFiles -= task.files.size();
+				this.notifyAll();
+				return task;
+			}
+			if(this.closed) {
+				return null;
+			}
+			//Hand out the batch that is being filled, if there is one, rather than wait on it:
+			if(this.batch != null) {
+				task = this.batch;
+				this.batch = null;
+				return task;
+			}
+			this.idleWorkers++;
+			try {
+				this.wait(100L);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return null;
+			} finally {
+				this.idleWorkers--;
+			}
+		}
+		return null;
+	}
+	
+	private void work() {
+		Task task;
+		while((task = this.take()) != null) {
+			try {
+				for(int i = 0; i < task.files.size(); i++) {
+					if(!this.worker.process(task.files.get(i), task.paths.get(i), task.sizes.get(i).longValue())) {
+						this.stop();
+						return;
+					}
+				}
+			} catch(RuntimeException | Error ex) {
+				synchronized(this) {
+					if(this.error == null) {
+						this.error = ex;
+					}
+				}
+				this.stop();
+				return;
+			}
+		}
+	}
+	
+}
@@ -19,20 +19,44 @@
 package com.gmail.br45entei.io;
 
 import com.gmail.br45entei.util.CodeUtil;
-import com.gmail.br45entei.util.FileUtil;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipException;
 
 import org.eclipse.swt.widgets.Display;
 
@@ -90,21 +114,179 @@ public final class FindReplaceSearch {
 	 * Replacement strings may use <tt>%s</tt> to represent the matched
 	 * search-string found within the file's contents. */
 	public final String[] replaceStrings;
+	/** The compiled form of the {@link #findStrings} and
+	 * {@link #replaceStrings} that is used to search the contents of files */
+	public final SearchPlan plan;
+	
+	/** The default size (64 MiB) at and above which files are searched in
+	 * parallel chunks */
+	public static final long DEFAULT_CHUNK_THRESHOLD = 64L * 1024L * 1024L;
+	/** The default length (1 MiB) above which a line makes the file that it is
+	 * in be searched as a stream instead of line-by-line */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+	
+	/** The orders that files are handed out to the file workers in (see
+	 * {@link FindReplaceSearch#setFileWorkers(int)}).
+	 * 
+	 * @author Brian_Entei */
+	public static enum FileOrder {
+		/** The order that the files are found in */
+		DISCOVERY,
+		/** The largest of the files that have been found so far first, so
+		 * that a large file that is found late doesn't leave the rest of the
+		 * workers waiting on it at the end of the search */
+		LARGEST_FIRST;
+	}
+	
+	private static volatile boolean flightRecorderEvents = Boolean.getBoolean("bfr.jfr") && isFlightRecorderAvailable();
+	
+	/** @return True if this Java runtime has the Java Flight Recorder (Java 11
+	 *         and later, and Java 8 update 262 and later), and the events
+	 *         were built (see {@link SearchEvents}) */
+	public static final boolean isFlightRecorderAvailable() {
+		return SearchEvents.RECORDER != null;
+	}
+	
+	/** @return Whether or not searches emit Java Flight Recorder events (see
+	 *         {@link SearchEvents}) */
+	public static final boolean isFlightRecorderEventsEnabled() {
+		return flightRecorderEvents;
+	}
+	
+	/** Sets whether searches emit Java Flight Recorder events for each search,
+	 * folder listing, file, byte-copy and line-by-line search phase (see
+	 * {@link SearchEvents}), with their durations and sizes. The events are
+	 * only recorded while a flight recording is running (such as one started
+	 * with <tt>-XX:StartFlightRecording</tt>); while disabled, searches don't
+	 * create any events at all. They are disabled by default, unless the
+	 * <tt>bfr.jfr</tt> system property is <tt>true</tt>.<br>
+	 * This takes effect immediately, even for searches that are already
+	 * running.
+	 * 
+	 * @param enabled Whether or not to emit events
+	 * @return Whether events are now enabled (false if the Flight Recorder
+	 *         isn't available) */
+	public static final boolean setFlightRecorderEventsEnabled(boolean enabled) {
+		flightRecorderEvents = enabled && isFlightRecorderAvailable();
+		return flightRecorderEvents;
+	}
+	
+	//Optional settings
+	private volatile PathFilter filter = null;
+	private volatile boolean preScan = true;
+	private volatile File journalFile = null;
+	private volatile boolean resume = false;
+	private volatile long chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+	private volatile boolean searchArchives = false;
+	private volatile boolean watch = false;
+	private volatile boolean dedup = false, hardLinks = false;
+	private volatile File dedupCacheFile = null;
+	private volatile File patchFile = null;
+	private volatile File manifestFile = null;
+	private volatile boolean preserveAttributes = false;
+	private volatile long fileTimeout = Math.max(0L, Long.getLong("bfr.fileTimeout", 0L).longValue());
+	private volatile boolean lineEndingsPreserved = true;
+	private volatile int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+	private volatile int fileWorkers = Math.max(1, Integer.getInteger("bfr.fileWorkers", 1).intValue());
+	private volatile FileOrder fileOrder = getDefaultFileOrder();
+	/** The limits on how fast searches read, write and process files */
+	private final RateLimiter readLimit = new RateLimiter(RateLimiter.getDefaultRate("bfr.readLimit")), writeLimit = new RateLimiter(RateLimiter.getDefaultRate("bfr.writeLimit")), fileLimit = new RateLimiter(RateLimiter.getDefaultRate("bfr.fileLimit"));
+	
+	//Block sizes of the source and destination file systems (used to size I/O buffers)
+	private volatile int sourceBlockSize = BufferPool.DEFAULT_BLOCK_SIZE;
+	private volatile int destinationBlockSize = BufferPool.DEFAULT_BLOCK_SIZE;
 	
 	//Current status variables
 	private volatile Thread thread = null;
-	private volatile boolean running = false, paused = false;
-	
-	//Result values for last search & replace operation
-	private volatile int filesCopied;
-	private volatile int searchReplacementsPerformed;
-	private volatile int filesSkipped;
-	private volatile int foldersTraversed;
-	private volatile int filesSearched;
-	private volatile int searchesSkipped;
-	private volatile int fileReadsFailed;
-	private volatile int fileWritesFailed;
-	private volatile int fileCopiesFailed;
+	private volatile boolean running = false, paused = false, watching = false;
+	
+	//Result values for last search & replace operation (counted by every file worker)
+	private final AtomicInteger filesCopied = new AtomicInteger();
+	private final AtomicInteger searchReplacementsPerformed = new AtomicInteger();
+	private final AtomicInteger filesSkipped = new AtomicInteger();
+	private final AtomicInteger foldersTraversed = new AtomicInteger();
+	private final AtomicInteger filesSearched = new AtomicInteger();
+	private final AtomicInteger searchesSkipped = new AtomicInteger();
+	private final AtomicInteger fileReadsFailed = new AtomicInteger();
+	private final AtomicInteger fileWritesFailed = new AtomicInteger();
+	private final AtomicInteger fileCopiesFailed = new AtomicInteger();
+	private final AtomicInteger foldersPruned = new AtomicInteger();
+	private final AtomicInteger filesFiltered = new AtomicInteger();
+	private final AtomicInteger filesAlreadyCompleted = new AtomicInteger();
+	private final AtomicInteger foldersAlreadyCompleted = new AtomicInteger();
+	private final AtomicInteger duplicatesReused = new AtomicInteger();
+	private final AtomicInteger filesPatched = new AtomicInteger();
+	private final AtomicInteger filesTimedOut = new AtomicInteger();
+	private final AtomicInteger[] counters = {this.filesCopied, this.searchReplacementsPerformed, this.filesSkipped, this.foldersTraversed, this.filesSearched, this.searchesSkipped, this.fileReadsFailed, this.fileWritesFailed, this.fileCopiesFailed, this.foldersPruned, this.filesFiltered, this.filesAlreadyCompleted, this.foldersAlreadyCompleted, this.duplicatesReused, this.filesPatched, this.filesTimedOut};
+	
+	//Progress of the current search & replace operation
+	private volatile long startTime = 0L, endTime = 0L;
+	private volatile boolean preScanComplete = false;
+	private final AtomicLong totalFiles = new AtomicLong(), totalBytes = new AtomicLong();
+	private final AtomicLong filesCompleted = new AtomicLong(), bytesCompleted = new AtomicLong();
+	/** The state of the file that each thread is currently searching through
+	 * (see {@link #file()}) */
+	private final List<FileState> fileStates = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<FileState> fileState = ThreadLocal.withInitial(() -> {
+		FileState state = new FileState();
+		this.fileStates.add(state);
+		return state;
+	});
+	/** The {@link System#nanoTime()} at which the search was last paused */
+	private volatile long pausedAt = 0L;
+	/** The dedup cache of the current search operation, if it has one */
+	private volatile TransformCache cache = null;
+	/** The patch that the current search operation is writing, if it is
+	 * writing one */
+	private volatile PatchWriter patch = null;
+	/** The checksum manifest that the current search operation is writing,
+	 * if it is writing one */
+	private volatile ChecksumManifest manifest = null;
+	/** The journal that the current search operation is recording its
+	 * progress in, if it is keeping one */
+	private volatile SearchJournal journal = null;
+	/** The folders that the current search operation has made sure exist in
+	 * the destination folder */
+	private volatile DestinationFolders folders = null;
+	/** The index that matches are recorded in, if there is one */
+	private volatile MatchIndex matchIndex = null;
+	
+	/** The state of the file that a thread is currently searching through.
+	 * 
+	 * @author Brian_Entei */
+	private static final class FileState {
+		/** How far through the file the thread is */
+		volatile long progress = 0L;
+		/** Set when the file was abandoned because the search was stopped */
+		boolean aborted = false;
+		/** The {@link System#nanoTime()} by which the file has to be done, or
+		 * <tt>0</tt> if it has no time limit */
+		volatile long deadline = 0L;
+		/** Set when the file was abandoned because it took longer than the
+		 * {@link FindReplaceSearch#getFileTimeout() file timeout} */
+		boolean timedOut = false;
+		/** Set when the file has a line that is longer than the
+		 * {@link FindReplaceSearch#getMaxLineLength() maximum line length},
+		 * and has to be searched as a stream instead */
+		boolean lineTooLong = false;
+		/** The CRC-32 of the bytes that were last written to the file's output
+		 * (see {@link FindReplaceSearch#checked(OutputStream)}) */
+		final CRC32 checksum = new CRC32();
+		/** Set once the file's output has been checksummed as it was written */
+		boolean checksummed = false;
+		/** Set when the file was left as it was instead of being written (it
+		 * is its own destination, and didn't change) */
+		boolean leftInPlace = false;
+		/** Set when the file couldn't be read, written or copied, or was given
+		 * up on because it timed out, so that it is left out of the journal
+		 * (and searched through again when the search is resumed) */
+		boolean incomplete = false;
+		/** The file's path, relative to the source folder */
+		String path = null;
+		/** The number of replacements made and failures had in the file (and
+		 * in every file that the thread searched through before it) */
+		int replacements = 0, failures = 0;
+	}
 	
 	/** Creates a new {@link FindReplaceSearch} with the given settings.
 	 * 
@@ -131,52 +313,952 @@ public final class FindReplaceSearch {
 	 *            use <tt>%s</tt> to represent the matched search-string found
 	 *            within the file's contents. */
 	public FindReplaceSearch(File sourceFolder, File destinationFolder, boolean onlyCopyFilesContainingSearchStrings, boolean recursive, boolean onlyConsiderTextFiles, String[] findStrings, String[] replaceStrings) {
-		this.sourceFolder = sourceFolder;
-		this.destinationFolder = destinationFolder;
+		this(sourceFolder, destinationFolder, onlyCopyFilesContainingSearchStrings, recursive, onlyConsiderTextFiles, SearchPlan.compile(findStrings, replaceStrings));
+	}
+	
+	/** Creates a new {@link FindReplaceSearch} with the given settings and an
+	 * already compiled {@link SearchPlan} (such as one loaded with
+	 * {@link JobFile#load(File)}).
+	 * 
+	 * @param sourceFolder The folder whose children will be searched through
+	 * @param destinationFolder The folder where output files will be written to
+	 *            (may be the same as the source folder)
+	 * @param onlyCopyFilesContainingSearchStrings If <tt>true</tt>, files that
+	 *            don't contain any of the specified search-strings will not be
+	 *            copied to the destination folder
+	 * @param recursive If <tt>true</tt>, the source folder's sub-folders (and
+	 *            their sub-folders etc.) will be searched through as well
+	 * @param onlyConsiderTextFiles If <tt>true</tt>, only files whose
+	 *            extensions match one of the {@link #commonTextFileExtensions}
+	 *            will be searched through. Other files will still be copied
+	 *            unless <em><tt>onlyCopyFilesContainingSearchStrings</tt></em>
+	 *            is set to <tt>true</tt>.
+	 * @param plan The compiled search-strings and replacement strings */
+	public FindReplaceSearch(File sourceFolder, File destinationFolder, boolean onlyCopyFilesContainingSearchStrings, boolean recursive, boolean onlyConsiderTextFiles, SearchPlan plan) {
+		//Both folders are made absolute so that source and destination files can be told apart by their paths (a relative source folder would list relative files):
+		this.sourceFolder = sourceFolder.getAbsoluteFile();
+		this.destinationFolder = isSameFile(sourceFolder, destinationFolder) ? this.sourceFolder : destinationFolder.getAbsoluteFile();
 		this.onlyCopyFilesContainingSearchStrings = onlyCopyFilesContainingSearchStrings;
 		this.recursive = recursive;
 		this.onlyConsiderTextFiles = onlyConsiderTextFiles;
-		this.findStrings = findStrings;
-		this.replaceStrings = replaceStrings;
+		this.findStrings = plan.getFindStrings();
+		this.replaceStrings = plan.getReplaceStrings();
+		this.plan = plan;
+	}
+	
+	/** @return True if the files in the source folder are modified in place,
+	 *         that is, if the destination folder is the source folder */
+	public boolean isInPlace() {
+		return this.sourceFolder.equals(this.destinationFolder);
+	}
+	
+	/** @param dest A destination file
+	 * @return The file that the output for the destination file is written
+	 *         to: when files are modified in place, a temporary file next to
+	 *         it (which is then {@link #moveIntoPlace(File, File) moved over
+	 *         it}), so that a search that is killed part way through a file
+	 *         never leaves a half-written source file behind; otherwise, the
+	 *         destination file itself */
+	private File getOutputFile(File dest) {
+		return this.isInPlace() ? new File(dest.getPath().concat(ChunkedFileSearch.TEMP_FILE_SUFFIX)) : dest;
+	}
+	
+	/** Replaces a destination file with the temporary file that its output
+	 * was written to (atomically, if the file system supports it), giving
+	 * the temporary file the permissions of the file that it replaces first,
+	 * as writing over that file would have kept them.
+	 * 
+	 * @param output The file that the output was written to (nothing is done
+	 *            if it is the destination file itself)
+	 * @param dest The destination file
+	 * @throws IOException Thrown if the file could not be moved */
+	static final void moveIntoPlace(File output, File dest) throws IOException {
+		if(output.equals(dest)) {
+			return;
+		}
+		if(dest.exists()) {
+			try {
+				Files.setPosixFilePermissions(output.toPath(), Files.getPosixFilePermissions(dest.toPath()));
+			} catch(UnsupportedOperationException ex) {
+			}
+		}
+		try {
+			Files.move(output.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(AtomicMoveNotSupportedException ex) {
+			Files.move(output.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/** Moves a file's output into place (see
+	 * {@link #moveIntoPlace(File, File)}). When files are modified in place,
+	 * the journal (if there is one) records that the file is being moved over
+	 * first (see {@link SearchJournal#fileMoving(String)}), as it can't be
+	 * searched through again once it has been.
+	 * 
+	 * @param output The file that the output was written to
+	 * @param dest The destination file
+	 * @throws IOException Thrown if the file could not be moved */
+	final void commitOutput(File output, File dest) throws IOException {
+		final SearchJournal journal = this.journal;
+		final String path = this.file().path;
+		if(journal != null && path != null && !output.equals(dest) && this.isInPlace()) {
+			journal.fileMoving(path);
+		}
+		moveIntoPlace(output, dest);
+	}
+	
+	/** Deletes the file that the output was written to after it failed, if it
+	 * is a temporary file (see {@link #getOutputFile(File)}). */
+	private static final void deleteOutputFile(File output, File dest) {
+		if(!output.equals(dest)) {
+			output.delete();
+		}
+	}
+	
+	/** @param file A file that was found in the source folder
+	 * @return True if the file is a temporary output file (such as one that
+	 *         was left behind by a search that was killed), which is never
+	 *         searched through */
+	static final boolean isTemporaryFile(File file) {
+		return file.getName().endsWith(ChunkedFileSearch.TEMP_FILE_SUFFIX);
+	}
+	
+	/** @param a A file or folder
+	 * @param b Another file or folder
+	 * @return True if both are the same file, either by their absolute paths
+	 *         or on the file system (through a link, or through a path that
+	 *         goes up and back down again, for example) */
+	static final boolean isSameFile(File a, File b) {
+		if(a.getAbsoluteFile().equals(b.getAbsoluteFile())) {
+			return true;
+		}
+		try {
+			return a.exists() && b.exists() && Files.isSameFile(a.toPath(), b.toPath());
+		} catch(IOException ex) {
+			return false;
+		}
+	}
+	
+	/** @return The {@link PathFilter} that decides which files and folders are
+	 *         visited, or <tt>null</tt> if every file and folder is visited */
+	public PathFilter getPathFilter() {
+		return this.filter;
+	}
+	
+	/** Sets the {@link PathFilter} that decides which files and folders will be
+	 * visited. Excluded folders are pruned before they are listed, and
+	 * excluded files are neither searched nor copied.<br>
+	 * <b>Note:</b>&nbsp;The new filter takes effect the next time
+	 * {@link #startSearch(PrintStream)} is called.
+	 * 
+	 * @param filter The filter to use, or <tt>null</tt> to visit every file
+	 *            and folder
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setPathFilter(PathFilter filter) {
+		this.filter = filter;
+		return this;
+	}
+	
+	/** @return Whether or not the pre-scan (which counts the files and bytes
+	 *         that will be processed so that progress can be reported) is
+	 *         enabled */
+	public boolean isPreScanEnabled() {
+		return this.preScan;
+	}
+	
+	/** Enables or disables the pre-scan, which walks the source folder in a
+	 * separate thread while the search is running, reading only the metadata
+	 * of each file, so that {@link #getProgress()} and
+	 * {@link #getEstimatedTimeRemaining()} have something to compare against.
+	 * 
+	 * @param preScan Whether or not the pre-scan should be performed
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setPreScanEnabled(boolean preScan) {
+		this.preScan = preScan;
+		return this;
+	}
+	
+	/** @return The checkpoint journal that completed files are recorded in,
+	 *         or <tt>null</tt> if no journal is kept */
+	public File getJournalFile() {
+		return this.journalFile;
+	}
+	
+	/** Sets the checkpoint journal (see {@link SearchJournal}) that completed
+	 * files and folders will be recorded in, so that the search can be
+	 * resumed (see {@link #setResumeEnabled(boolean)}) after it is stopped or
+	 * interrupted. The journal is deleted once the search runs to completion.
+	 * 
+	 * @param journalFile The journal file (see
+	 *            {@link #getDefaultJournalFile()}), or <tt>null</tt> to not
+	 *            keep a journal
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setJournalFile(File journalFile) {
+		this.journalFile = journalFile;
+		return this;
+	}
+	
+	/** @return The journal file that is used when none is specified: a file
+	 *         next to the destination folder, named after it */
+	public File getDefaultJournalFile() {
+		File destination = this.destinationFolder.getAbsoluteFile();
+		File parent = destination.getParentFile();
+		return parent == null ? new File(destination, SearchJournal.FILE_EXTENSION) : new File(parent, destination.getName().concat(SearchJournal.FILE_EXTENSION));
+	}
+	
+	/** @return The size at and above which files are split into chunks that
+	 *         are searched through in parallel */
+	public long getChunkThreshold() {
+		return this.chunkThreshold;
+	}
+	
+	/** Sets the size at and above which files are split into chunks that are
+	 * searched through in parallel (see {@link ChunkedFileSearch}), instead
+	 * of being read into memory line-by-line. The output is the same either
+	 * way.
+	 * 
+	 * @param chunkThreshold The size in bytes, or {@link Long#MAX_VALUE} to
+	 *            never split files
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setChunkThreshold(long chunkThreshold) {
+		this.chunkThreshold = Math.max(1L, chunkThreshold);
+		return this;
+	}
+	
+	/** @return The longest that a single file may be searched through for
+	 *         before it is given up on, in milliseconds, or <tt>0</tt> if
+	 *         files may take as long as they need */
+	public long getFileTimeout() {
+		return this.fileTimeout;
+	}
+	
+	/** Sets the longest that a single file may be searched through for. A
+	 * file that takes longer (such as one huge file with a great many
+	 * matches in it) is given up on, left as it was in the destination
+	 * folder, and counted in the {@link #getResults() results} as timed out,
+	 * so that it can't hold up the rest of the search. Time spent paused
+	 * doesn't count towards the limit, and neither does byte-copying files.
+	 * <br>
+	 * Defaults to the <tt>bfr.fileTimeout</tt> system property, if it is set.
+	 * 
+	 * @param fileTimeout The time limit in milliseconds, or <tt>0</tt> for
+	 *            none
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setFileTimeout(long fileTimeout) {
+		this.fileTimeout = Math.max(0L, fileTimeout);
+		return this;
+	}
+	
+	/** @return Whether or not the text between matches (including its line
+	 *         endings) is written out exactly as it is in the source file */
+	public boolean isLineEndingsPreserved() {
+		return this.lineEndingsPreserved;
+	}
+	
+	/** Sets whether or not the text between matches is written out exactly as
+	 * it is in the source file. When it is (the default), only the matches in
+	 * a file are changed: <tt>\r\n</tt> and <tt>\n</tt> line endings, and
+	 * whether or not the file ends with one, are kept as they are, and the
+	 * text around the matches is copied over in bulk rather than line by line.
+	 * <br>
+	 * Otherwise, the lines of each file that has any matches in it are written
+	 * out with the system's line separator after every line (including the
+	 * last), as they were before line endings could be preserved.<br>
+	 * Matches never span lines either way.
+	 * 
+	 * @param lineEndingsPreserved Whether or not to preserve line endings
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setLineEndingsPreserved(boolean lineEndingsPreserved) {
+		this.lineEndingsPreserved = lineEndingsPreserved;
+		return this;
+	}
+	
+	/** @return The length in bytes above which a line makes the file that it
+	 *         is in be searched as a stream instead of line-by-line */
+	public int getMaxLineLength() {
+		return this.maxLineLength;
+	}
+	
+	/** Sets the length above which a line makes the file that it is in be
+	 * searched as a stream (see {@link ChunkedFileSearch}) instead of being
+	 * held in memory line-by-line, as files that are mostly one very long line
+	 * (such as minified scripts) can't be paused, stopped or timed out in the
+	 * middle of a line. The output is the same either way.<br>
+	 * Only applies when line endings aren't being
+	 * {@link #setLineEndingsPreserved(boolean) preserved}, as files are never
+	 * split into lines in memory otherwise.
+	 * 
+	 * @param maxLineLength The length in bytes, or
+	 *            {@link Integer#MAX_VALUE} for no limit
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setMaxLineLength(int maxLineLength) {
+		this.maxLineLength = Math.max(1, maxLineLength);
+		return this;
+	}
+	
+	/** @return The number of files that are searched through at the same
+	 *         time */
+	public int getFileWorkers() {
+		return this.fileWorkers;
+	}
+	
+	/** Sets the number of files that are searched through at the same time,
+	 * each by its own worker thread (see {@link FileScheduler}). With a single
+	 * worker, files are searched through one after another in the order that
+	 * they are found, as they always have been; large files are still split
+	 * into chunks that are searched through in parallel either way. Searches
+	 * that write a patch always use a single worker.<br>
+	 * Defaults to the <tt>bfr.fileWorkers</tt> system property, if it is set.
+	 * 
+	 * @param fileWorkers The number of workers
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setFileWorkers(int fileWorkers) {
+		this.fileWorkers = Math.max(1, fileWorkers);
+		return this;
+	}
+	
+	/** @return The order that files are handed out to the file workers in
+	 *         when there is more than one of them: the one named by the
+	 *         <tt>bfr.fileOrder</tt> system property, or else
+	 *         {@link FileOrder#LARGEST_FIRST} */
+	public static final FileOrder getDefaultFileOrder() {
+		String name = System.getProperty("bfr.fileOrder");
+		if(name != null) {
+			try {
+				return FileOrder.valueOf(name.trim().toUpperCase());
+			} catch(IllegalArgumentException ignored) {
+			}
+		}
+		return FileOrder.LARGEST_FIRST;
+	}
+	
+	/** @return The order that files are handed out to the file workers in */
+	public FileOrder getFileOrder() {
+		return this.fileOrder;
+	}
+	
+	/** Sets the order that files are handed out to the file workers in when
+	 * there is more than one of them.
+	 * 
+	 * @param fileOrder The order
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setFileOrder(FileOrder fileOrder) {
+		this.fileOrder = fileOrder == null ? getDefaultFileOrder() : fileOrder;
+		return this;
+	}
+	
+	/** @return Whether or not the entries of ZIP archives (such as
+	 *         <tt>.jar</tt> files) are searched through */
+	public boolean isArchiveSearchEnabled() {
+		return this.searchArchives;
+	}
+	
+	/** Sets whether the entries of ZIP archives (see
+	 * {@link ArchiveSearch#ARCHIVE_EXTENSIONS}) are searched through, instead
+	 * of the archives being treated as opaque files. Only the entries that
+	 * contain a search-string are re-packed; the rest are copied over as-is.
+	 * If {@link #onlyConsiderTextFiles} is set, archives are still searched,
+	 * but only their text entries are.
+	 * 
+	 * @param searchArchives Whether or not to search through archives
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setArchiveSearchEnabled(boolean searchArchives) {
+		this.searchArchives = searchArchives;
+		return this;
+	}
+	
+	/** @return Whether or not searches keep watching the source folder for
+	 *         changes after their initial pass */
+	public boolean isWatchEnabled() {
+		return this.watch;
+	}
+	
+	/** Sets whether searches keep running after their initial pass over the
+	 * source folder, watching the folders that they listed (see
+	 * {@link FolderWatcher}) and searching through each file that is created
+	 * or modified as soon as it changes, until {@link #stopSearch()} is
+	 * called.<br>
+	 * Files that are rewritten in place by the search itself are not searched
+	 * again. Folders that a resumed search skipped (see
+	 * {@link #setResumeEnabled(boolean)}) are not watched.
+	 * 
+	 * @param watch Whether or not to watch for changes
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setWatchEnabled(boolean watch) {
+		this.watch = watch;
+		return this;
+	}
+	
+	/** @return True if the current search has finished its initial pass and
+	 *         is now watching the source folder for changes */
+	public boolean isWatching() {
+		return this.isASearchActive() && this.watching;
+	}
+	
+	/** @return Whether or not files with the same contents as a file that was
+	 *         already searched through reuse that file's output */
+	public boolean isDedupEnabled() {
+		return this.dedup;
+	}
+	
+	/** Sets whether the results of searching through files are cached by the
+	 * files' contents (see {@link TransformCache}), so that a file with the
+	 * same contents as one that was already searched through is copied (or
+	 * {@link #setHardLinksEnabled(boolean) hard-linked}) from that file's
+	 * output instead of being searched through again.<br>
+	 * Only files below the {@link #getChunkThreshold() chunk threshold} are
+	 * cached. Each one is read into memory once, and is searched through from
+	 * there if its contents haven't been seen before.
+	 * 
+	 * @param dedup Whether or not to reuse the output of identical files
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setDedupEnabled(boolean dedup) {
+		this.dedup = dedup;
+		return this;
+	}
+	
+	/** @return The file that the dedup cache is loaded from and saved to, or
+	 *         <tt>null</tt> if it is only kept in memory */
+	public File getDedupCacheFile() {
+		return this.dedupCacheFile;
+	}
+	
+	/** Sets the file that the dedup cache (see
+	 * {@link #setDedupEnabled(boolean)}) is loaded from when a search starts
+	 * and saved to when it ends, so that later searches with the same
+	 * search-strings can reuse the output of earlier ones (as long as that
+	 * output hasn't been changed or deleted since).
+	 * 
+	 * @param dedupCacheFile The cache file, or <tt>null</tt> to only keep the
+	 *            cache in memory
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setDedupCacheFile(File dedupCacheFile) {
+		this.dedupCacheFile = dedupCacheFile;
+		return this;
+	}
+	
+	/** @return Whether or not the output of identical files is hard-linked
+	 *         rather than copied */
+	public boolean isHardLinksEnabled() {
+		return this.hardLinks;
+	}
+	
+	/** Sets whether files that reuse the output of an identical file (see
+	 * {@link #setDedupEnabled(boolean)}) are hard-linked to that output
+	 * instead of being copied from it. Hard-linked files share their
+	 * contents, so changing one of them later changes all of them. Files are
+	 * copied whenever a hard link can't be created, and whenever the output
+	 * that they would be linked to is inside of the source folder (such as
+	 * when the files are modified in place), so that separate source files
+	 * are never linked together.
+	 * 
+	 * @param hardLinks Whether or not to hard-link identical outputs
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setHardLinksEnabled(boolean hardLinks) {
+		this.hardLinks = hardLinks;
+		return this;
+	}
+	
+	/** @return The patch file that is suggested when none is specified: a
+	 *         file next to the destination folder, named after it */
+	public File getDefaultPatchFile() {
+		File destination = this.destinationFolder.getAbsoluteFile();
+		File parent = destination.getParentFile();
+		return parent == null ? new File(destination, PatchWriter.FILE_EXTENSION) : new File(parent, destination.getName().concat(PatchWriter.FILE_EXTENSION));
+	}
+	
+	/** @return The log file that is suggested for this search (see
+	 *         {@link LogSink}): a file next to the destination folder, named
+	 *         after it */
+	public File getDefaultLogFile() {
+		File destination = this.destinationFolder.getAbsoluteFile();
+		File parent = destination.getParentFile();
+		return parent == null ? new File(destination, LogSink.FILE_EXTENSION) : new File(parent, destination.getName().concat(LogSink.FILE_EXTENSION));
+	}
+	
+	/** @return Whether or not searches copy the attributes of source files
+	 *         and folders onto their output */
+	public boolean isAttributePreservationEnabled() {
+		return this.preserveAttributes;
+	}
+	
+	/** Sets whether searches copy the modification, access and creation
+	 * times and the permissions (or, on Windows, the DOS attributes) of each
+	 * source file onto the file that is written in its place, and of each
+	 * source folder onto the folder that is created in its place. A file's
+	 * attributes are read with a single call before it is searched through;
+	 * folders get theirs in one pass at the end of the search, once all of
+	 * their files have been written. Ownership is not copied.<br>
+	 * Files that are modified in place keep their attributes as well.
+	 * 
+	 * @param preserveAttributes Whether or not to copy attributes
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setAttributePreservationEnabled(boolean preserveAttributes) {
+		this.preserveAttributes = preserveAttributes;
+		return this;
+	}
+	
+	/** @return The file that searches write a patch of their changes to
+	 *         instead of writing to the destination folder, or <tt>null</tt>
+	 *         if they write to the destination folder */
+	public File getPatchFile() {
+		return this.patchFile;
+	}
+	
+	/** Sets the file that searches write their changes to as a unified diff
+	 * (see {@link PatchWriter}), instead of copying the source folder to the
+	 * destination folder. Nothing is written to the destination folder, and
+	 * files that contain no search-strings are only read (never copied).<br>
+	 * The patch's paths are relative to the source folder, so it applies with
+	 * <tt>patch -p1</tt> or <tt>git apply</tt> from inside of it. Non-text
+	 * files (if {@link #onlyConsiderTextFiles} is set) are skipped, archives
+	 * are searched as plain files, and searches don't
+	 * {@link #setWatchEnabled(boolean) watch for changes} or
+	 * {@link #setDedupEnabled(boolean) reuse the output of identical files}
+	 * while writing a patch. A resumed search appends to its patch.
+	 * 
+	 * @param patchFile The patch file (see {@link #getDefaultPatchFile()}),
+	 *            or <tt>null</tt> to write to the destination folder
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setPatchFile(File patchFile) {
+		this.patchFile = patchFile;
+		return this;
+	}
+	
+	/** @return The checksum manifest that searches write, or <tt>null</tt> if
+	 *         they don't write one */
+	public File getManifestFile() {
+		return this.manifestFile;
+	}
+	
+	/** Sets the checksum manifest that searches write: a list of every file
+	 * that they write to the destination folder, with its size and CRC-32
+	 * (see {@link ChecksumManifest}). The checksums are worked out from the
+	 * output as it is written, so that the destination folder can be verified
+	 * later on with {@link ChecksumManifest#verify(File, File, PrintStream)}
+	 * without reading the source files again. Searches that write a patch
+	 * don't write a manifest.
+	 * 
+	 * @param manifestFile The manifest file (see
+	 *            {@link #getDefaultManifestFile()}), or <tt>null</tt> to not
+	 *            write one
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setManifestFile(File manifestFile) {
+		this.manifestFile = manifestFile;
+		return this;
+	}
+	
+	/** @return The manifest file that is suggested for this search: a file
+	 *         next to the destination folder, named after it */
+	public File getDefaultManifestFile() {
+		File destination = this.destinationFolder.getAbsoluteFile();
+		File parent = destination.getParentFile();
+		return parent == null ? new File(destination, ChecksumManifest.FILE_EXTENSION) : new File(parent, destination.getName().concat(ChecksumManifest.FILE_EXTENSION));
+	}
+	
+	/** @return The index that searches record their matches in, or
+	 *         <tt>null</tt> if they don't record them */
+	public MatchIndex getMatchIndex() {
+		return this.matchIndex;
+	}
+	
+	/** Sets the index that searches record each of their matches in (along
+	 * with the file, line and text around it), so that the matches can be
+	 * browsed, sorted and filtered while the search runs and after it has
+	 * finished, instead of only being printed to the log. The index is not
+	 * closed by the search.<br>
+	 * If the index can't be written to, the search stops recording matches
+	 * in it.
+	 * 
+	 * @param matchIndex The index, or <tt>null</tt> to not record matches
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setMatchIndex(MatchIndex matchIndex) {
+		this.matchIndex = matchIndex;
+		return this;
+	}
+	
+	/** Records a match in the {@link #getMatchIndex() match index}, if there
+	 * is one.
+	 * 
+	 * @param file The file that the match was found in
+	 * @param entry The name of the archive entry that the match was found in,
+	 *            or <tt>null</tt>
+	 * @param line The line number of the match, or <tt>-1</tt> if it isn't
+	 *            known
+	 * @param offset The offset of the match in the file (or entry), or
+	 *            <tt>-1</tt> if it isn't known
+	 * @param data The data that the match was found in
+	 * @param from The start of the data that may be shown around the match
+	 * @param to The end of the data that may be shown around the match
+	 * @param matchOffset The offset of the match in the data
+	 * @param matchLength The length of the match
+	 * @param replacement The replacement of the match */
+	final void recordMatch(File file, String entry, long line, long offset, byte[] data, int from, int to, int matchOffset, int matchLength, byte[] replacement) {
+		final MatchIndex index = this.matchIndex;
+		if(index == null) {
+			return;
+		}
+		String path = file.getAbsolutePath();
+		try {
+			index.add(entry == null ? path : path.concat("!/").concat(entry), line, offset, data, from, to, matchOffset, matchLength, replacement);
+		} catch(IOException ex) {
+			this.matchIndex = null;
+			System.err.print("Failed to record a match in the match index; no further matches will be recorded: ");
+			ex.printStackTrace(System.err);
+			System.err.flush();
+		}
+	}
+	
+	/** @return The most bytes per second that searches read from source files,
+	 *         or <tt>0</tt> if there is no limit */
+	public long getReadRateLimit() {
+		return this.readLimit.getRate();
+	}
+	
+	/** Sets the most bytes per second that searches read from source files
+	 * (shared by every thread that is reading for this search). The limit can
+	 * be changed while a search is running, and takes effect right away.<br>
+	 * The default is taken from the <tt>bfr.readLimit</tt> system property.
+	 * 
+	 * @param bytesPerSecond The new limit, or <tt>0</tt> for no limit
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setReadRateLimit(long bytesPerSecond) {
+		this.readLimit.setRate(bytesPerSecond);
+		return this;
+	}
+	
+	/** @return The most bytes per second that searches write to destination
+	 *         files (or to the patch), or <tt>0</tt> if there is no limit */
+	public long getWriteRateLimit() {
+		return this.writeLimit.getRate();
+	}
+	
+	/** Sets the most bytes per second that searches write to destination files
+	 * (or to the patch). The limit can be changed while a search is running,
+	 * and takes effect right away.<br>
+	 * The default is taken from the <tt>bfr.writeLimit</tt> system property.
+	 * 
+	 * @param bytesPerSecond The new limit, or <tt>0</tt> for no limit
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setWriteRateLimit(long bytesPerSecond) {
+		this.writeLimit.setRate(bytesPerSecond);
+		return this;
+	}
+	
+	/** @return The most files per second that searches process, or <tt>0</tt>
+	 *         if there is no limit */
+	public long getFileRateLimit() {
+		return this.fileLimit.getRate();
+	}
+	
+	/** Sets the most files per second that searches process (whether they are
+	 * searched through, copied or skipped), which limits the rate of I/O
+	 * operations on file systems with many small files. The limit can be
+	 * changed while a search is running, and takes effect right away.<br>
+	 * The default is taken from the <tt>bfr.fileLimit</tt> system property.
+	 * 
+	 * @param filesPerSecond The new limit, or <tt>0</tt> for no limit
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setFileRateLimit(long filesPerSecond) {
+		this.fileLimit.setRate(filesPerSecond);
+		return this;
+	}
+	
+	/** @return Whether or not the next search will resume from its journal */
+	public boolean isResumeEnabled() {
+		return this.resume;
+	}
+	
+	/** Sets whether the next search will resume from its journal (if there is
+	 * one, and it was written by a search with the same settings), skipping
+	 * the files and folders that were already completed. If this is disabled,
+	 * an existing journal is started over.
+	 * 
+	 * @param resume Whether or not to resume from the journal
+	 * @return This FindReplaceSearch */
+	public FindReplaceSearch setResumeEnabled(boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+	
+	/** @return A fingerprint of this search's settings, which identifies the
+	 *         journals that it can resume from */
+	public String getFingerprint() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.sourceFolder.getAbsolutePath()).append('\0').append(this.destinationFolder.getAbsolutePath()).append('\0');
+		sb.append(this.onlyCopyFilesContainingSearchStrings).append(this.recursive).append(this.onlyConsiderTextFiles);
+		for(String findString : this.findStrings) {
+			sb.append('\0').append(findString);
+		}
+		sb.append('\1');
+		for(String replaceString : this.replaceStrings) {
+			sb.append('\0').append(replaceString);
+		}
+		if(!this.plan.isSinglePass()) {
+			sb.append('\1').append("sequential");
+		}
+		final PathFilter filter = this.filter;
+		if(filter != null) {
+			sb.append('\1');
+			for(String rule : filter.getRules()) {
+				sb.append('\0').append(rule);
+			}
+			sb.append('\0').append(filter.getMinimumFileSize()).append('\0').append(filter.getMaximumFileSize()).append(filter.isUsingGitIgnore());
+		}
+		final File patchFile = this.patchFile;
+		if(patchFile != null) {
+			sb.append('\1').append("patch").append('\0').append(patchFile.getAbsolutePath());
+		} else if(this.searchArchives) {
+			sb.append('\1').append("archives");
+		}
+		if(this.lineEndingsPreserved) {
+			sb.append('\1').append("verbatim");
+		}
+		return SearchJournal.fingerprint(sb);
+	}
+	
+	/** @return The number of files and folders that the journal says were
+	 *         already completed by a previous run of this search, or
+	 *         <tt>-1</tt> if there is no journal that this search could resume
+	 *         from */
+	public int getResumableCount() {
+		File journalFile = this.journalFile;
+		return journalFile == null ? -1 : SearchJournal.getCompletedCount(journalFile, this.getFingerprint());
+	}
+	
+	/** @return True if the pre-scan has finished counting the files and bytes
+	 *         that will be processed */
+	public boolean isPreScanComplete() {
+		return this.preScanComplete;
+	}
+	
+	/** @return The number of files that the pre-scan has found so far */
+	public long getTotalFiles() {
+		return this.totalFiles.get();
+	}
+	
+	/** @return The total size (in bytes) of the files that the pre-scan has
+	 *         found so far */
+	public long getTotalBytes() {
+		return this.totalBytes.get();
+	}
+	
+	/** @return The number of files that have been processed so far */
+	public long getFilesProcessed() {
+		return this.filesCompleted.get();
+	}
+	
+	/** @return The number of bytes that have been processed so far */
+	public long getBytesProcessed() {
+		long processed = this.bytesCompleted.get();
+		for(FileState state : this.fileStates) {
+			processed += state.progress;
+		}
+		return processed;
+	}
+	
+	/** Returns the progress of the current (or last) search operation, weighted
+	 * by file size. While the pre-scan is still running the total is not yet
+	 * known, so the returned value may go down as well as up.
+	 * 
+	 * @return The progress, between <tt>0.0</tt> and <tt>1.0</tt>, or
+	 *         <tt>-1.0</tt> if it is not known (e.g. because the pre-scan is
+	 *         disabled) */
+	public double getProgress() {
+		long total = this.totalBytes.get();
+		long processed = this.getBytesProcessed();
+		if(!this.preScan || (total <= 0L && !this.preScanComplete)) {
+			return -1.0;
+		}
+		if(total <= 0L) {
+			return this.preScanComplete ? 1.0 : 0.0;
+		}
+		return Math.min(1.0, processed / (double) total);
+	}
+	
+	/** @return The estimated number of milliseconds until the current search
+	 *         operation completes, or <tt>-1</tt> if it can't be estimated
+	 *         yet */
+	public long getEstimatedTimeRemaining() {
+		double progress = this.getProgress();
+		long elapsed = this.getElapsedTime();
+		if(!this.preScanComplete || progress <= 0.0 || elapsed <= 0L) {
+			return -1L;
+		}
+		if(!this.isASearchActive()) {
+			return 0L;
+		}
+		return Math.round(elapsed * ((1.0 - progress) / progress));
+	}
+	
+	/** @return The number of milliseconds that the current (or last) search
+	 *         operation has been running for */
+	public long getElapsedTime() {
+		long startTime = this.startTime, endTime = this.endTime;
+		if(startTime == 0L) {
+			return 0L;
+		}
+		return (endTime == 0L ? System.currentTimeMillis() : endTime) - startTime;
+	}
+	
+	/** @return A short, human-readable summary of the progress of the current
+	 *         (or last) search operation, such as
+	 *         <tt>"42.0% (1.2 GB of 2.9 GB), about 3m 20s remaining"</tt> */
+	public String getProgressSummary() {
+		double progress = this.getProgress();
+		long processed = this.getBytesProcessed();
+		if(progress < 0.0) {
+			return String.format("%s processed", formatSize(processed));
+		}
+		String summary = String.format("%.1f%% (%s of %s%s)", Double.valueOf(progress * 100.0), formatSize(processed), formatSize(this.totalBytes.get()), this.preScanComplete ? "" : "+");
+		long remaining = this.getEstimatedTimeRemaining();
+		return remaining <= 0L ? summary : summary.concat(String.format(", about %s remaining", formatDuration(remaining)));
+	}
+	
+	/** @param bytes The number of bytes
+	 * @return A human-readable representation of the given number of bytes,
+	 *         such as <tt>"1.2 GB"</tt> */
+	public static final String formatSize(long bytes) {
+		if(bytes < 1024L) {
+			return Long.toString(bytes).concat(" B");
+		}
+		final String units = "KMGTPE";
+		int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+		return String.format("%.1f %sB", Double.valueOf(bytes / (double) (1L << (unit * 10))), Character.valueOf(units.charAt(unit - 1)));
+	}
+	
+	/** @param millis The number of milliseconds
+	 * @return A human-readable representation of the given duration, such as
+	 *         <tt>"1h 3m 20s"</tt> */
+	public static final String formatDuration(long millis) {
+		long seconds = Math.max(0L, millis) / 1000L;
+		long hours = seconds / 3600L, minutes = (seconds / 60L) % 60L;
+		seconds %= 60L;
+		if(hours > 0L) {
+			return String.format("%sh %sm %ss", Long.toString(hours), Long.toString(minutes), Long.toString(seconds));
+		}
+		return minutes > 0L ? String.format("%sm %ss", Long.toString(minutes), Long.toString(seconds)) : String.format("%ss", Long.toString(seconds));
+	}
+	
+	/** @return The number of replacements that the current (or last) search
+	 *         operation has performed so far */
+	public int getReplacementsPerformed() {
+		return this.searchReplacementsPerformed.get();
+	}
+	
+	/** @return The number of files that the current (or last) search
+	 *         operation has given up on for taking longer than the
+	 *         {@link #setFileTimeout(long) file timeout} */
+	public int getFilesTimedOut() {
+		return this.filesTimedOut.get();
+	}
+	
+	/** @return The number of files that the current (or last) search
+	 *         operation has failed to copy, read or write */
+	public int getFailures() {
+		return this.fileCopiesFailed.get() + this.fileReadsFailed.get() + this.fileWritesFailed.get();
 	}
 	
 	/** @return The results of the currently running (or the last run) search
 	 *         operation. */
 	public String getResults() {
 		return new StringBuilder()//
-				.append(String.format("Folders Traversed: %s\r\n", Integer.toString(this.foldersTraversed)))//
-				.append(String.format("Files Searched: %s\r\n", Integer.toString(this.filesSearched)))//
-				.append(String.format("Search Replacements Performed: %s\r\n", Integer.toString(this.searchReplacementsPerformed)))//
-				.append(String.format("Searches Skipped: %s\r\n", Integer.toString(this.searchesSkipped)))//
-				.append(String.format("Files Skipped: %s\r\n", Integer.toString(this.filesSkipped)))//
-				.append(String.format("Files Copied: %s\r\n", Integer.toString(this.filesCopied)))//
-				.append(String.format("File Copies Failed: %s\r\n", Integer.toString(this.fileCopiesFailed)))//
-				.append(String.format("File Reads Failed: %s\r\n", Integer.toString(this.fileReadsFailed)))//
-				.append(String.format("File Writes Failed: %s\r\n", Integer.toString(this.fileWritesFailed)))//
+				.append(String.format("Folders Traversed: %s\r\n", Integer.toString(this.foldersTraversed.get())))//
+				.append(String.format("Files Searched: %s\r\n", Integer.toString(this.filesSearched.get())))//
+				.append(String.format("Search Replacements Performed: %s\r\n", Integer.toString(this.searchReplacementsPerformed.get())))//
+				.append(String.format("Searches Skipped: %s\r\n", Integer.toString(this.searchesSkipped.get())))//
+				.append(String.format("Files Skipped: %s\r\n", Integer.toString(this.filesSkipped.get())))//
+				.append(String.format("Files Filtered: %s\r\n", Integer.toString(this.filesFiltered.get())))//
+				.append(String.format("Folders Pruned: %s\r\n", Integer.toString(this.foldersPruned.get())))//
+				.append(String.format("Files Already Completed: %s\r\n", Integer.toString(this.filesAlreadyCompleted.get())))//
+				.append(String.format("Folders Already Completed: %s\r\n", Integer.toString(this.foldersAlreadyCompleted.get())))//
+				.append(String.format("Duplicate Files Reused: %s\r\n", Integer.toString(this.duplicatesReused.get())))//
+				.append(String.format("Files Copied: %s\r\n", Integer.toString(this.filesCopied.get())))//
+				.append(String.format("Files Patched: %s\r\n", Integer.toString(this.filesPatched.get())))//
+				.append(String.format("Files Timed Out: %s\r\n", Integer.toString(this.filesTimedOut.get())))//
+				.append(String.format("File Copies Failed: %s\r\n", Integer.toString(this.fileCopiesFailed.get())))//
+				.append(String.format("File Reads Failed: %s\r\n", Integer.toString(this.fileReadsFailed.get())))//
+				.append(String.format("File Writes Failed: %s\r\n", Integer.toString(this.fileWritesFailed.get())))//
+				.append(String.format("Peak Memory Reserved: %s of %s\r\n", formatSize(MemoryBudget.getGlobal().getPeak()), formatSize(MemoryBudget.getGlobal().getLimit())))//
 				.toString();
 	}
 	
+	/** @param name The name of a file
+	 * @return True if the file would be searched through when
+	 *         {@link #onlyConsiderTextFiles} is set: it either has one of the
+	 *         {@link #commonTextFileExtensions}, or no extension at all */
+	public static final boolean isConsideredTextFile(String name) {
+		if(!name.contains(".")) {
+			return true;
+		}
+		name = name.toLowerCase();
+		for(String validExtension : commonTextFileExtensions) {
+			if(name.endsWith(validExtension.toLowerCase())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	protected final boolean copy(File src, File dest, PrintStream pr) {
-		if(src.equals(dest)) {
-			this.filesSkipped++;
+		//Opening the destination file truncates it, so a file must never be copied onto itself:
+		if(isSameFile(src, dest)) {
+			this.file().leftInPlace = true;
+			this.filesSkipped.incrementAndGet();
 			pr.println(String.format("Skipping copy of file \"%s\" as it is the same as the destination: ", src.getAbsolutePath()));
 			return true;
 		}
-		try(FileInputStream in = new FileInputStream(src)) {
-			try(FileOutputStream out = new FileOutputStream(dest)) {
-				byte[] b = new byte[4096];
-				int len;
-				while((len = in.read(b)) != -1) {
-					out.write(b, 0, len);
-					
-					this.pauseSleep();
-					
+		final FileState state = this.file();
+		final CRC32 checksum = this.manifest == null ? null : state.checksum;
+		final Object event = flightRecorderEvents ? SearchEvents.RECORDER.beginFileCopied() : null;
+		try(FileInputStream fis = new FileInputStream(src); FileChannel in = fis.getChannel()) {
+			final File output = this.getOutputFile(dest);
+			try {
+				boolean stopped = false;
+				try(FileOutputStream fos = new FileOutputStream(output); FileChannel out = fos.getChannel()) {
+					ByteBuffer buf = BufferPool.acquire(BufferPool.chooseBufferSize(in.size(), Math.max(this.sourceBlockSize, this.destinationBlockSize)));
+					if(checksum != null) {
+						checksum.reset();
+						state.checksummed = true;
+					}
+					try {
+						while(!stopped && in.read(buf) != -1) {
+							buf.flip();
+							if(!this.throttleRead(buf.remaining()) || !this.throttleWrite(buf.remaining())) {
+								stopped = true;
+								break;
+							}
+							if(checksum != null) {
+								checksum.update(buf);
+								buf.rewind();
+							}
+							while(buf.hasRemaining()) {
+								out.write(buf);
+							}
+							buf.clear();
+							state.progress = Math.max(state.progress, in.position());
+							
+							stopped = !this.pauseSleep();
+							
+						}
+					} finally {
+						BufferPool.release(buf);
+					}
+				}
+				if(stopped) {
+					deleteOutputFile(output, dest);
+					state.aborted = true;
+					return false;
+				}
+				this.commitOutput(output, dest);
+				this.filesCopied.incrementAndGet();
+				if(event != null) {
+					SearchEvents.RECORDER.endFileCopied(event, src, dest, in.position());
 				}
-				out.flush();
-				this.filesCopied++;
 				return true;
 			} catch(IOException ex) {
-				this.fileWritesFailed++;
+				deleteOutputFile(output, dest);
+				this.failed(this.fileWritesFailed);
 				pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
 				System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
 				ex.printStackTrace(pr);
@@ -185,7 +1267,7 @@ public final class FindReplaceSearch {
 				System.err.flush();
 			}
 		} catch(IOException ex) {
-			this.fileReadsFailed++;
+			this.failed(this.fileReadsFailed);
 			pr.print(String.format("Failed to read from source file \"%s\": ", src.getAbsolutePath()));
 			System.err.print(String.format("Failed to read from source file \"%s\": ", src.getAbsolutePath()));
 			ex.printStackTrace(pr);
@@ -193,41 +1275,120 @@ public final class FindReplaceSearch {
 			pr.flush();
 			System.err.flush();
 		}
-		this.fileCopiesFailed++;
+		this.failed(this.fileCopiesFailed);
 		return false;
 	}
 	
 	/** Finds any search-strings in the source file and replaces them in-memory,
-	 * and then writes the output to the destination file.<br>
+	 * and then writes the output to the destination file (with its line endings
+	 * {@link #setLineEndingsPreserved(boolean) preserved}, unless they are
+	 * being normalized).<br>
 	 * If there are no search-strings or no matches are found, the contents of
-	 * the source file are simply copied to the destination file instead.
+	 * the source file are simply copied to the destination file instead.<br>
+	 * Files at or above the {@link #getChunkThreshold() chunk threshold} are
+	 * searched through in parallel chunks instead of being read into memory,
+	 * and archives are searched through entry-by-entry if
+	 * {@link #setArchiveSearchEnabled(boolean) archive searching} is enabled.<br>
+	 * The memory that a file is searched through with is reserved from the
+	 * {@link MemoryBudget#getGlobal() global memory budget} first, waiting for
+	 * other searches to release some of it if need be. Files that would need
+	 * more than the whole budget are searched through in chunks instead.
 	 * 
 	 * @param src The file to read from
 	 * @param dest The file to write to
 	 * @param pr The {@link PrintStream} to print status messages to
 	 * @return True if any data was written to the destination file */
 	public boolean findAndReplace(File src, File dest, PrintStream pr) {
-		if(this.findStrings.length == 0) {
+		if(this.plan.isEmpty()) {
 			pr.println(String.format("Byte-copying file and skipping search within \"%s\" due to lack of search strings...", src.getAbsolutePath()));
-			this.searchesSkipped++;
+			this.searchesSkipped.incrementAndGet();
 			return this.copy(src, dest, pr);
 		}
+		if(this.searchArchives && ArchiveSearch.isArchive(src.getName())) {
+			Boolean result = this.findAndReplaceArchive(src, dest, pr);
+			if(result != null) {
+				return result.booleanValue();
+			}
+		}
+		final long size = src.length();
+		if(size >= this.chunkThreshold) {
+			return this.findAndReplaceChunked(src, dest, pr);
+		}
+		final MemoryBudget budget = MemoryBudget.getGlobal();
+		final long reserved = getInMemoryCost(size, this.destinationBlockSize);
+		if(!budget.fits(reserved)) {
+			pr.println(String.format("\tFile \"%s\" would need more memory than the memory budget allows (%s of %s); searching it in chunks instead...", src.getAbsolutePath(), formatSize(reserved), formatSize(budget.getLimit())));
+			return this.findAndReplaceChunked(src, dest, pr);
+		}
+		if(!budget.reserve(reserved, this::pauseSleep)) {
+			this.file().aborted = true;
+			return false;
+		}
+		final FileState state = this.file();
+		boolean written;
+		state.lineTooLong = false;
+		try {
+			final TransformCache cache = this.cache;
+			written = cache != null ? this.findAndReplaceCached(src, dest, pr, cache) : this.lineEndingsPreserved ? this.findAndReplaceVerbatim(src, dest, pr, null) : this.findAndReplaceLines(src, dest, pr, null);
+		} finally {
+			budget.release(reserved);
+		}
+		if(state.lineTooLong) {
+			//Searched for again once the lines that were read have been let go of:
+			state.lineTooLong = false;
+			pr.println(String.format("\tFile \"%s\" has a line that is longer than %s; searching it as a stream instead...", src.getAbsolutePath(), formatSize(this.maxLineLength)));
+			state.progress = 0L;
+			return this.findAndReplaceChunked(src, dest, pr);
+		}
+		return written;
+	}
+	
+	/** Estimates how much memory searching through a file in memory takes:
+	 * its contents (as lines), its replaced lines and the buffer that the
+	 * output is written with.
+	 * 
+	 * @param size The size of the file
+	 * @param blockSize The block size of the destination file system
+	 * @return The number of bytes to reserve from the {@link MemoryBudget} */
+	static final long getInMemoryCost(long size, int blockSize) {
+		return 3L * size + BufferPool.chooseBufferSize(size, blockSize);
+	}
+	
+	/** Searches through a file line-by-line in memory (see
+	 * {@link #findAndReplace(File, File, PrintStream)}), writing each line out
+	 * with the system's line separator (used when line endings aren't being
+	 * {@link #setLineEndingsPreserved(boolean) preserved}).
+	 * 
+	 * @param contents The contents of the source file if they have already
+	 *            been read, or <tt>null</tt> to read them from the file */
+	private boolean findAndReplaceLines(File src, File dest, PrintStream pr, byte[] contents) {
 		pr.println(String.format("Searching within file \"%s\"...", src.getAbsolutePath()));
 		
-		List<String> lines = new ArrayList<>();
-		try(FileInputStream in = new FileInputStream(src)) {
-			String line;
-			while((line = FileUtil.readLine(in)) != null) {
+		Object phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		List<byte[]> lines = new ArrayList<>();
+		try(ReadableByteChannel in = contents == null ? new FileInputStream(src).getChannel() : Channels.newChannel(new ByteArrayInputStream(contents)); LineReader reader = new LineReader(in, BufferPool.chooseBufferSize(src.length(), this.sourceBlockSize), this.maxLineLength)) {
+			byte[] line;
+			while((line = reader.readLineBytes()) != null) {
 				lines.add(line);
+				this.file().progress += line.length + 1;
 				
-				if(!this.pauseSleep()) {
+				//Contents that were already read have already been charged for:
+				if((contents == null && !this.throttleRead(line.length + 1)) || !this.pauseSleep()) {
+					this.file().aborted = true;
 					return false;
 				}
 				
 			}
-			this.filesSearched++;
+			if(reader.isLineTooLong()) {
+				this.file().lineTooLong = true;
+				return false;
+			}
+			this.filesSearched.incrementAndGet();
+			if(phase != null) {
+				SearchEvents.RECORDER.endPhase(phase, SearchEvents.READ, src, this.file().progress, 0);
+			}
 		} catch(IOException ex) {
-			this.fileReadsFailed++;
+			this.failed(this.fileReadsFailed);
 			pr.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
 			System.err.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
 			ex.printStackTrace(pr);
@@ -237,143 +1398,619 @@ public final class FindReplaceSearch {
 			return false;
 		}
 		
-		List<String> replacedLines = new ArrayList<>();
+		phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		final SearchPlan plan = this.plan;
+		final ByteArrayOutputStream sb = new ByteArrayOutputStream();
+		final int[] lastIndex = {0};
+		List<byte[]> replacedLines = new ArrayList<>(lines.size());
 		boolean foundAnyMatches = false;
+		final int replacements = this.file().replacements;
 		int lineNum = 1, numLines = lines.size();
-		for(String line : lines) {
-			for(int i = 0; i < this.findStrings.length; i++) {
-				String searchString = this.findStrings[i];
-				//pr.println(String.format("\tSearching for \"%s\"...", searchString));//XXX DEBUG - REMOVE/COMMENT ME
-				boolean ignoreCase = searchString.startsWith("(?i)");
-				searchString = ignoreCase ? searchString.substring(4) : searchString;
-				String replacementString = i < this.replaceStrings.length ? this.replaceStrings[i] : "%s";
+		for(final byte[] line : lines) {
+			sb.reset();
+			lastIndex[0] = 0;
+			final int lineNumber = lineNum;
+			int matches = plan.findMatches(line, 0, line.length, (offset, length, replacement) -> {
+				sb.write(line, lastIndex[0], offset - lastIndex[0]);
+				sb.write(replacement, 0, replacement.length);
+				this.replaced(1);
+				
+				this.recordMatch(src, null, lineNumber, -1L, line, 0, line.length, offset, length, replacement);
+				pr.println(String.format("\tFound \"%s\"; Replacing with: \"%s\";", new String(line, offset, length, StandardCharsets.ISO_8859_1), new String(replacement, StandardCharsets.ISO_8859_1)));
+				
+				lastIndex[0] = offset + length;
+				return this.pauseSleep();
+			});
+			if(!this.pauseSleep()) {
+				this.file().aborted = true;
+				return false;
+			}
+			
+			if(matches > 0) {
+				foundAnyMatches = true;
+				sb.write(line, lastIndex[0], line.length - lastIndex[0]);
+				byte[] replacedLine = sb.toByteArray();
+				replacedLines.add(replacedLine);
 				
-				List<Integer> indicies = new ArrayList<>();
-				char[] array = line.toCharArray();
-				for(int j = 0; j < array.length; j++) {
-					String check = line.length() >= j + searchString.length() ? line.substring(j, j + searchString.length()) : null;
-					if(check == null) {
+				pr.println(String.format("\t\tLine # %s/%s: before: \"%s\";\n\t\tLine after replacement: \"%s\";", Integer.toString(lineNum), Integer.toString(numLines), new String(line, StandardCharsets.ISO_8859_1), new String(replacedLine, StandardCharsets.ISO_8859_1)));
+			} else {
+				replacedLines.add(line);
+			}
+			
+			lineNum++;
+		}
+		if(phase != null) {
+			SearchEvents.RECORDER.endPhase(phase, SearchEvents.MATCH, src, this.file().progress, this.file().replacements - replacements);
+		}
+		
+		if(!foundAnyMatches) {
+			return this.noMatchesFound(src, dest, pr);
+		}
+		
+		//Reading the source file and writing to the destination file has been separated out due to the possibility of the user selecting the same source directory as the destination,
+		//thereby causing the srcFile and destFile to be the same file! I have intentionally allowed this possibility and worked around it to allow the user to just do an in-place replacement without having to actually copy the files.
+		//Without the workaround, opening and writing to the same file at the same time results in a blank file when the program is done with it! (at least on my Windows 10 computer ...)
+		
+		pr.println(String.format("\tCopying file \"%s\" to destination file \"%s\" line-by-line...", src.getAbsolutePath(), dest.getAbsolutePath()));
+		final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+		phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		final File output = this.getOutputFile(dest);
+		long written = 0L;
+		try {
+			try(BufferedOutputStream out = new BufferedOutputStream(this.checked(new FileOutputStream(output)), BufferPool.chooseBufferSize(src.length(), this.destinationBlockSize))) {
+				for(byte[] line : replacedLines) {
+					if(!this.throttleWrite(line.length + lineSeparator.length)) {
+						this.file().aborted = true;
 						break;
 					}
-					if(ignoreCase ? check.equalsIgnoreCase(searchString) : check.equals(searchString)) {
-						indicies.add(Integer.valueOf(j));
-						foundAnyMatches = true;
-					}
-					
-					if(!this.pauseSleep()) {
-						return false;
-					}
-				}
-				StringBuilder sb = new StringBuilder();
-				int lastIndex = 0;
-				String firstFoundTarget = null;
-				for(Integer index : indicies) {
-					int j = index.intValue();
-					for(int k = lastIndex; k < j; k++) {
-						sb.append(array[k]);
-					}
-					String target = new String(array, j, searchString.length());
-					String replacement = replacementString.replace("%s", target);
-					sb.append(replacement);
-					this.searchReplacementsPerformed++;
-					
-					pr.println(String.format("\tFound \"%s\"; Replacing with: \"%s\";", target, replacement));
-					
-					lastIndex = j + target.length();
-					if(firstFoundTarget == null) {
-						firstFoundTarget = target;
-					}
-					
-					if(!this.pauseSleep()) {
-						return false;
-					}
+					out.write(line);
+					out.write(lineSeparator);
+					written += line.length + lineSeparator.length;
 				}
-				
-				if(firstFoundTarget != null) {
-					if(lastIndex < array.length) {
-						for(int k = lastIndex; k < array.length; k++) {
-							sb.append(array[k]);
-						}
-					}
-					
-					String before = line;
-					line = sb.toString();
-					String after = line;
-					
-					pr.println(String.format("\t\tLine # %s/%s: before: \"%s\";\n\t\tLine after replacement: \"%s\";", Integer.toString(lineNum), Integer.toString(numLines), before, after));
+				out.flush();
+			}
+			if(this.file().aborted) {
+				deleteOutputFile(output, dest);
+				return false;
+			}
+			this.commitOutput(output, dest);
+			this.filesCopied.incrementAndGet();
+			if(phase != null) {
+				SearchEvents.RECORDER.endPhase(phase, SearchEvents.WRITE, dest, written, 0);
+			}
+			return true;
+		} catch(IOException ex) {
+			deleteOutputFile(output, dest);
+			this.failed(this.fileWritesFailed);
+			pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return false;
+		}
+	}
+	
+	/** Searches through a file in memory without splitting it up into lines,
+	 * copying the text between matches over exactly as it is (see
+	 * {@link #setLineEndingsPreserved(boolean)}).<br>
+	 * The output is written straight from the source file's contents: the
+	 * ranges between matches and the replacements are gathered up and then
+	 * written out with as few writes as possible.<br>
+	 * Like the line-by-line search, a file with a line that is longer than the
+	 * {@link #setMaxLineLength(int) maximum line length} is left to be
+	 * searched through as a stream instead.
+	 * 
+	 * @param contents The contents of the source file if they have already
+	 *            been read, or <tt>null</tt> to read them from the file */
+	private boolean findAndReplaceVerbatim(File src, File dest, PrintStream pr, byte[] contents) {
+		pr.println(String.format("Searching within file \"%s\"...", src.getAbsolutePath()));
+		
+		final FileState state = this.file();
+		Object phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		if(contents == null) {
+			try {
+				contents = this.readContents(src);
+			} catch(IOException ex) {
+				this.failed(this.fileReadsFailed);
+				pr.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+				System.err.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+				ex.printStackTrace(pr);
+				ex.printStackTrace(System.err);
+				pr.flush();
+				System.err.flush();
+				return false;
+			}
+			if(contents == null) {
+				state.aborted = true;
+				return false;
+			}
+		}
+		//Checked before anything is matched, so that nothing is counted twice if the file has to be searched through as a stream:
+		final int maxLineLength = this.maxLineLength;
+		int start = 0, checked = 0;
+		for(int i = 0; i < contents.length; i++) {
+			if(contents[i] == '\n') {
+				int length = i > start && contents[i - 1] == '\r' ? i - 1 - start : i - start;
+				if(length > maxLineLength) {
+					state.lineTooLong = true;
+					return false;
 				}
-				
-				//TODO re-do this while loop so that it scans along the line, replacing each instance separately, instead of all of them in one go or none of them ...
-				
-				/*int index, lastIndex = -1;
-				while((index = ignoreCase ? line.toLowerCase().indexOf(searchString.toLowerCase()) : line.indexOf(searchString)) != -1 && index > lastIndex) {
-					lastIndex = index;
-					foundAnyMatches = true;
-					this.searchReplacementsPerformed++;
-					
-					String target = line.substring(index, index + searchString.length());
-					String replacement = replacementString.replace("%s", target);
-					
-					String before = line;
-					line = line.replace(target, replacement);
-					String after = line;
-					
-					pr.println(String.format("\tFound \"%s\" in line # %s/%s;\n\t\tLine before: \"%s\";\n\t\tResulting line: \"%s\";", target, Integer.toString(lineNum), Integer.toString(numLines), before, after));
-					
-					this.pauseSleep();
-					
-				}*/
-				
+				start = i + 1;
+			} else if(i - start - 1 > maxLineLength) {//Too long even if a "\r\n" comes next
+				state.lineTooLong = true;
+				return false;
+			}
+			if(i - checked >= ChunkedFileSearch.CHECK_INTERVAL) {
+				checked = i;
 				if(!this.pauseSleep()) {
+					state.aborted = true;
 					return false;
 				}
 			}
-			
-			replacedLines.add(line);
-			
+		}
+		if(contents.length - start > maxLineLength) {
+			state.lineTooLong = true;
+			return false;
+		}
+		this.filesSearched.incrementAndGet();
+		if(phase != null) {
+			SearchEvents.RECORDER.endPhase(phase, SearchEvents.READ, src, contents.length, 0);
+		}
+		
+		phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		final byte[] data = contents;
+		final SearchPlan plan = this.plan;
+		//The unchanged ranges of the contents and the replacements between them, in order:
+		final List<ByteBuffer> segments = new ArrayList<>();
+		final int[] lastIndex = {0};
+		final int replacements = state.replacements;
+		long lineNum = 1L;
+		int matches = 0;
+		int pos = 0;
+		while(pos < data.length) {
+			int newline = pos;
+			while(newline < data.length && data[newline] != '\n') {
+				newline++;
+			}
+			final long lineNumber = lineNum;
+			final int lineStart = pos, lineEnd = newline > pos && data[newline - 1] == '\r' ? newline - 1 : newline;
+			matches += plan.findMatches(data, lineStart, lineEnd, (offset, length, replacement) -> {
+				if(offset > lastIndex[0]) {
+					segments.add(ByteBuffer.wrap(data, lastIndex[0], offset - lastIndex[0]));
+				}
+				segments.add(ByteBuffer.wrap(replacement));
+				this.replaced(1);
+				
+				this.recordMatch(src, null, lineNumber, offset, data, lineStart, lineEnd, offset, length, replacement);
+				pr.println(String.format("\tFound \"%s\" on line # %s; Replacing with: \"%s\";", new String(data, offset, length, StandardCharsets.ISO_8859_1), Long.toString(lineNumber), new String(replacement, StandardCharsets.ISO_8859_1)));
+				
+				lastIndex[0] = offset + length;
+				return this.pauseSleep();
+			});
 			if(!this.pauseSleep()) {
+				state.aborted = true;
 				return false;
 			}
-			
+			state.progress = Math.min(newline + 1, data.length);
+			pos = newline + 1;
 			lineNum++;
 		}
+		if(phase != null) {
+			SearchEvents.RECORDER.endPhase(phase, SearchEvents.MATCH, src, state.progress, state.replacements - replacements);
+		}
 		
-		if(this.onlyCopyFilesContainingSearchStrings && !foundAnyMatches) {
+		if(matches == 0) {
+			return this.noMatchesFound(src, dest, pr);
+		}
+		if(lastIndex[0] < data.length) {
+			segments.add(ByteBuffer.wrap(data, lastIndex[0], data.length - lastIndex[0]));
+		}
+		
+		//As with the line-by-line search, the whole file has been read before the destination file is opened, so the two may be the same file.
+		pr.println(String.format("\tCopying file \"%s\" to destination file \"%s\"...", src.getAbsolutePath(), dest.getAbsolutePath()));
+		long size = 0L;
+		for(ByteBuffer segment : segments) {
+			size += segment.remaining();
+		}
+		phase = flightRecorderEvents ? SearchEvents.RECORDER.beginPhase() : null;
+		if(this.manifest != null) {
+			state.checksum.reset();
+			for(ByteBuffer segment : segments) {
+				state.checksum.update(segment.duplicate());
+			}
+			state.checksummed = true;
+		}
+		final File output = this.getOutputFile(dest);
+		try {
+			try(FileOutputStream fos = new FileOutputStream(output); FileChannel out = fos.getChannel()) {
+				final ByteBuffer[] buffers = segments.toArray(new ByteBuffer[segments.size()]);
+				int first = 0;
+				while(first < buffers.length) {
+					//Gathering writes are limited to 1024 buffers at a time on some platforms:
+					if(!this.throttleWrite(out.write(buffers, first, Math.min(buffers.length - first, 1024)))) {
+						state.aborted = true;
+						break;
+					}
+					while(first < buffers.length && !buffers[first].hasRemaining()) {
+						first++;
+					}
+				}
+			}
+			if(state.aborted) {
+				deleteOutputFile(output, dest);
+				return false;
+			}
+			this.commitOutput(output, dest);
+			this.filesCopied.incrementAndGet();
+			if(phase != null) {
+				SearchEvents.RECORDER.endPhase(phase, SearchEvents.WRITE, dest, size, 0);
+			}
+			return true;
+		} catch(IOException ex) {
+			deleteOutputFile(output, dest);
+			this.failed(this.fileWritesFailed);
+			pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return false;
+		}
+	}
+	
+	/** Searches through a large file in parallel chunks (see
+	 * {@link ChunkedFileSearch}), writing the same output as the in-memory
+	 * search in {@link #findAndReplace(File, File, PrintStream)} would. */
+	private boolean findAndReplaceChunked(File src, File dest, PrintStream pr) {
+		pr.println(String.format("Searching within large file \"%s\" in parallel chunks...", src.getAbsolutePath()));
+		ChunkedFileSearch chunked = new ChunkedFileSearch(this, this.plan, src, dest, pr, BufferPool.chooseBufferSize(src.length(), this.destinationBlockSize));
+		long matches;
+		try {
+			matches = chunked.run();
+		} catch(IOException ex) {
+			if(chunked.isWriteFailure()) {
+				this.failed(this.fileWritesFailed);
+				pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+				System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			} else {
+				this.failed(this.fileReadsFailed);
+				pr.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+				System.err.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+			}
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return false;
+		}
+		if(matches < 0L) {
+			this.file().aborted = true;
+			return false;
+		}
+		this.filesSearched.incrementAndGet();
+		if(matches == 0L) {
+			return this.noMatchesFound(src, dest, pr);
+		}
+		this.replaced((int) matches);
+		this.filesCopied.incrementAndGet();
+		return true;
+	}
+	
+	/** Reads a file into memory and looks its contents up in the dedup cache,
+	 * reusing the output of an identical file if there is one, or else
+	 * searching through the contents that were read and caching the result. */
+	private boolean findAndReplaceCached(File src, File dest, PrintStream pr, TransformCache cache) {
+		byte[] contents;
+		try {
+			contents = this.readContents(src);
+		} catch(IOException ex) {
+			this.failed(this.fileReadsFailed);
+			pr.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+			System.err.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return false;
+		}
+		if(contents == null) {
+			this.file().aborted = true;
+			return false;
+		}
+		final String digest = TransformCache.digest(contents, contents.length);
+		TransformCache.Result result = cache.get(digest);
+		if(result != null) {
+			return this.reuseResult(result, src, dest, pr);
+		}
+		
+		final FileState state = this.file();
+		final int replacements = state.replacements, failures = state.failures;
+		boolean written = this.lineEndingsPreserved ? this.findAndReplaceVerbatim(src, dest, pr, contents) : this.findAndReplaceLines(src, dest, pr, contents);
+		if(state.aborted || state.lineTooLong || failures != state.failures) {
+			return written;
+		}
+		if(written || this.isInPlace()) {
+			//The destination file now holds the output (which, if it is the source file and no matches were found, is the contents themselves):
+			cache.put(digest, dest, state.replacements - replacements);
+		} else if(this.onlyCopyFilesContainingSearchStrings) {
+			cache.put(digest, null, 0);
+		}
+		return written;
+	}
+	
+	/** Writes the output that was cached for an identical file to the given
+	 * destination file. */
+	private boolean reuseResult(TransformCache.Result result, File src, File dest, PrintStream pr) {
+		this.filesSearched.incrementAndGet();
+		this.duplicatesReused.incrementAndGet();
+		if(result.output == null || (result.matches == 0 && (this.onlyCopyFilesContainingSearchStrings || this.isInPlace()))) {
+			return this.noMatchesFound(src, dest, pr);
+		}
+		this.replaced(result.matches);
+		if(result.output.equals(dest.getAbsoluteFile())) {
+			this.file().leftInPlace = true;
+			return true;
+		}
+		pr.println(String.format("\tFile \"%s\" is identical to a file that was already searched through; reusing its output \"%s\"...", src.getAbsolutePath(), result.output.getAbsolutePath()));
+		//Source files must stay separate files, so output inside of the source folder is always copied:
+		if(this.hardLinks && !this.isInPlace() && !result.output.getAbsoluteFile().toPath().startsWith(this.sourceFolder.toPath())) {
+			File temp = new File(dest.getPath().concat(ChunkedFileSearch.TEMP_FILE_SUFFIX));
+			try {
+				Files.deleteIfExists(temp.toPath());
+				Files.createLink(temp.toPath(), result.output.toPath());
+				Files.move(temp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				this.filesCopied.incrementAndGet();
+				return true;
+			} catch(IOException | UnsupportedOperationException ex) {
+				temp.delete();
+				pr.println(String.format("\tUnable to hard-link \"%s\" to \"%s\" (%s); copying it instead...", dest.getAbsolutePath(), result.output.getAbsolutePath(), ex.getMessage()));
+			}
+		}
+		return this.copy(result.output, dest, pr);
+	}
+	
+	/** Searches through the entries of an archive (see {@link ArchiveSearch}),
+	 * re-packing the ones that contain any search-strings.
+	 * 
+	 * @return Whether any data was written to the destination file, or
+	 *         <tt>null</tt> if the file is not an archive that can be searched
+	 *         through (in which case it should be searched as a plain file) */
+	private Boolean findAndReplaceArchive(File src, File dest, PrintStream pr) {
+		pr.println(String.format("Searching within the entries of archive \"%s\"...", src.getAbsolutePath()));
+		ArchiveSearch archive = new ArchiveSearch(this, this.plan, src, dest, pr, this.onlyConsiderTextFiles, this.chunkThreshold);
+		long matches;
+		try {
+			matches = archive.run();
+		} catch(ZipException ex) {
+			pr.println(String.format("\tUnable to search within the entries of archive \"%s\" (%s); searching it as a plain file instead.", src.getAbsolutePath(), ex.getMessage()));
+			this.file().progress = 0L;
+			return this.onlyConsiderTextFiles ? Boolean.valueOf(this.noMatchesFound(src, dest, pr)) : null;
+		} catch(IOException ex) {
+			if(archive.isWriteFailure()) {
+				this.failed(this.fileWritesFailed);
+				pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+				System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			} else {
+				this.failed(this.fileReadsFailed);
+				pr.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+				System.err.print(String.format("Failed to read source file \"%s\": ", src.getAbsolutePath()));
+			}
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return Boolean.FALSE;
+		}
+		if(matches < 0L) {
+			this.file().aborted = true;
+			return Boolean.FALSE;
+		}
+		this.filesSearched.incrementAndGet();
+		if(matches == 0L) {
+			return Boolean.valueOf(this.noMatchesFound(src, dest, pr));
+		}
+		this.replaced((int) matches);
+		this.filesCopied.incrementAndGet();
+		return Boolean.TRUE;
+	}
+	
+	/** Copies or skips a file that was searched through without finding any
+	 * of the search-strings. */
+	private boolean noMatchesFound(File src, File dest, PrintStream pr) {
+		if(this.onlyCopyFilesContainingSearchStrings) {
 			pr.println(String.format("\tSkipping copy of file \"%s\" as it does not contain any of the search-strings...", src.getAbsolutePath()));
-			this.filesSkipped++;
+			this.filesSkipped.incrementAndGet();
 			return false;
 		}
-		if(!foundAnyMatches && !src.equals(dest)) {
+		if(!src.equals(dest)) {
 			pr.println(String.format("\tPerforming byte-copy instead of line-by-line copy of file \"%s\" as it does not contain any of the search-strings.", src.getAbsolutePath()));
 			return this.copy(src, dest, pr);
 		}
-		if(!foundAnyMatches && src.equals(dest)) {
-			pr.println(String.format("\tSkipping copy of file \"%s\" as it does not contain any of the search-strings, and is the same file as the destination.", src.getAbsolutePath()));
-			this.filesSkipped++;
-			return false;
+		pr.println(String.format("\tSkipping copy of file \"%s\" as it does not contain any of the search-strings, and is the same file as the destination.", src.getAbsolutePath()));
+		this.filesSkipped.incrementAndGet();
+		return false;
+	}
+	
+	/** Reads the whole of a file into memory a buffer at a time, charging each
+	 * buffer against the read rate limit as it is read.
+	 * 
+	 * @param src The file to read
+	 * @return The file's contents, or <tt>null</tt> if the search was stopped
+	 *         before they were all read
+	 * @throws IOException Thrown if the file could not be read */
+	byte[] readContents(File src) throws IOException {
+		try(FileInputStream fis = new FileInputStream(src); FileChannel in = fis.getChannel()) {
+			final long size = in.size();
+			if(size > Integer.MAX_VALUE - 8) {
+				throw new OutOfMemoryError("Required array size too large");
+			}
+			final int bufferSize = BufferPool.chooseBufferSize(size, this.sourceBlockSize);
+			byte[] contents = new byte[(int) size];
+			int length = 0;
+			while(true) {
+				if(length == contents.length) {
+					//The file may have grown since its size was read:
+					ByteBuffer next = ByteBuffer.allocate(1);
+					if(in.read(next) != 1) {
+						break;
+					}
+					if(length >= Integer.MAX_VALUE - 8) {
+						throw new OutOfMemoryError("Required array size too large");
+					}
+					contents = Arrays.copyOf(contents, (int) Math.min(Integer.MAX_VALUE - 8L, Math.max(length + 1L, length * 2L)));
+					contents[length++] = next.get(0);
+					continue;
+				}
+				int read = in.read(ByteBuffer.wrap(contents, length, Math.min(bufferSize, contents.length - length)));
+				if(read == -1) {
+					break;
+				}
+				length += read;
+				if(!this.throttleRead(read)) {
+					return null;
+				}
+			}
+			return length == contents.length ? contents : Arrays.copyOf(contents, length);
+		}
+	}
+	
+	/** Thrown from deep within the reading or writing of a file (such as by
+	 * {@link ChunkedFileSearch} and {@link ArchiveSearch}) when the search is
+	 * stopped while it waits on a rate limit, so that the file can be
+	 * abandoned. It is never reported as a failure. */
+	static final class Stopped extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		Stopped() {
+			super("The search was stopped");
+		}
+		
+	}
+	
+	/** Charges the given number of bytes against the read rate limit, waiting
+	 * until they may be read (see {@link #setReadRateLimit(long)}).
+	 * 
+	 * @param bytes The number of bytes that are about to be read
+	 * @return Whether or not the operation should continue running */
+	boolean throttleRead(long bytes) {
+		return this.throttle(this.readLimit, bytes);
+	}
+	
+	/** Charges the given number of bytes against the write rate limit, waiting
+	 * until they may be written (see {@link #setWriteRateLimit(long)}).
+	 * 
+	 * @param bytes The number of bytes that are about to be written
+	 * @return Whether or not the operation should continue running */
+	boolean throttleWrite(long bytes) {
+		return this.throttle(this.writeLimit, bytes);
+	}
+	
+	/** Waits for the given rate limiter to allow the given amount to be used,
+	 * pausing with the search and giving up if it is stopped. Waits shorter
+	 * than a millisecond are skipped, as later charges wait for them instead,
+	 * and the wait is cut short if the limit is changed. */
+	private boolean throttle(RateLimiter limiter, long amount) {
+		final long rate = limiter.getRate();
+		long wait = limiter.acquire(amount);
+		if(wait < 1000000L) {
+			return this.running;
+		}
+		final long deadline = System.nanoTime() + wait;
+		while((wait = deadline - System.nanoTime()) >= 1000000L && limiter.getRate() == rate) {
+			if(!this.pauseSleep()) {
+				return false;
+			}
+			CodeUtil.sleep(Math.min(10L, wait / 1000000L));
+		}
+		return this.pauseSleep();
+	}
+	
+	/** Updates the progress through the file that is currently being searched
+	 * (used by {@link ChunkedFileSearch}).
+	 * 
+	 * @param bytes The number of bytes of the file that have been processed */
+	void setFileProgress(long bytes) {
+		this.file().progress = bytes;
+	}
+	
+	/** @return The state of the file that the current thread is searching
+	 *         through (each file worker searches through its own file) */
+	private FileState file() {
+		return this.fileState.get();
+	}
+	
+	/** Counts replacements that were made in the current file.
+	 * 
+	 * @param replacements The number of replacements */
+	private void replaced(int replacements) {
+		this.searchReplacementsPerformed.addAndGet(replacements);
+		this.file().replacements += replacements;
+	}
+	
+	/** Counts a failure to read, write or copy the current file.
+	 * 
+	 * @param counter The counter of the kind of failure that it was */
+	private void failed(AtomicInteger counter) {
+		counter.incrementAndGet();
+		final FileState state = this.file();
+		state.failures++;
+		state.incomplete = true;
+	}
+	
+	/** Wraps the stream that the current file's output is about to be written
+	 * to, so that its checksum is worked out as it is written (if a checksum
+	 * manifest is being written).
+	 * 
+	 * @param out The stream that the output is written to
+	 * @return The stream to write the output to */
+	final OutputStream checked(OutputStream out) {
+		if(this.manifest == null) {
+			return out;
+		}
+		final FileState state = this.file();
+		state.checksum.reset();
+		state.checksummed = true;
+		return new CheckedOutputStream(out, state.checksum);
+	}
+	
+	/** Lists a file that was written to the destination folder in the checksum
+	 * manifest, if one is being written.
+	 * 
+	 * @param dest The file that was written
+	 * @param path The file's path, relative to the destination folder
+	 * @param pr The {@link PrintStream} to print status messages to */
+	private void recordChecksum(File dest, String path, PrintStream pr) {
+		final ChecksumManifest manifest = this.manifest;
+		final FileState state = this.file();
+		if(manifest == null || state.leftInPlace) {
+			return;
 		}
-		
-		//Reading the source file and writing to the destination file has been separated out due to the possibility of the user selecting the same source directory as the destination,
-		//thereby causing the srcFile and destFile to be the same file! I have intentionally allowed this possibility and worked around it to allow the user to just do an in-place replacement without having to actually copy the files.
-		//Without the workaround, opening and writing to the same file at the same time results in a blank file when the program is done with it! (at least on my Windows 10 computer ...)
-		
-		pr.println(String.format("\tCopying file \"%s\" to destination file \"%s\" line-by-line...", src.getAbsolutePath(), dest.getAbsolutePath()));
-		try(PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(dest), StandardCharsets.ISO_8859_1), true)) {
-			for(String line : replacedLines) {
-				out.println(line);
+		long checksum;
+		if(state.checksummed) {
+			checksum = state.checksum.getValue();
+		} else {
+			//Output that was written without passing through the search (re-packed archives and hard links) is read back instead:
+			try {
+				checksum = ChecksumManifest.checksum(dest);
+			} catch(IOException ex) {
+				pr.println(String.format("\tUnable to checksum file \"%s\"; it will be left out of the manifest: %s", dest.getAbsolutePath(), ex.getMessage()));
+				return;
 			}
-			out.flush();
-			this.filesCopied++;
-			return true;
+		}
+		try {
+			manifest.record(path, dest.length(), checksum);
 		} catch(IOException ex) {
-			this.fileWritesFailed++;
-			pr.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
-			System.err.print(String.format("Failed to write to destination file \"%s\": ", dest.getAbsolutePath()));
+			this.manifest = null;
+			pr.print(String.format("Failed to write to checksum manifest \"%s\"; no further checksums will be recorded: ", manifest.getFile().getAbsolutePath()));
+			System.err.print(String.format("Failed to write to checksum manifest \"%s\"; no further checksums will be recorded: ", manifest.getFile().getAbsolutePath()));
 			ex.printStackTrace(pr);
 			ex.printStackTrace(System.err);
 			pr.flush();
 			System.err.flush();
-			return false;
 		}
 	}
 	
@@ -388,17 +2025,44 @@ public final class FindReplaceSearch {
 	 * 
 	 * @return Whether or not the operation should continue running */
 	protected boolean pauseSleep() {
+		return this.pauseSleep(this.file());
+	}
+	
+	/** @see #pauseSleep() */
+	private boolean pauseSleep(FileState state) {
 		while(this.paused) {
 			CodeUtil.sleep(10L);
 		}
+		final long deadline = state.deadline;
+		if(deadline != 0L && System.nanoTime() - deadline > 0L && !this.paused) {
+			state.timedOut = true;
+			return false;
+		}
 		return this.running;
 	}
 	
+	/** Returns a check that tasks which work on the current thread's file from
+	 * other threads (such as the chunks of a {@link ChunkedFileSearch}) call
+	 * in place of {@link #pauseSleep()}. It pauses with the search, and gives
+	 * up once the search is stopped or the file runs past its
+	 * {@link #getFileTimeout() timeout}, in which case the file is marked as
+	 * timed out.
+	 * 
+	 * @return The check, which returns whether or not the task should
+	 *         continue running */
+	BooleanSupplier getFileCheck() {
+		final FileState state = this.file();
+		return () -> this.pauseSleep(state);
+	}
+	
 	/** Pauses the current search operation.
 	 * 
 	 * @return This FindReplaceSearch */
 	public FindReplaceSearch pauseSearch() {
-		this.paused = true;
+		if(!this.paused) {
+			this.pausedAt = System.nanoTime();
+			this.paused = true;
+		}
 		return this;
 	}
 	
@@ -406,7 +2070,17 @@ public final class FindReplaceSearch {
 	 * 
 	 * @return This FindReplaceSearch */
 	public FindReplaceSearch resumeSearch() {
-		this.paused = false;
+		if(this.paused) {
+			//Time spent paused doesn't count towards the file timeout:
+			final long paused = System.nanoTime() - this.pausedAt;
+			for(FileState state : this.fileStates) {
+				final long deadline = state.deadline;
+				if(deadline != 0L) {
+					state.deadline = deadline + paused;
+				}
+			}
+			this.paused = false;
+		}
 		return this;
 	}
 	
@@ -452,100 +2126,201 @@ public final class FindReplaceSearch {
 		}
 		this.running = true;
 		this.paused = false;
-		this.filesCopied = this.searchReplacementsPerformed = this.filesSkipped = this.foldersTraversed = //
-				this.filesSearched = this.fileReadsFailed = this.fileWritesFailed = this.fileCopiesFailed = 0;
+		for(AtomicInteger counter : this.counters) {
+			counter.set(0);
+		}
+		final PathFilter filter = this.filter;
+		if(filter != null) {
+			filter.reset();
+		}
+		MemoryBudget.getGlobal().resetPeak();
+		this.sourceBlockSize = BufferPool.getBlockSize(this.sourceFolder);
+		this.destinationBlockSize = BufferPool.getBlockSize(this.destinationFolder);
+		this.startTime = System.currentTimeMillis();
+		this.endTime = 0L;
+		this.preScanComplete = false;
+		this.totalFiles.set(0L);
+		this.totalBytes.set(0L);
+		this.filesCompleted.set(0L);
+		this.bytesCompleted.set(0L);
+		this.fileStates.clear();
+		final File journalFile = this.journalFile;
+		final boolean resume = this.resume;
+		final File patchFile = this.patchFile;
+		final File manifestFile = patchFile == null ? this.manifestFile : null;
+		final boolean watch = this.watch && patchFile == null;
+		final boolean dedup = this.dedup && patchFile == null;
+		final File dedupCacheFile = this.dedupCacheFile;
+		final DestinationFolders folders = new DestinationFolders(this.preserveAttributes);
+		this.folders = folders;
 		
 		this.thread = new Thread(() -> {
-			String srcPath = this.sourceFolder.getAbsolutePath();
-			srcPath = srcPath.endsWith(File.separator) ? srcPath.substring(0, srcPath.length() - 1) : srcPath;
-			String destPath = this.destinationFolder.getAbsolutePath();
-			destPath = destPath.endsWith(File.separator) ? destPath.substring(0, destPath.length() - 1) : destPath;
-			final ConcurrentLinkedDeque<File> files;
-			{
-				File[] children = this.sourceFolder.listFiles();
-				files = children == null ? new ConcurrentLinkedDeque<>() : new ConcurrentLinkedDeque<>(Arrays.asList(children));
-				if(children != null) {
-					this.foldersTraversed++;
-				}
-			}
-			int i = -1;
-			File file;
-			while(this.running && (file = files.poll()) != null) {
-				i++;
-				if(file.isDirectory()) {
-					if(!this.recursive) {
-						continue;
-					}
-					
-					File[] children = file.listFiles();
-					if(children != null) {
-						this.foldersTraversed++;
-						files.addAll(Arrays.asList(children));
+			SearchJournal journal = null;
+			if(journalFile != null) {
+				try {
+					//The output of a file modified in place was moved over it if its temporary file is gone (see commitOutput(File, File)):
+					journal = SearchJournal.open(journalFile, this.getFingerprint(), resume, this.isInPlace() && patchFile == null ? (path) -> !new File(this.sourceFolder, path.replace('/', File.separatorChar).concat(ChunkedFileSearch.TEMP_FILE_SUFFIX)).exists() : null);
+					if(journal.isResumed()) {
+						pr.println(String.format("Resuming the search recorded in journal \"%s\"...", journalFile.getAbsolutePath()));
 					}
-					continue;
+				} catch(IOException ex) {
+					pr.print(String.format("Failed to open journal \"%s\"; the search will not be resumable: ", journalFile.getAbsolutePath()));
+					System.err.print(String.format("Failed to open journal \"%s\"; the search will not be resumable: ", journalFile.getAbsolutePath()));
+					ex.printStackTrace(pr);
+					ex.printStackTrace(System.err);
+					pr.flush();
+					System.err.flush();
 				}
-				
-				String path = file.getAbsolutePath();
-				path = path.startsWith(srcPath) ? path.substring(srcPath.length()) : path;
-				
-				if(!file.exists() || !file.isFile()) {
-					pr.println(String.format("Skipping unknown filesystem object \"%s\"...", path));
-					continue;
+			}
+			if(patchFile != null) {
+				try {
+					this.patch = new PatchWriter(patchFile, journal != null && journal.isResumed());
+				} catch(IOException ex) {
+					this.running = false;
+					pr.print(String.format("Failed to open patch file \"%s\"; stopping the search: ", patchFile.getAbsolutePath()));
+					System.err.print(String.format("Failed to open patch file \"%s\"; stopping the search: ", patchFile.getAbsolutePath()));
+					ex.printStackTrace(pr);
+					ex.printStackTrace(System.err);
+					pr.flush();
+					System.err.flush();
 				}
-				if(!this.pauseSleep()) {
-					break;
+			}
+			if(manifestFile != null) {
+				try {
+					this.manifest = new ChecksumManifest(manifestFile, journal != null && journal.isResumed());
+				} catch(IOException ex) {
+					pr.print(String.format("Failed to open checksum manifest \"%s\"; no checksums will be recorded: ", manifestFile.getAbsolutePath()));
+					System.err.print(String.format("Failed to open checksum manifest \"%s\"; no checksums will be recorded: ", manifestFile.getAbsolutePath()));
+					ex.printStackTrace(pr);
+					ex.printStackTrace(System.err);
+					pr.flush();
+					System.err.flush();
 				}
-				
-				if(this.onlyConsiderTextFiles) {
-					String name = file.getName();
-					boolean isValidExtension = false;
-					if(name.contains(".")) {
-						for(String validExtension : commonTextFileExtensions) {
-							isValidExtension |= name.toLowerCase().endsWith(validExtension.toLowerCase());
-							if(isValidExtension) {
-								break;
-							}
-						}
-						if(!isValidExtension) {
-							if(!this.onlyCopyFilesContainingSearchStrings) {
-								pr.println(String.format("Performing byte-copy of non-text file \"%s\"...", path));
-								File dest = new File(destPath.concat(path.startsWith(File.separator) ? path : File.separator.concat(path)));
-								File parent = dest.getParentFile();
-								boolean parentExisted = false;
-								if(parent != null) {
-									parentExisted = parent.exists() && parent.isDirectory();
-									parent.mkdirs();
-								}
-								this.copy(file, dest, pr);
-								if(!dest.exists() && parent != null && !parentExisted) {
-									parent.delete();
-								}
+			}
+			TransformCache cache = null;
+			if(dedup) {
+				String fingerprint = TransformCache.fingerprint(this.plan, this.lineEndingsPreserved);
+				if(dedupCacheFile != null) {
+					try {
+						cache = TransformCache.load(dedupCacheFile, fingerprint, TransformCache.DEFAULT_CAPACITY);
+					} catch(IOException ex) {
+						pr.print(String.format("Failed to load dedup cache \"%s\"; starting with an empty one: ", dedupCacheFile.getAbsolutePath()));
+						System.err.print(String.format("Failed to load dedup cache \"%s\"; starting with an empty one: ", dedupCacheFile.getAbsolutePath()));
+						ex.printStackTrace(pr);
+						ex.printStackTrace(System.err);
+						pr.flush();
+						System.err.flush();
+					}
+				}
+				this.cache = cache == null ? new TransformCache(fingerprint, TransformCache.DEFAULT_CAPACITY) : cache;
+			}
+			FolderWatcher watcher = null;
+			if(watch) {
+				try {
+					watcher = new FolderWatcher(this.sourceFolder);
+				} catch(IOException ex) {
+					pr.print(String.format("Failed to watch the source folder \"%s\"; changes will not be picked up: ", this.sourceFolder.getAbsolutePath()));
+					System.err.print(String.format("Failed to watch the source folder \"%s\"; changes will not be picked up: ", this.sourceFolder.getAbsolutePath()));
+					ex.printStackTrace(pr);
+					ex.printStackTrace(System.err);
+					pr.flush();
+					System.err.flush();
+				}
+			}
+			if(this.preScan) {
+				final SearchJournal preScanJournal = journal;
+				Thread preScanThread = new Thread(() -> this.preScan(filter, preScanJournal), "Find/ReplacePreScanThread");
+				preScanThread.setDaemon(true);
+				preScanThread.start();
+			}
+			final Object event = flightRecorderEvents ? SearchEvents.RECORDER.beginSearch() : null;
+			try {
+				try {
+					this.journal = journal;
+					this.search(pr, filter, journal, watcher);
+				} finally {
+					this.journal = null;
+					folders.finish(pr);
+					this.endTime = System.currentTimeMillis();
+					if(journal != null) {
+						try {
+							//The journal is kept if any of the files failed or timed out, so that resuming the search tries just those again:
+							if(this.running && journal.getError() == null && this.filesTimedOut.get() + this.fileCopiesFailed.get() + this.fileReadsFailed.get() + this.fileWritesFailed.get() == 0) {
+								journal.delete();
 							} else {
-								pr.println(String.format("Skipping search within and copy of non-text file \"%s\"...", path));
-								this.filesSkipped++;
-								this.searchesSkipped++;
+								journal.close();
 							}
-							continue;
+							if(journal.getError() != null) {
+								throw journal.getError();
+							}
+						} catch(IOException ex) {
+							pr.print(String.format("Failed to write to journal \"%s\": ", journalFile.getAbsolutePath()));
+							System.err.print(String.format("Failed to write to journal \"%s\": ", journalFile.getAbsolutePath()));
+							ex.printStackTrace(pr);
+							ex.printStackTrace(System.err);
+							System.err.flush();
 						}
 					}
+					pr.flush();
 				}
-				
-				path = destPath.concat(path.startsWith(File.separator) ? path : File.separator.concat(path));
-				
-				File dest = new File(path);
-				File parent = dest.getParentFile();
-				boolean parentExisted = false;
-				if(parent != null) {
-					parentExisted = parent.exists() && parent.isDirectory();
-					parent.mkdirs();
+				if(watcher != null && this.running) {
+					this.watch(pr, filter, watcher);
 				}
-				this.findAndReplace(file, dest, pr);
-				if(!dest.exists() && parent != null && !parentExisted) {
-					parent.delete();
+			} finally {
+				if(watcher != null) {
+					try {
+						watcher.close();
+					} catch(IOException ignored) {
+					}
+					folders.finish(pr);
+				}
+				if(event != null) {
+					SearchEvents.RECORDER.endSearch(event, this.sourceFolder, patchFile != null ? patchFile : this.destinationFolder, this.filesCompleted.get(), this.bytesCompleted.get(), this.searchReplacementsPerformed.get());
+				}
+				final ChecksumManifest manifest = this.manifest;
+				this.manifest = null;
+				if(manifest != null) {
+					try {
+						manifest.close();
+						pr.println(String.format("Recorded the checksums of %s file(s) in manifest \"%s\".", Integer.toString(manifest.getCount()), manifestFile.getAbsolutePath()));
+					} catch(IOException ex) {
+						pr.print(String.format("Failed to write to checksum manifest \"%s\": ", manifestFile.getAbsolutePath()));
+						System.err.print(String.format("Failed to write to checksum manifest \"%s\": ", manifestFile.getAbsolutePath()));
+						ex.printStackTrace(pr);
+						ex.printStackTrace(System.err);
+						System.err.flush();
+					}
+					pr.flush();
+				}
+				final PatchWriter patch = this.patch;
+				this.patch = null;
+				if(patch != null) {
+					try {
+						patch.close();
+					} catch(IOException ex) {
+						pr.print(String.format("Failed to write to patch file \"%s\": ", patchFile.getAbsolutePath()));
+						System.err.print(String.format("Failed to write to patch file \"%s\": ", patchFile.getAbsolutePath()));
+						ex.printStackTrace(pr);
+						ex.printStackTrace(System.err);
+						System.err.flush();
+					}
+					pr.flush();
+				}
+				cache = this.cache;
+				this.cache = null;
+				if(cache != null && dedupCacheFile != null) {
+					try {
+						cache.save(dedupCacheFile);
+					} catch(IOException ex) {
+						pr.print(String.format("Failed to save dedup cache \"%s\": ", dedupCacheFile.getAbsolutePath()));
+						System.err.print(String.format("Failed to save dedup cache \"%s\": ", dedupCacheFile.getAbsolutePath()));
+						ex.printStackTrace(pr);
+						ex.printStackTrace(System.err);
+						System.err.flush();
+					}
+					pr.flush();
 				}
-				pr.flush();
 			}
-			pr.flush();
 		}, "Find/ReplaceSearchThread");
 		this.thread.setDaemon(true);
 		this.thread.start();
@@ -563,6 +2338,564 @@ public final class FindReplaceSearch {
 		return this.thread;
 	}
 	
+	/** Walks the source folder and searches through (and/or copies) each file
+	 * that it finds, recording each completed file and folder in the journal
+	 * (if there is one). With more than one file worker, the files are handed
+	 * out to the workers by a {@link FileScheduler} instead.
+	 * 
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @param filter The filter that the search is using
+	 * @param journal The journal to resume from and record progress in, or
+	 *            <tt>null</tt>
+	 * @param watcher The watcher to register each listed folder with, or
+	 *            <tt>null</tt> */
+	private void search(final PrintStream pr, final PathFilter filter, final SearchJournal journal, final FolderWatcher watcher) {
+		String srcPath = this.sourceFolder.getAbsolutePath();
+		srcPath = srcPath.endsWith(File.separator) ? srcPath.substring(0, srcPath.length() - 1) : srcPath;
+		String destPath = this.destinationFolder.getAbsolutePath();
+		destPath = destPath.endsWith(File.separator) ? destPath.substring(0, destPath.length() - 1) : destPath;
+		//Files that are modified in place (or appended to a patch) must be journaled right away, as searching them again would apply the replacements twice:
+		final boolean inPlace = this.patch != null || this.isInPlace();
+		//The number of children that each listed folder is still waiting on, so that completed folders can be journaled:
+		final Map<String, int[]> remaining = journal == null ? null : new HashMap<>();
+		final ConcurrentLinkedDeque<File> files;
+		{
+			File[] children = journal != null && journal.isFolderCompleted("") ? new File[0] : listFiles(this.sourceFolder, "");
+			files = children == null ? new ConcurrentLinkedDeque<>() : new ConcurrentLinkedDeque<>(Arrays.asList(children));
+			if(children != null) {
+				this.foldersTraversed.incrementAndGet();
+				if(watcher != null) {
+					watcher.register(this.sourceFolder);
+				}
+				if(filter != null) {
+					filter.onFolderListed(this.sourceFolder, "");
+				}
+				if(remaining != null && children.length > 0) {
+					remaining.put("", new int[] {children.length});
+				}
+			}
+		}
+		final String destination = destPath;
+		final FileScheduler scheduler = this.fileWorkers <= 1 || this.patch != null ? null : new FileScheduler(this.fileWorkers, this.fileOrder, (file, path, size) -> {
+			if(!this.pauseSleep() || !this.processFile(file, path, destination, pr)) {
+				return false;
+			}
+			this.fileCompleted(size);
+			pr.flush();
+			//Files that failed or timed out are left out of the journal (which also keeps their folders out of it), so that a resumed search tries them again:
+			if(remaining != null && !this.file().incomplete) {
+				synchronized(remaining) {
+					journal.fileCompleted(path, inPlace);
+					this.childCompleted(remaining, journal, path);
+				}
+			}
+			return true;
+		}, "Find/ReplaceFileWorker");
+		try {
+			File file;
+			while(this.running && (file = files.poll()) != null) {
+				String path = file.getAbsolutePath();
+				path = path.startsWith(srcPath) ? path.substring(srcPath.length()) : path;
+				//Whether the file or folder is done with (and if so, whether it needs to be recorded in the journal):
+				boolean completed = true, record = false;
+				try {
+					
+					if(file.isDirectory()) {
+						if(!this.recursive) {
+							continue;
+						}
+						if(journal != null && journal.isFolderCompleted(path)) {
+							this.foldersAlreadyCompleted.incrementAndGet();
+							continue;
+						}
+						if(filter != null && !filter.acceptFolder(path)) {
+							pr.println(String.format("Skipping excluded folder \"%s\"...", path));
+							this.foldersPruned.incrementAndGet();
+							continue;
+						}
+						
+						File[] children = listFiles(file, path);
+						if(children != null) {
+							this.foldersTraversed.incrementAndGet();
+							if(watcher != null) {
+								watcher.register(file);
+							}
+							if(filter != null) {
+								filter.onFolderListed(file, path);
+							}
+							files.addAll(Arrays.asList(children));
+							if(remaining != null && children.length > 0) {
+								synchronized(remaining) {
+									remaining.put(path, new int[] {children.length});
+								}
+								completed = false;//Completed once its children are
+							}
+						} else {
+							completed = false;//Listed again when the search is resumed
+						}
+						continue;
+					}
+					
+					if(!file.exists() || !file.isFile()) {
+						pr.println(String.format("Skipping unknown filesystem object \"%s\"...", path));
+						continue;
+					}
+					if(isTemporaryFile(file)) {
+						//Left behind by a search that was killed while it was writing the file's output (which writes over it, and moves it into place, when the file is searched through again):
+						pr.println(String.format("Skipping temporary file \"%s\"...", path));
+						continue;
+					}
+					if(journal != null && (journal.isFileCompleted(path) || journal.isJournalFile(file))) {
+						this.filesAlreadyCompleted.addAndGet(journal.isJournalFile(file) ? 0 : 1);
+						continue;
+					}
+					final long size = file.length();
+					if(filter != null && !filter.acceptFile(path, size)) {
+						this.filesFiltered.incrementAndGet();
+						continue;
+					}
+					if(scheduler != null) {
+						completed = false;//Completed by the worker that processes it
+						if(!scheduler.submit(file, path, size)) {
+							break;
+						}
+						continue;
+					}
+					this.file().progress = 0L;
+					if(!this.pauseSleep()) {
+						completed = false;
+						break;
+					}
+					
+					if(!this.processFile(file, path, destPath, pr)) {
+						completed = false;
+						break;
+					}
+					completed = record = !this.file().incomplete;
+					this.fileCompleted(size);
+					pr.flush();
+				} finally {
+					if(completed && remaining != null) {
+						synchronized(remaining) {
+							if(record) {
+								journal.fileCompleted(path, inPlace);
+							}
+							this.childCompleted(remaining, journal, path);
+						}
+					}
+				}
+			}
+		} finally {
+			if(scheduler != null) {
+				if(!this.running) {
+					scheduler.stop();
+				}
+				scheduler.finish();
+			}
+		}
+	}
+	
+	/** Searches through (or copies, or skips) a single file, writing the
+	 * output to the same place in the destination folder (or to the patch),
+	 * and emitting a {@link SearchEvents#beginFileProcessed() file processed}
+	 * event if events are enabled.
+	 * 
+	 * @param file The file to process
+	 * @param path The file's path, relative to the source folder
+	 * @param destPath The absolute path of the destination folder
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @return False if the search was stopped before the file was done */
+	private boolean processFile(File file, String path, String destPath, PrintStream pr) {
+		if(!flightRecorderEvents) {
+			return this.searchFile(file, path, destPath, pr);
+		}
+		final long size = file.length();
+		final int replacements = this.file().replacements;
+		final Object event = SearchEvents.RECORDER.beginFileProcessed();
+		try {
+			return this.searchFile(file, path, destPath, pr);
+		} finally {
+			SearchEvents.RECORDER.endFileProcessed(event, path, size, this.file().replacements - replacements);
+		}
+	}
+	
+	/** @see #processFile(File, String, String, PrintStream) */
+	private boolean searchFile(File file, String path, String destPath, PrintStream pr) {
+		this.file().incomplete = false;
+		if(!this.throttle(this.fileLimit, 1L)) {
+			return false;
+		}
+		final PatchWriter patch = this.patch;
+		if(patch != null) {
+			return this.diff(patch, file, path, pr);
+		}
+		boolean byteCopy = false;
+		String name = file.getName();
+		if(this.onlyConsiderTextFiles && !isConsideredTextFile(name) && !(this.searchArchives && ArchiveSearch.isArchive(name))) {
+			if(this.onlyCopyFilesContainingSearchStrings) {
+				pr.println(String.format("Skipping search within and copy of non-text file \"%s\"...", path));
+				this.filesSkipped.incrementAndGet();
+				this.searchesSkipped.incrementAndGet();
+				return true;
+			}
+			pr.println(String.format("Performing byte-copy of non-text file \"%s\"...", path));
+			byteCopy = true;
+		}
+		
+		File dest = new File(destPath.concat(path.startsWith(File.separator) ? path : File.separator.concat(path)));
+		//Each destination folder is only checked for (and created) once, and is deleted at the end of the search if nothing was written to it:
+		final DestinationFolders folders = this.folders;
+		File parent = dest.getParentFile();
+		if(parent != null) {
+			folders.prepare(parent, file.getParentFile());
+		}
+		BasicFileAttributes attributes = null;
+		if(this.preserveAttributes) {
+			try {
+				attributes = DestinationFolders.readAttributes(file);
+			} catch(IOException ex) {
+				pr.println(String.format("\tUnable to read the attributes of file \"%s\"; they will not be copied: %s", file.getAbsolutePath(), ex.getMessage()));
+			}
+		}
+		final FileState state = this.file();
+		state.aborted = state.checksummed = state.leftInPlace = false;
+		state.path = path;
+		final boolean written;
+		if(byteCopy) {
+			written = this.copy(file, dest, pr);
+		} else {
+			final long timeout = this.fileTimeout;
+			state.timedOut = false;
+			state.deadline = timeout == 0L ? 0L : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			try {
+				written = this.findAndReplace(file, dest, pr);
+			} finally {
+				state.deadline = 0L;
+			}
+			if(state.timedOut && this.running) {
+				state.timedOut = false;
+				state.incomplete = true;
+				this.filesTimedOut.incrementAndGet();
+				pr.println(String.format("\tGave up on file \"%s\" after searching through it for longer than %sms; its output was not written.", file.getAbsolutePath(), Long.toString(timeout)));
+				return true;
+			}
+		}
+		if(written && !state.aborted) {
+			this.recordChecksum(dest, path, pr);
+		}
+		if(written) {
+			folders.written(parent);
+			if(attributes != null) {
+				try {
+					DestinationFolders.copyAttributes(attributes, dest);
+				} catch(IOException | UnsupportedOperationException ex) {
+					pr.println(String.format("\tUnable to copy the attributes of file \"%s\" to \"%s\": %s", file.getAbsolutePath(), dest.getAbsolutePath(), ex.getMessage()));
+				}
+			}
+		}
+		return !state.aborted;
+	}
+	
+	/** Searches through a single file and appends its changes to the patch
+	 * (see {@link PatchWriter}), without writing anything to the destination
+	 * folder.
+	 * 
+	 * @return False if the search was stopped before the file was done */
+	private boolean diff(PatchWriter patch, File file, String path, PrintStream pr) {
+		if(this.plan.isEmpty() || (this.onlyConsiderTextFiles && !isConsideredTextFile(file.getName()))) {
+			pr.println(String.format("Skipping search within %sfile \"%s\" as it can't change the patch...", this.plan.isEmpty() ? "" : "non-text ", path));
+			this.filesSkipped.incrementAndGet();
+			this.searchesSkipped.incrementAndGet();
+			return true;
+		}
+		pr.println(String.format("Searching within file \"%s\" for the patch...", file.getAbsolutePath()));
+		//Files that are read into memory are reserved from the memory budget, or diffed as they are read if they don't fit into it:
+		final MemoryBudget budget = MemoryBudget.getGlobal();
+		final long size = file.length();
+		long reserved = 0L, chunkThreshold = this.chunkThreshold;
+		if(size < chunkThreshold) {
+			reserved = 2L * size;
+			if(!budget.fits(reserved)) {
+				reserved = 0L;
+				chunkThreshold = 0L;
+			} else if(!budget.reserve(reserved, this::pauseSleep)) {
+				return false;
+			}
+		}
+		long matches;
+		try {
+			matches = patch.diff(this, this.plan, file, path, chunkThreshold, BufferPool.chooseBufferSize(size, this.sourceBlockSize));
+		} catch(IOException ex) {
+			if(patch.isWriteFailure()) {
+				this.failed(this.fileWritesFailed);
+				pr.print(String.format("Failed to write to patch file \"%s\": ", patch.getFile().getAbsolutePath()));
+				System.err.print(String.format("Failed to write to patch file \"%s\": ", patch.getFile().getAbsolutePath()));
+			} else {
+				this.failed(this.fileReadsFailed);
+				pr.print(String.format("Failed to read source file \"%s\": ", file.getAbsolutePath()));
+				System.err.print(String.format("Failed to read source file \"%s\": ", file.getAbsolutePath()));
+			}
+			ex.printStackTrace(pr);
+			ex.printStackTrace(System.err);
+			pr.flush();
+			System.err.flush();
+			return true;
+		} finally {
+			budget.release(reserved);
+		}
+		if(matches < 0L) {
+			return false;
+		}
+		this.filesSearched.incrementAndGet();
+		if(matches == 0L) {
+			pr.println(String.format("\tLeaving file \"%s\" out of the patch as it does not contain any of the search-strings.", file.getAbsolutePath()));
+			return true;
+		}
+		pr.println(String.format("\tFound %s match(es) in file \"%s\"; added its changes to the patch.", Long.toString(matches), file.getAbsolutePath()));
+		this.replaced((int) matches);
+		this.filesPatched.incrementAndGet();
+		return true;
+	}
+	
+	/** Waits for files to be created or modified in the folders that the
+	 * search listed (see {@link FolderWatcher}), and searches through each
+	 * of them again the same way that the initial pass did (on the file
+	 * workers, if there are any), until the search is stopped. New folders
+	 * are listed and watched as they appear.
+	 * 
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @param filter The filter that the search is using
+	 * @param watcher The watcher that the listed folders were registered
+	 *            with */
+	private void watch(final PrintStream pr, final PathFilter filter, final FolderWatcher watcher) {
+		String srcPath = this.sourceFolder.getAbsolutePath();
+		srcPath = srcPath.endsWith(File.separator) ? srcPath.substring(0, srcPath.length() - 1) : srcPath;
+		String destPath = this.destinationFolder.getAbsolutePath();
+		destPath = destPath.endsWith(File.separator) ? destPath.substring(0, destPath.length() - 1) : destPath;
+		final boolean inPlace = this.isInPlace();
+		//Output files that are written inside of the source folder must not be searched through again:
+		final String ignoredPath = !inPlace && destPath.startsWith(srcPath.concat(File.separator)) ? destPath.concat(File.separator) : null;
+		//The modification time and size of each file that was rewritten in place, so that the changes made by the search itself can be told apart:
+		final Map<File, long[]> written = new ConcurrentHashMap<>();
+		//The files that the workers are processing, and those of them that changed again in the meantime (which are processed again afterwards, as a file must never be processed by two workers at once):
+		final Set<File> processing = ConcurrentHashMap.newKeySet(), changedAgain = ConcurrentHashMap.newKeySet();
+		final Queue<File> requeued = new ConcurrentLinkedQueue<>();
+		final String destination = destPath;
+		final FileScheduler scheduler = this.fileWorkers <= 1 || this.patch != null ? null : new FileScheduler(this.fileWorkers, this.fileOrder, (file, path, size) -> {
+			try {
+				return this.processChange(file, path, size, destination, inPlace ? written : null, pr);
+			} finally {
+				processing.remove(file);
+				if(changedAgain.remove(file)) {
+					requeued.add(file);
+				}
+			}
+		}, "Find/ReplaceWatchWorker");
+		this.watching = true;
+		pr.println(String.format("Watching \"%s\" for changes...", this.sourceFolder.getAbsolutePath()));
+		pr.flush();
+		try {
+			while(this.running) {
+				ArrayDeque<File> changed;
+				try {
+					changed = new ArrayDeque<>(watcher.poll(100L));
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				File file;
+				while((file = requeued.poll()) != null) {
+					changed.add(file);
+				}
+				while(this.running && (file = changed.poll()) != null) {
+					String absolutePath = file.getAbsolutePath();
+					if(ignoredPath != null && absolutePath.startsWith(ignoredPath)) {
+						continue;
+					}
+					String path = absolutePath.startsWith(srcPath) ? absolutePath.substring(srcPath.length()) : absolutePath;
+					if(file.isDirectory()) {
+						if(!this.recursive || watcher.isWatched(file)) {
+							continue;
+						}
+						if(filter != null && !filter.acceptFolder(path)) {
+							pr.println(String.format("Skipping excluded folder \"%s\"...", path));
+							this.foldersPruned.incrementAndGet();
+							continue;
+						}
+						watcher.register(file);
+						File[] children = listFiles(file, path);
+						if(children != null) {
+							this.foldersTraversed.incrementAndGet();
+							if(filter != null) {
+								filter.onFolderListed(file, path);
+							}
+							changed.addAll(Arrays.asList(children));
+						}
+						continue;
+					}
+					if(!file.isFile() || isTemporaryFile(file)) {
+						continue;
+					}
+					final long size = file.length();
+					long[] last = written.get(file);
+					if(last != null && last[0] == file.lastModified() && last[1] == size) {
+						continue;
+					}
+					if(filter != null && !filter.acceptFile(path, size)) {
+						this.filesFiltered.incrementAndGet();
+						continue;
+					}
+					if(scheduler != null && !processing.add(file)) {
+						changedAgain.add(file);
+						continue;
+					}
+					this.totalFiles.incrementAndGet();
+					this.totalBytes.addAndGet(size);
+					if(scheduler != null) {
+						if(!scheduler.submit(file, path, size)) {
+							return;
+						}
+						continue;
+					}
+					if(!this.processChange(file, path, size, destPath, inPlace ? written : null, pr)) {
+						return;
+					}
+				}
+			}
+		} finally {
+			this.watching = false;
+			if(scheduler != null) {
+				if(!this.running) {
+					scheduler.stop();
+				}
+				scheduler.finish();
+			}
+		}
+	}
+	
+	/** Searches through a file that was created or modified while the search
+	 * was watching the source folder.
+	 * 
+	 * @param file The file that changed
+	 * @param path The file's path, relative to the source folder
+	 * @param size The file's size
+	 * @param destPath The absolute path of the destination folder
+	 * @param written The map to record the modification time and size of the
+	 *            file in once it has been rewritten in place, or
+	 *            <tt>null</tt> if the search is not in place
+	 * @param pr The {@link PrintStream} to print status messages to
+	 * @return False if the search was stopped */
+	private boolean processChange(File file, String path, long size, String destPath, Map<File, long[]> written, PrintStream pr) {
+		this.file().progress = 0L;
+		if(!this.pauseSleep()) {
+			return false;
+		}
+		
+		pr.println(String.format("Change detected in \"%s\"...", path));
+		if(!this.processFile(file, path, destPath, pr)) {
+			return false;
+		}
+		if(written != null && file.isFile()) {
+			written.put(file, new long[] {file.lastModified(), file.length()});
+		}
+		this.fileCompleted(size);
+		pr.flush();
+		return true;
+	}
+	
+	/** Lists the children of a folder, emitting a
+	 * {@link SearchEvents#beginFolderListed() folder listed} event if events
+	 * are enabled.
+	 * 
+	 * @param folder The folder to list
+	 * @param path The folder's path, relative to the source folder
+	 * @return The folder's children, or <tt>null</tt> if it couldn't be
+	 *         listed */
+	private static final File[] listFiles(File folder, String path) {
+		if(!flightRecorderEvents) {
+			return folder.listFiles();
+		}
+		final Object event = SearchEvents.RECORDER.beginFolderListed();
+		File[] children = folder.listFiles();
+		SearchEvents.RECORDER.endFolderListed(event, path, children == null ? -1 : children.length);
+		return children;
+	}
+	
+	/** Tells the parent folder of the given file or folder that one of its
+	 * children has been completed, journaling the parent folder (and then
+	 * its parent, and so on) once all of its children have been completed.
+	 * 
+	 * @param remaining The number of children that each listed folder is
+	 *            still waiting on
+	 * @param journal The journal to record completed folders in
+	 * @param path The completed file or folder, relative to the source
+	 *            folder */
+	private void childCompleted(Map<String, int[]> remaining, SearchJournal journal, String path) {
+		while(!path.isEmpty()) {
+			String parent = path.substring(0, Math.max(0, path.lastIndexOf(File.separatorChar)));
+			int[] count = remaining.get(parent);
+			if(count == null || --count[0] > 0) {
+				return;
+			}
+			remaining.remove(parent);
+			journal.folderCompleted(parent);
+			path = parent;
+		}
+	}
+	
+	private void fileCompleted(long size) {
+		this.file().progress = 0L;
+		this.bytesCompleted.addAndGet(size);
+		this.filesCompleted.incrementAndGet();
+	}
+	
+	/** Walks the source folder the same way that the search does (obeying the
+	 * {@link PathFilter}, if there is one), but only counts the files and
+	 * bytes that it finds (skipping those that the journal says were already
+	 * completed).
+	 * 
+	 * @param filter The filter that the search is using
+	 * @param journal The journal that the search is resuming from, or
+	 *            <tt>null</tt> */
+	private void preScan(PathFilter filter, SearchJournal journal) {
+		String srcPath = this.sourceFolder.getAbsolutePath();
+		srcPath = srcPath.endsWith(File.separator) ? srcPath.substring(0, srcPath.length() - 1) : srcPath;
+		ArrayDeque<File> folders = new ArrayDeque<>();
+		folders.add(this.sourceFolder);
+		File folder;
+		while(this.running && (folder = folders.poll()) != null) {
+			File[] children = folder.listFiles();
+			if(children == null) {
+				continue;
+			}
+			String folderPath = folder.getAbsolutePath();
+			folderPath = folderPath.startsWith(srcPath) ? folderPath.substring(srcPath.length()) : folderPath;
+			if(filter != null) {
+				filter.onFolderListed(folder, folderPath);
+			}
+			for(File child : children) {
+				String path = child.getAbsolutePath();
+				path = path.startsWith(srcPath) ? path.substring(srcPath.length()) : path;
+				if(child.isDirectory()) {
+					if(this.recursive && (journal == null || !journal.isFolderCompleted(path)) && (filter == null || filter.acceptFolder(path))) {
+						folders.add(child);
+					}
+					continue;
+				}
+				if(isTemporaryFile(child) || (journal != null && (journal.isFileCompleted(path) || journal.isJournalFile(child)))) {
+					continue;
+				}
+				long size = child.length();
+				if(filter != null && !filter.acceptFile(path, size)) {
+					continue;
+				}
+				this.totalFiles.incrementAndGet();
+				this.totalBytes.addAndGet(size);
+			}
+		}
+		this.preScanComplete = this.running;
+	}
+	
 	/** @return The thread performing the current search operation (if one is in
 	 *         progress) */
 	public Thread getSearchThread() {
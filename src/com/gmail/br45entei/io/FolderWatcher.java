@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Watches the folders that a {@link FindReplaceSearch} has listed for files
+ * that are created or modified, so that only those files have to be searched
+ * through again.<br>
+ * Folders are registered as the search lists them, so the tree never has to
+ * be walked a second time. Bursts of events are coalesced: once a change
+ * comes in, further changes are collected until none have come in for
+ * {@link #QUIET_PERIOD} milliseconds (or {@link #MAX_DELAY} milliseconds
+ * have passed), and each changed file is only reported once per batch.
+ * 
+ * @author Brian_Entei */
+final class FolderWatcher implements Closeable {
+	
+	/** How long (in milliseconds) no new events must come in for before a
+	 * batch of changes is reported */
+	static final long QUIET_PERIOD = 50L;
+	/** The longest (in milliseconds) that a change is held back while more
+	 * changes keep coming in */
+	static final long MAX_DELAY = 250L;
+	
+	private final WatchService service;
+	private final Map<WatchKey, File> folders = new HashMap<>();
+	private final Set<File> watched = new HashSet<>();
+	
+	/** @param folder Any folder on the file system that will be watched
+	 * @throws IOException Thrown if the file system can't be watched */
+	FolderWatcher(File folder) throws IOException {
+		this.service = folder.toPath().getFileSystem().newWatchService();
+	}
+	
+	/** Starts watching the given folder (but not its sub-folders) for files
+	 * and folders that are created or modified.
+	 * 
+	 * @param folder The folder to watch
+	 * @return True if the folder is now being watched */
+	boolean register(File folder) {
+		if(!this.watched.add(folder)) {
+			return true;
+		}
+		try {
+			WatchKey key = folder.toPath().register(this.service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			this.folders.put(key, folder);
+			return true;
+		} catch(IOException | UnsupportedOperationException ex) {
+			this.watched.remove(folder);
+			return false;
+		}
+	}
+	
+	/** @param folder The folder to check
+	 * @return True if the given folder is being watched */
+	boolean isWatched(File folder) {
+		return this.watched.contains(folder);
+	}
+	
+	/** Waits for files or folders to be created or modified, and then
+	 * collects them until the burst of changes dies down.
+	 * 
+	 * @param timeout The longest (in milliseconds) to wait for the first
+	 *            change
+	 * @return The files and folders that changed, in the order that they first
+	 *         changed (empty if nothing changed before the timeout)
+	 * @throws InterruptedException Thrown if the thread is interrupted while
+	 *             waiting */
+	Set<File> poll(long timeout) throws InterruptedException {
+		WatchKey key = this.service.poll(timeout, TimeUnit.MILLISECONDS);
+		if(key == null) {
+			return Collections.emptySet();
+		}
+		final Set<File> changed = new LinkedHashSet<>();
+		final long deadline = System.currentTimeMillis() + MAX_DELAY;
+		while(key != null) {
+			this.drain(key, changed);
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0L) {
+				break;
+			}
+			key = this.service.poll(Math.min(QUIET_PERIOD, remaining), TimeUnit.MILLISECONDS);
+		}
+		return changed;
+	}
+	
+	private void drain(WatchKey key, Set<File> changed) {
+		File folder = this.folders.get(key);
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(folder == null) {
+				continue;
+			}
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				//Some events were lost, so treat everything in the folder as changed:
+				File[] children = folder.listFiles();
+				if(children != null) {
+					changed.addAll(Arrays.asList(children));
+				}
+				continue;
+			}
+			changed.add(new File(folder, ((Path) event.context()).toString()));
+		}
+		if(!key.reset()) {
+			//The folder was deleted (or can no longer be watched):
+			this.folders.remove(key);
+			this.watched.remove(folder);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		this.folders.clear();
+		this.watched.clear();
+		this.service.close();
+	}
+	
+}
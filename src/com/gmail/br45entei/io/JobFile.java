@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/** Saves and loads the settings of a {@link FindReplaceSearch} together with
+ * its compiled {@link SearchPlan}, so that large rule sets don't have to be
+ * parsed and compiled again every time they are used.<br>
+ * Job files are memory-mapped when they are loaded, and the plan's tables
+ * are used directly from the mapping.
+ * 
+ * @author Brian_Entei */
+public final class JobFile {
+	
+	/** The file extension that job files are saved with */
+	public static final String FILE_EXTENSION = ".bfrjob";
+	
+	private static final int MAGIC = 0x42465241;//"BFRA"
+	private static final int FORMAT_VERSION = 1;
+	
+	private JobFile() {
+	}
+	
+	private static final void writeString(DataOutputStream out, String str) throws IOException {
+		SearchPlan.writeBytes(out, str.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static final String readString(ByteBuffer buf) throws IOException {
+		return new String(SearchPlan.readBytes(buf), StandardCharsets.UTF_8);
+	}
+	
+	/** Saves the settings and compiled search plan of the given search to the
+	 * given file.
+	 * 
+	 * @param file The file to save to
+	 * @param search The search whose settings will be saved
+	 * @throws IOException Thrown if an I/O error occurs */
+	public static final void save(File file, FindReplaceSearch search) throws IOException {
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, search.sourceFolder.getPath());
+			writeString(out, search.destinationFolder.getPath());
+			out.writeBoolean(search.onlyCopyFilesContainingSearchStrings);
+			out.writeBoolean(search.recursive);
+			out.writeBoolean(search.onlyConsiderTextFiles);
+			out.writeBoolean(search.isPreScanEnabled());
+			PathFilter filter = search.getPathFilter();
+			out.writeBoolean(filter != null);
+			if(filter != null) {
+				out.writeInt(filter.getRules().size());
+				for(String rule : filter.getRules()) {
+					writeString(out, rule);
+				}
+				out.writeLong(filter.getMinimumFileSize());
+				out.writeLong(filter.getMaximumFileSize());
+				out.writeBoolean(filter.isUsingGitIgnore());
+			}
+			//Align the plan so that its tables can be viewed as ints straight out of the mapped file:
+			while(out.size() % 4 != 0) {
+				out.write(0);
+			}
+			search.plan.write(out);
+			out.flush();
+		}
+	}
+	
+	/** Loads a search that was saved with
+	 * {@link #save(File, FindReplaceSearch)}.<br>
+	 * <b>Note:</b>&nbsp;The file remains memory-mapped for as long as the
+	 * returned search's {@link SearchPlan} is in use, and on some platforms
+	 * (such as Windows) it can't be overwritten until then.
+	 * 
+	 * @param file The file to load
+	 * @return The loaded search, ready to be started
+	 * @throws IOException Thrown if the file could not be read, or is not a
+	 *             valid job file */
+	public static final FindReplaceSearch load(File file) throws IOException {
+		ByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if(buf.getInt() != MAGIC) {
+				throw new IOException(String.format("\"%s\" is not a job file", file.getAbsolutePath()));
+			}
+			int version = buf.getInt();
+			if(version != FORMAT_VERSION) {
+				throw new IOException(String.format("Unsupported job file version: %s", Integer.toString(version)));
+			}
+			File sourceFolder = new File(readString(buf));
+			File destinationFolder = new File(readString(buf));
+			boolean onlyCopyFilesContainingSearchStrings = buf.get() != 0;
+			boolean recursive = buf.get() != 0;
+			boolean onlyConsiderTextFiles = buf.get() != 0;
+			boolean preScan = buf.get() != 0;
+			PathFilter filter = null;
+			if(buf.get() != 0) {
+				filter = new PathFilter();
+				int rules = buf.getInt();
+				for(int i = 0; i < rules; i++) {
+					filter.addRule(readString(buf));
+				}
+				filter.setMinimumFileSize(buf.getLong());
+				filter.setMaximumFileSize(buf.getLong());
+				filter.setUseGitIgnore(buf.get() != 0);
+			}
+			while(buf.position() % 4 != 0) {
+				buf.get();
+			}
+			SearchPlan plan = SearchPlan.read(buf);
+			return new FindReplaceSearch(sourceFolder, destinationFolder, onlyCopyFilesContainingSearchStrings, recursive, onlyConsiderTextFiles, plan).setPathFilter(filter).setPreScanEnabled(preScan);
+		} catch(BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IOException(String.format("Corrupt job file \"%s\"", file.getAbsolutePath()), ex);
+		}
+	}
+	
+}
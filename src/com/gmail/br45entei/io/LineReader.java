@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Reads ISO-8859-1 lines out of a channel through a pooled direct buffer, a
+ * whole buffer at a time.<br>
+ * Lines are terminated by <tt>\n</tt> (a <tt>\r</tt> right before it is
+ * removed as well), and the last line of the file does not need to be
+ * terminated.<br>
+ * Lines can be limited to a maximum length, in which case reading stops as
+ * soon as a line grows past it (see {@link #isLineTooLong()}) instead of
+ * gathering the whole line first.
+ * 
+ * @author Brian_Entei */
+public final class LineReader implements Closeable {
+	
+	private final ReadableByteChannel in;
+	private final int maxLineLength;
+	private ByteBuffer buf;
+	private byte[] line = new byte[256];
+	private boolean eof = false;
+	private boolean lineTooLong = false;
+	
+	/** Creates a new {@link LineReader} that reads from the given channel.
+	 * 
+	 * @param in The channel to read from
+	 * @param bufferSize The size of the buffer to read with (see
+	 *            {@link BufferPool#chooseBufferSize(long, int)}) */
+	public LineReader(ReadableByteChannel in, int bufferSize) {
+		this(in, bufferSize, Integer.MAX_VALUE);
+	}
+	
+	/** Creates a new {@link LineReader} that reads from the given channel and
+	 * stops once a line is longer than the given length.
+	 * 
+	 * @param in The channel to read from
+	 * @param bufferSize The size of the buffer to read with (see
+	 *            {@link BufferPool#chooseBufferSize(long, int)})
+	 * @param maxLineLength The maximum length of a line in bytes, not
+	 *            counting its line terminator */
+	public LineReader(ReadableByteChannel in, int bufferSize, int maxLineLength) {
+		this.in = in;
+		this.maxLineLength = Math.max(1, maxLineLength);
+		this.buf = BufferPool.acquire(bufferSize);
+		this.buf.flip();
+	}
+	
+	/** Returns whether reading stopped because a line was longer than the
+	 * maximum line length. Once this is <tt>true</tt>, every read returns
+	 * <tt>null</tt>.
+	 * 
+	 * @return Whether a line was too long */
+	public boolean isLineTooLong() {
+		return this.lineTooLong;
+	}
+	
+	/** Reads the next line.
+	 * 
+	 * @return The next line, or <tt>null</tt> if the end of the channel has
+	 *         been reached or a line was {@link #isLineTooLong() too long}
+	 * @throws IOException Thrown if an I/O error occurs */
+	public String readLine() throws IOException {
+		byte[] line = this.readLineBytes();
+		return line == null ? null : new String(line, StandardCharsets.ISO_8859_1);
+	}
+	
+	/** Reads the next line without decoding it.
+	 * 
+	 * @return The bytes of the next line (without its line terminator), or
+	 *         <tt>null</tt> if the end of the channel has been reached or a
+	 *         line was {@link #isLineTooLong() too long}
+	 * @throws IOException Thrown if an I/O error occurs */
+	public byte[] readLineBytes() throws IOException {
+		return this.readLineBytes(false);
+	}
+	
+	/** Reads the next line without decoding it or removing its line
+	 * terminator, so that the original bytes can be reproduced exactly.
+	 * 
+	 * @return The bytes of the next line (ending with <tt>\n</tt> or
+	 *         <tt>\r\n</tt>, unless it is the unterminated last line), or
+	 *         <tt>null</tt> if the end of the channel has been reached or a
+	 *         line was {@link #isLineTooLong() too long}
+	 * @throws IOException Thrown if an I/O error occurs */
+	public byte[] readRawLineBytes() throws IOException {
+		return this.readLineBytes(true);
+	}
+	
+	private byte[] readLineBytes(boolean raw) throws IOException {
+		final ByteBuffer buf = this.buf;
+		if(buf == null) {
+			throw new IOException("LineReader is closed");
+		}
+		if(this.lineTooLong) {
+			return null;
+		}
+		//Room for the line plus its "\r\n" (or just the '\r' when it isn't kept):
+		final long room = (long) this.maxLineLength + (raw ? 2 : 1);
+		int length = 0;
+		boolean any = false;
+		while(true) {
+			if(!buf.hasRemaining()) {
+				if(this.eof) {
+					break;
+				}
+				buf.clear();
+				int read = this.in.read(buf);
+				buf.flip();
+				if(read == -1) {
+					this.eof = true;
+					break;
+				}
+				continue;
+			}
+			any = true;
+			int start = buf.position(), limit = buf.limit(), end = start;
+			while(end < limit && buf.get(end) != '\n') {
+				end++;
+			}
+			int count = (raw && end < limit ? end + 1 : end) - start;
+			if(length + count > room) {
+				this.lineTooLong = true;
+				return null;
+			}
+			if(length + count > this.line.length) {
+				this.line = Arrays.copyOf(this.line, Math.max(this.line.length * 2, length + count));
+			}
+			buf.get(this.line, length, count);
+			length += count;
+			if(end < limit) {
+				if(!raw) {
+					buf.get();//Skip the '\n'
+				}
+				return this.copyLine(length, raw);
+			}
+		}
+		return any ? this.copyLine(length, raw) : null;
+	}
+	
+	private byte[] copyLine(int length, boolean raw) {
+		int content = length;
+		if(raw && content > 0 && this.line[content - 1] == '\n') {
+			content--;
+		}
+		if(content > 0 && this.line[content - 1] == '\r') {
+			content--;
+		}
+		if(content > this.maxLineLength) {
+			this.lineTooLong = true;
+			return null;
+		}
+		return Arrays.copyOf(this.line, raw ? length : content);
+	}
+	
+	/** Gives the buffer back to the {@link BufferPool}. The underlying channel
+	 * is not closed. */
+	@Override
+	public void close() {
+		BufferPool.release(this.buf);
+		this.buf = null;
+	}
+	
+}
@@ -0,0 +1,609 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/** A {@link PrintStream} that status messages can be printed to from any
+ * number of threads without them ever waiting on each other or on the
+ * disk.<br>
+ * Each thread assembles its own lines, and each completed line is put on a
+ * lock-free queue along with the time that it was printed and the name of
+ * the thread that printed it (lines that are left unfinished are put on it
+ * when the sink is {@link #close() closed}). Bytes that are written to the
+ * sink are decoded with its {@link #CHARSET charset}. A background thread drains the queue, writing
+ * the lines to a log file (if there is one) and handing them to each
+ * {@link #addListener(Consumer) listener} (such as a console or a text
+ * box), so the full log of a search is kept on disk instead of in
+ * memory.<br>
+ * Log files are rotated once they reach their maximum size: <tt>name</tt>
+ * becomes <tt>name.1</tt>, <tt>name.1</tt> becomes <tt>name.2</tt>, and so
+ * on, and the oldest file is deleted.<br>
+ * <br>
+ * If the background thread falls more than {@link #MAX_QUEUED_LINES} lines
+ * behind, printing threads wait for it to catch up, so that the queue can't
+ * grow without bound.
+ * 
+ * @author Brian_Entei */
+public final class LogSink extends PrintStream {
+	
+	/** The formats that log files can be written in. */
+	public static enum Format {
+		/** <tt>time [thread] message</tt> on each line */
+		PLAIN,
+		/** A JSON object with <tt>time</tt>, <tt>thread</tt> and
+		 * <tt>message</tt> fields on each line */
+		JSON;
+	}
+	
+	/** The charset that log files are written in, and that bytes written to a
+	 * sink are decoded with */
+	public static final Charset CHARSET = StandardCharsets.UTF_8;
+	/** The file extension that log files are written with by default */
+	public static final String FILE_EXTENSION = ".log";
+	/** The size that log files are rotated at by default */
+	public static final long DEFAULT_MAX_FILE_SIZE = 16L * 1024L * 1024L;
+	/** The number of log files (including the current one) that are kept by
+	 * default */
+	public static final int DEFAULT_MAX_FILES = 5;
+	/** The most lines that can be waiting to be written before printing
+	 * threads have to wait */
+	public static final int MAX_QUEUED_LINES = 65536;
+	
+	private static final DateTimeFormatter PLAIN_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+	
+	/** The line that a thread is printing. */
+	private static final class Partial {
+		
+		final String thread = Thread.currentThread().getName();
+		final StringBuilder text = new StringBuilder();
+		final CharsetDecoder decoder = CHARSET.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		/** The bytes at the end of the last write that don't make up a whole
+		 * character yet */
+		ByteBuffer bytes = null;
+		
+	}
+	
+	/** A line that was printed. */
+	private static final class Line {
+		
+		final long time;
+		final String thread, message;
+		
+		Line(long time, String thread, String message) {
+			this.time = time;
+			this.thread = thread;
+			this.message = message;
+		}
+		
+	}
+	
+	private final File file;
+	private final Format format;
+	private final long maxFileSize;
+	private final int maxFiles;
+	private final ConcurrentLinkedQueue<Line> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	/** The lines that each thread is printing, so that the ones that are
+	 * left unfinished can be written out on {@link #close()} */
+	private final ConcurrentLinkedQueue<Partial> partials = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<Partial> partial = ThreadLocal.withInitial(() -> {
+		Partial partial = new Partial();
+		this.partials.add(partial);
+		return partial;
+	});
+	private final CopyOnWriteArrayList<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+	private final Thread writer;
+	/** Set once the sink stops accepting lines */
+	private volatile boolean closed = false;
+	/** Set once every line has been queued, so the writer thread can stop
+	 * once it has written them all out */
+	private volatile boolean finished = false;
+	
+	//Only used by the writer thread:
+	private OutputStream out = null;
+	/** The number of bytes that have been written to the current log file */
+	private long fileSize = 0L;
+	private final StringBuilder text = new StringBuilder(256);
+	private char[] chars = new char[256];
+	private final CharsetEncoder encoder = CHARSET.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer bytes = ByteBuffer.allocate(1024);
+	/** The last time that was formatted, as lines printed within the same
+	 * millisecond share it */
+	private long lastTime = Long.MIN_VALUE;
+	private String lastTimeText = null;
+	private volatile IOException error = null;
+	
+	/** Creates a new log sink that writes to the given log file (replacing
+	 * it), rotating it at the default size.
+	 * If the log file can't be created, lines are still handed to the
+	 * listeners, and {@link #getError()} returns the reason.
+	 * 
+	 * @param file The log file, or <tt>null</tt> to only hand lines to the
+	 *            listeners
+	 * @param format The format to write the log file in */
+	public LogSink(File file, Format format) {
+		this(file, format, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES);
+	}
+	
+	/** Creates a new log sink that writes to the given log file (replacing
+	 * it).
+	 * If the log file can't be created, lines are still handed to the
+	 * listeners, and {@link #getError()} returns the reason.
+	 * 
+	 * @param file The log file, or <tt>null</tt> to only hand lines to the
+	 *            listeners
+	 * @param format The format to write the log file in
+	 * @param maxFileSize The size in bytes that the log file is rotated at
+	 * @param maxFiles The number of log files to keep, including the current
+	 *            one */
+	public LogSink(File file, Format format, long maxFileSize, int maxFiles) {
+		super(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+			
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}, false);
+		this.file = file;
+		this.format = format == null ? Format.PLAIN : format;
+		this.maxFileSize = Math.max(1L, maxFileSize);
+		this.maxFiles = Math.max(1, maxFiles);
+		if(file != null) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if(parent != null) {
+				parent.mkdirs();
+			}
+			try {
+				this.out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+			} catch(IOException ex) {
+				this.error = ex;
+			}
+		}
+		this.writer = new Thread(this::drain, "Find/ReplaceLogThread");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+	
+	/** @return The log file, or <tt>null</tt> if there is none */
+	public File getFile() {
+		return this.file;
+	}
+	
+	/** @return The error that stopped the log file from being created or
+	 *         written to, or <tt>null</tt> if there hasn't been one */
+	public IOException getError() {
+		return this.error;
+	}
+	
+	/** Adds a listener that will be handed each line (without its time or
+	 * thread) as it is written out. Listeners are called from the background
+	 * thread, so they must not block for long.
+	 * 
+	 * @param listener The listener to add
+	 * @return This LogSink */
+	public LogSink addListener(Consumer<String> listener) {
+		this.listeners.add(listener);
+		return this;
+	}
+	
+	/** @param listener The listener to remove
+	 * @return This LogSink */
+	public LogSink removeListener(Consumer<String> listener) {
+		this.listeners.remove(listener);
+		return this;
+	}
+	
+	//Printing
+	
+	private void printText(String text) {
+		if(this.closed) {
+			return;
+		}
+		final Partial partial = this.partial.get();
+		//Only ever contended with close():
+		synchronized(partial) {
+			this.append(partial, text);
+		}
+	}
+	
+	private void printBytes(byte[] buf, int off, int len) {
+		if(this.closed) {
+			return;
+		}
+		final Partial partial = this.partial.get();
+		synchronized(partial) {
+			ByteBuffer in;
+			if(partial.bytes == null) {
+				in = ByteBuffer.wrap(buf, off, len);
+			} else {
+				in = ByteBuffer.allocate(partial.bytes.remaining() + len);
+				in.put(partial.bytes).put(buf, off, len).flip();
+			}
+			CharBuffer out = CharBuffer.allocate((int) Math.ceil(in.remaining() * (double) partial.decoder.maxCharsPerByte()) + 1);
+			partial.decoder.decode(in, out, false);
+			partial.bytes = null;
+			if(in.hasRemaining()) {
+				partial.bytes = ByteBuffer.allocate(in.remaining()).put(in);
+				partial.bytes.flip();
+			}
+			out.flip();
+			this.append(partial, out.toString());
+		}
+	}
+	
+	private void append(Partial partial, String text) {
+		final StringBuilder sb = partial.text;
+		int start = 0, end;
+		while((end = text.indexOf('\n', start)) != -1) {
+			this.emit(sb.length() == 0 ? text.substring(start, end) : sb.append(text, start, end).toString());
+			sb.setLength(0);
+			start = end + 1;
+		}
+		sb.append(text, start, text.length());
+	}
+	
+	private void emit(String message) {
+		this.enqueue(Thread.currentThread().getName(), message);
+		if(this.queued.get() > MAX_QUEUED_LINES) {
+			while(this.queued.get() > MAX_QUEUED_LINES && !this.closed && this.writer.isAlive()) {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1L));
+			}
+		}
+	}
+	
+	private void enqueue(String thread, String message) {
+		if(message.endsWith("\r")) {
+			message = message.substring(0, message.length() - 1);
+		}
+		this.queue.add(new Line(System.currentTimeMillis(), thread, message));
+		this.queued.incrementAndGet();
+	}
+	
+	@Override
+	public void write(int b) {
+		this.printBytes(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] buf, int off, int len) {
+		this.printBytes(buf, off, len);
+	}
+	
+	@Override
+	public void print(boolean b) {
+		this.printText(String.valueOf(b));
+	}
+	
+	@Override
+	public void print(char c) {
+		this.printText(String.valueOf(c));
+	}
+	
+	@Override
+	public void print(int i) {
+		this.printText(String.valueOf(i));
+	}
+	
+	@Override
+	public void print(long l) {
+		this.printText(String.valueOf(l));
+	}
+	
+	@Override
+	public void print(float f) {
+		this.printText(String.valueOf(f));
+	}
+	
+	@Override
+	public void print(double d) {
+		this.printText(String.valueOf(d));
+	}
+	
+	@Override
+	public void print(char[] s) {
+		this.printText(new String(s));
+	}
+	
+	@Override
+	public void print(String s) {
+		this.printText(String.valueOf(s));
+	}
+	
+	@Override
+	public void print(Object obj) {
+		this.printText(String.valueOf(obj));
+	}
+	
+	@Override
+	public void println() {
+		this.printText("\n");
+	}
+	
+	@Override
+	public void println(boolean x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(char x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(int x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(long x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(float x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(double x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(char[] x) {
+		this.printText(new String(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(String x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	@Override
+	public void println(Object x) {
+		this.printText(String.valueOf(x).concat("\n"));
+	}
+	
+	/** Does nothing, as lines are written out in the background as soon as
+	 * they are completed (see {@link #close()}). */
+	@Override
+	public void flush() {
+	}
+	
+	@Override
+	public boolean checkError() {
+		return false;
+	}
+	
+	/** Stops accepting lines, and waits for the ones that were already
+	 * printed (including the ones that any thread left unfinished) to be
+	 * written out and handed to the listeners before closing the log
+	 * file. */
+	@Override
+	public void close() {
+		this.closed = true;
+		Partial partial;
+		while((partial = this.partials.poll()) != null) {
+			synchronized(partial) {
+				if(partial.bytes != null) {
+					CharBuffer out = CharBuffer.allocate((int) Math.ceil(partial.bytes.remaining() * (double) partial.decoder.maxCharsPerByte()) + 1);
+					partial.decoder.decode(partial.bytes, out, true);
+					partial.decoder.flush(out);
+					partial.bytes = null;
+					out.flip();
+					partial.text.append(out);
+				}
+				if(partial.text.length() > 0) {
+					this.enqueue(partial.thread, partial.text.toString());
+					partial.text.setLength(0);
+				}
+			}
+		}
+		this.finished = true;
+		LockSupport.unpark(this.writer);
+		boolean interrupted = false;
+		while(this.writer.isAlive()) {
+			try {
+				this.writer.join();
+			} catch(InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	//Writing
+	
+	private void drain() {
+		try {
+			while(true) {
+				Line line = this.queue.poll();
+				if(line == null) {
+					this.flushFile();
+					if(this.finished && this.queue.isEmpty()) {
+						break;
+					}
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10L));
+					continue;
+				}
+				this.queued.decrementAndGet();
+				this.writeLine(line);
+				for(Consumer<String> listener : this.listeners) {
+					try {
+						listener.accept(line.message);
+					} catch(RuntimeException ex) {
+						ex.printStackTrace(System.err);
+					}
+				}
+			}
+		} finally {
+			if(this.out != null) {
+				try {
+					this.out.close();
+				} catch(IOException ex) {
+					this.error = this.error == null ? ex : this.error;
+				}
+				this.out = null;
+			}
+		}
+	}
+	
+	private void writeLine(Line line) {
+		if(this.out == null) {
+			return;
+		}
+		if(line.time != this.lastTime) {
+			this.lastTime = line.time;
+			this.lastTimeText = this.format == Format.JSON ? Instant.ofEpochMilli(line.time).toString() : PLAIN_TIME.format(Instant.ofEpochMilli(line.time));
+		}
+		final StringBuilder sb = this.text;
+		sb.setLength(0);
+		if(this.format == Format.JSON) {
+			sb.append("{\"time\":\"").append(this.lastTimeText).append("\",\"thread\":");
+			appendJSON(sb, line.thread).append(",\"message\":");
+			appendJSON(sb, line.message).append("}\n");
+		} else {
+			sb.append(this.lastTimeText).append(" [").append(line.thread).append("] ").append(line.message).append('\n');
+		}
+		final int length = this.encode(sb);
+		try {
+			if(this.fileSize > 0L && this.fileSize + length > this.maxFileSize) {
+				this.rotate();
+			}
+			this.out.write(this.bytes.array(), 0, length);
+			this.fileSize += length;
+		} catch(IOException ex) {
+			this.error = ex;
+			try {
+				this.out.close();
+			} catch(IOException ignored) {
+			}
+			this.out = null;
+		}
+	}
+	
+	/** Encodes the given text into {@link #bytes}.
+	 * 
+	 * @return The number of bytes that the text was encoded into */
+	private int encode(StringBuilder sb) {
+		final int length = sb.length();
+		if(length > this.chars.length) {
+			this.chars = new char[Math.max(length, this.chars.length * 2)];
+		}
+		sb.getChars(0, length, this.chars, 0);
+		final int maxBytes = (int) Math.ceil(length * (double) this.encoder.maxBytesPerChar());
+		if(maxBytes > this.bytes.capacity()) {
+			this.bytes = ByteBuffer.allocate(Math.max(maxBytes, this.bytes.capacity() * 2));
+		}
+		this.bytes.clear();
+		this.encoder.reset();
+		this.encoder.encode(CharBuffer.wrap(this.chars, 0, length), this.bytes, true);
+		this.encoder.flush(this.bytes);
+		return this.bytes.position();
+	}
+	
+	private void flushFile() {
+		if(this.out != null) {
+			try {
+				this.out.flush();
+			} catch(IOException ex) {
+				this.error = ex;
+				try {
+					this.out.close();
+				} catch(IOException ignored) {
+				}
+				this.out = null;
+			}
+		}
+	}
+	
+	/** Closes the current log file, shifts the older ones back by one
+	 * (deleting the oldest), and starts a new one. */
+	private void rotate() throws IOException {
+		this.out.close();
+		this.out = null;
+		String path = this.file.getPath();
+		for(int i = this.maxFiles - 1; i > 0; i--) {
+			File to = new File(path.concat(".").concat(Integer.toString(i)));
+			File from = i == 1 ? this.file : new File(path.concat(".").concat(Integer.toString(i - 1)));
+			to.delete();
+			from.renameTo(to);
+		}
+		this.out = new BufferedOutputStream(new FileOutputStream(this.file), 65536);
+		this.fileSize = 0L;
+	}
+	
+	private static final StringBuilder appendJSON(StringBuilder sb, String s) {
+		sb.append('"');
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch(c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			default:
+				if(c < 0x20) {
+					sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.append('"');
+	}
+	
+}
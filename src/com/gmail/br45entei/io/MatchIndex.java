@@ -0,0 +1,429 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** An on-disk record of every match that a search found (see
+ * {@link FindReplaceSearch#setMatchIndex(MatchIndex)}), which can be browsed
+ * while the search is still running without holding the matches in
+ * memory.<br>
+ * Each match is appended to a temporary data file as a record holding the
+ * file it was found in, its line number and offset (where they are known),
+ * the text of the line around it (up to {@link #CONTEXT_BYTES} bytes on
+ * either side) and its replacement. A second temporary file holds the
+ * offset of each record, so that any match can be looked up by its row
+ * number. Both files are read through memory-mapped segments, so reading
+ * rows costs no heap memory beyond the rows that are returned, and both are
+ * deleted when the index is closed.<br>
+ * Rows can be filtered and sorted with a {@link MatchView}.
+ * 
+ * @author Brian_Entei */
+public final class MatchIndex implements Closeable {
+	
+	/** The columns that rows can be sorted by (see
+	 * {@link #getSortKey(int, int, int)}) */
+	public static final int FILE = 0, LINE = 1, MATCH = 2, REPLACEMENT = 3;
+	
+	/** The most bytes of a line that are kept before and after each match */
+	static final int CONTEXT_BYTES = 80;
+	/** The most bytes of a match or replacement that are kept */
+	static final int MAX_TEXT = 1024;
+	/** The most bytes of a path that are kept */
+	static final int MAX_PATH = 4096;
+	/** The offsets of the fields of a record that are always at the same
+	 * offset */
+	private static final int LINE_FIELD = 0, OFFSET_FIELD = 8, MATCH_START_FIELD = 16, MATCH_LENGTH_FIELD = 20, PATH_FIELD = 24;
+	private static final int MAX_RECORD_SIZE = PATH_FIELD + 2 + MAX_PATH + 2 + (2 * CONTEXT_BYTES + MAX_TEXT) + 2 + MAX_TEXT;
+	
+	/** One match, as read back from the index. */
+	public static final class Match {
+		
+		/** The row of this match in the index */
+		public final int row;
+		/** The absolute path of the file that the match was found in (an entry
+		 * of an archive is given as <tt>archive!/entry</tt>) */
+		public final String path;
+		/** The line number of the match, or <tt>-1</tt> if it isn't known */
+		public final long line;
+		/** The offset of the match in its file, or <tt>-1</tt> if it isn't
+		 * known */
+		public final long offset;
+		private final byte[] context, replacement;
+		private final int matchStart, matchLength;
+		
+		Match(int row, String path, long line, long offset, byte[] context, int matchStart, int matchLength, byte[] replacement) {
+			this.row = row;
+			this.path = path;
+			this.line = line;
+			this.offset = offset;
+			this.context = context;
+			this.matchStart = matchStart;
+			this.matchLength = matchLength;
+			this.replacement = replacement;
+		}
+		
+		/** @return The text of the line around the match */
+		public String getContext() {
+			return new String(this.context, StandardCharsets.ISO_8859_1);
+		}
+		
+		/** @return The offset of the match in the {@link #getContext()
+		 *         context} */
+		public int getMatchStart() {
+			return this.matchStart;
+		}
+		
+		/** @return The length of the match in the {@link #getContext()
+		 *         context} */
+		public int getMatchLength() {
+			return this.matchLength;
+		}
+		
+		/** @return The text that was matched */
+		public String getMatch() {
+			return new String(this.context, this.matchStart, this.matchLength, StandardCharsets.ISO_8859_1);
+		}
+		
+		/** @return The text that the match was replaced with */
+		public String getReplacement() {
+			return new String(this.replacement, StandardCharsets.ISO_8859_1);
+		}
+		
+	}
+	
+	/** An append-only temporary file that is read through memory-mapped
+	 * segments. */
+	private static final class Store implements Closeable {
+		
+		/** The size of the segments that the file is mapped in */
+		static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+		
+		final FileChannel channel;
+		final OutputStream out;
+		/** How far each segment extends past the next one's start, so that a
+		 * record that starts in a segment can always be read from it */
+		final int overlap;
+		final List<MappedByteBuffer> segments = new ArrayList<>();
+		long written = 0L, flushed = 0L;
+		
+		Store(Path file, int overlap) throws IOException {
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			this.out = new BufferedOutputStream(Channels.newOutputStream(this.channel), 65536);
+			this.overlap = overlap;
+		}
+		
+		void append(byte[] data, int offset, int length) throws IOException {
+			this.out.write(data, offset, length);
+			this.written += length;
+		}
+		
+		void flush() throws IOException {
+			if(this.flushed != this.written) {
+				this.out.flush();
+				this.flushed = this.written;
+			}
+		}
+		
+		/** Returns the mapping of the segment that holds the given range,
+		 * flushing and mapping it (again) only if the range was written after
+		 * the segment was last mapped, so that reading the rows that were
+		 * already mapped never maps anything.
+		 * 
+		 * @param position The position of the data that will be read
+		 * @param length The number of bytes that will be read
+		 * @return The segment that holds the given range (which starts at
+		 *         <tt>position&nbsp;-&nbsp;position&nbsp;%&nbsp;SEGMENT_SIZE</tt>) */
+		ByteBuffer segment(long position, int length) throws IOException {
+			final int index = (int) (position / SEGMENT_SIZE);
+			while(this.segments.size() <= index) {
+				this.segments.add(null);
+			}
+			final long base = (long) index * SEGMENT_SIZE;
+			MappedByteBuffer segment = this.segments.get(index);
+			if(segment == null || base + segment.capacity() < position + length) {
+				if(this.flushed < position + length) {
+					this.flush();
+				}
+				//Map everything that has been written to this segment so far:
+				segment = this.channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(this.flushed, base + SEGMENT_SIZE + this.overlap) - base);
+				this.segments.set(index, segment);
+			}
+			return segment;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.segments.clear();
+			try {
+				this.out.close();
+			} finally {
+				this.channel.close();
+			}
+		}
+		
+	}
+	
+	private final Store data, index;
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private final DataOutputStream recordOut = new DataOutputStream(this.record);
+	private final byte[] offset = new byte[8];
+	private int size = 0;
+	private String lastPath = null;
+	private byte[] lastPathBytes = null;
+	
+	/** Creates a new, empty index in two temporary files.
+	 * 
+	 * @throws IOException Thrown if the temporary files could not be
+	 *             created */
+	public MatchIndex() throws IOException {
+		Path data = Files.createTempFile("bfr-matches-", ".tmp");
+		Path index = Files.createTempFile("bfr-matches-", ".idx");
+		Store store = null;
+		try {
+			store = new Store(data, MAX_RECORD_SIZE);
+			this.data = store;
+			this.index = new Store(index, 8);
+		} catch(IOException ex) {
+			if(store != null) {
+				store.close();
+			}
+			Files.deleteIfExists(data);
+			Files.deleteIfExists(index);
+			throw ex;
+		}
+	}
+	
+	/** @return The number of matches in this index */
+	public synchronized int size() {
+		return this.size;
+	}
+	
+	/** Appends a match to this index.
+	 * 
+	 * @param path The path of the file that the match was found in
+	 * @param line The line number of the match, or <tt>-1</tt> if it isn't
+	 *            known
+	 * @param offset The offset of the match in its file, or <tt>-1</tt> if it
+	 *            isn't known
+	 * @param data The data that the match was found in
+	 * @param from The start of the data that may be shown around the match
+	 * @param to The end of the data that may be shown around the match
+	 * @param matchOffset The offset of the match in the data
+	 * @param matchLength The length of the match
+	 * @param replacement The replacement of the match
+	 * @throws IOException Thrown if the index could not be written to */
+	synchronized void add(String path, long line, long offset, byte[] data, int from, int to, int matchOffset, int matchLength, byte[] replacement) throws IOException {
+		if(this.size == Integer.MAX_VALUE) {
+			return;
+		}
+		if(!path.equals(this.lastPath)) {
+			byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+			this.lastPath = path;
+			this.lastPathBytes = bytes.length > MAX_PATH ? Arrays.copyOfRange(bytes, bytes.length - MAX_PATH, bytes.length) : bytes;
+		}
+		matchLength = Math.min(matchLength, MAX_TEXT);
+		//Show the rest of the line around the match, up to a limit:
+		int start = matchOffset, end = matchOffset + matchLength;
+		final int startLimit = Math.max(from, matchOffset - CONTEXT_BYTES), endLimit = Math.min(to, end + CONTEXT_BYTES);
+		while(start > startLimit && data[start - 1] != '\n' && data[start - 1] != '\r') {
+			start--;
+		}
+		while(end < endLimit && data[end] != '\n' && data[end] != '\r') {
+			end++;
+		}
+		final int replacementLength = Math.min(replacement.length, MAX_TEXT);
+		
+		this.record.reset();
+		DataOutputStream out = this.recordOut;
+		out.writeLong(line);
+		out.writeLong(offset);
+		out.writeInt(matchOffset - start);
+		out.writeInt(matchLength);
+		out.writeShort(this.lastPathBytes.length);
+		out.write(this.lastPathBytes);
+		out.writeShort(end - start);
+		out.write(data, start, end - start);
+		out.writeShort(replacementLength);
+		out.write(replacement, 0, replacementLength);
+		
+		ByteBuffer.wrap(this.offset).putLong(this.data.written);
+		this.index.append(this.offset, 0, 8);
+		this.data.append(this.record.toByteArray(), 0, this.record.size());
+		this.size++;
+	}
+	
+	/** @return The segment that holds the given row's record, with the
+	 *         record's offset in it in the last element of <tt>start</tt> */
+	private ByteBuffer record(int row, int[] start) throws IOException {
+		if(row < 0 || row >= this.size) {
+			throw new IndexOutOfBoundsException(String.format("Row %s is out of bounds (size: %s)", Integer.toString(row), Integer.toString(this.size)));
+		}
+		final long position = this.offset(row);
+		//A record runs up to the start of the next one:
+		final long end = row + 1 < this.size ? this.offset(row + 1) : this.data.written;
+		start[0] = (int) (position % Store.SEGMENT_SIZE);
+		return this.data.segment(position, (int) (end - position));
+	}
+	
+	/** @return The offset of the given row's record in the data file */
+	private long offset(int row) throws IOException {
+		final long indexPosition = row * 8L;
+		return this.index.segment(indexPosition, 8).getLong((int) (indexPosition % Store.SEGMENT_SIZE));
+	}
+	
+	private static final byte[] get(ByteBuffer buf, int position, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer duplicate = buf.duplicate();
+		duplicate.position(position);
+		duplicate.get(bytes);
+		return bytes;
+	}
+	
+	/** Reads a match back from this index.
+	 * 
+	 * @param row The row of the match
+	 * @return The match
+	 * @throws IOException Thrown if the index could not be read from */
+	public synchronized Match get(int row) throws IOException {
+		final int[] start = {0};
+		final ByteBuffer buf = this.record(row, start);
+		final int base = start[0];
+		int position = base + PATH_FIELD;
+		final int pathLength = buf.getShort(position) & 0xFFFF;
+		final String path = new String(get(buf, position + 2, pathLength), StandardCharsets.UTF_8);
+		position += 2 + pathLength;
+		final int contextLength = buf.getShort(position) & 0xFFFF;
+		final byte[] context = get(buf, position + 2, contextLength);
+		position += 2 + contextLength;
+		final byte[] replacement = get(buf, position + 2, buf.getShort(position) & 0xFFFF);
+		return new Match(row, path, buf.getLong(base + LINE_FIELD), buf.getLong(base + OFFSET_FIELD), context, buf.getInt(base + MATCH_START_FIELD), buf.getInt(base + MATCH_LENGTH_FIELD), replacement);
+	}
+	
+	/** Reads part of the value of a column of a row, for sorting rows without
+	 * reading them whole. Text is compared byte-by-byte, ignoring the case of
+	 * ASCII letters, four bytes at a time.
+	 * 
+	 * @param row The row to read
+	 * @param column The column ({@link #FILE}, {@link #LINE}, {@link #MATCH}
+	 *            or {@link #REPLACEMENT})
+	 * @param depth The offset of the four bytes of text to read (ignored for
+	 *            {@link #LINE})
+	 * @return The length of the value in the upper 32 bits (<tt>0</tt> for
+	 *         {@link #LINE}), and the four bytes (or the line number plus one)
+	 *         in the lower 32 bits, as an unsigned integer that sorts in the
+	 *         value's order
+	 * @throws IOException Thrown if the index could not be read from */
+	public synchronized long getSortKey(int row, int column, int depth) throws IOException {
+		final int[] start = {0};
+		final ByteBuffer buf = this.record(row, start);
+		final int base = start[0];
+		if(column == LINE) {
+			return Math.min(0xFFFFFFFFL, Math.max(0L, buf.getLong(base + LINE_FIELD) + 1L));
+		}
+		int position = base + PATH_FIELD;
+		int length = buf.getShort(position) & 0xFFFF;
+		position += 2;
+		if(column != FILE) {
+			position += length;
+			final int contextLength = buf.getShort(position) & 0xFFFF;
+			if(column == MATCH) {
+				position += 2 + buf.getInt(base + MATCH_START_FIELD);
+				length = buf.getInt(base + MATCH_LENGTH_FIELD);
+			} else {
+				position += 2 + contextLength;
+				length = buf.getShort(position) & 0xFFFF;
+				position += 2;
+			}
+		}
+		long key = 0L;
+		for(int i = depth; i < depth + 4; i++) {
+			int b = i < length ? buf.get(position + i) & 0xFF : 0;
+			if(b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			key = (key << 8) | b;
+		}
+		return ((long) length << 32) | key;
+	}
+	
+	/** @param row The row to check
+	 * @param filter The text to look for, in lower case
+	 * @return Whether the given row's file, context (which includes the match)
+	 *         or replacement contains the given text, ignoring the case of
+	 *         ASCII letters
+	 * @throws IOException Thrown if the index could not be read from */
+	synchronized boolean contains(int row, byte[] filter) throws IOException {
+		final int[] start = {0};
+		final ByteBuffer buf = this.record(row, start);
+		int position = start[0] + PATH_FIELD;
+		for(int i = 0; i < 3; i++) {
+			final int length = buf.getShort(position) & 0xFFFF;
+			position += 2;
+			if(contains(buf, position, length, filter)) {
+				return true;
+			}
+			position += length;
+		}
+		return false;
+	}
+	
+	private static final boolean contains(ByteBuffer buf, int position, int length, byte[] filter) {
+		search:
+		for(int i = 0; i + filter.length <= length; i++) {
+			for(int j = 0; j < filter.length; j++) {
+				int b = buf.get(position + i + j);
+				if(b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
+				}
+				if(b != filter[j]) {
+					continue search;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			this.data.close();
+		} finally {
+			this.index.close();
+		}
+	}
+	
+}
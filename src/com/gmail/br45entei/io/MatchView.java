@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/** A filtered and sorted list of the rows of a {@link MatchIndex}, for
+ * showing a window of them at a time (such as in a virtual table).<br>
+ * Only the row numbers are held, outside of the heap (four bytes per row),
+ * and rows are sorted by comparing their values four bytes at a time as they
+ * are read from the index, with a radix sort whose keys are held outside of
+ * the heap as well (sixteen bytes per row while it runs), so that filtering
+ * and sorting even millions of matches needs no heap memory per row.<br>
+ * A view that isn't sorted can {@link #update() take in} the matches that
+ * were added to its index after it was built; a sorted view has to be built
+ * again.
+ * 
+ * @author Brian_Entei */
+public final class MatchView {
+	
+	/** The sort column of a view whose rows are in the order that they were
+	 * found in */
+	public static final int UNSORTED = -1;
+	/** The most rows of the index that {@link #update()} looks at in one
+	 * call */
+	static final int UPDATE_BATCH = 50000;
+	
+	private final MatchIndex index;
+	private final String filter;
+	private final byte[] filterBytes;
+	private final int column;
+	private final boolean ascending;
+	/** The rows of this view, or <tt>null</tt> if it holds every row of the
+	 * index in order */
+	private IntBuffer rows;
+	/** The number of rows in this view */
+	private int size;
+	/** The number of rows of the index that this view has looked at */
+	private int scanned;
+	
+	private MatchView(MatchIndex index, String filter, int column, boolean ascending) {
+		this.index = index;
+		this.filter = filter == null || filter.isEmpty() ? null : filter.toLowerCase(Locale.ROOT);
+		this.filterBytes = this.filter == null ? null : this.filter.getBytes(StandardCharsets.UTF_8);
+		this.column = column;
+		this.ascending = ascending;
+	}
+	
+	/** Builds a view of the matches that are currently in the given index.
+	 * 
+	 * @param index The index to view
+	 * @param filter The text that rows must contain in their file, context or
+	 *            replacement (ignoring the case of ASCII letters), or
+	 *            <tt>null</tt> for every row
+	 * @param column The column to sort the rows by ({@link MatchIndex#FILE},
+	 *            {@link MatchIndex#LINE}, {@link MatchIndex#MATCH} or
+	 *            {@link MatchIndex#REPLACEMENT}), or {@link #UNSORTED}
+	 * @param ascending Whether to sort the rows in ascending order
+	 * @param cancelled Checked every so often while the view is being built;
+	 *            if it returns <tt>true</tt>, the build is given up
+	 * @return The view, or <tt>null</tt> if the build was cancelled
+	 * @throws IOException Thrown if the index could not be read from */
+	public static final MatchView build(MatchIndex index, String filter, int column, boolean ascending, BooleanSupplier cancelled) throws IOException {
+		MatchView view = new MatchView(index, filter, column, ascending);
+		final int size = index.size();
+		if(view.filter == null && column == UNSORTED) {
+			view.size = view.scanned = size;
+			return view;
+		}
+		int count = size;
+		if(view.filter != null) {
+			view.rows = allocate(Math.min(size, 1024));
+			count = 0;
+			for(int row = 0; row < size; row++) {
+				if((row & 0xFFF) == 0 && cancelled.getAsBoolean()) {
+					return null;
+				}
+				if(index.contains(row, view.filterBytes)) {
+					view.add(count++, row, size);
+				}
+			}
+		}
+		view.scanned = size;
+		view.size = count;
+		if(column == UNSORTED) {
+			return view;
+		}
+		//Sort by the first four bytes, then sort each run of equal values by the next four bytes, and so on:
+		final LongBuffer keys = allocateKeys(count), scratch = allocateKeys(count);
+		for(int i = 0; i < count; i++) {
+			keys.put(i, view.rows == null ? i : view.rows.get(i));
+		}
+		if(view.rows == null || view.rows.capacity() != count) {
+			view.rows = allocate(count);
+		}
+		if(!view.sort(keys, scratch, 0, count, 0, cancelled)) {
+			return null;
+		}
+		for(int i = 0; i < count; i++) {
+			view.rows.put(i, (int) keys.get(i));
+		}
+		return view;
+	}
+	
+	private static final IntBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(Math.max(1, capacity) * 4).asIntBuffer();
+	}
+	
+	private static final LongBuffer allocateKeys(int capacity) {
+		return ByteBuffer.allocateDirect(Math.max(1, capacity) * 8).asLongBuffer();
+	}
+	
+	/** Puts a row at the given position of this view, growing it (up to the
+	 * given size) if need be. */
+	private void add(int position, int row, int maxSize) {
+		if(position == this.rows.capacity()) {
+			IntBuffer rows = allocate((int) Math.max(1024L, Math.min(maxSize, this.rows.capacity() * 2L)));
+			this.rows.position(0);
+			this.rows.limit(position);
+			rows.put(this.rows);
+			this.rows = rows;
+		}
+		this.rows.put(position, row);
+	}
+	
+	/** Sorts the given range of rows (each in the lower 32 bits of its key) by
+	 * the four bytes of their values at the given depth, and then sorts each
+	 * run of rows that are equal at that depth by the bytes after them.<br>
+	 * Rows that are equal at every depth are left in the order that they were
+	 * found in.
+	 * 
+	 * @param scratch A buffer as large as the keys for the radix sort to use
+	 * @return False if the sort was cancelled */
+	private boolean sort(LongBuffer keys, LongBuffer scratch, int from, int to, int depth, BooleanSupplier cancelled) throws IOException {
+		boolean deeper = false;
+		for(int i = from; i < to; i++) {
+			if(((i - from) & 0xFFF) == 0 && cancelled.getAsBoolean()) {
+				return false;
+			}
+			final int row = (int) keys.get(i);
+			final long key = this.index.getSortKey(row, this.column, depth);
+			long value = key & 0xFFFFFFFFL;
+			if(!this.ascending) {
+				value ^= 0xFFFFFFFFL;
+			}
+			deeper |= (key >>> 32) > depth + 4;
+			keys.put(i, (value << 32) | (row & 0xFFFFFFFFL));
+		}
+		radixSort(keys, scratch, from, to);
+		if(!deeper || this.column == MatchIndex.LINE) {
+			return true;
+		}
+		int start = from;
+		for(int i = from + 1; i <= to; i++) {
+			if(i == to || (keys.get(i) >>> 32) != (keys.get(start) >>> 32)) {
+				if(i - start > 1 && !this.sort(keys, scratch, start, i, depth + 4, cancelled)) {
+					return false;
+				}
+				start = i;
+			}
+		}
+		return true;
+	}
+	
+	/** Stably sorts the given range of keys by their upper 32 bits (as an
+	 * unsigned integer), a byte at a time, using the same range of the
+	 * scratch buffer. Short ranges are insertion sorted instead. */
+	private static final void radixSort(LongBuffer keys, LongBuffer scratch, int from, int to) {
+		if(to - from <= 32) {
+			for(int i = from + 1; i < to; i++) {
+				final long key = keys.get(i);
+				int j = i;
+				while(j > from && (keys.get(j - 1) >>> 32) > (key >>> 32)) {
+					keys.put(j, keys.get(j - 1));
+					j--;
+				}
+				keys.put(j, key);
+			}
+			return;
+		}
+		final int[] counts = new int[257];
+		LongBuffer in = keys, out = scratch;
+		for(int shift = 32; shift < 64; shift += 8) {
+			Arrays.fill(counts, 0);
+			for(int i = from; i < to; i++) {
+				counts[(int) ((in.get(i) >>> shift) & 0xFF) + 1]++;
+			}
+			if(counts[(int) ((in.get(from) >>> shift) & 0xFF) + 1] == to - from) {
+				continue;//Every key has the same byte here
+			}
+			for(int i = 0; i < 256; i++) {
+				counts[i + 1] += counts[i];
+			}
+			for(int i = from; i < to; i++) {
+				final long key = in.get(i);
+				out.put(from + counts[(int) ((key >>> shift) & 0xFF)]++, key);
+			}
+			LongBuffer swap = in;
+			in = out;
+			out = swap;
+		}
+		if(in != keys) {
+			for(int i = from; i < to; i++) {
+				keys.put(i, in.get(i));
+			}
+		}
+	}
+	
+	/** Takes in the matches that were added to the index since this view was
+	 * built (or last updated), up to {@link #UPDATE_BATCH} of them at a time.
+	 * Sorted views can't take in new matches, and are left as they are.
+	 * 
+	 * @return The number of matches in the index that this view hasn't taken
+	 *         in yet
+	 * @throws IOException Thrown if the index could not be read from */
+	public int update() throws IOException {
+		final int size = this.index.size();
+		if(this.column != UNSORTED) {
+			return size - this.scanned;
+		}
+		if(this.rows == null) {
+			this.size = this.scanned = size;
+			return 0;
+		}
+		final int end = Math.min(size, this.scanned + UPDATE_BATCH);
+		for(int row = this.scanned; row < end; row++) {
+			if(this.index.contains(row, this.filterBytes)) {
+				this.add(this.size++, row, Integer.MAX_VALUE);
+			}
+		}
+		this.scanned = end;
+		return size - end;
+	}
+	
+	/** @return The index that this view is of */
+	public MatchIndex getIndex() {
+		return this.index;
+	}
+	
+	/** @return The text that the rows of this view contain, in lower case, or
+	 *         <tt>null</tt> if this view isn't filtered */
+	public String getFilter() {
+		return this.filter;
+	}
+	
+	/** @return The column that the rows of this view are sorted by, or
+	 *         {@link #UNSORTED} */
+	public int getSortColumn() {
+		return this.column;
+	}
+	
+	/** @return Whether the rows of this view are sorted in ascending order */
+	public boolean isAscending() {
+		return this.ascending;
+	}
+	
+	/** @return The number of rows in this view */
+	public int size() {
+		return this.size;
+	}
+	
+	/** @param i The position of a row in this view
+	 * @return The row of the index at that position */
+	public int getRow(int i) {
+		if(i < 0 || i >= this.size) {
+			throw new IndexOutOfBoundsException(String.format("Row %s is out of bounds (size: %s)", Integer.toString(i), Integer.toString(this.size)));
+		}
+		return this.rows == null ? i : this.rows.get(i);
+	}
+	
+}
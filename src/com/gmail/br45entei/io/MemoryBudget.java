@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.util.function.BooleanSupplier;
+
+/** A budget of heap memory that searches reserve their file contents, chunk
+ * buffers and output buffers against before allocating them, so that the
+ * memory held by searches stays below a fixed number of bytes no matter how
+ * large the files are or how many of them are being worked on at once.<br>
+ * Files that would need more of the budget than there is are searched
+ * through as a stream instead of being read into memory (see
+ * {@link FindReplaceSearch#findAndReplace(java.io.File, java.io.File, java.io.PrintStream)}),
+ * and reservations that have to be held wait until enough of the budget has
+ * been released by others. A single reservation is always let through while
+ * nothing else is reserved, so a reservation that is larger than the whole
+ * budget waits for everything else instead of waiting forever.<br>
+ * All searches share the {@link #getGlobal() global budget}.
+ * 
+ * @author Brian_Entei */
+public final class MemoryBudget {
+	
+	private static final MemoryBudget global = new MemoryBudget(getDefaultLimit());
+	
+	/** @return The budget that is shared by every search */
+	public static final MemoryBudget getGlobal() {
+		return global;
+	}
+	
+	/** @return The limit that the global budget starts out with: the size
+	 *         given by the <tt>bfr.memoryBudget</tt> system property (see
+	 *         {@link RateLimiter#parseRate(String)}, such as <tt>512mb</tt>),
+	 *         or else half of the maximum heap size */
+	public static final long getDefaultLimit() {
+		String limit = System.getProperty("bfr.memoryBudget");
+		if(limit != null) {
+			try {
+				long bytes = RateLimiter.parseRate(limit);
+				if(bytes > 0L) {
+					return bytes;
+				}
+			} catch(NumberFormatException ignored) {
+			}
+		}
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		return maxMemory == Long.MAX_VALUE ? 1024L * 1024L * 1024L : maxMemory / 2L;
+	}
+	
+	private long limit, used = 0L, peak = 0L;
+	
+	/** @param limit The most bytes that may be reserved at once */
+	public MemoryBudget(long limit) {
+		this.limit = Math.max(1L, limit);
+	}
+	
+	/** @return The most bytes that may be reserved at once */
+	public synchronized long getLimit() {
+		return this.limit;
+	}
+	
+	/** Sets the most bytes that may be reserved at once. Lowering the limit
+	 * below what is currently reserved only holds back new reservations.
+	 * 
+	 * @param limit The new limit
+	 * @return This MemoryBudget */
+	public synchronized MemoryBudget setLimit(long limit) {
+		this.limit = Math.max(1L, limit);
+		this.notifyAll();
+		return this;
+	}
+	
+	/** @return The number of bytes that are currently reserved */
+	public synchronized long getUsed() {
+		return this.used;
+	}
+	
+	/** @return The most bytes that were reserved at once since the budget was
+	 *         created or {@link #resetPeak() reset} */
+	public synchronized long getPeak() {
+		return this.peak;
+	}
+	
+	/** Resets the {@link #getPeak() peak} to what is currently reserved.
+	 * 
+	 * @return This MemoryBudget */
+	public synchronized MemoryBudget resetPeak() {
+		this.peak = this.used;
+		return this;
+	}
+	
+	/** @param bytes A number of bytes
+	 * @return True if the given number of bytes would fit into the budget if
+	 *         nothing else was reserved */
+	public synchronized boolean fits(long bytes) {
+		return bytes <= this.limit;
+	}
+	
+	private void take(long bytes) {
+		this.used += bytes;
+		this.peak = Math.max(this.peak, this.used);
+	}
+	
+	/** Reserves the given number of bytes if they are available right away.
+	 * 
+	 * @param bytes The number of bytes to reserve
+	 * @return True if they were reserved (and must be
+	 *         {@link #release(long) released} later) */
+	public synchronized boolean tryReserve(long bytes) {
+		if(this.used + bytes > this.limit) {
+			return false;
+		}
+		this.take(bytes);
+		return true;
+	}
+	
+	/** Reserves the given number of bytes, waiting until enough of the budget
+	 * has been released if need be (or until nothing else is reserved, if the
+	 * bytes don't fit into the budget at all).
+	 * 
+	 * @param bytes The number of bytes to reserve
+	 * @param keepWaiting Checked every few milliseconds while waiting; if it
+	 *            returns <tt>false</tt>, the wait is given up
+	 * @return True if the bytes were reserved (and must be
+	 *         {@link #release(long) released} later), or <tt>false</tt> if the
+	 *         wait was given up */
+	public boolean reserve(long bytes, BooleanSupplier keepWaiting) {
+		while(true) {
+			synchronized(this) {
+				if(this.used == 0L || this.used + bytes <= this.limit) {
+					this.take(bytes);
+					return true;
+				}
+				try {
+					this.wait(10L);
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			//Checked outside of the lock, as it may wait while the search is paused:
+			if(!keepWaiting.getAsBoolean()) {
+				return false;
+			}
+		}
+	}
+	
+	/** Gives back bytes that were reserved with {@link #reserve(long,
+	 * BooleanSupplier)} or {@link #tryReserve(long)}.
+	 * 
+	 * @param bytes The number of bytes to release */
+	public synchronized void release(long bytes) {
+		this.used = Math.max(0L, this.used - bytes);
+		this.notifyAll();
+	}
+	
+}
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Writes the changes that a search would make to each file as a unified diff
+ * (the format read by <tt>patch -p1</tt> and <tt>git apply</tt>), instead of
+ * writing the changed files themselves.<br>
+ * Each file is diffed as it is searched through, and its hunks are appended
+ * to the patch file as soon as they are complete, so the patch file grows
+ * with the number of changes rather than with the size of the tree. Only the
+ * lines that surround a change (up to {@link #CONTEXT_LINES} on either side)
+ * are ever held in memory, along with up to {@link #MAX_HUNK_BUFFER} bytes of
+ * the current hunk (the rest of a longer hunk is kept in a temporary file
+ * next to the patch file until the hunk is complete).<br>
+ * Files below the chunk threshold are read into memory and searched through
+ * as a whole first; if no search-string is found, the file is done with, and
+ * otherwise diffing starts a few lines before the first match. Larger files
+ * are diffed line-by-line as they are read. Either way, a file is only read
+ * once.<br>
+ * <br>
+ * Lines are diffed with their original line endings, so that the patch
+ * applies to the files as they are. Since matches never span lines (see
+ * {@link FindReplaceSearch#findAndReplace(File, File, java.io.PrintStream)}),
+ * every changed line is diffed against its replacement on its own.
+ * 
+ * @author Brian_Entei */
+final class PatchWriter implements Closeable {
+	
+	/** The file extension that patches are written with by default */
+	static final String FILE_EXTENSION = ".patch";
+	/** The number of unchanged lines that are shown before and after each
+	 * change */
+	static final int CONTEXT_LINES = 3;
+	/** The most bytes of a hunk that are held in memory */
+	static final int MAX_HUNK_BUFFER = 1024 * 1024;
+	
+	private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(StandardCharsets.ISO_8859_1);
+	
+	private final File file;
+	private final FileOutputStream fos;
+	private final FileChannel channel;
+	private final BufferedOutputStream out;
+	private boolean writeFailed = false;
+	
+	//The state of the file that is currently being diffed:
+	private FindReplaceSearch search;
+	private SearchPlan plan;
+	private File src;
+	private String path;
+	private final ByteArrayOutputStream hunk = new ByteArrayOutputStream(), sb = new ByteArrayOutputStream();
+	/** The most recent unchanged lines, as <tt>(data, start, end)</tt>
+	 * ranges in a ring indexed by line count */
+	private final byte[][] ringData = new byte[2 * CONTEXT_LINES + 1][];
+	private final int[] ringStart = new int[this.ringData.length], ringEnd = new int[this.ringData.length];
+	private long ringNext, pending;
+	private boolean open, headerWritten;
+	private long oldLine, newLine, oldStart, newStart, oldCount, newCount;
+	private long matches;
+	/** The start of the current hunk, if it grew too large to be held in
+	 * memory (opened the first time that happens) */
+	private FileChannel spill = null;
+	
+	/** Opens a patch file for writing.
+	 * 
+	 * @param file The patch file
+	 * @param append Whether to append to the patch file (when resuming a
+	 *            search) rather than starting it over
+	 * @throws IOException Thrown if the patch file could not be opened */
+	PatchWriter(File file, boolean append) throws IOException {
+		this.file = file;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null) {
+			parent.mkdirs();
+		}
+		this.fos = new FileOutputStream(file, append);
+		this.channel = this.fos.getChannel();
+		this.out = new BufferedOutputStream(this.fos, 65536);
+	}
+	
+	/** @return The patch file */
+	File getFile() {
+		return this.file;
+	}
+	
+	/** @return True if the last call to {@link #diff} failed because the patch
+	 *         file could not be written to (rather than because the source
+	 *         file could not be read) */
+	boolean isWriteFailure() {
+		return this.writeFailed;
+	}
+	
+	/** Searches through the given file and appends the changes that replacing
+	 * its search-strings would make to the patch file. If the file can't be
+	 * read, the patch is stopped, or the patch can't be written to, nothing is
+	 * left in the patch file for it.
+	 * 
+	 * @param search The search that this file is a part of
+	 * @param plan The search-strings to search for
+	 * @param src The file to diff
+	 * @param path The file's path, relative to the source folder
+	 * @param chunkThreshold The size at and above which the file is diffed
+	 *            line-by-line as it is read, rather than being read into
+	 *            memory
+	 * @param bufferSize The size of the buffer to read large files with
+	 * @return The number of matches that were found, or <tt>-1</tt> if the
+	 *         search was stopped
+	 * @throws IOException Thrown if the file could not be read, or the patch
+	 *             file could not be written to */
+	long diff(FindReplaceSearch search, SearchPlan plan, File src, String path, long chunkThreshold, int bufferSize) throws IOException {
+		this.writeFailed = false;
+		final long mark;
+		try {
+			this.out.flush();
+			mark = this.channel.position();
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+		this.search = search;
+		this.plan = plan;
+		this.src = src;
+		path = path.replace(File.separatorChar, '/');
+		this.path = path.startsWith("/") ? path.substring(1) : path;
+		this.hunk.reset();
+		this.ringNext = this.pending = 0L;
+		this.open = this.headerWritten = false;
+		this.matches = 0L;
+		boolean completed = false;
+		try {
+			if(src.length() < chunkThreshold) {
+				final byte[] contents = search.readContents(src);
+				completed = contents != null && this.diffInMemory(contents);
+			} else {
+				completed = this.diffStreamed(src, bufferSize);
+			}
+			if(completed && this.open) {
+				this.closeHunk(Math.min(CONTEXT_LINES, this.pending));
+			}
+			try {
+				this.out.flush();
+				if(completed) {
+					completed = search.throttleWrite(this.channel.position() - mark);
+				}
+			} catch(IOException ex) {
+				this.writeFailed = true;
+				throw ex;
+			}
+		} finally {
+			if(!completed || this.writeFailed) {
+				this.rollBack(mark);
+			}
+			this.search = null;
+			this.plan = null;
+			this.src = null;
+			this.hunk.reset();
+			this.clearSpill();
+			Arrays.fill(this.ringData, null);
+		}
+		return completed ? this.matches : -1L;
+	}
+	
+	/** Moves what is in the hunk buffer to the end of the spill file. */
+	private void spill() throws IOException {
+		try {
+			if(this.spill == null) {
+				this.spill = FileChannel.open(new File(this.file.getPath().concat(ChunkedFileSearch.TEMP_FILE_SUFFIX)).toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			}
+			this.hunk.writeTo(Channels.newOutputStream(this.spill));
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+		this.hunk.reset();
+	}
+	
+	/** Empties the spill file (if there is one). */
+	private void clearSpill() {
+		if(this.spill != null) {
+			try {
+				this.spill.truncate(0L);
+			} catch(IOException ignored) {
+			}
+		}
+	}
+	
+	/** Discards anything that was written for the current file. */
+	private void rollBack(long mark) {
+		try {
+			this.out.flush();
+		} catch(IOException ignored) {
+		}
+		try {
+			this.channel.truncate(mark);
+		} catch(IOException ignored) {
+		}
+	}
+	
+	private boolean diffInMemory(byte[] data) throws IOException {
+		final int[] first = {-1};
+		this.plan.findMatches(data, 0, data.length, (offset, length, replacement) -> {
+			first[0] = offset;
+			return false;
+		});
+		if(first[0] == -1) {
+			this.search.setFileProgress(data.length);
+			return true;
+		}
+		//Start a few lines before the line with the first match in it, as everything before then is unchanged:
+		int start = first[0];
+		for(int i = 0; i <= CONTEXT_LINES && start > 0; i++) {
+			if(i > 0) {
+				start--;
+			}
+			while(start > 0 && data[start - 1] != '\n') {
+				start--;
+			}
+		}
+		long lineNum = 1L;
+		for(int i = 0; i < start; i++) {
+			if(data[i] == '\n') {
+				lineNum++;
+			}
+		}
+		this.oldLine = this.newLine = lineNum;
+		int offset = start;
+		while(offset < data.length) {
+			int end = offset;
+			while(end < data.length && data[end++] != '\n') {
+			}
+			if(!this.line(data, offset, end)) {
+				return false;
+			}
+			offset = end;
+			this.search.setFileProgress(offset);
+		}
+		return true;
+	}
+	
+	private boolean diffStreamed(File src, int bufferSize) throws IOException {
+		this.oldLine = this.newLine = 1L;
+		long position = 0L;
+		try(FileInputStream fis = new FileInputStream(src); LineReader reader = new LineReader(fis.getChannel(), bufferSize)) {
+			byte[] line;
+			while((line = reader.readRawLineBytes()) != null) {
+				if(!this.search.throttleRead(line.length) || !this.line(line, 0, line.length)) {
+					return false;
+				}
+				position += line.length;
+				this.search.setFileProgress(position);
+			}
+		}
+		return true;
+	}
+	
+	/** Diffs the next line of the file.
+	 * 
+	 * @return False if the search was stopped */
+	private boolean line(final byte[] data, int start, int end) throws IOException {
+		int contentEnd = end;
+		if(contentEnd > start && data[contentEnd - 1] == '\n') {
+			contentEnd--;
+			if(contentEnd > start && data[contentEnd - 1] == '\r') {
+				contentEnd--;
+			}
+		}
+		final SearchPlan plan = this.plan;
+		final ByteArrayOutputStream sb = this.sb;
+		final int lineEnd = contentEnd;
+		final int[] lastIndex = {start};
+		sb.reset();
+		int matches = plan.findMatches(data, start, contentEnd, (offset, length, replacement) -> {
+			sb.write(data, lastIndex[0], offset - lastIndex[0]);
+			sb.write(replacement, 0, replacement.length);
+			this.search.recordMatch(this.src, null, this.oldLine, -1L, data, start, lineEnd, offset, length, replacement);
+			lastIndex[0] = offset + length;
+			return true;
+		});
+		if(!this.search.pauseSleep()) {
+			return false;
+		}
+		if(matches == 0) {
+			final int slot = (int) (this.ringNext++ % this.ringData.length);
+			this.ringData[slot] = data;
+			this.ringStart[slot] = start;
+			this.ringEnd[slot] = end;
+			this.pending++;
+			this.oldLine++;
+			this.newLine++;
+			if(this.open && this.pending == this.ringData.length) {
+				//Too far from the last change for the next one to share its hunk:
+				this.closeHunk(CONTEXT_LINES);
+			}
+			return true;
+		}
+		this.matches += matches;
+		sb.write(data, lastIndex[0], end - lastIndex[0]);
+		if(this.open) {
+			this.writeContext(this.pending);
+		} else {
+			long context = Math.min(CONTEXT_LINES, this.pending);
+			this.open = true;
+			this.oldStart = this.oldLine - context;
+			this.newStart = this.newLine - context;
+			this.oldCount = this.newCount = 0L;
+			//Only the last few of the pending lines are context:
+			this.pending = context;
+			this.writeContext(context);
+		}
+		this.pending = 0L;
+		
+		this.writeLine('-', data, start, end);
+		this.oldCount++;
+		this.oldLine++;
+		//A replacement can add line breaks, each of which starts another added line:
+		final byte[] replaced = sb.toByteArray();
+		int lines = 1;
+		this.hunk.write('+');
+		for(int i = 0; i < replaced.length; i++) {
+			this.hunk.write(replaced[i]);
+			if(replaced[i] == '\n' && i + 1 < replaced.length) {
+				this.hunk.write('+');
+				lines++;
+			}
+		}
+		if(replaced.length == 0 || replaced[replaced.length - 1] != '\n') {
+			this.hunk.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+		}
+		this.newCount += lines;
+		this.newLine += lines;
+		if(this.hunk.size() >= MAX_HUNK_BUFFER) {
+			this.spill();
+		}
+		return true;
+	}
+	
+	/** Writes the first <tt>count</tt> pending unchanged lines to the current
+	 * hunk as context. */
+	private void writeContext(long count) {
+		for(long i = this.ringNext - this.pending; i < this.ringNext - this.pending + count; i++) {
+			final int slot = (int) (i % this.ringData.length);
+			this.writeLine(' ', this.ringData[slot], this.ringStart[slot], this.ringEnd[slot]);
+			this.oldCount++;
+			this.newCount++;
+		}
+	}
+	
+	private void writeLine(char prefix, byte[] data, int start, int end) {
+		this.hunk.write(prefix);
+		this.hunk.write(data, start, end - start);
+		if(end == start || data[end - 1] != '\n') {
+			this.hunk.write(NO_NEWLINE, 0, NO_NEWLINE.length);
+		}
+	}
+	
+	/** Ends the current hunk with the given number of pending unchanged lines
+	 * as context, and appends it to the patch file. */
+	private void closeHunk(long context) throws IOException {
+		this.writeContext(context);
+		this.open = false;
+		try {
+			if(!this.headerWritten) {
+				this.out.write(String.format("--- a/%s\n+++ b/%s\n", this.path, this.path).getBytes(StandardCharsets.UTF_8));
+				this.headerWritten = true;
+			}
+			this.out.write(String.format("@@ -%s,%s +%s,%s @@\n", Long.toString(this.oldStart), Long.toString(this.oldCount), Long.toString(this.newStart), Long.toString(this.newCount)).getBytes(StandardCharsets.ISO_8859_1));
+			final long spilled = this.spill == null ? 0L : this.spill.position();
+			if(spilled > 0L) {
+				this.out.flush();
+				for(long position = 0L; position < spilled;) {
+					position += this.spill.transferTo(position, spilled - position, this.channel);
+				}
+				this.spill.truncate(0L);
+			}
+			this.hunk.writeTo(this.out);
+		} catch(IOException ex) {
+			this.writeFailed = true;
+			throw ex;
+		}
+		this.hunk.reset();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			this.out.close();
+		} finally {
+			try {
+				this.fos.close();
+			} finally {
+				if(this.spill != null) {
+					this.spill.close();
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/** Decides which files and folders a {@link FindReplaceSearch} will visit.<br>
+ * Every pattern is compiled into a {@link PathMatcher} once, when it is added,
+ * and folders are tested before they are listed so that excluded sub-trees
+ * (such as <tt>.git</tt> or <tt>node_modules</tt>) are never walked at
+ * all.<br>
+ * <br>
+ * Paths are always matched relative to the search's source folder using
+ * <tt>/</tt> as the separator. Glob patterns that don't contain a <tt>/</tt>
+ * are matched against the file or folder name only, so <tt>target</tt>
+ * excludes every folder named <tt>target</tt> and <tt>*.jar</tt> excludes
+ * every jar file, no matter how deep it is.
+ * 
+ * @author Brian_Entei */
+public final class PathFilter {
+	
+	/** The name of the files that are read when {@link #useGitIgnore} is set
+	 * to <tt>true</tt> */
+	public static final String GIT_IGNORE_FILE_NAME = ".gitignore";
+	
+	private final List<PathMatcher> includes = new CopyOnWriteArrayList<>();
+	private final List<PathMatcher> excludes = new CopyOnWriteArrayList<>();
+	/** The textual form of each include/exclude pattern, in the order they
+	 * were added (see {@link #addRule(String)}) */
+	private final List<String> rules = new CopyOnWriteArrayList<>();
+	private volatile long minimumFileSize = 0L;
+	private volatile long maximumFileSize = Long.MAX_VALUE;
+	private volatile boolean useGitIgnore = false;
+	
+	/** Rules read from <tt>.gitignore</tt> files, keyed by the relative path of
+	 * the folder that contained them (<tt>""</tt> for the source folder) */
+	private final Map<String, List<GitIgnoreRule>> gitIgnoreRules = new ConcurrentHashMap<>();
+	
+	/** Creates a new {@link PathFilter} that accepts everything. */
+	public PathFilter() {
+	}
+	
+	/** Converts the given path into a relative path string that uses
+	 * <tt>/</tt> as its separator.
+	 * 
+	 * @param path The path to convert
+	 * @return The converted path */
+	static final String toRelativeString(String path) {
+		path = File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+		while(path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		return path;
+	}
+	
+	private static final String getName(String relativePath) {
+		int index = relativePath.lastIndexOf('/');
+		return index == -1 ? relativePath : relativePath.substring(index + 1);
+	}
+	
+	private static final PathMatcher compileGlob(String glob) {
+		final boolean nameOnly = glob.indexOf('/') == -1;
+		glob = nameOnly ? glob : toRelativeString(glob);
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:".concat(glob));
+		if(nameOnly) {
+			return (path) -> {
+				Path name = path.getFileName();
+				return name != null && matcher.matches(name);
+			};
+		}
+		return matcher;
+	}
+	
+	private static final PathMatcher compileRegex(String regex) {
+		final Pattern pattern = Pattern.compile(regex);
+		return (path) -> pattern.matcher(toRelativeString(path.toString())).matches();
+	}
+	
+	/** Adds a glob pattern (such as <tt>*.java</tt> or
+	 * <tt>src/&#42;&#42;/*.xml</tt>) that files must match in order to be
+	 * searched or copied.<br>
+	 * If no include patterns have been added, every file is included.
+	 * Include patterns are never applied to folders.
+	 * 
+	 * @param glob The glob pattern to add
+	 * @return This PathFilter
+	 * @throws IllegalArgumentException Thrown if the pattern is invalid */
+	public PathFilter includeGlob(String glob) throws IllegalArgumentException {
+		this.includes.add(compileGlob(glob));
+		this.rules.add("include-glob:".concat(glob));
+		return this;
+	}
+	
+	/** Adds a glob pattern (such as <tt>node_modules</tt> or
+	 * <tt>build/tmp</tt>) that excludes matching files, and prunes matching
+	 * folders (along with everything inside of them).
+	 * 
+	 * @param glob The glob pattern to add
+	 * @return This PathFilter
+	 * @throws IllegalArgumentException Thrown if the pattern is invalid */
+	public PathFilter excludeGlob(String glob) throws IllegalArgumentException {
+		this.excludes.add(compileGlob(glob));
+		this.rules.add("exclude-glob:".concat(glob));
+		return this;
+	}
+	
+	/** Adds a regular expression that the relative paths of files must match
+	 * in order to be searched or copied.
+	 * 
+	 * @param regex The regular expression to add
+	 * @return This PathFilter
+	 * @throws IllegalArgumentException Thrown if the regular expression is
+	 *             invalid
+	 * @see #includeGlob(String) */
+	public PathFilter includeRegex(String regex) throws IllegalArgumentException {
+		this.includes.add(compileRegex(regex));
+		this.rules.add("include-regex:".concat(regex));
+		return this;
+	}
+	
+	/** Adds a regular expression that excludes files and prunes folders whose
+	 * relative paths match it.
+	 * 
+	 * @param regex The regular expression to add
+	 * @return This PathFilter
+	 * @throws IllegalArgumentException Thrown if the regular expression is
+	 *             invalid
+	 * @see #excludeGlob(String) */
+	public PathFilter excludeRegex(String regex) throws IllegalArgumentException {
+		this.excludes.add(compileRegex(regex));
+		this.rules.add("exclude-regex:".concat(regex));
+		return this;
+	}
+	
+	/** Adds an include or exclude pattern given in its textual form, which is
+	 * one of <tt>include-glob:</tt>, <tt>exclude-glob:</tt>,
+	 * <tt>include-regex:</tt> or <tt>exclude-regex:</tt> followed by the
+	 * pattern itself.
+	 * 
+	 * @param rule The rule to add
+	 * @return This PathFilter
+	 * @throws IllegalArgumentException Thrown if the rule or its pattern is
+	 *             invalid
+	 * @see #getRules() */
+	public PathFilter addRule(String rule) throws IllegalArgumentException {
+		int index = rule.indexOf(':');
+		String type = index == -1 ? rule : rule.substring(0, index);
+		String pattern = index == -1 ? "" : rule.substring(index + 1);
+		switch(type) {
+		case "include-glob":
+			return this.includeGlob(pattern);
+		case "exclude-glob":
+			return this.excludeGlob(pattern);
+		case "include-regex":
+			return this.includeRegex(pattern);
+		case "exclude-regex":
+			return this.excludeRegex(pattern);
+		default:
+			throw new IllegalArgumentException(String.format("Unknown path filter rule type \"%s\"", type));
+		}
+	}
+	
+	/** @return The textual form of every include and exclude pattern that has
+	 *         been added to this filter, in the order they were added
+	 * @see #addRule(String) */
+	public List<String> getRules() {
+		return Collections.unmodifiableList(new ArrayList<>(this.rules));
+	}
+	
+	/** @param minimumFileSize The size (in bytes) that files must be at least
+	 *            as large as in order to be searched or copied
+	 * @return This PathFilter */
+	public PathFilter setMinimumFileSize(long minimumFileSize) {
+		this.minimumFileSize = Math.max(0L, minimumFileSize);
+		return this;
+	}
+	
+	/** @param maximumFileSize The size (in bytes) that files must not be larger
+	 *            than in order to be searched or copied
+	 * @return This PathFilter */
+	public PathFilter setMaximumFileSize(long maximumFileSize) {
+		this.maximumFileSize = maximumFileSize < 0L ? Long.MAX_VALUE : maximumFileSize;
+		return this;
+	}
+	
+	/** @param useGitIgnore If <tt>true</tt>, any <tt>.gitignore</tt> files
+	 *            found while traversing will be read and obeyed, and
+	 *            <tt>.git</tt> folders will be skipped
+	 * @return This PathFilter */
+	public PathFilter setUseGitIgnore(boolean useGitIgnore) {
+		this.useGitIgnore = useGitIgnore;
+		return this;
+	}
+	
+	/** @return The size (in bytes) that files must be at least as large as in
+	 *         order to be searched or copied */
+	public long getMinimumFileSize() {
+		return this.minimumFileSize;
+	}
+	
+	/** @return The size (in bytes) that files must not be larger than in order
+	 *         to be searched or copied */
+	public long getMaximumFileSize() {
+		return this.maximumFileSize;
+	}
+	
+	/** @return Whether or not <tt>.gitignore</tt> files are obeyed */
+	public boolean isUsingGitIgnore() {
+		return this.useGitIgnore;
+	}
+	
+	/** Reads the <tt>.gitignore</tt> file inside of the given folder (if there
+	 * is one and {@link #isUsingGitIgnore()} returns <tt>true</tt>). This is
+	 * called for each folder right after it has been listed, so the rules are
+	 * in place before any of its children are tested. Folders whose rules
+	 * have already been read (e.g. by the search's pre-scan) are not read
+	 * again.
+	 * 
+	 * @param folder The folder that was just listed
+	 * @param relativePath The path of the folder, relative to the source
+	 *            folder (<tt>""</tt> for the source folder itself) */
+	public void onFolderListed(File folder, String relativePath) {
+		if(!this.useGitIgnore || this.gitIgnoreRules.containsKey(toRelativeString(relativePath))) {
+			return;
+		}
+		File gitIgnore = new File(folder, GIT_IGNORE_FILE_NAME);
+		if(!gitIgnore.isFile()) {
+			return;
+		}
+		relativePath = toRelativeString(relativePath);
+		List<GitIgnoreRule> rules = new ArrayList<>();
+		try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(gitIgnore), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = br.readLine()) != null) {
+				GitIgnoreRule rule = GitIgnoreRule.parse(line);
+				if(rule != null) {
+					rules.add(rule);
+				}
+			}
+		} catch(IOException | IllegalArgumentException ex) {
+			System.err.print(String.format("Failed to read ignore file \"%s\": ", gitIgnore.getAbsolutePath()));
+			ex.printStackTrace(System.err);
+			System.err.flush();
+		}
+		if(!rules.isEmpty()) {
+			this.gitIgnoreRules.put(relativePath, Collections.unmodifiableList(rules));
+		}
+	}
+	
+	/** Discards any rules that were read from <tt>.gitignore</tt> files
+	 * during a previous search. */
+	public void reset() {
+		this.gitIgnoreRules.clear();
+	}
+	
+	/** Tests whether or not the given folder should be listed and traversed.
+	 * 
+	 * @param relativePath The path of the folder, relative to the source
+	 *            folder
+	 * @return True if the folder should be traversed, false if it should be
+	 *         pruned */
+	public boolean acceptFolder(String relativePath) {
+		relativePath = toRelativeString(relativePath);
+		if(this.useGitIgnore && getName(relativePath).equals(".git")) {
+			return false;
+		}
+		Path path = Paths.get(relativePath);
+		for(PathMatcher exclude : this.excludes) {
+			if(exclude.matches(path)) {
+				return false;
+			}
+		}
+		return !this.isGitIgnored(relativePath, true);
+	}
+	
+	/** Tests whether or not the given file should be searched and/or copied.
+	 * 
+	 * @param relativePath The path of the file, relative to the source folder
+	 * @param size The size of the file, in bytes
+	 * @return True if the file should be processed, false if it should be
+	 *         skipped */
+	public boolean acceptFile(String relativePath, long size) {
+		if(size < this.minimumFileSize || size > this.maximumFileSize) {
+			return false;
+		}
+		relativePath = toRelativeString(relativePath);
+		Path path = Paths.get(relativePath);
+		for(PathMatcher exclude : this.excludes) {
+			if(exclude.matches(path)) {
+				return false;
+			}
+		}
+		if(!this.includes.isEmpty()) {
+			boolean included = false;
+			for(PathMatcher include : this.includes) {
+				if(include.matches(path)) {
+					included = true;
+					break;
+				}
+			}
+			if(!included) {
+				return false;
+			}
+		}
+		return !this.isGitIgnored(relativePath, false);
+	}
+	
+	private boolean isGitIgnored(String relativePath, boolean isFolder) {
+		if(!this.useGitIgnore || this.gitIgnoreRules.isEmpty()) {
+			return false;
+		}
+		boolean ignored = false;
+		//Rules in deeper .gitignore files take precedence, and so do later rules within the same file:
+		int index = -1;
+		do {
+			String base = index == -1 ? "" : relativePath.substring(0, index);
+			List<GitIgnoreRule> rules = this.gitIgnoreRules.get(base);
+			if(rules != null) {
+				String path = index == -1 ? relativePath : relativePath.substring(index + 1);
+				for(GitIgnoreRule rule : rules) {
+					if(rule.matches(path, isFolder)) {
+						ignored = !rule.negated;
+					}
+				}
+			}
+		} while((index = relativePath.indexOf('/', index + 1)) != -1);
+		return ignored;
+	}
+	
+	/** A single line from a <tt>.gitignore</tt> file. Only the commonly used
+	 * subset of the syntax is supported: comments, <tt>!</tt> negation,
+	 * trailing <tt>/</tt> for folders only, and leading or embedded <tt>/</tt>
+	 * for patterns anchored to the folder containing the <tt>.gitignore</tt>
+	 * file. */
+	private static final class GitIgnoreRule {
+		final PathMatcher matcher;
+		final boolean negated, foldersOnly, anchored;
+		
+		private GitIgnoreRule(PathMatcher matcher, boolean negated, boolean foldersOnly, boolean anchored) {
+			this.matcher = matcher;
+			this.negated = negated;
+			this.foldersOnly = foldersOnly;
+			this.anchored = anchored;
+		}
+		
+		static GitIgnoreRule parse(String line) throws IllegalArgumentException {
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) {
+				return null;
+			}
+			boolean negated = line.startsWith("!");
+			line = negated ? line.substring(1) : line;
+			boolean foldersOnly = line.endsWith("/");
+			line = foldersOnly ? line.substring(0, line.length() - 1) : line;
+			boolean anchored = line.indexOf('/') != -1;
+			line = line.startsWith("/") ? line.substring(1) : line;
+			if(line.isEmpty()) {
+				return null;
+			}
+			return new GitIgnoreRule(FileSystems.getDefault().getPathMatcher("glob:".concat(line)), negated, foldersOnly, anchored);
+		}
+		
+		boolean matches(String path, boolean isFolder) {
+			if(this.foldersOnly && !isFolder) {
+				return false;
+			}
+			return this.matcher.matches(Paths.get(this.anchored ? path : getName(path)));
+		}
+		
+	}
+	
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A token bucket that limits how many units (bytes or files) per second
+ * may be used, shared by every thread that charges against it.<br>
+ * The bucket holds up to one second's worth of units, so short bursts pass
+ * straight through while the average rate is held to the limit. It is kept
+ * as a single "theoretical arrival time" that is advanced with a
+ * compare-and-set, so charging against it never blocks and costs a few
+ * atomic operations at most; while it is unlimited, charging against it
+ * costs a single volatile read.<br>
+ * The rate can be changed at any time (even while a search is using it), and
+ * takes effect with the next charge.
+ * 
+ * @author Brian_Entei */
+public final class RateLimiter {
+	
+	/** How much (in nanoseconds) of the rate may be used in a single burst */
+	static final long BURST = 1000000000L;
+	
+	private volatile long rate;
+	private final AtomicLong next = new AtomicLong(Long.MIN_VALUE);
+	
+	/** Creates a new, unlimited rate limiter. */
+	public RateLimiter() {
+		this(0L);
+	}
+	
+	/** @param rate The most units that may be used per second, or <tt>0</tt>
+	 *            for no limit */
+	public RateLimiter(long rate) {
+		this.setRate(rate);
+	}
+	
+	/** @return The most units that may be used per second, or <tt>0</tt> if
+	 *         there is no limit */
+	public long getRate() {
+		return this.rate;
+	}
+	
+	/** Sets the most units that may be used per second. The bucket starts out
+	 * full again whenever the rate changes.
+	 * 
+	 * @param rate The new rate, or <tt>0</tt> (or less) for no limit
+	 * @return This RateLimiter */
+	public RateLimiter setRate(long rate) {
+		this.rate = Math.max(0L, rate);
+		this.next.set(Long.MIN_VALUE);
+		return this;
+	}
+	
+	/** @return Whether or not this rate limiter has a limit */
+	public boolean isLimited() {
+		return this.rate > 0L;
+	}
+	
+	/** Charges the given amount against this rate limiter. The amount is
+	 * always taken, even if the bucket doesn't hold enough of it yet; the
+	 * caller is expected to wait for the returned time before using it, and
+	 * later callers wait behind it.
+	 * 
+	 * @param amount The number of units that are about to be used
+	 * @return How long (in nanoseconds) the caller should wait before using
+	 *         them, or <tt>0</tt> if they may be used right away */
+	public long acquire(long amount) {
+		final long rate = this.rate;
+		if(rate <= 0L || amount <= 0L) {
+			return 0L;
+		}
+		final long cost = (long) Math.min(Long.MAX_VALUE / 4, amount * 1.0e9 / rate);
+		final long now = System.nanoTime();
+		long next, updated;
+		do {
+			next = this.next.get();
+			//An idle bucket fills up to (but not past) a whole burst:
+			long start = next == Long.MIN_VALUE || next - now < 0L ? now : next;
+			updated = start + cost;
+		} while(!this.next.compareAndSet(next, updated));
+		return Math.max(0L, updated - now - BURST);
+	}
+	
+	/** Parses a rate, which is a whole number optionally followed by a
+	 * <tt>k</tt>, <tt>m</tt> or <tt>g</tt> suffix (for thousands, millions
+	 * or billions), or by <tt>b</tt>, <tt>kb</tt>, <tt>mb</tt> or <tt>gb</tt>
+	 * (for bytes, KiB, MiB or GiB).
+	 * 
+	 * @param rate The rate to parse (such as <tt>500</tt>, <tt>20mb</tt> or
+	 *            <tt>1k</tt>)
+	 * @return The parsed rate (<tt>0</tt> for no limit)
+	 * @throws NumberFormatException Thrown if the rate isn't a valid number */
+	public static final long parseRate(String rate) throws NumberFormatException {
+		String value = rate.trim().toLowerCase();
+		long unit = 1L;
+		boolean binary = value.endsWith("b");
+		if(binary) {
+			value = value.substring(0, value.length() - 1);
+		}
+		switch(value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+		case 'k':
+			unit = binary ? 1024L : 1000L;
+			break;
+		case 'm':
+			unit = binary ? 1024L * 1024L : 1000000L;
+			break;
+		case 'g':
+			unit = binary ? 1024L * 1024L * 1024L : 1000000000L;
+			break;
+		default:
+			return Long.parseLong(value.trim());
+		}
+		return Long.parseLong(value.substring(0, value.length() - 1).trim()) * unit;
+	}
+	
+	/** @param property The name of the system property that holds the rate
+	 * @return The rate that the given system property is set to (see
+	 *         {@link #parseRate(String)}), or <tt>0</tt> (for no limit) if it
+	 *         isn't set to a valid rate */
+	public static final long getDefaultRate(String property) {
+		String rate = System.getProperty(property);
+		if(rate != null) {
+			try {
+				return parseRate(rate);
+			} catch(NumberFormatException ignored) {
+			}
+		}
+		return 0L;
+	}
+	
+	/** @param rate The rate to format
+	 * @param bytes Whether the rate is in bytes (or else in files)
+	 * @return The rate in a human-readable form, such as <tt>20 MB/s</tt> */
+	public static final String formatRate(long rate, boolean bytes) {
+		if(rate <= 0L) {
+			return "Unlimited";
+		}
+		return bytes ? FindReplaceSearch.formatSize(rate).concat("/s") : String.format("%s files/s", Long.toString(rate));
+	}
+	
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads search-strings and their replacements out of CSV or TSV files and
+ * compiles them into a {@link SearchPlan}, so that rule sets with thousands
+ * of entries never have to pass through the user interface.<br>
+ * <br>
+ * Each record holds a search-string followed by its replacement:
+ * <ul>
+ * <li>CSV files separate the two with a comma, and either of them may be
+ * enclosed in double quotes (in which case it may contain commas, line
+ * breaks, and doubled <tt>""</tt> quotes).</li>
+ * <li>TSV files separate the two with a tab, and use the escape sequences
+ * <tt>\t</tt>, <tt>\n</tt>, <tt>\r</tt> and <tt>\\</tt> for tabs, line
+ * breaks and backslashes.</li>
+ * </ul>
+ * A record without a replacement is replaced with itself (<tt>%s</tt>),
+ * while an empty replacement removes the matched text. Blank lines are
+ * skipped, as is a first line of <tt>find,replace</tt> (or similar) column
+ * headers. Files are read as UTF-8.
+ * 
+ * @author Brian_Entei */
+public final class RuleSetReader {
+	
+	/** The file extensions that are read as tab-separated values; all other
+	 * files are read as comma-separated values */
+	public static final String[] TSV_EXTENSIONS = {".tsv", ".tab"};
+	
+	private static final String[] FIND_HEADERS = {"find", "search", "search-string", "find what"};
+	private static final String[] REPLACE_HEADERS = {"replace", "replacement", "replace with"};
+	
+	private final Reader in;
+	private final boolean tsv;
+	private int lineNumber = 1;
+	private int next = -2;
+	
+	private RuleSetReader(Reader in, boolean tsv) {
+		this.in = in;
+		this.tsv = tsv;
+	}
+	
+	/** @param file The file to check
+	 * @return True if the given file will be read as tab-separated values */
+	public static final boolean isTSV(File file) {
+		String name = file.getName().toLowerCase();
+		for(String ext : TSV_EXTENSIONS) {
+			if(name.endsWith(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/** Reads and compiles the rules in the given CSV or TSV file (as decided
+	 * by {@link #isTSV(File)}) into a plan that applies them one after
+	 * another.
+	 * 
+	 * @param file The file to read
+	 * @return The compiled rules
+	 * @throws IOException Thrown if the file could not be read or is
+	 *             malformed */
+	public static final SearchPlan read(File file) throws IOException {
+		return read(file, false);
+	}
+	
+	/** Reads and compiles the rules in the given CSV or TSV file (as decided
+	 * by {@link #isTSV(File)}).
+	 * 
+	 * @param file The file to read
+	 * @param singlePass Whether to compile the rules into a single-pass plan
+	 *            (see {@link SearchPlan#compile(String[], String[], boolean)})
+	 * @return The compiled rules
+	 * @throws IOException Thrown if the file could not be read or is
+	 *             malformed */
+	public static final SearchPlan read(File file, boolean singlePass) throws IOException {
+		try(Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 65536)) {
+			return read(in, isTSV(file), singlePass);
+		}
+	}
+	
+	/** Reads and compiles the rules from the given reader. The reader is not
+	 * closed.
+	 * 
+	 * @param in The reader to read from
+	 * @param tsv Whether the rules are tab-separated or comma-separated
+	 * @param singlePass Whether to compile the rules into a single-pass plan
+	 *            (see {@link SearchPlan#compile(String[], String[], boolean)})
+	 * @return The compiled rules
+	 * @throws IOException Thrown if an I/O error occurs or the rules are
+	 *             malformed */
+	public static final SearchPlan read(Reader in, boolean tsv, boolean singlePass) throws IOException {
+		RuleSetReader reader = new RuleSetReader(in, tsv);
+		List<String> findStrings = new ArrayList<>(), replaceStrings = new ArrayList<>();
+		List<String> record = new ArrayList<>(2);
+		boolean first = true;
+		while(reader.readRecord(record)) {
+			if(first) {
+				first = false;
+				if(isHeader(record)) {
+					continue;
+				}
+			}
+			if(record.size() == 1 && record.get(0).isEmpty()) {//Blank line
+				continue;
+			}
+			if(record.size() > 2) {
+				throw new IOException(String.format("Line %s: expected a search-string and a replacement, but found %s fields", Integer.toString(reader.lineNumber - 1), Integer.toString(record.size())));
+			}
+			String searchString = record.get(0);
+			if(searchString.isEmpty() || searchString.equals(SearchPlan.IGNORE_CASE_PREFIX)) {
+				continue;
+			}
+			findStrings.add(searchString);
+			replaceStrings.add(record.size() > 1 ? record.get(1) : SearchPlan.MATCH_PLACEHOLDER);
+		}
+		return SearchPlan.compile(findStrings.toArray(new String[findStrings.size()]), replaceStrings.toArray(new String[replaceStrings.size()]), singlePass);
+	}
+	
+	private static final boolean isHeader(List<String> record) {
+		if(record.size() != 2) {
+			return false;
+		}
+		boolean find = false, replace = false;
+		for(String header : FIND_HEADERS) {
+			find |= header.equalsIgnoreCase(record.get(0).trim());
+		}
+		for(String header : REPLACE_HEADERS) {
+			replace |= header.equalsIgnoreCase(record.get(1).trim());
+		}
+		return find && replace;
+	}
+	
+	private int read() throws IOException {
+		int c;
+		if(this.next != -2) {
+			c = this.next;
+			this.next = -2;
+		} else {
+			c = this.in.read();
+		}
+		if(c == '\n') {
+			this.lineNumber++;
+		}
+		return c;
+	}
+	
+	private int peek() throws IOException {
+		if(this.next == -2) {
+			this.next = this.in.read();
+		}
+		return this.next;
+	}
+	
+	/** Reads the next record's fields into the given list.
+	 * 
+	 * @return False if the end of the input was reached before any field */
+	private boolean readRecord(List<String> record) throws IOException {
+		record.clear();
+		StringBuilder field = new StringBuilder();
+		int c = this.read();
+		if(c == -1) {
+			return false;
+		}
+		if(c == '\uFEFF') {//Byte order mark
+			c = this.read();
+		}
+		final char separator = this.tsv ? '\t' : ',';
+		boolean quoted = false;
+		while(true) {
+			if(quoted) {
+				if(c == -1) {
+					throw new IOException(String.format("Line %s: unterminated quoted field", Integer.toString(this.lineNumber)));
+				}
+				if(c == '"') {
+					if(this.peek() == '"') {
+						this.read();
+						field.append('"');
+					} else {
+						quoted = false;
+					}
+				} else {
+					field.append((char) c);
+				}
+			} else if(c == -1 || c == '\n' || c == separator) {
+				int length = field.length();
+				if(c != separator && length > 0 && field.charAt(length - 1) == '\r') {
+					field.setLength(length - 1);
+				}
+				record.add(field.toString());
+				field.setLength(0);
+				if(c != separator) {
+					return true;
+				}
+			} else if(!this.tsv && c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if(this.tsv && c == '\\') {
+				int escaped = this.read();
+				switch(escaped) {
+				case 't':
+					field.append('\t');
+					break;
+				case 'n':
+					field.append('\n');
+					break;
+				case 'r':
+					field.append('\r');
+					break;
+				case '\\':
+					field.append('\\');
+					break;
+				default:
+					field.append('\\');
+					if(escaped == -1 || escaped == '\n') {
+						c = escaped;
+						continue;
+					}
+					field.append((char) escaped);
+				}
+			} else {
+				field.append((char) c);
+			}
+			c = this.read();
+		}
+	}
+	
+}
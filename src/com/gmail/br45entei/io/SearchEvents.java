@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+
+/** The Java Flight Recorder events that searches emit when
+ * {@link FindReplaceSearch#setFlightRecorderEventsEnabled(boolean)
+ * enabled}, so that a slow search can be broken down into folder listings,
+ * reads, matching, writes and copies with the standard tools (such as
+ * <tt>java&nbsp;-XX:StartFlightRecording</tt> and <tt>jfr&nbsp;print</tt>,
+ * or JDK Mission Control).<br>
+ * The events themselves are defined by <tt>FlightRecorderEvents</tt> in the
+ * <tt>jfr</tt> source folder, which is the only code that refers to
+ * <tt>jdk.jfr</tt>. It is built on its own against Java 11 or later and is
+ * only loaded by name, once events are enabled, so the rest of the code
+ * still builds with <tt>--release&nbsp;8</tt>, and searches still run on
+ * Java runtimes (or builds) that don't have the Flight Recorder.<br>
+ * Each <tt>begin</tt> method returns a started event, which is handed back
+ * to the matching <tt>end</tt> method to be ended, and committed if it is
+ * being recorded.
+ * 
+ * @author Brian_Entei */
+abstract class SearchEvents {
+	
+	/** The category that the events are listed under */
+	static final String CATEGORY = "BatchFindAndReplace";
+	
+	/** The names of the phases of searching through a file line-by-line */
+	static final String READ = "Read", MATCH = "Match", WRITE = "Write";
+	
+	/** The events, or <tt>null</tt> if this Java runtime doesn't have the
+	 * Flight Recorder, or they weren't built */
+	static final SearchEvents RECORDER = load();
+	
+	private static final SearchEvents load() {
+		try {
+			Class.forName("jdk.jfr.Event", false, SearchEvents.class.getClassLoader());
+			return (SearchEvents) Class.forName("com.gmail.br45entei.io.FlightRecorderEvents").getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError | ClassCastException ex) {
+			return null;
+		}
+	}
+	
+	/** @return A started event for a whole search, from its first file to the
+	 *         end of its watch (if it watched for changes) */
+	abstract Object beginSearch();
+	
+	/** @param event The event that was returned by {@link #beginSearch()}
+	 * @param source The source folder
+	 * @param destination The destination folder (or patch file)
+	 * @param files The number of files that were completed
+	 * @param bytes The number of bytes that were completed
+	 * @param replacements The number of replacements that were made */
+	abstract void endSearch(Object event, File source, File destination, long files, long bytes, long replacements);
+	
+	/** @return A started event for the listing of a folder's children */
+	abstract Object beginFolderListed();
+	
+	/** @param event The event that was returned by
+	 *            {@link #beginFolderListed()}
+	 * @param path The folder's path, relative to the source folder
+	 * @param children The number of children that the folder has, or
+	 *            <tt>-1</tt> if it couldn't be listed */
+	abstract void endFolderListed(Object event, String path, int children);
+	
+	/** @return A started event for all of the work done for one file:
+	 *         searching through it and writing (or copying, or skipping) its
+	 *         output */
+	abstract Object beginFileProcessed();
+	
+	/** @param event The event that was returned by
+	 *            {@link #beginFileProcessed()}
+	 * @param path The file's path, relative to the source folder
+	 * @param bytes The file's size
+	 * @param replacements The number of replacements that were made in it */
+	abstract void endFileProcessed(Object event, String path, long bytes, int replacements);
+	
+	/** @return A started event for a byte-copy of a file */
+	abstract Object beginFileCopied();
+	
+	/** @param event The event that was returned by {@link #beginFileCopied()}
+	 * @param source The file that was copied
+	 * @param destination The file that it was copied to
+	 * @param bytes The number of bytes that were copied */
+	abstract void endFileCopied(Object event, File source, File destination, long bytes);
+	
+	/** @return A started event for one phase of searching through a file
+	 *         line-by-line: reading its lines, matching the search-strings
+	 *         in them, or writing the output */
+	abstract Object beginPhase();
+	
+	/** @param event The event that was returned by {@link #beginPhase()}
+	 * @param phase The name of the phase ({@link #READ}, {@link #MATCH} or
+	 *            {@link #WRITE})
+	 * @param file The file that was being searched through
+	 * @param bytes The number of bytes that were read or written
+	 * @param matches The number of matches that were found */
+	abstract void endPhase(Object event, String phase, File file, long bytes, int matches);
+	
+}
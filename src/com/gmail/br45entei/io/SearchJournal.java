@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/** An append-only checkpoint journal that records which files (and whole
+ * folders) a {@link FindReplaceSearch} has finished with, so that a search
+ * that was stopped, crashed or was interrupted by a restart can be resumed
+ * without processing those files again.<br>
+ * <br>
+ * The journal is a UTF-8 text file whose first line identifies the settings
+ * of the search that wrote it; a journal written with different settings is
+ * never resumed. Each following line is either <tt>F&nbsp;&lt;path&gt;</tt>
+ * (a completed file), <tt>D&nbsp;&lt;path&gt;</tt> (a folder whose files
+ * and sub-folders have all been completed) or <tt>M&nbsp;&lt;path&gt;</tt>
+ * (a file modified in place whose output was about to be moved over it, see
+ * {@link #fileMoving(String)}), where <tt>path</tt> is relative to the
+ * source folder and uses <tt>/</tt> as its separator.<br>
+ * Records are written in batches, so a crash may lose the last few of them
+ * (those files are simply processed again); a line that was only partially
+ * written is ignored.
+ * 
+ * @author Brian_Entei */
+public final class SearchJournal implements Closeable {
+	
+	/** The file extension that journals are saved with */
+	public static final String FILE_EXTENSION = ".bfrjournal";
+	
+	private static final String HEADER = "BatchFindAndReplace journal v1 ";
+	/** The number of records that are buffered before they are written out */
+	private static final int BATCH_SIZE = 256;
+	/** The longest time that records are buffered before they are written
+	 * out */
+	private static final long BATCH_INTERVAL = 1000L;
+	
+	private final File file;
+	private final Set<String> completedFiles, completedFolders;
+	private final boolean resumed;
+	private Writer out;
+	private IOException error = null;
+	private int pending = 0;
+	private long lastFlush = System.currentTimeMillis();
+	
+	private SearchJournal(File file, Set<String> completedFiles, Set<String> completedFolders, boolean resumed) {
+		this.file = file;
+		this.completedFiles = completedFiles;
+		this.completedFolders = completedFolders;
+		this.resumed = resumed;
+	}
+	
+	/** Computes a short fingerprint for the given description of a search's
+	 * settings.
+	 * 
+	 * @param settings The settings to fingerprint
+	 * @return The fingerprint */
+	public static final String fingerprint(CharSequence settings) {
+		long hash = 0xcbf29ce484222325L;//64-bit FNV-1a
+		for(int i = 0; i < settings.length(); i++) {
+			char c = settings.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * 0x100000001b3L;
+			hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+		}
+		return String.format("%016x", Long.valueOf(hash));
+	}
+	
+	/** @param path A path relative to the source folder, using the platform's
+	 *            separator
+	 * @return The path as it is stored in the journal */
+	static final String normalize(String path) {
+		path = File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+	
+	static final String escape(String path) {
+		if(path.indexOf('\\') == -1 && path.indexOf('\n') == -1 && path.indexOf('\r') == -1) {
+			return path;
+		}
+		return path.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+	
+	static final String unescape(String path) {
+		if(path.indexOf('\\') == -1) {
+			return path;
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		for(int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if(c == '\\' && i + 1 < path.length()) {
+				c = path.charAt(++i);
+				c = c == 'n' ? '\n' : (c == 'r' ? '\r' : c);
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+	
+	private static final boolean isInCompletedFolder(String path, Set<String> completedFolders) {
+		int index;
+		while((index = path.lastIndexOf('/')) != -1) {
+			path = path.substring(0, index);
+			if(completedFolders.contains(path)) {
+				return true;
+			}
+		}
+		return completedFolders.contains("");
+	}
+	
+	/** Reads the completed paths out of the given journal if it was written by
+	 * a search with the given fingerprint.
+	 * 
+	 * @return True if the journal exists and matches the fingerprint */
+	private static final boolean load(File file, String fingerprint, Set<String> completedFiles, Set<String> completedFolders, Set<String> movingFiles) throws IOException {
+		if(!file.isFile()) {
+			return false;
+		}
+		try(Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			final char[] buf = new char[65536];
+			final StringBuilder line = new StringBuilder();
+			boolean header = true;
+			int read;
+			while((read = in.read(buf)) != -1) {
+				for(int i = 0; i < read; i++) {
+					char c = buf[i];
+					if(c != '\n') {
+						line.append(c);
+						continue;
+					}
+					//Only complete lines count; the last one may have been cut off by a crash:
+					if(header) {
+						if(!line.toString().equals(HEADER.concat(fingerprint))) {
+							return false;
+						}
+						header = false;
+					} else if(line.length() >= 2 && line.charAt(1) == ' ') {
+						String path = unescape(line.substring(2));
+						switch(line.charAt(0)) {
+						case 'F':
+							completedFiles.add(path);
+							break;
+						case 'D':
+							completedFolders.add(path);
+							break;
+						case 'M':
+							movingFiles.add(path);
+							break;
+						default:
+							break;
+						}
+					}
+					line.setLength(0);
+				}
+			}
+			if(header) {
+				return false;
+			}
+		}
+		if(!completedFolders.isEmpty()) {
+			for(Iterator<String> it = completedFiles.iterator(); it.hasNext();) {
+				if(isInCompletedFolder(it.next(), completedFolders)) {
+					it.remove();
+				}
+			}
+		}
+		for(Iterator<String> it = movingFiles.iterator(); it.hasNext();) {
+			String path = it.next();
+			if(completedFiles.contains(path) || isInCompletedFolder(path, completedFolders)) {
+				it.remove();
+			}
+		}
+		return true;
+	}
+	
+	/** Peeks into the given journal without opening it for writing.
+	 * 
+	 * @param file The journal file
+	 * @param fingerprint The fingerprint of the search's settings (see
+	 *            {@link #fingerprint(CharSequence)})
+	 * @return The number of files and folders recorded as completed in the
+	 *         journal, or <tt>-1</tt> if it doesn't exist, can't be read, or
+	 *         belongs to a search with different settings */
+	public static final int getCompletedCount(File file, String fingerprint) {
+		Set<String> completedFiles = new HashSet<>(), completedFolders = new HashSet<>();
+		try {
+			return load(file, fingerprint, completedFiles, completedFolders, new HashSet<>()) ? completedFiles.size() + completedFolders.size() : -1;
+		} catch(IOException ex) {
+			return -1;
+		}
+	}
+	
+	/** Opens the given journal for writing.<br>
+	 * If <em><tt>resume</tt></em> is <tt>true</tt> and the journal was
+	 * written by a search with the same fingerprint, the paths it records are
+	 * loaded and it is compacted (the files inside of completed folders are
+	 * dropped); otherwise it is started over.
+	 * 
+	 * @param file The journal file
+	 * @param fingerprint The fingerprint of the search's settings (see
+	 *            {@link #fingerprint(CharSequence)})
+	 * @param resume Whether or not to resume from the existing journal
+	 * @return The opened journal
+	 * @throws IOException Thrown if the journal could not be read or
+	 *             written */
+	public static final SearchJournal open(File file, String fingerprint, boolean resume) throws IOException {
+		return open(file, fingerprint, resume, null);
+	}
+	
+	/** Opens the given journal for writing (see
+	 * {@link #open(File, String, boolean)}), deciding for each file that the
+	 * previous search was moving output over when it stopped (see
+	 * {@link #fileMoving(String)}) whether the move happened. Those that were
+	 * moved are recorded as completed.
+	 * 
+	 * @param file The journal file
+	 * @param fingerprint The fingerprint of the search's settings (see
+	 *            {@link #fingerprint(CharSequence)})
+	 * @param resume Whether or not to resume from the existing journal
+	 * @param moved Tests whether the output of the file with the given path
+	 *            (relative to the source folder, using <tt>/</tt> as its
+	 *            separator) was moved over it, or <tt>null</tt> to search
+	 *            through all of those files again
+	 * @return The opened journal
+	 * @throws IOException Thrown if the journal could not be read or
+	 *             written */
+	public static final SearchJournal open(File file, String fingerprint, boolean resume, Predicate<String> moved) throws IOException {
+		Set<String> completedFiles = new HashSet<>(), completedFolders = new HashSet<>(), movingFiles = new HashSet<>();
+		boolean resumed = resume && load(file, fingerprint, completedFiles, completedFolders, movingFiles);
+		if(!resumed) {
+			completedFiles.clear();
+			completedFolders.clear();
+			movingFiles.clear();
+		}
+		//Files whose output was moved over them are completed; the others are searched through again (and their temporary files are deleted when they are found):
+		for(String path : movingFiles) {
+			if(moved != null && moved.test(path)) {
+				completedFiles.add(path);
+			}
+		}
+		SearchJournal journal = new SearchJournal(file, completedFiles, completedFolders, resumed);
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null) {
+			parent.mkdirs();
+		}
+		File temp = new File(file.getPath().concat(".tmp"));
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8), 65536)) {
+			out.write(HEADER.concat(fingerprint).concat("\n"));
+			for(String path : completedFolders) {
+				out.write("D ".concat(escape(path)).concat("\n"));
+			}
+			for(String path : completedFiles) {
+				out.write("F ".concat(escape(path)).concat("\n"));
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		journal.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 65536);
+		return journal;
+	}
+	
+	/** @return The journal file */
+	public File getFile() {
+		return this.file;
+	}
+	
+	/** @return True if this journal was resumed from a previous search */
+	public boolean isResumed() {
+		return this.resumed;
+	}
+	
+	/** @param path A file's path, relative to the source folder
+	 * @return True if the previous search already completed the given file */
+	public boolean isFileCompleted(String path) {
+		return !this.completedFiles.isEmpty() && this.completedFiles.contains(normalize(path));
+	}
+	
+	/** @param path A folder's path, relative to the source folder
+	 * @return True if the previous search already completed everything inside
+	 *         of the given folder */
+	public boolean isFolderCompleted(String path) {
+		return !this.completedFolders.isEmpty() && this.completedFolders.contains(normalize(path));
+	}
+	
+	/** @param file A file that was found in the source folder
+	 * @return True if the given file is this journal (or its temporary
+	 *         file), which must not be searched through */
+	public boolean isJournalFile(File file) {
+		File journal = this.file.getAbsoluteFile();
+		file = file.getAbsoluteFile();
+		return file.equals(journal) || file.getPath().equals(journal.getPath().concat(".tmp"));
+	}
+	
+	/** @return The error that stopped this journal from being written to, or
+	 *         <tt>null</tt> if there wasn't one */
+	public synchronized IOException getError() {
+		return this.error;
+	}
+	
+	private void record(char type, String path, boolean flush) {
+		if(this.out == null) {
+			return;
+		}
+		try {
+			this.out.write(type);
+			this.out.write(' ');
+			this.out.write(escape(normalize(path)));
+			this.out.write('\n');
+			long now = System.currentTimeMillis();
+			if(flush || ++this.pending >= BATCH_SIZE || now - this.lastFlush >= BATCH_INTERVAL) {
+				this.out.flush();
+				this.pending = 0;
+				this.lastFlush = now;
+			}
+		} catch(IOException ex) {
+			//Stop journaling; the search itself can carry on without it:
+			this.error = ex;
+			try {
+				this.out.close();
+			} catch(IOException ignored) {
+			}
+			this.out = null;
+		}
+	}
+	
+	/** Records that the given file has been completed. If the record can't be
+	 * written, journaling stops and {@link #getError()} returns the reason.
+	 * 
+	 * @param path The file's path, relative to the source folder
+	 * @param flush Whether the record must be written out right away (such as
+	 *            when the file was modified in place, and processing it again
+	 *            would apply the replacements twice) */
+	public synchronized void fileCompleted(String path, boolean flush) {
+		this.record('F', path, flush);
+	}
+	
+	/** Records (and writes out right away) that the output of the given file,
+	 * which is being modified in place, has been written to a temporary file
+	 * next to it that is about to be moved over it. If the search is killed
+	 * before the file is recorded as completed, the resumed search can tell
+	 * whether the move happened from whether the temporary file is still there
+	 * (see {@link #open(File, String, boolean, Predicate)}).
+	 * 
+	 * @param path The file's path, relative to the source folder */
+	public synchronized void fileMoving(String path) {
+		this.record('M', path, true);
+	}
+	
+	/** Records that all of the files and sub-folders inside of the given
+	 * folder have been completed.
+	 * 
+	 * @param path The folder's path, relative to the source folder */
+	public synchronized void folderCompleted(String path) {
+		this.record('D', path, false);
+	}
+	
+	/** Writes out any buffered records and closes this journal, leaving the
+	 * journal file in place so that the search can be resumed.
+	 * 
+	 * @throws IOException Thrown if the journal could not be written to */
+	@Override
+	public synchronized void close() throws IOException {
+		if(this.out != null) {
+			try {
+				this.out.close();
+			} finally {
+				this.out = null;
+			}
+		}
+	}
+	
+	/** Closes this journal and deletes the journal file, as the search it
+	 * belonged to has run to completion.
+	 * 
+	 * @throws IOException Thrown if the journal could not be closed */
+	public synchronized void delete() throws IOException {
+		this.close();
+		Files.deleteIfExists(this.file.toPath());
+	}
+	
+}
@@ -0,0 +1,930 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The compiled form of a set of search-strings and their replacements.<br>
+ * Files are searched as ISO-8859-1 bytes, so every search-string is encoded
+ * (and case-folded, if it starts with <tt>(?i)</tt>) into bytes once, every
+ * replacement string is split around its <tt>%s</tt> place-holders once, and
+ * the search-strings are compiled into Aho-Corasick automata (one for the
+ * case-sensitive search-strings, and one for the case-insensitive ones, which
+ * is fed case-folded bytes) so that the cost of searching a file does not
+ * depend on how many search-strings there are.<br>
+ * <br>
+ * By default, the rules are applied one after another to each line, in the
+ * order that they were listed, so that the text that one rule writes is
+ * searched by the rules after it (<tt>foo&nbsp;&rarr;&nbsp;bar</tt> followed
+ * by <tt>bar&nbsp;&rarr;&nbsp;baz</tt> turns <tt>foo</tt> into
+ * <tt>baz</tt>). The automata are used to skip over lines that none of the
+ * search-strings occur in.<br>
+ * <br>
+ * {@link #compile(String[], String[], boolean) Single-pass} plans instead
+ * rewrite each match once: at each offset the longest search-string that
+ * matches there wins (ties go to the one that was listed first), its
+ * replacement is written, and searching resumes right after the matched
+ * text. Replacements are never searched again, so rules such as
+ * <tt>a&nbsp;&rarr;&nbsp;b</tt> and <tt>b&nbsp;&rarr;&nbsp;a</tt> swap the
+ * two strings instead of undoing each other.<br>
+ * <br>
+ * Plans can be written out with {@link #write(DataOutputStream)} and read
+ * back from a (typically memory-mapped) buffer with
+ * {@link #read(ByteBuffer)}; the automata are used directly from the buffer
+ * instead of being rebuilt.
+ * 
+ * @author Brian_Entei */
+public final class SearchPlan {
+	
+	/** The prefix that marks a search-string as case-insensitive */
+	public static final String IGNORE_CASE_PREFIX = "(?i)";
+	/** The place-holder that is replaced with the matched text inside of
+	 * replacement strings */
+	public static final String MATCH_PLACEHOLDER = "%s";
+	
+	private static final int MAGIC = 0x42465250;//"BFRP"
+	private static final int FORMAT_VERSION = 3;
+	
+	/** The ways that text in which no search-string can start is skipped
+	 * over while searching.
+	 * 
+	 * @author Brian_Entei */
+	public static enum Kernel {
+		/** Every byte is fed through the automata */
+		NONE,
+		/** Bytes that can't start a search-string are skipped one at a time
+		 * using lookup tables */
+		SCALAR,
+		/** Bytes that can't start a search-string are skipped sixteen at a
+		 * time by comparing whole <tt>long</tt> words at once (SIMD within a
+		 * register). Falls back to {@link #SCALAR} when the search-strings
+		 * can start (or end) with too many different bytes. */
+		SWAR,
+		/** Each plan uses the kernel that is fastest for its search-strings
+		 * (see {@link SearchPlan#getAutoKernel()}) */
+		AUTO;
+	}
+	
+	/** Whether words are read out of byte buffers one byte at a time (as they
+	 * are on Java 8), which makes the {@link Kernel#SWAR SWAR} kernel slower
+	 * than the scalar one */
+	private static final boolean SLOW_WORD_READS = System.getProperty("java.specification.version", "").startsWith("1.");
+	
+	private static volatile Kernel kernel = getDefaultKernel();
+	
+	/** @return The kernel that is used unless another one is set: the one
+	 *         named by the <tt>bfr.kernel</tt> system property, or else
+	 *         {@link Kernel#AUTO} */
+	public static final Kernel getDefaultKernel() {
+		String name = System.getProperty("bfr.kernel");
+		if(name != null) {
+			try {
+				return Kernel.valueOf(name.trim().toUpperCase());
+			} catch(IllegalArgumentException ignored) {
+			}
+		}
+		return Kernel.AUTO;
+	}
+	
+	/** @return The kernel that searches use to skip over text in which no
+	 *         search-string can start */
+	public static final Kernel getKernel() {
+		return kernel;
+	}
+	
+	/** Sets the kernel that searches use to skip over text in which no
+	 * search-string can start. This takes effect immediately, even for
+	 * searches that are already running, and never changes their results.
+	 * 
+	 * @param kernel The kernel to use */
+	public static final void setKernel(Kernel kernel) {
+		SearchPlan.kernel = kernel == null ? Kernel.NONE : kernel;
+	}
+	
+	/** Maps each ISO-8859-1 byte to its case-folded form */
+	static final byte[] FOLD = new byte[256];
+	
+	static {
+		for(int c = 0; c < 256; c++) {
+			FOLD[c] = (byte) foldChar((char) c);
+		}
+	}
+	
+	/** @param c The character to fold
+	 * @return The case-folded ISO-8859-1 form of the given character, or
+	 *         <tt>-1</tt> if it has none */
+	private static final int foldChar(char c) {
+		int folded = Character.toLowerCase(Character.toUpperCase(c));
+		if(folded > 0xFF) {
+			folded = Character.toLowerCase(c);
+		}
+		if(folded > 0xFF) {
+			return c > 0xFF ? -1 : c;
+		}
+		return folded;
+	}
+	
+	/** An Aho-Corasick automaton stored in flat int tables, so that it can be
+	 * written out and used straight from a memory-mapped file.<br>
+	 * State <tt>0</tt> is the root, whose transitions are stored in a full
+	 * 256-entry table; every other state's transitions are stored sorted by
+	 * byte value and are binary searched.
+	 * 
+	 * @author Brian_Entei */
+	private static final class Automaton {
+		
+		/** The state reached from the root by each byte value */
+		final IntBuffer root;
+		/** The transitions of state <tt>s</tt> are
+		 * <tt>keys/targets[offsets[s]]</tt> up to (but not including)
+		 * <tt>keys/targets[offsets[s + 1]]</tt> */
+		final IntBuffer offsets, keys, targets;
+		/** The failure link, the depth, and the longest search-string that
+		 * ends at each state (or <tt>-1</tt>) */
+		final IntBuffer failure, depth, output;
+		
+		Automaton(IntBuffer root, IntBuffer offsets, IntBuffer keys, IntBuffer targets, IntBuffer failure, IntBuffer depth, IntBuffer output) {
+			this.root = root;
+			this.offsets = offsets;
+			this.keys = keys;
+			this.targets = targets;
+			this.failure = failure;
+			this.depth = depth;
+			this.output = output;
+		}
+		
+		int getStateCount() {
+			return this.depth.limit();
+		}
+		
+		int next(int state, int b) {
+			while(state != 0) {
+				int low = this.offsets.get(state), high = this.offsets.get(state + 1) - 1;
+				while(low <= high) {
+					int mid = (low + high) >>> 1;
+					int key = this.keys.get(mid);
+					if(key < b) {
+						low = mid + 1;
+					} else if(key > b) {
+						high = mid - 1;
+					} else {
+						return this.targets.get(mid);
+					}
+				}
+				state = this.failure.get(state);
+			}
+			return this.root.get(b);
+		}
+		
+		/** Builds an automaton out of the given patterns.
+		 * 
+		 * @param patterns The encoded search-strings
+		 * @param ignoreCase Which of the search-strings are case-insensitive
+		 * @param folded Whether to build the automaton for the
+		 *            case-insensitive search-strings or for the case-sensitive
+		 *            ones
+		 * @return The new automaton, or <tt>null</tt> if there are no
+		 *         search-strings for it */
+		static Automaton build(byte[][] patterns, boolean[] ignoreCase, boolean folded) {
+			int capacity = 1;
+			for(int i = 0; i < patterns.length; i++) {
+				if(patterns[i] != null && ignoreCase[i] == folded) {
+					capacity += patterns[i].length;
+				}
+			}
+			if(capacity == 1) {
+				return null;
+			}
+			//Build the trie:
+			Map<Long, Integer> edges = new HashMap<>();
+			int[] parents = new int[capacity], bytes = new int[capacity], depth = new int[capacity], output = new int[capacity];
+			Arrays.fill(output, -1);
+			int states = 1;
+			for(int i = 0; i < patterns.length; i++) {
+				byte[] pattern = patterns[i];
+				if(pattern == null || ignoreCase[i] != folded) {
+					continue;
+				}
+				int state = 0;
+				for(byte b : pattern) {
+					Long key = Long.valueOf(((long) state << 8) | (b & 0xFF));
+					Integer target = edges.get(key);
+					if(target == null) {
+						parents[states] = state;
+						bytes[states] = b & 0xFF;
+						depth[states] = depth[state] + 1;
+						edges.put(key, target = Integer.valueOf(states++));
+					}
+					state = target.intValue();
+				}
+				if(output[state] == -1) {//Identical search-strings: the first one listed wins
+					output[state] = i;
+				}
+			}
+			//Flatten it (states were created parent-first, so a state's children always come after it):
+			int[] offsets = new int[states + 1];
+			for(int s = 1; s < states; s++) {
+				offsets[parents[s] + 1]++;
+			}
+			for(int s = 0; s < states; s++) {
+				offsets[s + 1] += offsets[s];
+			}
+			int[] keys = new int[states - 1], targets = new int[states - 1], fill = Arrays.copyOf(offsets, states);
+			for(int s = 1; s < states; s++) {
+				int index = fill[parents[s]]++;
+				//Insertion sort by byte value within the parent's range:
+				while(index > offsets[parents[s]] && keys[index - 1] > bytes[s]) {
+					keys[index] = keys[index - 1];
+					targets[index] = targets[index - 1];
+					index--;
+				}
+				keys[index] = bytes[s];
+				targets[index] = s;
+			}
+			int[] root = new int[256];
+			for(int i = offsets[0]; i < offsets[1]; i++) {
+				root[keys[i]] = targets[i];
+			}
+			int[] failure = new int[states];
+			Automaton automaton = new Automaton(IntBuffer.wrap(root), IntBuffer.wrap(offsets), IntBuffer.wrap(keys), IntBuffer.wrap(targets), IntBuffer.wrap(failure), IntBuffer.wrap(depth, 0, states).slice(), IntBuffer.wrap(output, 0, states).slice());
+			//Compute the failure links breadth-first, so that every state that a failure link can lead to is already complete:
+			int[] queue = new int[states];
+			int head = 0, tail = 0;
+			queue[tail++] = 0;
+			while(head < tail) {
+				int state = queue[head++];
+				for(int i = offsets[state]; i < offsets[state + 1]; i++) {
+					int child = targets[i];
+					failure[child] = state == 0 ? 0 : automaton.next(failure[state], keys[i]);
+					if(output[child] == -1) {
+						output[child] = output[failure[child]];
+					}
+					queue[tail++] = child;
+				}
+			}
+			return automaton;
+		}
+		
+		void write(DataOutputStream out) throws IOException {
+			writeInts(out, this.root);
+			writeInts(out, this.offsets);
+			writeInts(out, this.keys);
+			writeInts(out, this.targets);
+			writeInts(out, this.failure);
+			writeInts(out, this.depth);
+			writeInts(out, this.output);
+		}
+		
+		static Automaton read(ByteBuffer buf, byte[][] patterns) throws IOException {
+			Automaton automaton = new Automaton(readInts(buf), readInts(buf), readInts(buf), readInts(buf), readInts(buf), readInts(buf), readInts(buf));
+			final int states = automaton.getStateCount(), transitions = automaton.keys.limit();
+			if(states < 1 || automaton.root.limit() != 256 || automaton.offsets.limit() != states + 1 || automaton.targets.limit() != transitions || automaton.failure.limit() != states || automaton.output.limit() != states || automaton.offsets.get(states) != transitions || automaton.depth.get(0) != 0) {
+				throw new IOException("Corrupt search plan: invalid automaton");
+			}
+			//Make sure that a corrupt file can't send the matcher out of bounds or into an endless loop:
+			for(int i = 0; i < 256; i++) {
+				checkRange(automaton.root.get(i), states);
+			}
+			for(int i = 0; i < transitions; i++) {
+				checkRange(automaton.targets.get(i), states);
+			}
+			for(int s = 0; s < states; s++) {
+				int offset = automaton.offsets.get(s), failure = automaton.failure.get(s), output = automaton.output.get(s);
+				checkRange(offset, transitions + 1);
+				checkRange(failure, states);
+				if(automaton.offsets.get(s + 1) < offset || (s > 0 && automaton.depth.get(failure) >= automaton.depth.get(s))) {
+					throw new IOException("Corrupt search plan: invalid automaton");
+				}
+				if(output != -1) {
+					checkRange(output, patterns.length);
+					if(patterns[output] == null || patterns[output].length > automaton.depth.get(s)) {
+						throw new IOException("Corrupt search plan: invalid automaton");
+					}
+				}
+			}
+			return automaton;
+		}
+		
+		private static final void checkRange(int value, int limit) throws IOException {
+			if(value < 0 || value >= limit) {
+				throw new IOException("Corrupt search plan: invalid automaton");
+			}
+		}
+		
+	}
+	
+	/** Receives the matches found by
+	 * {@link SearchPlan#findMatches(byte[], int, int, MatchListener)}.
+	 * 
+	 * @author Brian_Entei */
+	public static interface MatchListener {
+		
+		/** Called for each match, in order.
+		 * 
+		 * @param offset The offset of the matched text
+		 * @param length The length of the matched text
+		 * @param replacement The text that replaces the matched text
+		 * @return False to stop searching */
+		public boolean onMatch(int offset, int length, byte[] replacement);
+		
+	}
+	
+	/** Receives the search-strings found by the automata, before their
+	 * replacements are built. */
+	private static interface PatternListener {
+		
+		public boolean onMatch(int offset, int pattern);
+		
+	}
+	
+	/** Text that a line is being rewritten into by the rules of a sequential
+	 * plan, along with the offset in the original data that each of its
+	 * bytes came from (or <tt>-1</tt> for bytes that were written by a
+	 * rule). */
+	private static final class Rewrite {
+		
+		byte[] text;
+		int[] origin;
+		int length = 0;
+		
+		Rewrite(int capacity) {
+			this.text = new byte[capacity];
+			this.origin = new int[capacity];
+		}
+		
+		private void ensureCapacity(int capacity) {
+			if(capacity > this.text.length) {
+				capacity = Math.max(capacity, this.text.length * 2);
+				this.text = Arrays.copyOf(this.text, capacity);
+				this.origin = Arrays.copyOf(this.origin, capacity);
+			}
+		}
+		
+		void append(Rewrite source, int offset, int count) {
+			this.ensureCapacity(this.length + count);
+			System.arraycopy(source.text, offset, this.text, this.length, count);
+			System.arraycopy(source.origin, offset, this.origin, this.length, count);
+			this.length += count;
+		}
+		
+		void append(byte[] replacement) {
+			this.ensureCapacity(this.length + replacement.length);
+			System.arraycopy(replacement, 0, this.text, this.length, replacement.length);
+			Arrays.fill(this.origin, this.length, this.length + replacement.length, -1);
+			this.length += replacement.length;
+		}
+		
+	}
+	
+	private final String[] findStrings;
+	private final String[] replaceStrings;
+	/** The encoded (and case-folded, where applicable) search-strings, or
+	 * <tt>null</tt> for search-strings that can never match */
+	private final byte[][] patterns;
+	private final boolean[] ignoreCase;
+	/** The encoded parts of each replacement string that surround its
+	 * {@link #MATCH_PLACEHOLDER}s */
+	private final byte[][][] templates;
+	private final int maxPatternLength;
+	/** The automata for the case-sensitive and case-insensitive
+	 * search-strings, either of which is <tt>null</tt> if there are no such
+	 * search-strings */
+	private final Automaton exact, folded;
+	/** Skips over text that no search-string can start in, or <tt>null</tt> */
+	private final StartFilter filter;
+	/** Whether each match is rewritten once, instead of the rules being
+	 * applied one after another */
+	private final boolean singlePass;
+	
+	private SearchPlan(String[] findStrings, String[] replaceStrings, byte[][] patterns, boolean[] ignoreCase, byte[][][] templates, Automaton exact, Automaton folded, boolean singlePass) {
+		this.findStrings = findStrings;
+		this.replaceStrings = replaceStrings;
+		this.patterns = patterns;
+		this.ignoreCase = ignoreCase;
+		this.templates = templates;
+		int maxPatternLength = 0;
+		for(byte[] pattern : patterns) {
+			maxPatternLength = pattern == null ? maxPatternLength : Math.max(maxPatternLength, pattern.length);
+		}
+		this.maxPatternLength = maxPatternLength;
+		this.exact = exact;
+		this.folded = folded;
+		this.filter = StartFilter.build(patterns, ignoreCase);
+		this.singlePass = singlePass;
+	}
+	
+	/** Compiles the given search-strings and replacement strings into a new
+	 * {@link SearchPlan} that applies them one after another.
+	 * 
+	 * @param findStrings The search-strings, each of which may be prepended
+	 *            with <tt>(?i)</tt> to indicate case-insensitive matching
+	 * @param replaceStrings The replacement strings, which may use
+	 *            <tt>%s</tt> to represent the matched text. Search-strings
+	 *            without a corresponding replacement string are replaced with
+	 *            themselves.
+	 * @return The compiled plan
+	 * @see #compile(String[], String[], boolean) */
+	public static final SearchPlan compile(String[] findStrings, String[] replaceStrings) {
+		return compile(findStrings, replaceStrings, false);
+	}
+	
+	/** Compiles the given search-strings and replacement strings into a new
+	 * {@link SearchPlan}.
+	 * 
+	 * @param findStrings The search-strings, each of which may be prepended
+	 *            with <tt>(?i)</tt> to indicate case-insensitive matching
+	 * @param replaceStrings The replacement strings, which may use
+	 *            <tt>%s</tt> to represent the matched text. Search-strings
+	 *            without a corresponding replacement string are replaced with
+	 *            themselves.
+	 * @param singlePass If <tt>true</tt>, each match is rewritten once and
+	 *            replacements are never searched again; otherwise the rules
+	 *            are applied one after another, so that a rule can match text
+	 *            that was written by the rules before it
+	 * @return The compiled plan */
+	public static final SearchPlan compile(String[] findStrings, String[] replaceStrings, boolean singlePass) {
+		final int count = findStrings.length;
+		byte[][] patterns = new byte[count][];
+		boolean[] ignoreCase = new boolean[count];
+		byte[][][] templates = new byte[count][][];
+		for(int i = 0; i < count; i++) {
+			String searchString = findStrings[i];
+			ignoreCase[i] = searchString.startsWith(IGNORE_CASE_PREFIX);
+			patterns[i] = encodePattern(ignoreCase[i] ? searchString.substring(IGNORE_CASE_PREFIX.length()) : searchString, ignoreCase[i]);
+			templates[i] = parseTemplate(i < replaceStrings.length ? replaceStrings[i] : MATCH_PLACEHOLDER);
+		}
+		
+		return new SearchPlan(findStrings.clone(), replaceStrings.clone(), patterns, ignoreCase, templates, Automaton.build(patterns, ignoreCase, false), Automaton.build(patterns, ignoreCase, true), singlePass);
+	}
+	
+	/** @param searchString The search-string to encode (without its
+	 *            <tt>(?i)</tt> prefix)
+	 * @param ignoreCase Whether or not to case-fold the search-string
+	 * @return The ISO-8859-1 encoded search-string, or <tt>null</tt> if it is
+	 *         empty or contains characters that can never appear in the
+	 *         ISO-8859-1 decoded contents of a file */
+	private static final byte[] encodePattern(String searchString, boolean ignoreCase) {
+		if(searchString.isEmpty()) {
+			return null;
+		}
+		byte[] pattern = new byte[searchString.length()];
+		for(int i = 0; i < pattern.length; i++) {
+			char c = searchString.charAt(i);
+			int b = ignoreCase ? foldChar(c) : (c > 0xFF ? -1 : c);
+			if(b == -1) {
+				return null;
+			}
+			pattern[i] = ignoreCase ? FOLD[b] : (byte) b;
+		}
+		return pattern;
+	}
+	
+	private static final byte[][] parseTemplate(String replacementString) {
+		List<byte[]> parts = new ArrayList<>();
+		int index, lastIndex = 0;
+		while((index = replacementString.indexOf(MATCH_PLACEHOLDER, lastIndex)) != -1) {
+			parts.add(replacementString.substring(lastIndex, index).getBytes(StandardCharsets.ISO_8859_1));
+			lastIndex = index + MATCH_PLACEHOLDER.length();
+		}
+		parts.add(replacementString.substring(lastIndex).getBytes(StandardCharsets.ISO_8859_1));
+		return parts.toArray(new byte[parts.size()][]);
+	}
+	
+	/** @return A copy of the search-strings that this plan was compiled from */
+	public String[] getFindStrings() {
+		return this.findStrings.clone();
+	}
+	
+	/** @return A copy of the replacement strings that this plan was compiled
+	 *         from */
+	public String[] getReplaceStrings() {
+		return this.replaceStrings.clone();
+	}
+	
+	/** @return The number of search-strings in this plan */
+	public int getPatternCount() {
+		return this.patterns.length;
+	}
+	
+	/** @param pattern The index of the search-string
+	 * @return The length (in bytes) of the given search-string */
+	public int getPatternLength(int pattern) {
+		byte[] bytes = this.patterns[pattern];
+		return bytes == null ? 0 : bytes.length;
+	}
+	
+	/** @return The length (in bytes) of the longest search-string */
+	public int getMaxPatternLength() {
+		return this.maxPatternLength;
+	}
+	
+	/** @return The number of case-insensitive search-strings in this plan */
+	public int getIgnoreCaseCount() {
+		int count = 0;
+		for(boolean ignoreCase : this.ignoreCase) {
+			count += ignoreCase ? 1 : 0;
+		}
+		return count;
+	}
+	
+	/** @return The total number of states in this plan's automata */
+	public int getStateCount() {
+		return (this.exact == null ? 0 : this.exact.getStateCount()) + (this.folded == null ? 0 : this.folded.getStateCount());
+	}
+	
+	/** @return True if none of the search-strings can ever match */
+	public boolean isEmpty() {
+		return this.maxPatternLength == 0;
+	}
+	
+	/** The {@link Kernel#SWAR SWAR} kernel only pays off when the places
+	 * where a search-string could start are far apart. It is used for plans
+	 * whose filter can rule out most offsets by their first and last bytes,
+	 * or whose search-strings all start with the same byte; plans with a mix
+	 * of first bytes and lengths stop it too often, and are faster with the
+	 * {@link Kernel#SCALAR scalar} kernel (run <tt>KernelBenchmark</tt> from
+	 * the <tt>tools</tt> folder to compare them).
+	 * 
+	 * @return The kernel that {@link Kernel#AUTO} uses for this plan */
+	public Kernel getAutoKernel() {
+		if(this.filter == null) {
+			return Kernel.NONE;
+		}
+		return !SLOW_WORD_READS && this.filter.prefersSWAR() ? Kernel.SWAR : Kernel.SCALAR;
+	}
+	
+	/** @return True if each match is rewritten once, or false if the rules
+	 *         are applied one after another (see
+	 *         {@link #compile(String[], String[], boolean)}) */
+	public boolean isSinglePass() {
+		return this.singlePass;
+	}
+	
+	/** Searches the given range of data (normally a single line) for the
+	 * search-strings in this plan, and reports the text that they replace as
+	 * non-overlapping matches from left to right.<br>
+	 * In single-pass plans, each match is a single search-string (at each
+	 * offset, the longest matching search-string wins). Otherwise the rules
+	 * are applied to the range one after another, and each match is a run
+	 * of the original text that they rewrote, together with what it was
+	 * rewritten into.
+	 * 
+	 * @param data The data to search
+	 * @param from The offset to start searching at
+	 * @param to The offset to stop searching at (matches never extend past
+	 *            it)
+	 * @param listener The listener that will receive the matches
+	 * @return The number of matches that were reported */
+	public int findMatches(final byte[] data, int from, int to, final MatchListener listener) {
+		if(this.singlePass || this.patterns.length < 2) {
+			return this.scan(data, from, to, (offset, pattern) -> listener.onMatch(offset, this.patterns[pattern].length, this.getReplacement(pattern, data, offset)));
+		}
+		//Nothing can change unless one of the search-strings occurs in the original text:
+		if(this.scan(data, from, to, (offset, pattern) -> false) == 0) {
+			return 0;
+		}
+		Rewrite current = new Rewrite(to - from), next = new Rewrite(to - from);
+		System.arraycopy(data, from, current.text, 0, to - from);
+		for(int i = 0; i < to - from; i++) {
+			current.origin[i] = from + i;
+		}
+		current.length = to - from;
+		for(int pattern = 0; pattern < this.patterns.length; pattern++) {
+			if(this.patterns[pattern] == null) {
+				continue;
+			}
+			next.length = 0;
+			int last = 0, index;
+			while((index = this.indexOf(pattern, current.text, last, current.length)) != -1) {
+				next.append(current, last, index - last);
+				next.append(this.getReplacement(pattern, current.text, index));
+				last = index + this.patterns[pattern].length;
+			}
+			if(last > 0) {
+				next.append(current, last, current.length - last);
+				Rewrite swap = current;
+				current = next;
+				next = swap;
+			}
+		}
+		//Report each run of the original text that didn't make it through unchanged, along with what took its place:
+		int matches = 0, position = from, start = 0;
+		for(int i = 0; i <= current.length; i++) {
+			final int origin = i < current.length ? current.origin[i] : to;
+			if(origin == -1) {
+				continue;
+			}
+			if(origin != position || i != start) {
+				matches++;
+				if(!listener.onMatch(position, origin - position, Arrays.copyOfRange(current.text, start, i))) {
+					break;
+				}
+			}
+			position = origin + 1;
+			start = i + 1;
+		}
+		return matches;
+	}
+	
+	/** @return The offset of the first occurrence of the given search-string
+	 *         in the given range of text, or <tt>-1</tt> if there is none */
+	private int indexOf(int pattern, byte[] text, int from, int to) {
+		final byte[] bytes = this.patterns[pattern];
+		final boolean ignoreCase = this.ignoreCase[pattern];
+		search:
+		for(int i = from, last = to - bytes.length; i <= last; i++) {
+			for(int j = 0; j < bytes.length; j++) {
+				final byte b = text[i + j];
+				if((ignoreCase ? FOLD[b & 0xFF] : b) != bytes[j]) {
+					continue search;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+	
+	/** Searches the given range of data for the search-strings in this plan
+	 * in a single pass, reporting non-overlapping matches from left to right
+	 * (at each offset, the longest matching search-string wins).
+	 * 
+	 * @return The number of matches that were reported */
+	private int scan(byte[] data, int from, int to, PatternListener listener) {
+		final Automaton exact = this.exact, folded = this.folded;
+		final Kernel chosen = SearchPlan.kernel == Kernel.AUTO ? this.getAutoKernel() : SearchPlan.kernel;
+		final Kernel kernel = this.filter == null ? Kernel.NONE : (chosen == Kernel.SWAR && (!this.filter.isSWARCapable() || to - from < StartFilter.MIN_SWAR_LENGTH) ? Kernel.SCALAR : chosen);
+		final ByteBuffer view = kernel == Kernel.SWAR ? StartFilter.view(data) : null;
+		int matches = 0;
+		int exactState = 0, foldedState = 0;
+		//The leftmost (and then longest) match found so far:
+		int bestOffset = -1, bestPattern = -1, bestLength = 0;
+		int offset = from;
+		while(true) {
+			if(exactState == 0 && foldedState == 0 && bestPattern == -1 && kernel != Kernel.NONE) {
+				//No match is in progress, so skip straight to the next place that one could start:
+				offset = kernel == Kernel.SWAR ? this.filter.skipSWAR(data, view, offset, to) : this.filter.skipScalar(data, offset, to);
+			}
+			if(offset < to) {
+				final int b = data[offset++] & 0xFF;
+				int pattern = -1, length = 0;
+				if(exact != null) {
+					exactState = exact.next(exactState, b);
+					pattern = exact.output.get(exactState);
+					length = pattern == -1 ? 0 : this.patterns[pattern].length;
+				}
+				if(folded != null) {
+					foldedState = folded.next(foldedState, FOLD[b] & 0xFF);
+					int foldedPattern = folded.output.get(foldedState);
+					int foldedLength = foldedPattern == -1 ? 0 : this.patterns[foldedPattern].length;
+					if(foldedLength > length || (foldedLength == length && foldedPattern != -1 && (pattern == -1 || foldedPattern < pattern))) {
+						pattern = foldedPattern;
+						length = foldedLength;
+					}
+				}
+				if(pattern != -1) {
+					//This is the longest match ending here, so it starts before any other match that ends here:
+					int matchOffset = offset - length;
+					if(bestPattern == -1 || matchOffset < bestOffset || (matchOffset == bestOffset && (length > bestLength || (length == bestLength && pattern < bestPattern)))) {
+						bestOffset = matchOffset;
+						bestPattern = pattern;
+						bestLength = length;
+					}
+				}
+				if(bestPattern == -1) {
+					continue;
+				}
+				//Keep looking for as long as a longer match could still start at (or before) the best one:
+				if((exact != null && offset - exact.depth.get(exactState) <= bestOffset) || (folded != null && offset - folded.depth.get(foldedState) <= bestOffset)) {
+					continue;
+				}
+			} else if(bestPattern == -1) {
+				break;
+			}
+			matches++;
+			if(!listener.onMatch(bestOffset, bestPattern)) {
+				break;
+			}
+			//Restart right after the match (any text after it that was already scanned is scanned again):
+			offset = bestOffset + bestLength;
+			exactState = foldedState = 0;
+			bestPattern = -1;
+		}
+		return matches;
+	}
+	
+	/** Builds the replacement for a match.
+	 * 
+	 * @param pattern The index of the search-string that matched
+	 * @param data The data that was searched
+	 * @param offset The offset of the matched text
+	 * @return The replacement for the matched text */
+	public byte[] getReplacement(int pattern, byte[] data, int offset) {
+		final byte[][] parts = this.templates[pattern];
+		final int length = this.patterns[pattern].length;
+		int size = length * (parts.length - 1);
+		for(byte[] part : parts) {
+			size += part.length;
+		}
+		byte[] replacement = new byte[size];
+		int position = 0;
+		for(int i = 0; i < parts.length; i++) {
+			if(i > 0) {
+				System.arraycopy(data, offset, replacement, position, length);
+				position += length;
+			}
+			System.arraycopy(parts[i], 0, replacement, position, parts[i].length);
+			position += parts[i].length;
+		}
+		return replacement;
+	}
+	
+	//Serialization
+	
+	static final void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	static final byte[] readBytes(ByteBuffer buf) throws IOException {
+		int length = buf.getInt();
+		if(length < 0 || length > buf.remaining()) {
+			throw new IOException("Corrupt search plan: invalid length ".concat(Integer.toString(length)));
+		}
+		byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return bytes;
+	}
+	
+	private static final void writeInts(DataOutputStream out, IntBuffer ints) throws IOException {
+		out.writeInt(ints.limit());
+		for(int i = 0; i < ints.limit(); i++) {
+			out.writeInt(ints.get(i));
+		}
+	}
+	
+	/** Returns a view of the next int array in the given buffer, without
+	 * copying it. */
+	private static final IntBuffer readInts(ByteBuffer buf) throws IOException {
+		int length = buf.getInt();
+		if(length < 0 || length > buf.remaining() / 4) {
+			throw new IOException("Corrupt search plan: invalid length ".concat(Integer.toString(length)));
+		}
+		ByteBuffer slice = buf.slice();
+		slice.limit(length * 4);
+		buf.position(buf.position() + length * 4);
+		return slice.asIntBuffer();
+	}
+	
+	/** Writes this plan out in a compact binary format that can be read back
+	 * with {@link #read(ByteBuffer)}.
+	 * 
+	 * @param out The stream to write to
+	 * @throws IOException Thrown if an I/O error occurs */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(this.patterns.length);
+		out.writeInt(this.replaceStrings.length);
+		for(int i = 0; i < this.patterns.length; i++) {
+			writeBytes(out, this.findStrings[i].getBytes(StandardCharsets.UTF_8));
+			out.writeBoolean(this.ignoreCase[i]);
+			writeBytes(out, this.patterns[i] == null ? new byte[0] : this.patterns[i]);
+			out.writeInt(this.templates[i].length);
+			for(byte[] part : this.templates[i]) {
+				writeBytes(out, part);
+			}
+		}
+		for(String replaceString : this.replaceStrings) {
+			writeBytes(out, replaceString.getBytes(StandardCharsets.UTF_8));
+		}
+		out.writeBoolean(this.singlePass);
+		//Align the automata so that they can be viewed as ints straight out of a mapped file:
+		while(out.size() % 4 != 0) {
+			out.write(0);
+		}
+		out.writeBoolean(this.exact != null);
+		out.writeBoolean(this.folded != null);
+		out.writeShort(0);
+		if(this.exact != null) {
+			this.exact.write(out);
+		}
+		if(this.folded != null) {
+			this.folded.write(out);
+		}
+	}
+	
+	/** Reads a plan that was written with {@link #write(DataOutputStream)}.
+	 * The automata are not copied out of the buffer, so if the buffer is
+	 * memory-mapped, loading even a huge plan only costs as much as reading
+	 * its search-strings.
+	 * 
+	 * @param buf The buffer to read from. Its position is advanced past the
+	 *            plan.
+	 * @return The plan that was read
+	 * @throws IOException Thrown if the buffer does not contain a valid
+	 *             plan */
+	public static final SearchPlan read(ByteBuffer buf) throws IOException {
+		try {
+			if(buf.getInt() != MAGIC) {
+				throw new IOException("Not a search plan");
+			}
+			int version = buf.getInt();
+			if(version < 1 || version > FORMAT_VERSION) {
+				throw new IOException(String.format("Unsupported search plan version: %s", Integer.toString(version)));
+			}
+			final int count = buf.getInt(), replaceCount = buf.getInt();
+			if(count < 0 || replaceCount < 0) {
+				throw new IOException("Corrupt search plan: invalid count");
+			}
+			String[] findStrings = new String[count];
+			byte[][] patterns = new byte[count][];
+			boolean[] ignoreCase = new boolean[count];
+			byte[][][] templates = new byte[count][][];
+			for(int i = 0; i < count; i++) {
+				findStrings[i] = new String(readBytes(buf), StandardCharsets.UTF_8);
+				ignoreCase[i] = buf.get() != 0;
+				byte[] pattern = readBytes(buf);
+				patterns[i] = pattern.length == 0 ? null : pattern;
+				int parts = buf.getInt();
+				if(parts < 1 || parts > buf.remaining() / 4) {
+					throw new IOException("Corrupt search plan: invalid replacement");
+				}
+				templates[i] = new byte[parts][];
+				for(int j = 0; j < parts; j++) {
+					templates[i][j] = readBytes(buf);
+				}
+			}
+			String[] replaceStrings = new String[replaceCount];
+			for(int i = 0; i < replaceCount; i++) {
+				replaceStrings[i] = new String(readBytes(buf), StandardCharsets.UTF_8);
+			}
+			//Plans from before version 3 were always single-pass:
+			final boolean singlePass = version < 3 || buf.get() != 0;
+			if(version == 1) {
+				//Skip the first-byte index that older plans were searched with, and build the automata instead:
+				readInts(buf);
+				readInts(buf);
+				return new SearchPlan(findStrings, replaceStrings, patterns, ignoreCase, templates, Automaton.build(patterns, ignoreCase, false), Automaton.build(patterns, ignoreCase, true), singlePass);
+			}
+			while(buf.position() % 4 != 0) {
+				buf.get();
+			}
+			boolean hasExact = buf.get() != 0, hasFolded = buf.get() != 0;
+			buf.getShort();
+			Automaton exact = hasExact ? Automaton.read(buf, patterns) : null;
+			Automaton folded = hasFolded ? Automaton.read(buf, patterns) : null;
+			return new SearchPlan(findStrings, replaceStrings, patterns, ignoreCase, templates, exact, folded, singlePass);
+		} catch(BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IOException("Corrupt search plan: unexpected end of data", ex);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("SearchPlan[%s search-strings, longest: %s bytes, states: %s%s]", Integer.toString(this.patterns.length), Integer.toString(this.maxPatternLength), Integer.toString(this.getStateCount()), this.singlePass ? ", single-pass" : "");
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(!(obj instanceof SearchPlan)) {
+			return false;
+		}
+		SearchPlan other = (SearchPlan) obj;
+		return this.singlePass == other.singlePass && Arrays.equals(this.findStrings, other.findStrings) && Arrays.equals(this.replaceStrings, other.replaceStrings);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * (31 * Arrays.hashCode(this.findStrings) + Arrays.hashCode(this.replaceStrings)) + (this.singlePass ? 1 : 0);
+	}
+	
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ *
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Skips over text in which none of a {@link SearchPlan}'s search-strings can
+ * start, so that the automata only have to look at the bytes around possible
+ * matches.<br>
+ * An offset is a possible start if its byte can begin a search-string and,
+ * when every search-string has the same length, the byte that would end it
+ * can end one. The {@link SearchPlan.Kernel#SWAR SWAR} kernel tests both
+ * bytes for sixteen offsets at once by comparing whole <tt>long</tt> words
+ * against each candidate byte; the {@link SearchPlan.Kernel#SCALAR scalar}
+ * kernel tests one offset at a time with lookup tables.
+ *
+ * @author Brian_Entei */
+final class StartFilter {
+	
+	/** The most distinct bytes that the SWAR kernel compares against (beyond
+	 * this, the scalar kernel is used instead) */
+	static final int MAX_SWAR_BYTES = 4;
+	/** The shortest range that the SWAR kernel is used for */
+	static final int MIN_SWAR_LENGTH = 32;
+	
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+	
+	/** Which bytes can start (and end) a search-string */
+	private final boolean[] first, last;
+	/** The offset of the last byte from the first byte, or <tt>0</tt> if the
+	 * last byte is not tested */
+	private final int lastOffset;
+	/** The bytes that can start (and end) a search-string, repeated across a
+	 * whole word, or <tt>null</tt> if there are too many for the SWAR
+	 * kernel */
+	private final long[] firstWords, lastWords;
+	
+	private StartFilter(boolean[] first, boolean[] last, int lastOffset, long[] firstWords, long[] lastWords) {
+		this.first = first;
+		this.last = last;
+		this.lastOffset = lastOffset;
+		this.firstWords = firstWords;
+		this.lastWords = lastWords;
+	}
+	
+	/** Builds a filter for the given search-strings.
+	 * 
+	 * @param patterns The encoded search-strings (or <tt>null</tt> for ones
+	 *            that can never match)
+	 * @param ignoreCase Which of the search-strings are case-folded
+	 * @return The new filter, or <tt>null</tt> if (nearly) every byte can
+	 *         start a search-string, in which case there is nothing to skip */
+	static StartFilter build(byte[][] patterns, boolean[] ignoreCase) {
+		boolean[] first = new boolean[256], last = new boolean[256];
+		int length = -1;
+		for(int i = 0; i < patterns.length; i++) {
+			byte[] pattern = patterns[i];
+			if(pattern == null) {
+				continue;
+			}
+			length = length == -1 || length == pattern.length ? pattern.length : 0;
+			mark(first, pattern[0], ignoreCase[i]);
+			mark(last, pattern[pattern.length - 1], ignoreCase[i]);
+		}
+		int firstCount = count(first), lastCount = count(last);
+		if(length == -1 || firstCount > 128) {
+			return null;
+		}
+		if(length < 2) {
+			last = null;
+			length = 1;
+		}
+		long[] firstWords = firstCount <= MAX_SWAR_BYTES ? words(first, firstCount) : null;
+		long[] lastWords = last != null && lastCount <= MAX_SWAR_BYTES ? words(last, lastCount) : null;
+		return new StartFilter(first, last, length - 1, firstWords, lastWords);
+	}
+	
+	private static final void mark(boolean[] table, byte b, boolean ignoreCase) {
+		if(!ignoreCase) {
+			table[b & 0xFF] = true;
+			return;
+		}
+		for(int c = 0; c < 256; c++) {
+			if(SearchPlan.FOLD[c] == b) {
+				table[c] = true;
+			}
+		}
+	}
+	
+	private static final int count(boolean[] table) {
+		int count = 0;
+		for(boolean b : table) {
+			count += b ? 1 : 0;
+		}
+		return count;
+	}
+	
+	private static final long[] words(boolean[] table, int count) {
+		long[] words = new long[count];
+		for(int c = 0, i = 0; c < 256; c++) {
+			if(table[c]) {
+				words[i++] = 0x0101010101010101L * c;
+			}
+		}
+		return words;
+	}
+	
+	/** @return True if the SWAR kernel can be used with this filter */
+	boolean isSWARCapable() {
+		return this.firstWords != null;
+	}
+	
+	/** @return True if the SWAR kernel is likely to be faster than the scalar
+	 *         kernel with this filter (see {@link SearchPlan#getAutoKernel()}) */
+	boolean prefersSWAR() {
+		return this.firstWords != null && (this.lastWords != null || this.firstWords.length == 1);
+	}
+	
+	/** Finds the next offset at which a search-string could start, testing
+	 * one offset at a time.
+	 * 
+	 * @param data The data being searched
+	 * @param from The offset to start at
+	 * @param to The end of the range being searched
+	 * @return The next possible start, or <tt>to</tt> if there is none */
+	int skipScalar(byte[] data, int from, int to) {
+		final boolean[] first = this.first, last = this.last;
+		final int end = to - this.lastOffset;
+		if(last == null) {
+			for(int i = from; i < end; i++) {
+				if(first[data[i] & 0xFF]) {
+					return i;
+				}
+			}
+			return to;
+		}
+		final int lastOffset = this.lastOffset;
+		for(int i = from; i < end; i++) {
+			if(first[data[i] & 0xFF] && last[data[i + lastOffset] & 0xFF]) {
+				return i;
+			}
+		}
+		return to;
+	}
+	
+	/** Finds the next offset at which a search-string could start, testing
+	 * sixteen offsets at a time (see {@link #isSWARCapable()}).
+	 * 
+	 * @param data The data being searched
+	 * @param view A little-endian view of the data
+	 * @param from The offset to start at
+	 * @param to The end of the range being searched
+	 * @return The next possible start, or <tt>to</tt> if there is none */
+	int skipSWAR(byte[] data, ByteBuffer view, int from, int to) {
+		final long[] firstWords = this.firstWords, lastWords = this.lastWords;
+		final int lastOffset = this.lastWords == null ? 0 : this.lastOffset;
+		final int limit = to - lastOffset - 16;
+		int i = from;
+		for(; i <= limit; i += 16) {
+			long low = find(view.getLong(i), firstWords), high = find(view.getLong(i + 8), firstWords);
+			if(lastWords != null && (low | high) != 0) {
+				low &= find(view.getLong(i + lastOffset), lastWords);
+				high &= find(view.getLong(i + lastOffset + 8), lastWords);
+			}
+			if(low != 0) {
+				return this.verify(data, i + (Long.numberOfTrailingZeros(low) >>> 3), to);
+			}
+			if(high != 0) {
+				return this.verify(data, i + 8 + (Long.numberOfTrailingZeros(high) >>> 3), to);
+			}
+		}
+		return this.skipScalar(data, i, to);
+	}
+	
+	/** The SWAR kernel may have only tested the first byte, so check the rest
+	 * of the filter before handing the offset back. */
+	private int verify(byte[] data, int offset, int to) {
+		if(this.last == null || this.lastWords != null) {
+			return offset;
+		}
+		return this.skipScalar(data, offset, to);
+	}
+	
+	/** @return A word whose bytes have their high bit set wherever the given
+	 *         word's byte equals one of the given repeated bytes */
+	private static final long find(long word, long[] words) {
+		long found = 0L;
+		for(long repeated : words) {
+			long x = word ^ repeated;
+			found |= ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+		}
+		return found;
+	}
+	
+	/** @param data The data that will be searched
+	 * @return A view of the data that {@link #skipSWAR(byte[], ByteBuffer, int, int)}
+	 *         can read words out of */
+	static ByteBuffer view(byte[] data) {
+		return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+}
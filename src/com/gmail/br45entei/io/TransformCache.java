@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A content-addressed cache of the results of searching through files, so
+ * that a file with the same contents as one that was already searched
+ * through (such as a vendored library or a copied configuration file) can
+ * reuse that file's output instead of being searched through again.<br>
+ * Results are keyed by the SHA-256 digest of the file's contents, and point
+ * to the output file that was written for it (along with its size and
+ * modification time, so that an output file that has since changed is never
+ * reused). The least recently used results are evicted once the cache is
+ * full.<br>
+ * <br>
+ * A cache can be saved to a UTF-8 text file and loaded again by a later
+ * search with the same search-strings. Its first line identifies the
+ * search-strings, and each following line is
+ * <tt>&lt;digest&gt;&nbsp;&lt;matches&gt;&nbsp;&lt;size&gt;&nbsp;&lt;modified&gt;&nbsp;&lt;output&gt;</tt>,
+ * from the least to the most recently used result.
+ * 
+ * @author Brian_Entei */
+public final class TransformCache {
+	
+	/** The file extension that caches are saved with */
+	public static final String FILE_EXTENSION = ".bfrcache";
+	/** The number of results that are kept by default */
+	public static final int DEFAULT_CAPACITY = 65536;
+	
+	private static final String HEADER = "BatchFindAndReplace cache v1 ";
+	
+	/** The result of searching through a file. */
+	static final class Result {
+		
+		/** The file that the output was written to, or <tt>null</tt> if none
+		 * was written because no matches were found */
+		final File output;
+		final long size, lastModified;
+		/** The number of matches that were replaced */
+		final int matches;
+		
+		Result(File output, long size, long lastModified, int matches) {
+			this.output = output;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.matches = matches;
+		}
+		
+	}
+	
+	private final String fingerprint;
+	private final LinkedHashMap<String, Result> results;
+	private volatile int hits = 0, misses = 0;
+	
+	/** Creates a new, empty cache.
+	 * 
+	 * @param fingerprint The fingerprint of the search-strings whose results
+	 *            will be cached (see {@link #fingerprint(SearchPlan, boolean)})
+	 * @param capacity The most results that will be kept */
+	public TransformCache(String fingerprint, final int capacity) {
+		this.fingerprint = fingerprint;
+		this.results = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+	
+	/** @param plan The search-strings and replacement strings
+	 * @param lineEndingsPreserved Whether or not the search preserves line
+	 *            endings (see
+	 *            {@link FindReplaceSearch#setLineEndingsPreserved(boolean)})
+	 * @return A fingerprint that identifies the output that the given plan
+	 *         produces on this system */
+	public static final String fingerprint(SearchPlan plan, boolean lineEndingsPreserved) {
+		//Output that is written with normalized line endings depends on the system's line separator:
+		StringBuilder sb = new StringBuilder(lineEndingsPreserved ? "verbatim" : System.lineSeparator());
+		for(String findString : plan.getFindStrings()) {
+			sb.append('\0').append(findString);
+		}
+		sb.append('\1');
+		for(String replaceString : plan.getReplaceStrings()) {
+			sb.append('\0').append(replaceString);
+		}
+		if(!plan.isSinglePass()) {
+			sb.append('\1').append("sequential");
+		}
+		return SearchJournal.fingerprint(sb);
+	}
+	
+	/** @param data The contents of a file
+	 * @param length The number of bytes of the contents
+	 * @return The hexadecimal SHA-256 digest of the contents */
+	static final String digest(byte[] data, int length) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);//Every Java platform is required to support SHA-256
+		}
+		digest.update(data, 0, length);
+		StringBuilder sb = new StringBuilder(64);
+		for(byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+	
+	/** Loads a cache that was saved with {@link #save(File)}. If the file
+	 * doesn't exist or was saved for different search-strings, an empty cache
+	 * is returned instead.
+	 * 
+	 * @param file The file to load
+	 * @param fingerprint The fingerprint of the search-strings whose results
+	 *            will be cached (see {@link #fingerprint(SearchPlan, boolean)})
+	 * @param capacity The most results that will be kept
+	 * @return The loaded cache
+	 * @throws IOException Thrown if the file could not be read */
+	public static final TransformCache load(File file, String fingerprint, int capacity) throws IOException {
+		TransformCache cache = new TransformCache(fingerprint, capacity);
+		if(!file.isFile()) {
+			return cache;
+		}
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 65536)) {
+			if(!HEADER.concat(fingerprint).equals(in.readLine())) {
+				return cache;
+			}
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] parts = line.split(" ", 5);
+				if(parts.length != 5) {
+					continue;//Cut off by a crash while saving
+				}
+				try {
+					File output = parts[4].isEmpty() ? null : new File(SearchJournal.unescape(parts[4]));
+					cache.results.put(parts[0], new Result(output, Long.parseLong(parts[2]), Long.parseLong(parts[3]), Integer.parseInt(parts[1])));
+				} catch(NumberFormatException ignored) {
+				}
+			}
+		}
+		return cache;
+	}
+	
+	/** Saves this cache so that it can be loaded again with
+	 * {@link #load(File, String, int)}.
+	 * 
+	 * @param file The file to save to
+	 * @throws IOException Thrown if the file could not be written */
+	public synchronized void save(File file) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(parent != null) {
+			parent.mkdirs();
+		}
+		File temp = new File(file.getPath().concat(".tmp"));
+		try(Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8), 65536)) {
+			out.write(HEADER.concat(this.fingerprint).concat("\n"));
+			for(Map.Entry<String, Result> entry : this.results.entrySet()) {
+				Result result = entry.getValue();
+				out.write(String.format("%s %s %s %s %s\n", entry.getKey(), Integer.toString(result.matches), Long.toString(result.size), Long.toString(result.lastModified), result.output == null ? "" : SearchJournal.escape(result.output.getAbsolutePath())));
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	/** Looks up the result for the given contents, discarding it if its output
+	 * file has been changed or deleted since it was written.
+	 * 
+	 * @param digest The digest of the contents (see
+	 *            {@link #digest(byte[], int)})
+	 * @return The result, or <tt>null</tt> if there is none */
+	synchronized Result get(String digest) {
+		Result result = this.results.get(digest);
+		if(result != null && result.output != null && (result.output.length() != result.size || result.output.lastModified() != result.lastModified)) {
+			this.results.remove(digest);
+			result = null;
+		}
+		if(result == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return result;
+	}
+	
+	/** Records the result of searching through the given contents.
+	 * 
+	 * @param digest The digest of the contents (see
+	 *            {@link #digest(byte[], int)})
+	 * @param output The file that the output was written to, or <tt>null</tt>
+	 *            if no output was written because no matches were found
+	 * @param matches The number of matches that were replaced */
+	synchronized void put(String digest, File output, int matches) {
+		if(output != null && !output.isFile()) {
+			return;
+		}
+		this.results.put(digest, new Result(output == null ? null : output.getAbsoluteFile(), output == null ? 0L : output.length(), output == null ? 0L : output.lastModified(), matches));
+	}
+	
+	/** @return The number of results in this cache */
+	public synchronized int size() {
+		return this.results.size();
+	}
+	
+	/** @return The number of lookups that found a reusable result */
+	public int getHits() {
+		return this.hits;
+	}
+	
+	/** @return The number of lookups that found nothing to reuse */
+	public int getMisses() {
+		return this.misses;
+	}
+	
+}
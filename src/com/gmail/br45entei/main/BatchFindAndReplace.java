@@ -19,16 +19,21 @@
 package com.gmail.br45entei.main;
 
 import com.gmail.br45entei.io.FindReplaceSearch;
-import com.gmail.br45entei.util.FileUtil;
+import com.gmail.br45entei.io.JobFile;
+import com.gmail.br45entei.io.LogSink;
+import com.gmail.br45entei.io.MatchIndex;
+import com.gmail.br45entei.io.PathFilter;
+import com.gmail.br45entei.io.RateLimiter;
+import com.gmail.br45entei.io.RuleSetReader;
+import com.gmail.br45entei.io.SearchPlan;
 import com.gmail.br45entei.util.SWTUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.LongConsumer;
 import java.util.regex.Pattern;
 
 import org.eclipse.swt.SWT;
@@ -46,10 +51,12 @@ import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Menu;
 import org.eclipse.swt.widgets.MenuItem;
 import org.eclipse.swt.widgets.MessageBox;
+import org.eclipse.swt.widgets.ProgressBar;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.swt.widgets.Widget;
@@ -84,13 +91,55 @@ public final class BatchFindAndReplace {
 	protected Button btnStartFindReplaceSearch;
 	protected Button btnPauseSearch;
 	protected Button btnStopSearch;
+	protected ProgressBar progressBar;
+	protected Label lblProgress;
 	
 	protected Label lblSeparator_2;
 	
 	protected StyledText stxtOutput;
+	/** The most characters that the output text box holds; older lines are
+	 * removed from it as new ones are added (the full log only goes to the
+	 * log file, if there is one) */
+	protected static final int MAX_OUTPUT_LENGTH = 20000;
 	
 	protected volatile FindReplaceSearch activeSearch = null;
 	
+	/** The last compiled search plan, along with the search-string and
+	 * replacement text it was compiled from, so that it can be reused as long
+	 * as the text hasn't changed */
+	protected SearchPlan cachedPlan = null;
+	protected String cachedPlanFindText = null, cachedPlanReplaceText = null;
+	/** The rules that were imported from a rule file (or loaded from a job
+	 * file that has too many rules to show), which are used instead of the
+	 * text in the find and replace fields */
+	protected SearchPlan importedPlan = null;
+	/** Rule sets with more search-strings than this are only shown in
+	 * summary */
+	protected static final int SUMMARY_THRESHOLD = 200;
+	/** The number of rules that are listed when showing a summary */
+	protected static final int SUMMARY_PREVIEW = 50;
+	protected MenuItem mntmClearImportedRules;
+	/** The path filter that was loaded from the last job file (if any) */
+	protected PathFilter pathFilter = null;
+	protected boolean preScan = true;
+	protected MenuItem mntmSearchArchives;
+	protected MenuItem mntmWatchForChanges;
+	protected MenuItem mntmReuseDuplicates;
+	protected MenuItem mntmWritePatch;
+	protected MenuItem mntmKeepLogFile;
+	protected MenuItem mntmPreserveAttributes;
+	protected MenuItem mntmPreserveLineEndings;
+	/** The rate limits that searches are started with (see
+	 * {@link FindReplaceSearch#setReadRateLimit(long)}), which are also
+	 * applied to the active search as soon as they are changed */
+	protected volatile long readLimit = RateLimiter.getDefaultRate("bfr.readLimit"), writeLimit = RateLimiter.getDefaultRate("bfr.writeLimit"), fileLimit = RateLimiter.getDefaultRate("bfr.fileLimit");
+	/** The rates that can be chosen from the rate limit menus */
+	protected static final long[] BYTE_RATE_PRESETS = {0L, 1024L * 1024L, 5L * 1024L * 1024L, 20L * 1024L * 1024L, 50L * 1024L * 1024L, 100L * 1024L * 1024L};
+	protected static final long[] FILE_RATE_PRESETS = {0L, 10L, 50L, 100L, 500L, 1000L};
+	/** The matches that the last search found (see {@link MatchResultsDialog}) */
+	protected volatile MatchIndex matchIndex = null;
+	protected MatchResultsDialog matchResults = null;
+	
 	/** Creates a new dialog. */
 	public BatchFindAndReplace() {
 		this.createContents();
@@ -143,7 +192,10 @@ public final class BatchFindAndReplace {
 		return !this.shell.isDisposed();
 	}
 	
-	/** @param args Program command line arguments */
+	/** Opens the user interface. Command line runs go through
+	 * {@link Launcher}, the jar's entry point, instead.
+	 * 
+	 * @param args Program command line arguments (ignored) */
 	public static void main(String[] args) {
 		BatchFindAndReplace main = new BatchFindAndReplace();
 		main.open().dispose().display.dispose();
@@ -158,7 +210,12 @@ public final class BatchFindAndReplace {
 		this.shell.setSize(800, 620);
 		this.shell.setMinimumSize(this.shell.getSize());
 		this.shell.setText("Batch Find/Replace Text Changer & File Copier");
-		this.shell.setImages(SWTUtil.getTitleImages());
+		//The title images are only decoded once the window has been shown, so that they don't hold up its first paint:
+		this.display.asyncExec(() -> {
+			if(!this.shell.isDisposed()) {
+				this.shell.setImages(SWTUtil.getTitleImages());
+			}
+		});
 		this.shell.addControlListener(new ControlAdapter() {
 			@Override
 			public void controlResized(ControlEvent e) {
@@ -319,46 +376,12 @@ public final class BatchFindAndReplace {
 		this.btnStartFindReplaceSearch.addSelectionListener(new SelectionAdapter() {
 			@Override
 			public void widgetSelected(SelectionEvent e) {
-				File sourceFolder = new File(BatchFindAndReplace.this.txtSourceFolderPath.getText());
-				File destinationFolder = new File(BatchFindAndReplace.this.txtDestinationFolderPath.getText());
-				boolean onlyCopyFilesContainingSearchStrings = BatchFindAndReplace.this.btnOnlyCopyFiles.getSelection();
-				boolean recursive = BatchFindAndReplace.this.btnRecursiveFileSearch.getSelection();
-				boolean onlyConsiderTextFiles = BatchFindAndReplace.this.btnOnlyConsidertxt.getSelection();
-				String[] findStrings, replaceStrings;
-				{
-					List<String> fs = new ArrayList<>(Arrays.asList(BatchFindAndReplace.this.stxtFind.getText().split(Pattern.quote("\n"))));
-					List<String> rs = new ArrayList<>(Arrays.asList(BatchFindAndReplace.this.stxtReplaceWith.getText().split(Pattern.quote("\n"))));
-					
-					List<String> cfs = new ArrayList<>(),//	cleaned Find-Strings
-							crs = new ArrayList<>();//		cleaned Replacement-Strings
-					int i = 0;
-					for(; i < fs.size(); i++) {
-						String searchString = fs.get(i);
-						searchString = searchString.endsWith("\r") ? searchString.substring(0, searchString.length() - 1) : searchString;
-						if(searchString.isEmpty() || (searchString.toLowerCase().startsWith("(?i)") && searchString.substring(4).isEmpty())) {
-							continue;
-						}
-						cfs.add(searchString);
-						String replacementString = i < rs.size() ? rs.get(i) : null;
-						replacementString = replacementString != null && replacementString.endsWith("\r") ? replacementString.substring(0, replacementString.length() - 1) : replacementString;
-						if(replacementString != null && !(i + 1 == rs.size() ? replacementString.isEmpty() : false)) {
-							crs.add(replacementString);
-						} else {
-							crs.add("%s");
-						}
-					}
-					if(i < rs.size()) {
-						for(; i < rs.size(); i++) {
-							String unusedReplacementString = rs.get(i);
-							unusedReplacementString = unusedReplacementString.endsWith("\r") ? unusedReplacementString.substring(0, unusedReplacementString.length() - 1) : unusedReplacementString;
-							crs.add(unusedReplacementString);
-						}
-					}
-					findStrings = cfs.toArray(new String[cfs.size()]);
-					replaceStrings = crs.toArray(new String[crs.size()]);
+				FindReplaceSearch search = BatchFindAndReplace.this.createSearch();
+				if(search == null) {
+					return;
 				}
 				
-				if(!sourceFolder.isDirectory()) {
+				if(!search.sourceFolder.isDirectory()) {
 					MessageBox box = new MessageBox(BatchFindAndReplace.this.shell, SWT.ICON_ERROR | SWT.OK);
 					box.setText("Error Opening Source Folder");
 					box.setMessage("Unable to open the specified source folder.\nPlease check that it exists and is accessible, and then try again.");
@@ -366,8 +389,8 @@ public final class BatchFindAndReplace {
 					box.open();
 					return;
 				}
-				destinationFolder.mkdirs();
-				if(!destinationFolder.isDirectory()) {
+				search.destinationFolder.mkdirs();
+				if(!search.destinationFolder.isDirectory()) {
 					MessageBox box = new MessageBox(BatchFindAndReplace.this.shell, SWT.ICON_ERROR | SWT.OK);
 					box.setText("Error Opening Destination Folder");
 					box.setMessage("Unable to open the specified destination folder.\nPlease check that it exists( or can be created) and is accessible, and then try again.");
@@ -376,7 +399,20 @@ public final class BatchFindAndReplace {
 					return;
 				}
 				
-				BatchFindAndReplace.this.startFindReplaceSearch(new FindReplaceSearch(sourceFolder, destinationFolder, onlyCopyFilesContainingSearchStrings, recursive, onlyConsiderTextFiles, findStrings, replaceStrings));
+				search.setJournalFile(search.getDefaultJournalFile());
+				int resumable = search.getResumableCount();
+				if(resumable > 0) {
+					MessageBox box = new MessageBox(BatchFindAndReplace.this.shell, SWT.ICON_QUESTION | SWT.YES | SWT.NO | SWT.CANCEL);
+					box.setText("Resume Search?");
+					box.setMessage(String.format("A previous search with the same settings was interrupted after completing %s files and folders.\nWould you like to resume it?\n\nChoose \"No\" to start over from the beginning.", Integer.toString(resumable)));
+					int response = box.open();
+					if(response == SWT.CANCEL) {
+						return;
+					}
+					search.setResumeEnabled(response == SWT.YES);
+				}
+				
+				BatchFindAndReplace.this.startFindReplaceSearch(search);
 			}
 		});
 		this.btnStartFindReplaceSearch.setBounds(10, 348, 156, 25);
@@ -423,6 +459,14 @@ public final class BatchFindAndReplace {
 		this.btnStopSearch.setBounds(274, 348, 80, 25);
 		this.btnStopSearch.setText("Stop Search");
 		
+		this.progressBar = new ProgressBar(this.shell, SWT.SMOOTH);
+		this.progressBar.setToolTipText("The progress of the current Find/Replace Search, weighted by file size");
+		this.progressBar.setMaximum(1000);
+		this.progressBar.setBounds(360, 352, this.shell.getSize().x - 596, 17);
+		
+		this.lblProgress = new Label(this.shell, SWT.NONE);
+		this.lblProgress.setBounds(this.shell.getSize().x - 226, 353, 200, 15);
+		
 		this.lblSeparator_2 = new Label(this.shell, SWT.SEPARATOR | SWT.HORIZONTAL);
 		this.lblSeparator_2.setBounds(10, 379, this.shell.getSize().x - 36, 2);
 		
@@ -446,6 +490,47 @@ public final class BatchFindAndReplace {
 		Menu menu_1 = new Menu(mntmfile);
 		mntmfile.setMenu(menu_1);
 		
+		MenuItem mntmLoadJob = new MenuItem(menu_1, SWT.NONE);
+		mntmLoadJob.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				BatchFindAndReplace.this.loadJob();
+			}
+		});
+		mntmLoadJob.setText("&Load Job...");
+		
+		MenuItem mntmSaveJob = new MenuItem(menu_1, SWT.NONE);
+		mntmSaveJob.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				BatchFindAndReplace.this.saveJob();
+			}
+		});
+		mntmSaveJob.setText("&Save Job...");
+		
+		new MenuItem(menu_1, SWT.SEPARATOR);
+		
+		MenuItem mntmImportRules = new MenuItem(menu_1, SWT.NONE);
+		mntmImportRules.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				BatchFindAndReplace.this.importRules();
+			}
+		});
+		mntmImportRules.setText("&Import Rules...");
+		
+		this.mntmClearImportedRules = new MenuItem(menu_1, SWT.NONE);
+		this.mntmClearImportedRules.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				BatchFindAndReplace.this.setImportedPlan(null, null);
+			}
+		});
+		this.mntmClearImportedRules.setText("&Clear Imported Rules");
+		this.mntmClearImportedRules.setEnabled(false);
+		
+		new MenuItem(menu_1, SWT.SEPARATOR);
+		
 		MenuItem mntmExit = new MenuItem(menu_1, SWT.NONE);
 		mntmExit.addSelectionListener(new SelectionAdapter() {
 			@Override
@@ -455,6 +540,73 @@ public final class BatchFindAndReplace {
 		});
 		mntmExit.setText("E&xit");
 		
+		MenuItem mntmoptions = new MenuItem(menu, SWT.CASCADE);
+		mntmoptions.setText("&Options");
+		
+		Menu menu_3 = new Menu(mntmoptions);
+		mntmoptions.setMenu(menu_3);
+		
+		this.mntmSearchArchives = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmSearchArchives.setText("Search Inside &Archives (*.zip, *.jar, *.war, *.ear)");
+		
+		this.mntmWatchForChanges = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmWatchForChanges.setText("Keep &Watching for Changes (until stopped)");
+		
+		this.mntmReuseDuplicates = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmReuseDuplicates.setText("Reuse Output of &Duplicate Files");
+		
+		this.mntmWritePatch = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmWritePatch.setText("Write Changes as a &Patch (next to the destination folder)");
+		
+		this.mntmKeepLogFile = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmKeepLogFile.setText("Keep a Full &Log File (next to the destination folder)");
+		
+		this.mntmPreserveAttributes = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmPreserveAttributes.setText("Preserve File &Times and Permissions");
+		
+		this.mntmPreserveLineEndings = new MenuItem(menu_3, SWT.CHECK);
+		this.mntmPreserveLineEndings.setText("Preserve Line &Endings");
+		this.mntmPreserveLineEndings.setSelection(true);
+		
+		new MenuItem(menu_3, SWT.SEPARATOR);
+		
+		this.createRateMenu(menu_3, "&Read Rate Limit", BYTE_RATE_PRESETS, true, this.readLimit, (rate) -> {
+			this.readLimit = rate;
+			FindReplaceSearch search = this.activeSearch;
+			if(search != null) {
+				search.setReadRateLimit(rate);
+			}
+		});
+		this.createRateMenu(menu_3, "Wri&te Rate Limit", BYTE_RATE_PRESETS, true, this.writeLimit, (rate) -> {
+			this.writeLimit = rate;
+			FindReplaceSearch search = this.activeSearch;
+			if(search != null) {
+				search.setWriteRateLimit(rate);
+			}
+		});
+		this.createRateMenu(menu_3, "&File Rate Limit", FILE_RATE_PRESETS, false, this.fileLimit, (rate) -> {
+			this.fileLimit = rate;
+			FindReplaceSearch search = this.activeSearch;
+			if(search != null) {
+				search.setFileRateLimit(rate);
+			}
+		});
+		
+		MenuItem mntmview = new MenuItem(menu, SWT.CASCADE);
+		mntmview.setText("&View");
+		
+		Menu menu_4 = new Menu(mntmview);
+		mntmview.setMenu(menu_4);
+		
+		MenuItem mntmMatchResults = new MenuItem(menu_4, SWT.NONE);
+		mntmMatchResults.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				BatchFindAndReplace.this.showMatchResults();
+			}
+		});
+		mntmMatchResults.setText("&Match Results...");
+		
 		MenuItem mntmhelp = new MenuItem(menu, SWT.CASCADE);
 		mntmhelp.setText("&Help");
 		
@@ -494,6 +646,239 @@ public final class BatchFindAndReplace {
 		mntmabout.setText("&About...");
 	}
 	
+	/** Parses the search-strings and replacement strings entered by the user
+	 * into a {@link SearchPlan}, re-using the last compiled plan if the text
+	 * hasn't changed since it was compiled (or loaded from a job file).<br>
+	 * If a rule set has been imported, it is returned instead.
+	 * 
+	 * @return The compiled plan */
+	protected SearchPlan getSearchPlan() {
+		if(this.importedPlan != null) {
+			return this.importedPlan;
+		}
+		final String findText = this.stxtFind.getText(), replaceText = this.stxtReplaceWith.getText();
+		if(this.cachedPlan != null && findText.equals(this.cachedPlanFindText) && replaceText.equals(this.cachedPlanReplaceText)) {
+			return this.cachedPlan;
+		}
+		String[] findStrings, replaceStrings;
+		{
+			List<String> fs = new ArrayList<>(Arrays.asList(findText.split(Pattern.quote("\n"))));
+			List<String> rs = new ArrayList<>(Arrays.asList(replaceText.split(Pattern.quote("\n"))));
+			
+			List<String> cfs = new ArrayList<>(),//	cleaned Find-Strings
+					crs = new ArrayList<>();//		cleaned Replacement-Strings
+			int i = 0;
+			for(; i < fs.size(); i++) {
+				String searchString = fs.get(i);
+				searchString = searchString.endsWith("\r") ? searchString.substring(0, searchString.length() - 1) : searchString;
+				if(searchString.isEmpty() || (searchString.toLowerCase().startsWith("(?i)") && searchString.substring(4).isEmpty())) {
+					continue;
+				}
+				cfs.add(searchString);
+				String replacementString = i < rs.size() ? rs.get(i) : null;
+				replacementString = replacementString != null && replacementString.endsWith("\r") ? replacementString.substring(0, replacementString.length() - 1) : replacementString;
+				if(replacementString != null && !(i + 1 == rs.size() ? replacementString.isEmpty() : false)) {
+					crs.add(replacementString);
+				} else {
+					crs.add("%s");
+				}
+			}
+			if(i < rs.size()) {
+				for(; i < rs.size(); i++) {
+					String unusedReplacementString = rs.get(i);
+					unusedReplacementString = unusedReplacementString.endsWith("\r") ? unusedReplacementString.substring(0, unusedReplacementString.length() - 1) : unusedReplacementString;
+					crs.add(unusedReplacementString);
+				}
+			}
+			findStrings = cfs.toArray(new String[cfs.size()]);
+			replaceStrings = crs.toArray(new String[crs.size()]);
+		}
+		
+		this.cachedPlan = SearchPlan.compile(findStrings, replaceStrings);
+		this.cachedPlanFindText = findText;
+		this.cachedPlanReplaceText = replaceText;
+		return this.cachedPlan;
+	}
+	
+	/** Adds a cascading menu that chooses one of the given rates.
+	 * 
+	 * @param parent The menu to add it to
+	 * @param text The text of the cascading menu item
+	 * @param presets The rates to choose from (<tt>0</tt> for no limit)
+	 * @param bytes Whether the rates are in bytes (or else in files)
+	 * @param selected The rate that is selected to begin with (added to the
+	 *            choices if it isn't one of the presets)
+	 * @param listener The listener that is given the rate that is chosen */
+	protected void createRateMenu(Menu parent, String text, long[] presets, boolean bytes, long selected, final LongConsumer listener) {
+		MenuItem mntmRate = new MenuItem(parent, SWT.CASCADE);
+		mntmRate.setText(text);
+		Menu menu = new Menu(mntmRate);
+		mntmRate.setMenu(menu);
+		long[] rates = presets;
+		if(Arrays.binarySearch(presets, selected) < 0) {
+			rates = Arrays.copyOf(presets, presets.length + 1);
+			rates[presets.length] = selected;
+			Arrays.sort(rates);
+		}
+		for(final long rate : rates) {
+			final MenuItem mntmPreset = new MenuItem(menu, SWT.RADIO);
+			mntmPreset.setText(RateLimiter.formatRate(rate, bytes));
+			mntmPreset.setSelection(rate == selected);
+			mntmPreset.addSelectionListener(new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent e) {
+					if(mntmPreset.getSelection()) {
+						listener.accept(rate);
+					}
+				}
+			});
+		}
+	}
+	
+	/** @return A new search created from the settings entered by the user */
+	protected FindReplaceSearch createSearch() {
+		File sourceFolder = new File(this.txtSourceFolderPath.getText());
+		File destinationFolder = new File(this.txtDestinationFolderPath.getText());
+		boolean onlyCopyFilesContainingSearchStrings = this.btnOnlyCopyFiles.getSelection();
+		boolean recursive = this.btnRecursiveFileSearch.getSelection();
+		boolean onlyConsiderTextFiles = this.btnOnlyConsidertxt.getSelection();
+		FindReplaceSearch search = new FindReplaceSearch(sourceFolder, destinationFolder, onlyCopyFilesContainingSearchStrings, recursive, onlyConsiderTextFiles, this.getSearchPlan()).setPathFilter(this.pathFilter).setPreScanEnabled(this.preScan).setArchiveSearchEnabled(this.mntmSearchArchives.getSelection()).setWatchEnabled(this.mntmWatchForChanges.getSelection()).setDedupEnabled(this.mntmReuseDuplicates.getSelection()).setAttributePreservationEnabled(this.mntmPreserveAttributes.getSelection()).setLineEndingsPreserved(this.mntmPreserveLineEndings.getSelection());
+		search.setReadRateLimit(this.readLimit).setWriteRateLimit(this.writeLimit).setFileRateLimit(this.fileLimit);
+		if(this.mntmWritePatch.getSelection()) {
+			search.setPatchFile(search.getDefaultPatchFile());
+		}
+		return search;
+	}
+	
+	/** Asks the user where to save the current settings and search-strings,
+	 * and then saves them as a job file. */
+	protected void saveJob() {
+		FileDialog dialog = new FileDialog(this.shell, SWT.SAVE);
+		dialog.setText("Save Job");
+		dialog.setFilterExtensions(new String[] {"*".concat(JobFile.FILE_EXTENSION), "*.*"});
+		dialog.setFilterNames(new String[] {"Batch Find/Replace Jobs", "All Files"});
+		dialog.setOverwrite(true);
+		String path = dialog.open();
+		if(path == null) {
+			return;
+		}
+		File file = new File(path);
+		try {
+			JobFile.save(file, this.createSearch());
+		} catch(IOException ex) {
+			MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.OK);
+			box.setText("Error Saving Job");
+			box.setMessage(String.format("Unable to save the job file \"%s\":\n%s", file.getAbsolutePath(), ex.getMessage()));
+			box.open();
+		}
+	}
+	
+	/** Asks the user for a job file, and then loads its settings and
+	 * search-strings. */
+	protected void loadJob() {
+		FileDialog dialog = new FileDialog(this.shell, SWT.OPEN);
+		dialog.setText("Load Job");
+		dialog.setFilterExtensions(new String[] {"*".concat(JobFile.FILE_EXTENSION), "*.*"});
+		dialog.setFilterNames(new String[] {"Batch Find/Replace Jobs", "All Files"});
+		String path = dialog.open();
+		if(path == null) {
+			return;
+		}
+		File file = new File(path);
+		FindReplaceSearch search;
+		try {
+			search = JobFile.load(file);
+		} catch(IOException ex) {
+			MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.OK);
+			box.setText("Error Loading Job");
+			box.setMessage(String.format("Unable to load the job file \"%s\":\n%s", file.getAbsolutePath(), ex.getMessage()));
+			box.open();
+			return;
+		}
+		this.txtSourceFolderPath.setText(search.sourceFolder.getPath());
+		this.txtDestinationFolderPath.setText(search.destinationFolder.getPath());
+		this.btnOnlyCopyFiles.setSelection(search.onlyCopyFilesContainingSearchStrings);
+		this.btnRecursiveFileSearch.setSelection(search.recursive);
+		this.btnOnlyConsidertxt.setSelection(search.onlyConsiderTextFiles);
+		this.pathFilter = search.getPathFilter();
+		this.preScan = search.isPreScanEnabled();
+		if(search.plan.getPatternCount() > SUMMARY_THRESHOLD) {
+			this.setImportedPlan(search.plan, file.getAbsolutePath());
+			return;
+		}
+		this.setImportedPlan(null, null);
+		this.stxtFind.setText(String.join("\n", search.findStrings));
+		this.stxtReplaceWith.setText(String.join("\n", search.replaceStrings));
+		
+		this.cachedPlan = search.plan;
+		this.cachedPlanFindText = this.stxtFind.getText();
+		this.cachedPlanReplaceText = this.stxtReplaceWith.getText();
+	}
+	
+	/** Asks the user for a CSV or TSV file, and then imports its rules (see
+	 * {@link RuleSetReader}) in place of the search-strings and replacement
+	 * strings entered by the user. */
+	protected void importRules() {
+		FileDialog dialog = new FileDialog(this.shell, SWT.OPEN);
+		dialog.setText("Import Rules");
+		dialog.setFilterExtensions(new String[] {"*.csv;*.tsv;*.tab", "*.*"});
+		dialog.setFilterNames(new String[] {"Comma/Tab-Separated Values", "All Files"});
+		String path = dialog.open();
+		if(path == null) {
+			return;
+		}
+		File file = new File(path);
+		SearchPlan plan;
+		try {
+			plan = RuleSetReader.read(file);
+		} catch(IOException ex) {
+			MessageBox box = new MessageBox(this.shell, SWT.ICON_ERROR | SWT.OK);
+			box.setText("Error Importing Rules");
+			box.setMessage(String.format("Unable to import the rules in \"%s\":\n%s", file.getAbsolutePath(), ex.getMessage()));
+			box.open();
+			return;
+		}
+		this.setImportedPlan(plan, file.getAbsolutePath());
+	}
+	
+	/** Sets the imported rule set that will be used instead of the text in the
+	 * find and replace fields, and shows a summary of it in their place.
+	 * 
+	 * @param plan The imported rules, or <tt>null</tt> to go back to using the
+	 *            find and replace fields
+	 * @param source The path of the file that the rules were imported from */
+	protected void setImportedPlan(SearchPlan plan, String source) {
+		boolean wasImported = this.importedPlan != null;
+		this.importedPlan = plan;
+		this.mntmClearImportedRules.setEnabled(plan != null);
+		this.stxtFind.setEditable(plan == null);
+		this.stxtReplaceWith.setEditable(plan == null);
+		if(plan == null) {
+			if(wasImported) {
+				this.stxtFind.setText("");
+				this.stxtReplaceWith.setText("");
+			}
+			return;
+		}
+		
+		final int count = plan.getPatternCount(), shown = Math.min(count, SUMMARY_PREVIEW);
+		String[] findStrings = plan.getFindStrings(), replaceStrings = plan.getReplaceStrings();
+		StringBuilder find = new StringBuilder(), replace = new StringBuilder();
+		find.append(String.format("[%s rules imported from \"%s\"; %s case-insensitive, longest: %s bytes. Use File > Clear Imported Rules to enter search-strings here again.]", Integer.toString(count), source, Integer.toString(plan.getIgnoreCaseCount()), Integer.toString(plan.getMaxPatternLength())));
+		replace.append(String.format("[Showing the first %s of %s replacements.]", Integer.toString(shown), Integer.toString(count)));
+		for(int i = 0; i < shown; i++) {
+			find.append('\n').append(findStrings[i]);
+			replace.append('\n').append(i < replaceStrings.length ? replaceStrings[i] : SearchPlan.MATCH_PLACEHOLDER);
+		}
+		if(count > shown) {
+			String more = String.format("\n[... and %s more]", Integer.toString(count - shown));
+			find.append(more);
+			replace.append(more);
+		}
+		this.stxtFind.setText(find.toString());
+		this.stxtReplaceWith.setText(replace.toString());
+	}
+	
 	protected void updateUI() {
 		Point shellSize = this.shell.getSize();
 		Point size = new Point(shellSize.x - 36, 95);
@@ -514,8 +899,73 @@ public final class BatchFindAndReplace {
 		SWTUtil.setSize(this.txtSourceFolderPath, size);
 		SWTUtil.setSize(this.txtDestinationFolderPath, size);
 		
+		size = new Point(shellSize.x - 596, 17);
+		SWTUtil.setSize(this.progressBar, size);
+		location = new Point(shellSize.x - 226, 353);
+		SWTUtil.setLocation(this.lblProgress, location);
+		
 		size = new Point(shellSize.x - 36, shellSize.y - 456);
 		SWTUtil.setSize(this.stxtOutput, size);
+		
+		if(this.matchResults != null && !this.matchResults.isDisposed()) {
+			this.matchResults.refresh();
+		}
+	}
+	
+	/** Opens the window that lists the matches that the last search found
+	 * (or brings it to the front, if it is already open). */
+	protected void showMatchResults() {
+		if(this.matchResults == null || this.matchResults.isDisposed()) {
+			this.matchResults = new MatchResultsDialog(this.shell);
+			this.matchResults.setIndex(this.matchIndex);
+		}
+		this.matchResults.open();
+	}
+	
+	/** Has the given search record its matches in a new match index, in place
+	 * of the last search's.
+	 * 
+	 * @param search The search that is about to be started
+	 * @param pr The search's log */
+	protected void recordMatches(FindReplaceSearch search, LogSink pr) {
+		MatchIndex previous = this.matchIndex;
+		try {
+			this.matchIndex = new MatchIndex();
+		} catch(IOException ex) {
+			this.matchIndex = null;
+			pr.println(String.format("Failed to create the match index; matches will not be listed in the match results: %s", ex.getMessage()));
+		}
+		search.setMatchIndex(this.matchIndex);
+		if(this.matchResults != null && !this.matchResults.isDisposed()) {
+			this.matchResults.setIndex(this.matchIndex);
+		}
+		closeMatchIndex(previous);
+	}
+	
+	private static final void closeMatchIndex(MatchIndex index) {
+		if(index != null) {
+			try {
+				index.close();
+			} catch(IOException ignored) {
+			}
+		}
+	}
+	
+	/** Updates the progress bar and label to reflect the progress of the given
+	 * search operation.
+	 * 
+	 * @param search The search whose progress will be shown */
+	protected void updateProgress(FindReplaceSearch search) {
+		double progress = search.getProgress();
+		int selection = progress < 0.0 ? 0 : (int) Math.round(progress * this.progressBar.getMaximum());
+		if(this.progressBar.getSelection() != selection) {
+			this.progressBar.setSelection(selection);
+		}
+		String text = search.isWatching() ? "Watching for changes..." : search.getProgressSummary();
+		if(!this.lblProgress.getText().equals(text)) {
+			this.lblProgress.setText(text);
+			this.lblProgress.setToolTipText(String.format("%s\r\nFiles: %s of %s%s\r\nElapsed: %s", text, Long.toString(search.getFilesProcessed()), Long.toString(search.getTotalFiles()), search.isPreScanComplete() ? "" : "+", FindReplaceSearch.formatDuration(search.getElapsedTime())));
+		}
 	}
 	
 	/** Starts the given find & replace search operation.<br>
@@ -536,8 +986,23 @@ public final class BatchFindAndReplace {
 		this.btnPauseSearch.setSelection(search.isSearchPaused());
 		this.btnStopSearch.setEnabled(true);
 		
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		try(PrintStream pr = FileUtil.wrapOutputStream(baos, "\n")) {
+		//The lines of the log that haven't been added to the output text box yet (only the last MAX_OUTPUT_LENGTH characters of them are ever shown):
+		final StringBuilder pending = new StringBuilder();
+		this.stxtOutput.setText("");
+		final File logFile = this.mntmKeepLogFile.getSelection() ? search.getDefaultLogFile() : null;
+		try(LogSink pr = new LogSink(logFile, LogSink.Format.PLAIN)) {
+			pr.addListener((line) -> {
+				synchronized(pending) {
+					pending.append(line).append('\n');
+					if(pending.length() > MAX_OUTPUT_LENGTH) {
+						pending.delete(0, pending.indexOf("\n", pending.length() - MAX_OUTPUT_LENGTH) + 1);//Remove the first line as well since it would be cut-off in the middle
+					}
+				}
+			});
+			if(pr.getError() != null) {
+				pr.println(String.format("Failed to create log file \"%s\"; the log will not be kept: %s", logFile.getAbsolutePath(), pr.getError()));
+			}
+			this.recordMatches(search, pr);
 			final Thread searchThread = search.startSearch(pr);
 			if(searchThread != null) {
 				this.activeSearch = search;
@@ -547,43 +1012,26 @@ public final class BatchFindAndReplace {
 					long now = System.currentTimeMillis();
 					if(now - lastTextUpdate >= 160L) {
 						lastTextUpdate = now;
+						this.updateProgress(search);
 						
-						byte[] data = baos.toByteArray();
-						String text = new String(data, 0, data.length, StandardCharsets.ISO_8859_1);
-						if(text.length() > 20000) {
-							search.pauseSearch();
-							while(search.getSearchThread().getState() != Thread.State.TIMED_WAITING) {
-								if(!this.runLoop()) {
-									return;
-								}
-							}
-							data = baos.toByteArray();
-							text = new String(data, 0, data.length, StandardCharsets.ISO_8859_1);
-							text = text.length() > 20000 ? text.substring(text.length() - 20000) : text;//Keep text length at or under 20000
-							text = text.indexOf('\n') != text.lastIndexOf('\n') ? text.substring(text.indexOf('\n') + 1) : text;//Remove the first line since it's probably cut-off in the middle
-							baos.reset();
-							
-							data = text.getBytes(StandardCharsets.ISO_8859_1);
-							baos.write(data, 0, data.length);
-							search.resumeSearch();
+						String text;
+						synchronized(pending) {
+							text = pending.toString();
+							pending.setLength(0);
 						}
-						
-						if(!this.stxtOutput.getText().equals(text)) {
-							SWTUtil.setTextFor(this.stxtOutput, text);//this.stxtOutput.setText(text);
+						if(!text.isEmpty()) {
+							this.appendOutput(text);
 							
 							this.display.readAndDispatch();
 							if(this.shell.isDisposed()) {
 								break;
 							}
-							
-							//this.stxtOutput.setSelection(text.length());
 						}
 					}
 					
 				}
 				
 				pr.println("Find/Replace Search complete.");
-				pr.flush();
 			}
 		} finally {
 			if(this.shell.isDisposed()) {
@@ -602,17 +1050,45 @@ public final class BatchFindAndReplace {
 			this.btnPauseSearch.setSelection(false);
 			this.btnStopSearch.setEnabled(false);
 			this.activeSearch = null;
+			this.updateProgress(search);
 			
-			byte[] data = baos.toByteArray();
-			String text = new String(data, 0, data.length, StandardCharsets.ISO_8859_1);
-			text = text.concat("\r\n").concat(search.getResults());
-			text = text.length() > 20000 ? text.substring(text.length() - 20000) : text;//Keep text length at or under 20000 to prevent excessive lag and possible crashes
-			text = text.indexOf('\n') != text.lastIndexOf('\n') ? text.substring(text.indexOf('\n') + 1) : text;//Remove the first line since it's probably cut-off in the middle
-			
-			if(!this.stxtOutput.getText().equals(text)) {
-				SWTUtil.setTextFor(this.stxtOutput, text);//this.stxtOutput.setText(text);
-				//this.stxtOutput.setSelection(text.length());
+			String text;
+			synchronized(pending) {
+				text = pending.toString();
+				pending.setLength(0);
 			}
+			this.appendOutput(text.concat("\r\n").concat(search.getResults()));
+		}
+	}
+	
+	/** Adds text to the end of the output text box, and then removes whole
+	 * lines from its start until it holds at most {@link #MAX_OUTPUT_LENGTH}
+	 * characters. Only the new text is added, so the text box is never reset
+	 * with its whole contents while a search runs. If the end of the text
+	 * was in view, it is kept in view.
+	 * 
+	 * @param text The text to add */
+	protected void appendOutput(String text) {
+		final StyledText output = this.stxtOutput;
+		if(text.isEmpty() || output.isDisposed()) {
+			return;
+		}
+		final int visibleLines = Math.max(1, output.getClientArea().height / Math.max(1, output.getLineHeight()));
+		final boolean following = output.getTopIndex() + visibleLines >= output.getLineCount();
+		if(text.length() >= MAX_OUTPUT_LENGTH) {
+			text = text.substring(text.indexOf('\n', text.length() - MAX_OUTPUT_LENGTH) + 1);//Remove the first line as well since it would be cut-off in the middle
+			output.setText(text);
+		} else {
+			output.append(text);
+			final int excess = output.getCharCount() - MAX_OUTPUT_LENGTH;
+			if(excess > 0) {
+				//Remove the line that would be cut-off in the middle as well:
+				final int line = output.getLineAtOffset(excess);
+				output.replaceTextRange(0, line + 1 < output.getLineCount() ? output.getOffsetAtLine(line + 1) : output.getCharCount(), "");
+			}
+		}
+		if(following) {
+			output.setTopIndex(Math.max(0, output.getLineCount() - visibleLines));
 		}
 	}
 	
@@ -644,6 +1120,8 @@ public final class BatchFindAndReplace {
 	 * @see Widget#checkWidget */
 	public BatchFindAndReplace dispose() {
 		this.shell.dispose();
+		closeMatchIndex(this.matchIndex);
+		this.matchIndex = null;
 		return this;
 	}
 	
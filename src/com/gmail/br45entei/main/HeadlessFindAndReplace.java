@@ -0,0 +1,618 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.main;
+
+import com.gmail.br45entei.io.ChecksumManifest;
+import com.gmail.br45entei.io.FindReplaceSearch;
+import com.gmail.br45entei.io.JobFile;
+import com.gmail.br45entei.io.LogSink;
+import com.gmail.br45entei.io.MemoryBudget;
+import com.gmail.br45entei.io.PathFilter;
+import com.gmail.br45entei.io.RateLimiter;
+import com.gmail.br45entei.io.RuleSetReader;
+import com.gmail.br45entei.io.SearchPlan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs a {@link FindReplaceSearch} from the command line, without creating
+ * any SWT resources.<br>
+ * This class is used by {@link Launcher#main(String[])} whenever any
+ * command line arguments are given.
+ * 
+ * @author Brian_Entei */
+public final class HeadlessFindAndReplace {
+	
+	private static final String USAGE = "Usage: java -jar BatchFindAndReplace.jar [options]\r\n" + //
+			"Running without any options opens the graphical user interface.\r\n" + //
+			"\r\n" + //
+			"Options:\r\n" + //
+			"  -job <file>           Load the settings and rules saved in the given job file\r\n" + //
+			"  -saveJob <file>       Save the settings and rules to the given job file\r\n" + //
+			"                        (the search is only run if -run is also given)\r\n" + //
+			"  -run                  Run the search even though -saveJob was given\r\n" + //
+			"  -source <folder>      The folder whose children will be searched through\r\n" + //
+			"  -dest <folder>        The folder where output files will be written to\r\n" + //
+			"  -inPlace              Modify the files in the source folder itself instead\r\n" + //
+			"                        of writing them to a destination folder\r\n" + //
+			"  -find <string>        A search-string (may be given more than once;\r\n" + //
+			"                        start it with (?i) for case-insensitive matching)\r\n" + //
+			"  -replace <string>     The replacement for the search-string at the same\r\n" + //
+			"                        position (%s represents the matched text)\r\n" + //
+			"  -rules <file>         Read the search-strings and replacements from a CSV\r\n" + //
+			"                        file (or a TSV file, if it ends with .tsv or .tab)\r\n" + //
+			"  -singlePass           Rewrite each match once instead of applying the rules\r\n" + //
+			"                        one after another (text written by one rule is then\r\n" + //
+			"                        never searched by the others)\r\n" + //
+			"  -recursive            Search through sub-folders as well\r\n" + //
+			"  -onlyCopyMatching     Only copy files that contain a search-string\r\n" + //
+			"  -onlyTextFiles        Only search files with common text file extensions\r\n" + //
+			"  -noRecursive, -noOnlyCopyMatching, -noOnlyTextFiles\r\n" + //
+			"                        Turn the option off again (overriding -job)\r\n" + //
+			"  -include <glob>       Only process files matching the given glob\r\n" + //
+			"  -exclude <glob>       Skip files and prune folders matching the given glob\r\n" + //
+			"  -includeRegex <regex> Only process files whose relative paths match\r\n" + //
+			"  -excludeRegex <regex> Skip files and prune folders whose relative paths match\r\n" + //
+			"  -minSize <bytes>      Skip files smaller than the given size\r\n" + //
+			"  -maxSize <bytes>      Skip files larger than the given size\r\n" + //
+			"  -gitignore            Obey .gitignore files and skip .git folders\r\n" + //
+			"  -patch <file>         Write the changes to the given file as a unified diff\r\n" + //
+			"                        (apply it with patch -p1 from the source folder)\r\n" + //
+			"                        instead of writing to the destination folder\r\n" + //
+			"  -manifest [file]      Record the size and CRC-32 of every file that is\r\n" + //
+			"                        written as it is written (by default, in a file next\r\n" + //
+			"                        to the destination folder)\r\n" + //
+			"  -verify               Check the destination folder against the manifest\r\n" + //
+			"                        once the search is complete (implies -manifest)\r\n" + //
+			"  -archives             Search and replace inside the entries of .zip/.jar/\r\n" + //
+			"                        .war/.ear archives, re-packing only changed entries\r\n" + //
+			"  -watch                After the initial pass, keep watching the source folder\r\n" + //
+			"                        and search through files as they are created or\r\n" + //
+			"                        modified (until the program is terminated)\r\n" + //
+			"  -dedup                Reuse the output of files whose contents are identical\r\n" + //
+			"                        to a file that was already searched through\r\n" + //
+			"  -dedupCache <file>    Like -dedup, but load the cache from (and save it to)\r\n" + //
+			"                        the given file so that later runs can reuse it too\r\n" + //
+			"  -hardLinks            Hard-link reused output instead of copying it (unless\r\n" + //
+			"                        the output is inside of the source folder)\r\n" + //
+			"  -preserveAttributes   Copy the times and permissions of source files and\r\n" + //
+			"                        folders onto the files and folders that are written\r\n" + //
+			"  -normalizeLineEndings Write the lines of files with matches in them with the\r\n" + //
+			"                        system's line separator, instead of keeping the line\r\n" + //
+			"                        endings that they had\r\n" + //
+			"  -noPreScan            Don't count files up front (disables progress/ETA)\r\n" + //
+			"  -preScan              Count files up front even if -job turned it off\r\n" + //
+			"  -chunkThreshold <bytes>\r\n" + //
+			"                        Search files of at least this size in parallel chunks\r\n" + //
+			"                        instead of reading them into memory (default: 64 MiB)\r\n" + //
+			"  -maxLineLength <bytes>\r\n" + //
+			"                        Search files with a line longer than this as a\r\n" + //
+			"                        stream instead of reading them into memory\r\n" + //
+			"                        (default: 1 MiB)\r\n" + //
+			"  -fileTimeout <ms>     Give up on any file that takes longer than this to\r\n" + //
+			"                        search through, and report it as timed out\r\n" + //
+			"  -fileWorkers <n>      Search through this many files at the same time\r\n" + //
+			"                        (default: 1)\r\n" + //
+			"  -fileOrder <name>     The order that files are handed to the file workers\r\n" + //
+			"                        in: largest_first (default) or discovery\r\n" + //
+			"  -journal [file]       Record completed files in a journal, so that the search\r\n" + //
+			"                        can be resumed if it is interrupted (by default, the\r\n" + //
+			"                        journal is kept next to the destination folder)\r\n" + //
+			"  -resume               Resume the search recorded in the journal, skipping\r\n" + //
+			"                        the files that were already completed\r\n" + //
+			"  -kernel <name>        How text that can't contain a match is skipped over:\r\n" + //
+			"                        auto (default: swar or scalar, whichever is faster\r\n" + //
+			"                        for the search-strings), swar, scalar or none\r\n" + //
+			"  -memoryBudget <size>  The most memory that file contents and buffers may use\r\n" + //
+			"                        at once (such as 512mb; default: half of the heap);\r\n" + //
+			"                        larger files are searched through in chunks\r\n" + //
+			"  -readLimit <rate>     Read at most this many bytes per second (such as 20mb)\r\n" + //
+			"  -writeLimit <rate>    Write at most this many bytes per second\r\n" + //
+			"  -fileLimit <rate>     Process at most this many files per second\r\n" + //
+			"                        (the limits can be changed while the search runs by\r\n" + //
+			"                        typing \"read <rate>\", \"write <rate>\" or\r\n" + //
+			"                        \"files <rate>\"; a rate of 0 removes the limit)\r\n" + //
+			"  -log <file>           Write every status message to the given log file\r\n" + //
+			"                        (rotated every 16 MiB, keeping the last 5 files)\r\n" + //
+			"  -logJson              Write the log file as JSON lines\r\n" + //
+			"  -jfr                  Emit Java Flight Recorder events for the search, its\r\n" + //
+			"                        folder listings, files, copies and read/match/write\r\n" + //
+			"                        phases (record them with -XX:StartFlightRecording)\r\n" + //
+			"  -quiet                Only print the progress and the final results\r\n" + //
+			"  -help                 Print this message";
+			
+	private HeadlessFindAndReplace() {
+	}
+	
+	/** @param option The value of an option that was given on the command
+	 *            line, or <tt>null</tt> if it wasn't
+	 * @param otherwise The value to use if the option wasn't given
+	 * @return The value of the option */
+	private static final boolean choose(Boolean option, boolean otherwise) {
+		return option == null ? otherwise : option.booleanValue();
+	}
+	
+	private static final String nextArg(String[] args, int i) {
+		if(i >= args.length) {
+			throw new IllegalArgumentException(String.format("Missing value for option \"%s\"", args[i - 1]));
+		}
+		return args[i];
+	}
+	
+	/** Starts a daemon thread that reads commands from the standard input
+	 * that change the given search's rate limits while it runs (see
+	 * {@link #USAGE}).
+	 * 
+	 * @param search The search whose rate limits will be changed */
+	private static final void readLimitCommands(final FindReplaceSearch search) {
+		Thread thread = new Thread(() -> {
+			try(BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+				String line;
+				while((line = in.readLine()) != null) {
+					String[] command = line.trim().split("\\s+", 2);
+					if(command[0].isEmpty()) {
+						continue;
+					}
+					try {
+						long rate = command.length == 2 ? RateLimiter.parseRate(command[1]) : -1L;
+						switch(command[0].toLowerCase()) {
+						case "read":
+							if(rate >= 0L) {
+								search.setReadRateLimit(rate);
+							}
+							break;
+						case "write":
+							if(rate >= 0L) {
+								search.setWriteRateLimit(rate);
+							}
+							break;
+						case "files":
+							if(rate >= 0L) {
+								search.setFileRateLimit(rate);
+							}
+							break;
+						default:
+							System.err.println(String.format("Unknown command \"%s\" (expected \"read\", \"write\" or \"files\", followed by a rate)", command[0]));
+							continue;
+						}
+					} catch(NumberFormatException ex) {
+						System.err.println(String.format("Invalid rate \"%s\"", command[1]));
+						continue;
+					}
+					System.err.println(String.format("Rate limits: read %s, write %s, process %s", RateLimiter.formatRate(search.getReadRateLimit(), true), RateLimiter.formatRate(search.getWriteRateLimit(), true), RateLimiter.formatRate(search.getFileRateLimit(), false)));
+				}
+			} catch(IOException ignored) {
+			}
+		}, "Find/ReplaceCommandThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/** Parses the given command line arguments and runs the search that they
+	 * describe, blocking until it completes.
+	 * 
+	 * @param args The command line arguments
+	 * @return The exit code for the program: <tt>0</tt> if the search ran,
+	 *         <tt>1</tt> if the arguments were invalid, <tt>3</tt> if the
+	 *         destination folder failed verification, or <tt>2</tt> if the
+	 *         job file or rule file could not be loaded or saved */
+	public static final int run(String[] args) {
+		File jobFile = null, saveJobFile = null, rulesFile = null, sourceFolder = null, destinationFolder = null;
+		boolean run = false, inPlace = false, singlePass = false, archives = false, watch = false, dedup = false, hardLinks = false, preserveAttributes = false, normalizeLineEndings = false, quiet = false, journal = false, resume = false;
+		//Options that are saved in job files, or null if they weren't given (so that the job file's setting is kept):
+		Boolean onlyCopyFilesContainingSearchStrings = null, recursive = null, onlyConsiderTextFiles = null, preScan = null;
+		File journalFile = null, dedupCacheFile = null, patchFile = null, logFile = null, manifestFile = null;
+		boolean manifest = false, verify = false;
+		boolean logJson = false;
+		long chunkThreshold = -1L, fileTimeout = -1L, readLimit = -1L, writeLimit = -1L, fileLimit = -1L, memoryBudget = -1L;
+		SearchPlan.Kernel kernel = null;
+		int maxLineLength = -1, fileWorkers = -1;
+		FindReplaceSearch.FileOrder fileOrder = null;
+		List<String> findStrings = new ArrayList<>(), replaceStrings = new ArrayList<>();
+		PathFilter filter = null;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				switch(arg.startsWith("--") ? arg.substring(1) : arg) {
+				case "-job":
+					jobFile = new File(nextArg(args, ++i));
+					break;
+				case "-saveJob":
+					saveJobFile = new File(nextArg(args, ++i));
+					break;
+				case "-run":
+					run = true;
+					break;
+				case "-source":
+					sourceFolder = new File(nextArg(args, ++i));
+					break;
+				case "-dest":
+					destinationFolder = new File(nextArg(args, ++i));
+					break;
+				case "-inPlace":
+					inPlace = true;
+					break;
+				case "-find":
+					findStrings.add(nextArg(args, ++i));
+					break;
+				case "-replace":
+					replaceStrings.add(nextArg(args, ++i));
+					break;
+				case "-rules":
+					rulesFile = new File(nextArg(args, ++i));
+					break;
+				case "-singlePass":
+					singlePass = true;
+					break;
+				case "-recursive":
+				case "-noRecursive":
+					recursive = Boolean.valueOf(arg.endsWith("-recursive"));
+					break;
+				case "-onlyCopyMatching":
+				case "-noOnlyCopyMatching":
+					onlyCopyFilesContainingSearchStrings = Boolean.valueOf(arg.endsWith("-onlyCopyMatching"));
+					break;
+				case "-onlyTextFiles":
+				case "-noOnlyTextFiles":
+					onlyConsiderTextFiles = Boolean.valueOf(arg.endsWith("-onlyTextFiles"));
+					break;
+				case "-include":
+					filter = (filter == null ? new PathFilter() : filter).includeGlob(nextArg(args, ++i));
+					break;
+				case "-exclude":
+					filter = (filter == null ? new PathFilter() : filter).excludeGlob(nextArg(args, ++i));
+					break;
+				case "-includeRegex":
+					filter = (filter == null ? new PathFilter() : filter).includeRegex(nextArg(args, ++i));
+					break;
+				case "-excludeRegex":
+					filter = (filter == null ? new PathFilter() : filter).excludeRegex(nextArg(args, ++i));
+					break;
+				case "-minSize":
+					filter = (filter == null ? new PathFilter() : filter).setMinimumFileSize(Long.parseLong(nextArg(args, ++i)));
+					break;
+				case "-maxSize":
+					filter = (filter == null ? new PathFilter() : filter).setMaximumFileSize(Long.parseLong(nextArg(args, ++i)));
+					break;
+				case "-gitignore":
+					filter = (filter == null ? new PathFilter() : filter).setUseGitIgnore(true);
+					break;
+				case "-archives":
+					archives = true;
+					break;
+				case "-watch":
+					watch = true;
+					break;
+				case "-patch":
+					patchFile = new File(nextArg(args, ++i));
+					break;
+				case "-manifest":
+					manifest = true;
+					if(i + 1 < args.length && !args[i + 1].startsWith("-")) {
+						manifestFile = new File(args[++i]);
+					}
+					break;
+				case "-verify":
+					manifest = verify = true;
+					break;
+				case "-dedup":
+					dedup = true;
+					break;
+				case "-dedupCache":
+					dedup = true;
+					dedupCacheFile = new File(nextArg(args, ++i));
+					break;
+				case "-hardLinks":
+					hardLinks = true;
+					break;
+				case "-preserveAttributes":
+					preserveAttributes = true;
+					break;
+				case "-normalizeLineEndings":
+					normalizeLineEndings = true;
+					break;
+				case "-preScan":
+				case "-noPreScan":
+					preScan = Boolean.valueOf(arg.endsWith("-preScan"));
+					break;
+				case "-chunkThreshold":
+					chunkThreshold = Long.parseLong(nextArg(args, ++i));
+					break;
+				case "-maxLineLength":
+					maxLineLength = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-fileTimeout":
+					fileTimeout = Long.parseLong(nextArg(args, ++i));
+					break;
+				case "-fileWorkers":
+					fileWorkers = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-fileOrder":
+					String order = nextArg(args, ++i);
+					try {
+						fileOrder = FindReplaceSearch.FileOrder.valueOf(order.toUpperCase());
+					} catch(IllegalArgumentException ex) {
+						throw new IllegalArgumentException(String.format("Unknown file order \"%s\"", order));
+					}
+					break;
+				case "-journal":
+					journal = true;
+					if(i + 1 < args.length && !args[i + 1].startsWith("-")) {
+						journalFile = new File(args[++i]);
+					}
+					break;
+				case "-resume":
+					journal = resume = true;
+					break;
+				case "-kernel":
+					String name = nextArg(args, ++i);
+					try {
+						kernel = SearchPlan.Kernel.valueOf(name.toUpperCase());
+					} catch(IllegalArgumentException ex) {
+						throw new IllegalArgumentException(String.format("Unknown kernel \"%s\"", name));
+					}
+					break;
+				case "-memoryBudget":
+					memoryBudget = RateLimiter.parseRate(nextArg(args, ++i));
+					if(memoryBudget <= 0L) {
+						throw new IllegalArgumentException("The memory budget must be larger than 0");
+					}
+					break;
+				case "-readLimit":
+					readLimit = RateLimiter.parseRate(nextArg(args, ++i));
+					break;
+				case "-writeLimit":
+					writeLimit = RateLimiter.parseRate(nextArg(args, ++i));
+					break;
+				case "-fileLimit":
+					fileLimit = RateLimiter.parseRate(nextArg(args, ++i));
+					break;
+				case "-log":
+					logFile = new File(nextArg(args, ++i));
+					break;
+				case "-logJson":
+					logJson = true;
+					break;
+				case "-jfr":
+					if(!FindReplaceSearch.setFlightRecorderEventsEnabled(true)) {
+						System.err.println("The Java Flight Recorder is not available in this Java runtime (or build); no events will be emitted.");
+					}
+					break;
+				case "-quiet":
+					quiet = true;
+					break;
+				case "-help":
+				case "-?":
+					System.out.println(USAGE);
+					return 0;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option \"%s\"", arg));
+				}
+			}
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println(USAGE);
+			return 1;
+		}
+		
+		if(inPlace && destinationFolder != null) {
+			System.err.println("-dest and -inPlace can't be given together.");
+			return 1;
+		}
+		
+		FindReplaceSearch search;
+		if(jobFile != null) {
+			try {
+				search = JobFile.load(jobFile);
+			} catch(IOException ex) {
+				System.err.print(String.format("Failed to load job file \"%s\": ", jobFile.getAbsolutePath()));
+				ex.printStackTrace(System.err);
+				return 2;
+			}
+			if(!findStrings.isEmpty() || !replaceStrings.isEmpty() || rulesFile != null || singlePass) {
+				System.err.println("Search-strings, replacements, rule files and -singlePass can't be given together with -job.");
+				return 1;
+			}
+			SearchPlan plan = search.plan;
+			//Options given on the command line override the job file's (whether they turn them on or off):
+			if(sourceFolder != null || destinationFolder != null || inPlace || recursive != null || onlyCopyFilesContainingSearchStrings != null || onlyConsiderTextFiles != null) {
+				PathFilter jobFilter = search.getPathFilter();
+				boolean jobPreScan = search.isPreScanEnabled();
+				File source = sourceFolder == null ? search.sourceFolder : sourceFolder;
+				search = new FindReplaceSearch(source, destinationFolder != null ? destinationFolder : inPlace ? source : search.destinationFolder, choose(onlyCopyFilesContainingSearchStrings, search.onlyCopyFilesContainingSearchStrings), choose(recursive, search.recursive), choose(onlyConsiderTextFiles, search.onlyConsiderTextFiles), plan).setPathFilter(jobFilter).setPreScanEnabled(jobPreScan);
+			}
+			if(filter != null) {
+				search.setPathFilter(filter);
+			}
+		} else {
+			if(sourceFolder == null) {
+				System.err.println("No source folder was given.");
+				System.err.println(USAGE);
+				return 1;
+			}
+			//The source folder's files are only ever modified when that is asked for explicitly:
+			if(destinationFolder == null && !inPlace && patchFile == null) {
+				System.err.println("No destination folder was given; give -dest, or -inPlace to modify the files in the source folder.");
+				System.err.println(USAGE);
+				return 1;
+			}
+			SearchPlan plan;
+			if(rulesFile != null) {
+				if(!findStrings.isEmpty() || !replaceStrings.isEmpty()) {
+					System.err.println("Search-strings and replacements can't be given together with -rules.");
+					return 1;
+				}
+				try {
+					plan = RuleSetReader.read(rulesFile, singlePass);
+				} catch(IOException ex) {
+					System.err.print(String.format("Failed to read rule file \"%s\": ", rulesFile.getAbsolutePath()));
+					ex.printStackTrace(System.err);
+					return 2;
+				}
+				if(!quiet) {
+					System.out.println(String.format("Read %s rules from \"%s\".", Integer.toString(plan.getPatternCount()), rulesFile.getAbsolutePath()));
+				}
+			} else {
+				plan = SearchPlan.compile(findStrings.toArray(new String[findStrings.size()]), replaceStrings.toArray(new String[replaceStrings.size()]), singlePass);
+			}
+			search = new FindReplaceSearch(sourceFolder, destinationFolder == null ? sourceFolder : destinationFolder, choose(onlyCopyFilesContainingSearchStrings, false), choose(recursive, false), choose(onlyConsiderTextFiles, false), plan).setPathFilter(filter);
+		}
+		if(preScan != null) {
+			search.setPreScanEnabled(preScan.booleanValue());
+		}
+		if(patchFile != null) {
+			search.setPatchFile(patchFile);
+		} else if(manifest) {
+			search.setManifestFile(manifestFile == null ? search.getDefaultManifestFile() : manifestFile);
+		}
+		if(archives) {
+			search.setArchiveSearchEnabled(true);
+		}
+		if(watch) {
+			search.setWatchEnabled(true);
+		}
+		if(dedup) {
+			search.setDedupEnabled(true).setDedupCacheFile(dedupCacheFile).setHardLinksEnabled(hardLinks);
+		}
+		if(preserveAttributes) {
+			search.setAttributePreservationEnabled(true);
+		}
+		if(normalizeLineEndings) {
+			search.setLineEndingsPreserved(false);
+		}
+		if(chunkThreshold >= 0L) {
+			search.setChunkThreshold(chunkThreshold);
+		}
+		if(maxLineLength > 0) {
+			search.setMaxLineLength(maxLineLength);
+		}
+		if(fileTimeout >= 0L) {
+			search.setFileTimeout(fileTimeout);
+		}
+		if(fileWorkers > 0) {
+			search.setFileWorkers(fileWorkers);
+		}
+		if(fileOrder != null) {
+			search.setFileOrder(fileOrder);
+		}
+		if(readLimit >= 0L) {
+			search.setReadRateLimit(readLimit);
+		}
+		if(writeLimit >= 0L) {
+			search.setWriteRateLimit(writeLimit);
+		}
+		if(fileLimit >= 0L) {
+			search.setFileRateLimit(fileLimit);
+		}
+		if(journal) {
+			search.setJournalFile(journalFile == null ? search.getDefaultJournalFile() : journalFile).setResumeEnabled(resume);
+		}
+		
+		if(saveJobFile != null) {
+			try {
+				JobFile.save(saveJobFile, search);
+				System.out.println(String.format("Saved job file \"%s\".", saveJobFile.getAbsolutePath()));
+			} catch(IOException ex) {
+				System.err.print(String.format("Failed to save job file \"%s\": ", saveJobFile.getAbsolutePath()));
+				ex.printStackTrace(System.err);
+				return 2;
+			}
+			if(!run) {
+				return 0;
+			}
+		}
+		
+		if(!search.sourceFolder.isDirectory()) {
+			System.err.println(String.format("Unable to open the source folder \"%s\".", search.sourceFolder.getAbsolutePath()));
+			return 1;
+		}
+		if(search.getPatchFile() == null) {
+			search.destinationFolder.mkdirs();
+		}
+		if(search.getPatchFile() == null && !search.destinationFolder.isDirectory()) {
+			System.err.println(String.format("Unable to open or create the destination folder \"%s\".", search.destinationFolder.getAbsolutePath()));
+			return 1;
+		}
+		
+		//Settings that are global to the JVM are only changed once everything else is known to be valid:
+		if(kernel != null) {
+			SearchPlan.setKernel(kernel);
+		}
+		if(memoryBudget > 0L) {
+			MemoryBudget.getGlobal().setLimit(memoryBudget);
+		}
+		
+		final LogSink pr = new LogSink(logFile, logJson ? LogSink.Format.JSON : LogSink.Format.PLAIN);
+		if(pr.getError() != null) {
+			pr.close();
+			System.err.print(String.format("Failed to create log file \"%s\": ", logFile.getAbsolutePath()));
+			pr.getError().printStackTrace(System.err);
+			return 2;
+		}
+		if(!quiet) {
+			pr.addListener(System.out::println);
+		}
+		Thread thread = search.startSearch(pr);
+		if(thread != null) {
+			readLimitCommands(search);
+			long lastProgressUpdate = System.currentTimeMillis();
+			while(thread.isAlive()) {
+				try {
+					thread.join(500L);
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					search.stopSearch();
+					break;
+				}
+				long now = System.currentTimeMillis();
+				if(now - lastProgressUpdate >= 5000L && thread.isAlive() && !search.isWatching()) {
+					lastProgressUpdate = now;
+					System.err.println(search.getProgressSummary());
+				}
+			}
+		}
+		pr.close();
+		if(thread != null) {
+			System.out.println("Find/Replace Search complete.");
+		}
+		if(pr.getError() != null) {
+			System.err.print(String.format("Failed to write to log file \"%s\": ", logFile.getAbsolutePath()));
+			pr.getError().printStackTrace(System.err);
+		}
+		System.out.println(search.getResults());
+		if(verify && search.getManifestFile() != null && search.getManifestFile().isFile()) {
+			try {
+				if(ChecksumManifest.verify(search.getManifestFile(), search.destinationFolder, System.out) > 0) {
+					return 3;
+				}
+			} catch(IOException ex) {
+				System.err.print(String.format("Failed to read checksum manifest \"%s\": ", search.getManifestFile().getAbsolutePath()));
+				ex.printStackTrace(System.err);
+				return 3;
+			}
+		}
+		return 0;
+	}
+	
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.main;
+
+/** The program's entry point (the jar's <tt>Main-Class</tt>).<br>
+ * It refers to no SWT classes, so that command line runs (see
+ * {@link HeadlessFindAndReplace}) never load (or verify) any of them; the
+ * user interface's classes are only loaded once it is actually opened.
+ * 
+ * @author Brian_Entei */
+public final class Launcher {
+	
+	private Launcher() {
+	}
+	
+	/** @param args Program command line arguments. If any are given, the
+	 *            search they describe is run without opening the user
+	 *            interface (see {@link HeadlessFindAndReplace}); otherwise,
+	 *            {@link BatchFindAndReplace#main(String[])} is called. */
+	public static void main(String[] args) {
+		if(args.length > 0) {
+			System.exit(HeadlessFindAndReplace.run(args));
+			return;
+		}
+		BatchFindAndReplace.main(args);
+	}
+	
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.main;
+
+import com.gmail.br45entei.io.MatchIndex;
+import com.gmail.br45entei.io.MatchView;
+import com.gmail.br45entei.util.SWTUtil;
+
+import java.io.IOException;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ControlAdapter;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.wb.swt.SWTResourceManager;
+
+/** A window that lists every match that the last search found (see
+ * {@link com.gmail.br45entei.io.FindReplaceSearch#setMatchIndex(MatchIndex)
+ * FindReplaceSearch.setMatchIndex(MatchIndex)}), with the text around each
+ * match and the match itself highlighted.<br>
+ * The list is a virtual table that only reads the rows that are scrolled
+ * into view from the {@link MatchIndex}, so it stays responsive with
+ * millions of matches. Rows can be filtered by the text in their file,
+ * context or replacement, and sorted by clicking on a column's header;
+ * both are done in the background, and the table keeps showing the last
+ * list until they are done.
+ * 
+ * @author Brian_Entei */
+public final class MatchResultsDialog {
+	
+	/** The columns of the table */
+	protected static final String[] COLUMNS = {"File", "Line", "Match", "Replacement", "Context"};
+	/** The {@link MatchIndex} sort column of each column of the table
+	 * (sorting by the context puts the rows back in the order that they were
+	 * found in) */
+	protected static final int[] SORT_COLUMNS = {MatchIndex.FILE, MatchIndex.LINE, MatchIndex.MATCH, MatchIndex.REPLACEMENT, MatchView.UNSORTED};
+	/** The column that the match is highlighted in */
+	protected static final int CONTEXT_COLUMN = 4;
+	/** How long (in milliseconds) to wait after the filter was last typed in
+	 * before filtering the rows */
+	protected static final long FILTER_DELAY = 300L;
+	/** How often (in milliseconds) the table is updated with new matches */
+	protected static final long REFRESH_INTERVAL = 250L;
+	/** The most rows that may be filled in before the ones that are out of
+	 * view are cleared again */
+	protected static final int MAX_FILLED_ROWS = 5000;
+	
+	protected final Shell shell;
+	protected final Text txtFilter;
+	protected final Button btnRefresh;
+	protected final Table table;
+	protected final Label lblStatus;
+	
+	protected MatchIndex index = null;
+	/** The view that the table shows */
+	protected MatchView view = null;
+	/** The view that was last built in the background, until the table shows
+	 * it */
+	protected volatile MatchView builtView = null;
+	protected volatile IOException buildError = null;
+	/** Incremented whenever a new view is requested, which cancels the build
+	 * of the last one */
+	protected volatile int generation = 0;
+	protected volatile boolean building = false;
+	protected int sortColumn = MatchView.UNSORTED;
+	protected boolean ascending = true;
+	protected long lastRefresh = 0L, filterModified = 0L;
+	/** The range of rows that have been filled in since the table was last
+	 * cleared */
+	protected int firstFilledRow = Integer.MAX_VALUE, lastFilledRow = -1;
+	
+	/** Creates a new match results window.
+	 * 
+	 * @param parent The main window */
+	public MatchResultsDialog(Shell parent) {
+		this.shell = new Shell(parent, SWT.CLOSE | SWT.TITLE | SWT.MIN | SWT.MAX | SWT.RESIZE);
+		this.shell.setSize(900, 500);
+		this.shell.setMinimumSize(400, 200);
+		this.shell.setText("Match Results");
+		this.shell.setImages(parent.getImages());
+		this.shell.addControlListener(new ControlAdapter() {
+			@Override
+			public void controlResized(ControlEvent e) {
+				MatchResultsDialog.this.updateUI();
+			}
+		});
+		this.shell.addListener(SWT.Dispose, (e) -> {
+			this.generation++;
+		});
+		
+		Label lblFilter = new Label(this.shell, SWT.NONE);
+		lblFilter.setBounds(10, 13, 40, 15);
+		lblFilter.setText("Filter:");
+		
+		this.txtFilter = new Text(this.shell, SWT.BORDER);
+		this.txtFilter.setToolTipText("Only show the matches whose file, context or replacement contains this text (ignoring case)");
+		this.txtFilter.setBounds(56, 10, this.shell.getSize().x - 172, 21);
+		this.txtFilter.addModifyListener((e) -> {
+			this.filterModified = System.currentTimeMillis();
+		});
+		
+		this.btnRefresh = new Button(this.shell, SWT.NONE);
+		this.btnRefresh.setToolTipText("Filters and sorts the matches again, including the ones that were found since they were last sorted");
+		this.btnRefresh.setBounds(this.shell.getSize().x - 101, 8, 75, 25);
+		this.btnRefresh.setText("&Refresh");
+		this.btnRefresh.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				MatchResultsDialog.this.rebuild();
+			}
+		});
+		
+		this.table = new Table(this.shell, SWT.VIRTUAL | SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI);
+		this.table.setHeaderVisible(true);
+		this.table.setLinesVisible(true);
+		this.table.setBounds(10, 39, this.shell.getSize().x - 36, this.shell.getSize().y - 100);
+		final int[] widths = {260, 60, 120, 120, 300};
+		for(int i = 0; i < COLUMNS.length; i++) {
+			final TableColumn column = new TableColumn(this.table, i == 1 ? SWT.RIGHT : SWT.LEFT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(widths[i]);
+			final int sortColumn = SORT_COLUMNS[i];
+			column.addSelectionListener(new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent e) {
+					MatchResultsDialog.this.sortBy(column, sortColumn);
+				}
+			});
+		}
+		this.table.addListener(SWT.SetData, (e) -> {
+			this.fillRow((TableItem) e.item, this.table.indexOf((TableItem) e.item));
+		});
+		//Draw the context column's text ourselves, so that the match can be highlighted in it:
+		this.table.addListener(SWT.EraseItem, (e) -> {
+			if(e.index == CONTEXT_COLUMN && e.item.getData() instanceof int[]) {
+				e.detail &= ~SWT.FOREGROUND;
+			}
+		});
+		this.table.addListener(SWT.PaintItem, (e) -> {
+			if(e.index == CONTEXT_COLUMN && e.item.getData() instanceof int[]) {
+				this.paintContext(e.gc, (TableItem) e.item, (int[]) e.item.getData(), e.x, e.y, e.height);
+			}
+		});
+		
+		this.lblStatus = new Label(this.shell, SWT.NONE);
+		this.lblStatus.setBounds(10, this.shell.getSize().y - 55, this.shell.getSize().x - 36, 15);
+		this.lblStatus.setText("No matches have been recorded yet.");
+	}
+	
+	/** Opens this window (or brings it to the front, if it is already
+	 * open).
+	 * 
+	 * @return This window */
+	public MatchResultsDialog open() {
+		this.shell.open();
+		this.shell.layout();
+		return this;
+	}
+	
+	/** @return Whether or not this window has been closed */
+	public boolean isDisposed() {
+		return this.shell.isDisposed();
+	}
+	
+	/** Shows the matches in the given index, in place of the ones that were
+	 * shown before.
+	 * 
+	 * @param index The index, or <tt>null</tt> to show no matches */
+	public void setIndex(MatchIndex index) {
+		if(this.index == index) {
+			return;
+		}
+		this.index = index;
+		this.setView(null);
+		this.rebuild();
+	}
+	
+	protected void updateUI() {
+		Point shellSize = this.shell.getSize();
+		SWTUtil.setSize(this.txtFilter, new Point(shellSize.x - 172, 21));
+		SWTUtil.setLocation(this.btnRefresh, new Point(shellSize.x - 101, 8));
+		SWTUtil.setSize(this.table, new Point(shellSize.x - 36, shellSize.y - 100));
+		SWTUtil.setLocation(this.lblStatus, new Point(10, shellSize.y - 55));
+		SWTUtil.setSize(this.lblStatus, new Point(shellSize.x - 36, 15));
+	}
+	
+	/** Sorts the rows by the given column, or reverses their order if they
+	 * are already sorted by it. */
+	protected void sortBy(TableColumn column, int sortColumn) {
+		if(this.sortColumn == sortColumn && sortColumn != MatchView.UNSORTED) {
+			this.ascending = !this.ascending;
+		} else {
+			this.sortColumn = sortColumn;
+			this.ascending = true;
+		}
+		this.table.setSortColumn(sortColumn == MatchView.UNSORTED ? null : column);
+		this.table.setSortDirection(sortColumn == MatchView.UNSORTED ? SWT.NONE : (this.ascending ? SWT.UP : SWT.DOWN));
+		this.rebuild();
+	}
+	
+	/** Filters and sorts the rows again in the background (cancelling the
+	 * last time that they were, if it hasn't finished yet). */
+	protected void rebuild() {
+		final int generation = ++this.generation;
+		final MatchIndex index = this.index;
+		this.filterModified = 0L;
+		if(index == null) {
+			this.building = false;
+			return;
+		}
+		final String filter = this.txtFilter.getText();
+		final int column = this.sortColumn;
+		final boolean ascending = this.ascending;
+		this.building = true;
+		Thread thread = new Thread(() -> {
+			try {
+				MatchView view = MatchView.build(index, filter, column, ascending, () -> this.generation != generation);
+				if(view != null && this.generation == generation) {
+					this.builtView = view;
+				}
+			} catch(IOException ex) {
+				if(this.generation == generation) {
+					this.buildError = ex;
+				}
+			} finally {
+				if(this.generation == generation) {
+					this.building = false;
+				}
+			}
+		}, "MatchViewBuildThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/** Shows the given view in the table. */
+	protected void setView(MatchView view) {
+		this.view = view;
+		this.table.setItemCount(0);
+		this.firstFilledRow = Integer.MAX_VALUE;
+		this.lastFilledRow = -1;
+		if(view != null) {
+			this.table.setItemCount(view.size());
+		}
+	}
+	
+	/** Updates the table with the view that was built in the background (if
+	 * it has finished), the matches that were found since the table was last
+	 * updated, and the filter (once it hasn't been typed in for a moment).
+	 * Called regularly by the main window's event loop. */
+	public void refresh() {
+		if(this.shell.isDisposed()) {
+			return;
+		}
+		MatchView built = this.builtView;
+		if(built != null) {
+			this.builtView = null;
+			if(built.getIndex() == this.index) {
+				this.setView(built);
+			}
+		}
+		final long now = System.currentTimeMillis();
+		if(now - this.lastRefresh < REFRESH_INTERVAL) {
+			return;
+		}
+		this.lastRefresh = now;
+		if(this.filterModified != 0L && now - this.filterModified >= FILTER_DELAY) {
+			this.rebuild();
+		}
+		IOException error = this.buildError;
+		if(error != null) {
+			this.buildError = null;
+			this.lblStatus.setText(String.format("Failed to read the match results: %s", error.getMessage()));
+			return;
+		}
+		final MatchView view = this.view;
+		int pending = 0;
+		if(view != null) {
+			try {
+				pending = view.update();
+			} catch(IOException ex) {
+				this.lblStatus.setText(String.format("Failed to read the match results: %s", ex.getMessage()));
+				return;
+			}
+			if(this.table.getItemCount() != view.size()) {
+				this.table.setItemCount(view.size());
+			}
+			this.clearHiddenRows();
+		}
+		String status;
+		if(this.index == null) {
+			status = "No matches have been recorded yet.";
+		} else if(view == null) {
+			status = "Loading matches...";
+		} else {
+			status = String.format("Showing %s of %s matches", Integer.toString(view.size()), Integer.toString(this.index.size()));
+			if(this.building) {
+				status = status.concat(" (filtering and sorting...)");
+			} else if(pending > 0 && view.getSortColumn() != MatchView.UNSORTED) {
+				status = status.concat(String.format(" (%s matches were found since they were sorted; click Refresh to show them)", Integer.toString(pending)));
+			}
+		}
+		if(!this.lblStatus.getText().equals(status)) {
+			this.lblStatus.setText(status);
+		}
+	}
+	
+	/** Clears the text of the rows that were filled in earlier and have since
+	 * been scrolled out of view, so that scrolling through millions of rows
+	 * doesn't keep all of them in memory. */
+	protected void clearHiddenRows() {
+		if(this.lastFilledRow - this.firstFilledRow < MAX_FILLED_ROWS) {
+			return;
+		}
+		this.firstFilledRow = Integer.MAX_VALUE;
+		this.lastFilledRow = -1;
+		this.table.clearAll();
+	}
+	
+	/** Fills in the given row of the table from the view. */
+	protected void fillRow(TableItem item, int i) {
+		final MatchView view = this.view;
+		if(view == null || i < 0 || i >= view.size()) {
+			return;
+		}
+		this.firstFilledRow = Math.min(this.firstFilledRow, i);
+		this.lastFilledRow = Math.max(this.lastFilledRow, i);
+		MatchIndex.Match match;
+		try {
+			match = view.getIndex().get(view.getRow(i));
+		} catch(IOException ex) {
+			item.setText(0, String.format("Failed to read match: %s", ex.getMessage()));
+			return;
+		}
+		final String line = match.line >= 0L ? Long.toString(match.line) : (match.offset >= 0L ? String.format("@%s", Long.toString(match.offset)) : "");
+		item.setText(new String[] {match.path, line, match.getMatch(), match.getReplacement(), match.getContext().replace('\t', ' ')});
+		item.setData(new int[] {match.getMatchStart(), match.getMatchLength()});
+	}
+	
+	/** Draws the context of a match, with the match highlighted. */
+	protected void paintContext(GC gc, TableItem item, int[] match, int x, int y, int height) {
+		final String text = item.getText(CONTEXT_COLUMN);
+		final int start = Math.min(match[0], text.length()), end = Math.min(match[0] + match[1], text.length());
+		x += 3;
+		y += Math.max(0, (height - gc.getFontMetrics().getHeight()) / 2);
+		final String before = text.substring(0, start), matched = text.substring(start, end);
+		gc.drawString(before, x, y, true);
+		x += gc.textExtent(before).x;
+		Point extent = gc.textExtent(matched);
+		Color background = gc.getBackground(), foreground = gc.getForeground();
+		gc.setBackground(SWTResourceManager.getColor(SWT.COLOR_YELLOW));
+		gc.setForeground(SWTResourceManager.getColor(SWT.COLOR_BLACK));
+		gc.fillRectangle(x, y, extent.x, extent.y);
+		gc.drawString(matched, x, y, true);
+		gc.setBackground(background);
+		gc.setForeground(foreground);
+		gc.drawString(text.substring(end), x + extent.x, y, true);
+	}
+	
+}
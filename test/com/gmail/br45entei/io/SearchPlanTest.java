@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/** Pins down how the rules of a {@link SearchPlan} chain: one after another
+ * by default, and once each in single-pass plans.
+ * 
+ * @author Brian_Entei */
+public class SearchPlanTest {
+	
+	/** Replaces every match that the given plan reports in the given text. */
+	private static final String apply(SearchPlan plan, String text) {
+		final byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final int[] lastIndex = {0};
+		plan.findMatches(data, 0, data.length, (offset, length, replacement) -> {
+			out.write(data, lastIndex[0], offset - lastIndex[0]);
+			out.write(replacement, 0, replacement.length);
+			lastIndex[0] = offset + length;
+			return true;
+		});
+		out.write(data, lastIndex[0], data.length - lastIndex[0]);
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+	
+	private static final SearchPlan compile(boolean singlePass, String... rules) {
+		String[] findStrings = new String[rules.length / 2], replaceStrings = new String[rules.length / 2];
+		for(int i = 0; i < findStrings.length; i++) {
+			findStrings[i] = rules[2 * i];
+			replaceStrings[i] = rules[2 * i + 1];
+		}
+		return SearchPlan.compile(findStrings, replaceStrings, singlePass);
+	}
+	
+	@Test
+	public void rulesChainByDefault() {
+		SearchPlan plan = SearchPlan.compile(new String[] {"foo", "bar"}, new String[] {"bar", "baz"});
+		assertFalse(plan.isSinglePass());
+		assertEquals("baz and baz", apply(plan, "foo and bar"));
+	}
+	
+	@Test
+	public void laterRulesMatchAcrossEarlierReplacements() {
+		SearchPlan plan = compile(false, "b", "c", "ac", "[%s]");
+		assertEquals("[ac] [ac] xyz", apply(plan, "ab ac xyz"));
+		assertEquals("xy", apply(compile(false, "(?i)A", "", "XBY", "xy"), "XaBaY"));
+	}
+	
+	@Test
+	public void laterRulesRewriteEarlierReplacements() {
+		assertEquals("a a", apply(compile(false, "a", "b", "b", "a"), "b a"));
+	}
+	
+	@Test
+	public void singlePassRewritesEachMatchOnce() {
+		SearchPlan plan = compile(true, "foo", "bar", "bar", "baz");
+		assertTrue(plan.isSinglePass());
+		assertEquals("bar and baz", apply(plan, "foo and bar"));
+		assertEquals("a b", apply(compile(true, "a", "b", "b", "a"), "b a"));
+	}
+	
+	@Test
+	public void unchangedTextIsNotReported() {
+		final int[] matches = {0};
+		byte[] data = "nothing to see".getBytes(StandardCharsets.ISO_8859_1);
+		int count = compile(false, "foo", "bar", "bar", "baz").findMatches(data, 0, data.length, (offset, length, replacement) -> {
+			matches[0]++;
+			return true;
+		});
+		assertEquals(0, count);
+		assertEquals(0, matches[0]);
+	}
+	
+	@Test
+	public void modeSurvivesBeingWrittenAndRead() throws IOException {
+		for(boolean singlePass : new boolean[] {false, true}) {
+			SearchPlan plan = compile(singlePass, "foo", "bar", "bar", "baz");
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try(DataOutputStream out = new DataOutputStream(bytes)) {
+				plan.write(out);
+			}
+			SearchPlan read = SearchPlan.read(ByteBuffer.wrap(bytes.toByteArray()));
+			assertEquals(plan, read);
+			assertEquals(singlePass ? "bar and baz" : "baz and baz", apply(read, "foo and bar"));
+		}
+	}
+	
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/** Measures how fast each {@link SearchPlan.Kernel} searches through text
+ * for a few typical kinds of plan, the same way that searches do (one line
+ * at a time), and checks that every kernel finds the same matches.<br>
+ * The text is made up of random lowercase words (with English letter
+ * frequencies) in lines of about 80 characters, with each plan's first
+ * search-string planted in it once per MiB.
+ * 
+ * @author Brian_Entei */
+public final class KernelBenchmark {
+	
+	private static final String USAGE = "Usage: java -cp BatchFindAndReplace.jar:tools com.gmail.br45entei.io.KernelBenchmark [options]\r\n" + //
+			"  -size <bytes>   The amount of text to search through (default: 256mb)\r\n" + //
+			"  -rounds <n>     How many times each kernel searches it; the fastest\r\n" + //
+			"                  round is reported (default: 5)\r\n" + //
+			"  -seed <n>       The seed that the text is generated from (default: 1)";
+	
+	/** The plans that are measured, as lists of search-strings */
+	private static final String[][] PLANS = {//
+			{"needle"},//
+			{"(?i)needle"},//
+			{"needle", "pin", "haystack"},//
+			{"TODO", "FIXME", "XXX"},//
+			{"color", "colour"},//
+			{"the"},//
+			{"http://", "https://", "ftp://"}};
+	
+	/** How often each letter appears in English text, in thousandths */
+	private static final int[] LETTER_FREQUENCIES = {82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24, 67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1};
+	
+	private KernelBenchmark() {
+	}
+	
+	private static final String nextArg(String[] args, int i) {
+		if(i >= args.length) {
+			throw new IllegalArgumentException(String.format("Missing value for option \"%s\"", args[i - 1]));
+		}
+		return args[i];
+	}
+	
+	/** @param args Program command line arguments (see {@link #USAGE}) */
+	public static void main(String[] args) {
+		long size = 256L * 1024L * 1024L, seed = 1L;
+		int rounds = 5;
+		try {
+			for(int i = 0; i < args.length; i++) {
+				switch(args[i]) {
+				case "-size":
+					size = RateLimiter.parseRate(nextArg(args, ++i));
+					break;
+				case "-rounds":
+					rounds = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-seed":
+					seed = Long.parseLong(nextArg(args, ++i));
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option \"%s\"", args[i]));
+				}
+			}
+			if(size <= 0L || size > Integer.MAX_VALUE - 8 || rounds < 1) {
+				throw new IllegalArgumentException("The size must be between 1 byte and 2 GiB, and there must be at least one round");
+			}
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		final byte[] text = generate((int) size, seed);
+		final int[] lines = lines(text);
+		System.out.println(String.format("Searching %s of text, %s line(s), best of %s round(s) (Java %s):", FindReplaceSearch.formatSize(text.length), Integer.toString(lines.length / 2), Integer.toString(rounds), System.getProperty("java.version")));
+		final SearchPlan.Kernel previous = SearchPlan.getKernel();
+		try {
+			for(String[] findStrings : PLANS) {
+				final SearchPlan plan = SearchPlan.compile(findStrings, new String[0], true);
+				final byte[] planted = plant(text, findStrings[0]);
+				StringBuilder sb = new StringBuilder(String.format("  %-28s", String.join(" ", findStrings)));
+				long expected = -1L;
+				for(SearchPlan.Kernel kernel : SearchPlan.Kernel.values()) {
+					SearchPlan.setKernel(kernel);
+					long best = Long.MAX_VALUE, matches = 0L;
+					for(int round = 0; round < rounds; round++) {
+						long start = System.nanoTime();
+						matches = search(plan, planted, lines);
+						best = Math.min(best, System.nanoTime() - start);
+					}
+					if(expected == -1L) {
+						expected = matches;
+					} else if(matches != expected) {
+						System.err.println(String.format("The %s kernel found %s matches for \"%s\", but the %s kernel found %s!", kernel, Long.toString(matches), String.join(" ", findStrings), SearchPlan.Kernel.values()[0], Long.toString(expected)));
+						System.exit(4);
+					}
+					sb.append(String.format(" %s %5s MB/s", kernel.name().toLowerCase(), Long.toString(Math.round(planted.length * 1000.0 / best))));
+				}
+				sb.append(String.format("  (auto uses %s; %s matches)", plan.getAutoKernel().name().toLowerCase(), Long.toString(expected)));
+				System.out.println(sb.toString());
+			}
+		} finally {
+			SearchPlan.setKernel(previous);
+		}
+	}
+	
+	/** Generates lines of random lowercase words. */
+	private static final byte[] generate(int size, long seed) {
+		final SplittableRandom random = new SplittableRandom(seed);
+		int total = 0;
+		for(int frequency : LETTER_FREQUENCIES) {
+			total += frequency;
+		}
+		final byte[] letters = new byte[total];
+		for(int c = 0, i = 0; c < LETTER_FREQUENCIES.length; c++) {
+			for(int j = 0; j < LETTER_FREQUENCIES[c]; j++) {
+				letters[i++] = (byte) ('a' + c);
+			}
+		}
+		final byte[] text = new byte[size];
+		int column = 0;
+		for(int i = 0; i < size;) {
+			int word = 1 + random.nextInt(9);
+			for(int j = 0; j < word && i < size; j++, column++) {
+				text[i++] = letters[random.nextInt(letters.length)];
+			}
+			if(i < size) {
+				text[i++] = column >= 80 ? (byte) '\n' : (byte) ' ';
+				column = column >= 80 ? 0 : column + 1;
+			}
+		}
+		return text;
+	}
+	
+	/** @return A copy of the text with the given search-string written over
+	 *         it once every MiB */
+	private static final byte[] plant(byte[] text, String findString) {
+		final byte[] planted = text.clone();
+		final byte[] needle = (findString.startsWith(SearchPlan.IGNORE_CASE_PREFIX) ? findString.substring(SearchPlan.IGNORE_CASE_PREFIX.length()) : findString).getBytes(StandardCharsets.ISO_8859_1);
+		for(int i = 512 * 1024; i + needle.length < planted.length; i += 1024 * 1024) {
+			System.arraycopy(needle, 0, planted, i, needle.length);
+		}
+		return planted;
+	}
+	
+	/** @return The start and end of each line's contents, in pairs */
+	private static final int[] lines(byte[] text) {
+		int count = 1;
+		for(byte b : text) {
+			count += b == '\n' ? 1 : 0;
+		}
+		final int[] lines = new int[count * 2];
+		int line = 0, start = 0;
+		for(int i = 0; i <= text.length; i++) {
+			if(i == text.length || text[i] == '\n') {
+				lines[line++] = start;
+				lines[line++] = i;
+				start = i + 1;
+			}
+		}
+		return lines;
+	}
+	
+	private static final long search(SearchPlan plan, byte[] text, int[] lines) {
+		long matches = 0L;
+		for(int i = 0; i < lines.length; i += 2) {
+			matches += plan.findMatches(text, lines[i], lines[i + 1], (offset, length, replacement) -> true);
+		}
+		return matches;
+	}
+	
+}
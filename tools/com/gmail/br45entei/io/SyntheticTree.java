@@ -0,0 +1,480 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/** Generates a folder of made-up files to soak test searches with: any
+ * number of files, spread over folders that are nested as deep as is asked
+ * for, with sizes picked from a weighted list, a given share of binary files
+ * and of files that are exact duplicates of others, and a search-string (the
+ * <tt>needle</tt>) planted in the text files at a given density.<br>
+ * The same settings and seed always generate the same files, byte for byte,
+ * so that runs against a tree that was generated again later (or elsewhere)
+ * can be compared with each other.<br>
+ * <br>
+ * Text files are made up of lines of random words that never contain the
+ * first character of the needle, so the needle is only ever found where it
+ * was planted, and the number of matches that a search should find is known
+ * up front. It is recorded, together with the settings and the tree's size,
+ * in a {@link #getDescriptionFile(File) description file} next to the tree.
+ * 
+ * @author Brian_Entei */
+public final class SyntheticTree {
+	
+	/** The file extension of the description files that are written next to
+	 * generated trees */
+	public static final String FILE_EXTENSION = ".soak";
+	
+	/** The size of the block of text that text files are cut from */
+	private static final int FILLER_SIZE = 1024 * 1024;
+	/** The size of the pieces that files are written in */
+	private static final int WRITE_SIZE = 64 * 1024;
+	/** The most distinct files that duplicates are picked from */
+	private static final int DUPLICATE_POOL_SIZE = 4096;
+	
+	private long files = 1000L;
+	private int filesPerFolder = 100, depth = 3, fanout = 16;
+	private long[] sizes = {4096L, 65536L, 1048576L, 16777216L};
+	private double[] weights = {60.0, 30.0, 9.0, 1.0};
+	private String sizesSpec = "4kb:60,64kb:30,1mb:9,16mb:1";
+	private int hugeFiles = 0;
+	private long hugeFileSize = 0L;
+	private double hitsPerMiB = 16.0, binaryRatio = 0.05, duplicateRatio = 0.1;
+	private byte[] needle = "needle".getBytes(StandardCharsets.ISO_8859_1);
+	private int lineLength = 80;
+	private long seed = 1L;
+	
+	/** Creates a new tree with the default settings: 1000 files with a mix of
+	 * sizes of up to 16 MiB (about 200 MiB in all), 100 to a folder, three
+	 * folders deep. */
+	public SyntheticTree() {
+	}
+	
+	/** @param files The number of files to generate (not counting the huge
+	 *            files)
+	 * @return This SyntheticTree */
+	public SyntheticTree setFiles(long files) {
+		this.files = Math.max(0L, files);
+		return this;
+	}
+	
+	/** @param filesPerFolder The number of files that are put into each
+	 *            folder
+	 * @return This SyntheticTree */
+	public SyntheticTree setFilesPerFolder(int filesPerFolder) {
+		this.filesPerFolder = Math.max(1, filesPerFolder);
+		return this;
+	}
+	
+	/** Sets how the folders are nested: each file is put into a folder that
+	 * is <tt>depth</tt> folders below the tree's root, with up to
+	 * <tt>fanout</tt> subfolders in each folder (the root's subfolders are
+	 * added to as needed once the rest are full).
+	 * 
+	 * @param depth How many folders deep the files are put
+	 * @param fanout The number of subfolders per folder
+	 * @return This SyntheticTree */
+	public SyntheticTree setNesting(int depth, int fanout) {
+		this.depth = Math.max(0, depth);
+		this.fanout = Math.max(1, fanout);
+		return this;
+	}
+	
+	/** Sets the sizes that the files are given. Each file's size is picked
+	 * from the list by weight, and then made random between half of the
+	 * picked size and all of it.
+	 * 
+	 * @param spec A comma-separated list of <tt>size:weight</tt> pairs, such
+	 *            as <tt>4kb:60,64kb:30,1mb:9,16mb:1</tt> (sizes are parsed
+	 *            with {@link RateLimiter#parseRate(String)})
+	 * @return This SyntheticTree
+	 * @throws IllegalArgumentException Thrown if the list is malformed */
+	public SyntheticTree setSizes(String spec) throws IllegalArgumentException {
+		String[] pairs = spec.split(",");
+		long[] sizes = new long[pairs.length];
+		double[] weights = new double[pairs.length];
+		double total = 0.0;
+		for(int i = 0; i < pairs.length; i++) {
+			String[] pair = pairs[i].trim().split(":");
+			try {
+				sizes[i] = RateLimiter.parseRate(pair[0]);
+				weights[i] = pair.length > 1 ? Double.parseDouble(pair[1].trim()) : 1.0;
+			} catch(NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format("Invalid size \"%s\" in \"%s\"", pairs[i], spec), ex);
+			}
+			if(pair.length > 2 || sizes[i] < 0L || weights[i] < 0.0) {
+				throw new IllegalArgumentException(String.format("Invalid size \"%s\" in \"%s\"", pairs[i], spec));
+			}
+			total += weights[i];
+		}
+		if(total <= 0.0) {
+			throw new IllegalArgumentException(String.format("No size in \"%s\" has any weight", spec));
+		}
+		this.sizes = sizes;
+		this.weights = weights;
+		this.sizesSpec = spec;
+		return this;
+	}
+	
+	/** @param count The number of huge text files to put into the root of
+	 *            the tree, on top of the other files
+	 * @param size The size of each huge file
+	 * @return This SyntheticTree */
+	public SyntheticTree setHugeFiles(int count, long size) {
+		this.hugeFiles = Math.max(0, count);
+		this.hugeFileSize = Math.max(0L, size);
+		return this;
+	}
+	
+	/** @param hitsPerMiB The average number of times that the needle is
+	 *            planted in each MiB of text
+	 * @return This SyntheticTree */
+	public SyntheticTree setHitDensity(double hitsPerMiB) {
+		this.hitsPerMiB = Math.max(0.0, hitsPerMiB);
+		return this;
+	}
+	
+	/** @param binaryRatio The share of the files (from <tt>0</tt> to
+	 *            <tt>1</tt>) that are made up of random bytes instead of
+	 *            text
+	 * @return This SyntheticTree */
+	public SyntheticTree setBinaryRatio(double binaryRatio) {
+		this.binaryRatio = Math.max(0.0, Math.min(1.0, binaryRatio));
+		return this;
+	}
+	
+	/** @param duplicateRatio The share of the files (from <tt>0</tt> to
+	 *            <tt>1</tt>) that are exact copies of files that were
+	 *            generated before them
+	 * @return This SyntheticTree */
+	public SyntheticTree setDuplicateRatio(double duplicateRatio) {
+		this.duplicateRatio = Math.max(0.0, Math.min(1.0, duplicateRatio));
+		return this;
+	}
+	
+	/** @param needle The search-string to plant in the text files, which must
+	 *            be printable ASCII and may not start with a space
+	 * @return This SyntheticTree
+	 * @throws IllegalArgumentException Thrown if the needle isn't valid */
+	public SyntheticTree setNeedle(String needle) throws IllegalArgumentException {
+		if(needle.isEmpty() || needle.charAt(0) == ' ') {
+			throw new IllegalArgumentException(String.format("Invalid needle \"%s\": it may not be empty or start with a space", needle));
+		}
+		for(int i = 0; i < needle.length(); i++) {
+			char c = needle.charAt(i);
+			if(c < ' ' || c > '~') {
+				throw new IllegalArgumentException(String.format("Invalid needle \"%s\": it may only contain printable ASCII characters", needle));
+			}
+		}
+		this.needle = needle.getBytes(StandardCharsets.ISO_8859_1);
+		return this;
+	}
+	
+	/** @return The search-string that is planted in the text files */
+	public String getNeedle() {
+		return new String(this.needle, StandardCharsets.ISO_8859_1);
+	}
+	
+	/** @param lineLength The average length of the lines of the text files
+	 * @return This SyntheticTree */
+	public SyntheticTree setLineLength(int lineLength) {
+		this.lineLength = Math.max(1, lineLength);
+		return this;
+	}
+	
+	/** @param seed The seed that every file's contents (and size, and place
+	 *            in the tree) are derived from
+	 * @return This SyntheticTree */
+	public SyntheticTree setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+	
+	/** @param folder A generated tree's root folder
+	 * @return The file that the tree's settings and size are described in */
+	public static final File getDescriptionFile(File folder) {
+		folder = folder.getAbsoluteFile();
+		File parent = folder.getParentFile();
+		return parent == null ? new File(folder, FILE_EXTENSION) : new File(parent, folder.getName().concat(FILE_EXTENSION));
+	}
+	
+	/** @param folder A generated tree's root folder
+	 * @return The tree's description (see {@link #generate(File, PrintStream)}),
+	 *         or <tt>null</tt> if it has none
+	 * @throws IOException Thrown if the description could not be read */
+	public static final Properties readDescription(File folder) throws IOException {
+		File file = getDescriptionFile(folder);
+		if(!file.isFile()) {
+			return null;
+		}
+		Properties description = new Properties();
+		try(Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			description.load(in);
+		}
+		return description;
+	}
+	
+	/** Generates the tree into the given folder, which must not exist yet (or
+	 * be empty), and then writes its {@link #getDescriptionFile(File)
+	 * description}. The description lists the settings, and the number of
+	 * <tt>files</tt>, <tt>folders</tt>, <tt>bytes</tt>, <tt>binaryFiles</tt>,
+	 * <tt>duplicateFiles</tt> and <tt>hits</tt> (the number of times that the
+	 * needle was planted) that were generated.
+	 * 
+	 * @param folder The folder to generate the tree in
+	 * @param pr The {@link PrintStream} to print progress to
+	 * @return The tree's description
+	 * @throws IOException Thrown if the folder already has files in it, or if
+	 *             a file could not be written */
+	public Properties generate(File folder, PrintStream pr) throws IOException {
+		String[] existing = folder.list();
+		if(existing != null && existing.length > 0) {
+			throw new IOException(String.format("Folder \"%s\" already has files in it; delete it or generate the tree somewhere else", folder.getAbsolutePath()));
+		}
+		if(!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException(String.format("Unable to create folder \"%s\"", folder.getAbsolutePath()));
+		}
+		final long startTime = System.currentTimeMillis();
+		final SplittableRandom random = new SplittableRandom(this.seed);
+		final byte[] filler = this.createFiller(random.split());
+		final byte[] buf = new byte[WRITE_SIZE];
+		final long total = this.files + this.hugeFiles;
+		final long[] poolSeeds = new long[DUPLICATE_POOL_SIZE], poolSizes = new long[DUPLICATE_POOL_SIZE];
+		final boolean[] poolBinary = new boolean[DUPLICATE_POOL_SIZE];
+		int poolCount = 0;
+		long folders = 0L, bytes = 0L, binaryFiles = 0L, duplicateFiles = 0L, hits = 0L;
+		long lastFolder = -1L, lastProgress = startTime;
+		File parent = folder;
+		for(long i = 0L; i < total; i++) {
+			long fileSeed, size;
+			boolean binary;
+			String name;
+			if(i < this.files) {
+				if(poolCount > 0 && random.nextDouble() < this.duplicateRatio) {
+					int slot = random.nextInt(poolCount);
+					fileSeed = poolSeeds[slot];
+					size = poolSizes[slot];
+					binary = poolBinary[slot];
+					duplicateFiles++;
+				} else {
+					fileSeed = random.nextLong();
+					size = this.pickSize(random);
+					binary = random.nextDouble() < this.binaryRatio;
+					int slot = poolCount < DUPLICATE_POOL_SIZE ? poolCount++ : random.nextInt(DUPLICATE_POOL_SIZE);
+					poolSeeds[slot] = fileSeed;
+					poolSizes[slot] = size;
+					poolBinary[slot] = binary;
+				}
+				long folderIndex = i / this.filesPerFolder;
+				if(folderIndex != lastFolder) {
+					lastFolder = folderIndex;
+					parent = this.getFolder(folder, folderIndex);
+					if(!parent.isDirectory()) {
+						if(!parent.mkdirs()) {
+							throw new IOException(String.format("Unable to create folder \"%s\"", parent.getAbsolutePath()));
+						}
+						folders++;
+					}
+				}
+				name = String.format("f%s%s", Long.toString(i), binary ? ".bin" : ".txt");
+			} else {
+				fileSeed = random.nextLong();
+				size = this.hugeFileSize;
+				binary = false;
+				parent = folder;
+				name = String.format("huge%s.txt", Long.toString(i - this.files));
+			}
+			File file = new File(parent, name);
+			if(binary) {
+				this.writeBinary(file, fileSeed, size, buf);
+				binaryFiles++;
+			} else {
+				hits += this.writeText(file, fileSeed, size, filler, buf);
+			}
+			bytes += size;
+			
+			long now = System.currentTimeMillis();
+			if(now - lastProgress >= 5000L) {
+				lastProgress = now;
+				pr.println(String.format("Generated %s of %s files (%s)...", Long.toString(i + 1), Long.toString(total), FindReplaceSearch.formatSize(bytes)));
+			}
+		}
+		
+		Properties description = new Properties();
+		description.setProperty("seed", Long.toString(this.seed));
+		description.setProperty("needle", this.getNeedle());
+		description.setProperty("sizes", this.sizesSpec);
+		description.setProperty("hugeFiles", String.format("%sx%s", Integer.toString(this.hugeFiles), Long.toString(this.hugeFileSize)));
+		description.setProperty("filesPerFolder", Integer.toString(this.filesPerFolder));
+		description.setProperty("depth", Integer.toString(this.depth));
+		description.setProperty("fanout", Integer.toString(this.fanout));
+		description.setProperty("hitsPerMiB", Double.toString(this.hitsPerMiB));
+		description.setProperty("binaryRatio", Double.toString(this.binaryRatio));
+		description.setProperty("duplicateRatio", Double.toString(this.duplicateRatio));
+		description.setProperty("lineLength", Integer.toString(this.lineLength));
+		description.setProperty("files", Long.toString(total));
+		description.setProperty("folders", Long.toString(folders));
+		description.setProperty("bytes", Long.toString(bytes));
+		description.setProperty("binaryFiles", Long.toString(binaryFiles));
+		description.setProperty("duplicateFiles", Long.toString(duplicateFiles));
+		description.setProperty("hits", Long.toString(hits));
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(getDescriptionFile(folder)), StandardCharsets.UTF_8)) {
+			description.store(out, "Batch Find & Replace synthetic tree");
+		}
+		pr.println(String.format("Generated %s files (%s) in %s folders, with %s hits, in %s.", Long.toString(total), FindReplaceSearch.formatSize(bytes), Long.toString(folders), Long.toString(hits), FindReplaceSearch.formatDuration(System.currentTimeMillis() - startTime)));
+		return description;
+	}
+	
+	/** Creates the block of text that text files are cut from: lines of
+	 * random words that never contain the first character of the needle. */
+	private byte[] createFiller(SplittableRandom random) {
+		final byte first = this.needle[0];
+		byte[] alphabet = new byte[26];
+		int letters = 0;
+		for(byte c = 'a'; c <= 'z'; c++) {
+			if(c != first) {
+				alphabet[letters++] = c;
+			}
+		}
+		byte[] filler = new byte[FILLER_SIZE];
+		int line = this.nextLineLength(random), column = 0;
+		for(int i = 0; i < filler.length; i++) {
+			if(column >= line) {
+				filler[i] = '\n';
+				line = this.nextLineLength(random);
+				column = 0;
+				continue;
+			}
+			filler[i] = column > 0 && filler[i - 1] != ' ' && random.nextInt(6) == 0 ? (byte) ' ' : alphabet[random.nextInt(letters)];
+			column++;
+		}
+		return filler;
+	}
+	
+	private int nextLineLength(SplittableRandom random) {
+		return this.lineLength / 2 + random.nextInt(this.lineLength + 1);
+	}
+	
+	private long pickSize(SplittableRandom random) {
+		double total = 0.0;
+		for(double weight : this.weights) {
+			total += weight;
+		}
+		double pick = random.nextDouble() * total;
+		int i = 0;
+		while(i < this.sizes.length - 1 && (pick -= this.weights[i]) >= 0.0) {
+			i++;
+		}
+		long max = this.sizes[i], min = max / 2L;
+		return max <= min ? max : min + random.nextLong(max - min + 1L);
+	}
+	
+	/** @return The folder that the files with the given folder index are put
+	 *         into */
+	private File getFolder(File root, long index) {
+		String[] names = new String[this.depth];
+		for(int level = this.depth - 1; level >= 0; level--) {
+			long digit = level == 0 ? index : index % this.fanout;
+			index /= this.fanout;
+			names[level] = "d".concat(Long.toString(digit));
+		}
+		File folder = root;
+		for(String name : names) {
+			folder = new File(folder, name);
+		}
+		return folder;
+	}
+	
+	private void writeBinary(File file, long seed, long size, byte[] buf) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		try(FileOutputStream out = new FileOutputStream(file)) {
+			for(long pos = 0L; pos < size;) {
+				int length = (int) Math.min(buf.length, size - pos);
+				for(int i = 0; i < length; i += 8) {
+					long bits = random.nextLong();
+					for(int j = i; j < i + 8 && j < length; j++, bits >>>= 8) {
+						buf[j] = (byte) bits;
+					}
+				}
+				out.write(buf, 0, length);
+				pos += length;
+			}
+		}
+	}
+	
+	/** Writes a text file, planting the needle at random with gaps between
+	 * each that average out to the hit density.<br>
+	 * Planted needles are at least one character of filler apart. As the
+	 * filler never contains the needle's first character, no match can start
+	 * anywhere but at a planted needle: one that started partway into a
+	 * planted needle would have to continue into the filler with a whole
+	 * period of the needle, which includes its first character.
+	 * 
+	 * @return The number of times that the needle was planted */
+	private long writeText(File file, long seed, long size, byte[] filler, byte[] buf) throws IOException {
+		final SplittableRandom random = new SplittableRandom(seed);
+		final byte[] needle = this.needle;
+		final double meanGap = this.hitsPerMiB <= 0.0 ? -1.0 : Math.max(0.0, 1048576.0 / this.hitsPerMiB - (needle.length + 1));
+		long hits = 0L;
+		long hit = this.nextHit(random, -needle.length - 1L, meanGap, size);
+		try(FileOutputStream out = new FileOutputStream(file)) {
+			for(long pos = 0L; pos < size;) {
+				final int length = (int) Math.min(buf.length, size - pos);
+				System.arraycopy(filler, random.nextInt(filler.length - length + 1), buf, 0, length);
+				final long end = pos + length;
+				while(hit < end) {
+					for(long i = Math.max(hit, pos); i < hit + needle.length && i < end; i++) {
+						buf[(int) (i - pos)] = needle[(int) (i - hit)];
+					}
+					if(hit + needle.length > end) {
+						break;//The rest of it goes at the start of the next piece
+					}
+					hits++;
+					hit = this.nextHit(random, hit, meanGap, size);
+				}
+				out.write(buf, 0, length);
+				pos = end;
+			}
+		}
+		return hits;
+	}
+	
+	/** @return The position of the next needle after the one at the given
+	 *         position, or {@link Long#MAX_VALUE} if there isn't one */
+	private long nextHit(SplittableRandom random, long last, double meanGap, long size) {
+		if(meanGap < 0.0) {
+			return Long.MAX_VALUE;
+		}
+		long next = last + this.needle.length + 1L + (long) (-Math.log(1.0 - random.nextDouble()) * meanGap);
+		return next < 0L || next + this.needle.length > size ? Long.MAX_VALUE : next;
+	}
+	
+}
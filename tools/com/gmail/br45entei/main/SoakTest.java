@@ -0,0 +1,625 @@
+/*******************************************************************************
+ * 
+ * Copyright (C) 2020 Brian_Entei (br45entei@gmail.com)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ * 
+ *******************************************************************************/
+package com.gmail.br45entei.main;
+
+import com.gmail.br45entei.io.FindReplaceSearch;
+import com.gmail.br45entei.io.LogSink;
+import com.gmail.br45entei.io.MemoryBudget;
+import com.gmail.br45entei.io.RateLimiter;
+import com.gmail.br45entei.io.SearchPlan;
+import com.gmail.br45entei.io.SyntheticTree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/** Soak and scale tests searches against {@link SyntheticTree synthetic
+ * trees}: generates a tree, runs a {@link FindReplaceSearch} over it in this
+ * JVM while watching its memory and garbage collection, and appends what was
+ * measured to a report that runs before and after an upgrade can be compared
+ * in.<br>
+ * The search's status messages go to a {@link LogSink} that discards them
+ * (or writes them to a log file with <tt>-log</tt>), and its results are read
+ * from its counters, so that nothing that the soak test keeps adds to the
+ * memory that is measured.<br>
+ * Each search should be run in a JVM of its own (as
+ * <tt>launcher/soak-test.sh</tt> does), so that the peak resident set size
+ * that is reported belongs to that search alone.
+ * 
+ * @author Brian_Entei */
+public final class SoakTest {
+	
+	private static final String USAGE = "Usage: java -cp BatchFindAndReplace.jar:tools com.gmail.br45entei.main.SoakTest <command> ...\r\n" + //
+			"\r\n" + //
+			"  generate <folder> [options]\r\n" + //
+			"      Generates a synthetic tree into the given (new or empty) folder.\r\n" + //
+			"      -files <n>            The number of files, such as 10m (default: 1000)\r\n" + //
+			"      -filesPerFolder <n>   The number of files in each folder (default: 100)\r\n" + //
+			"      -depth <n>            How many folders deep the files are (default: 3)\r\n" + //
+			"      -fanout <n>           The number of subfolders per folder (default: 16)\r\n" + //
+			"      -sizes <list>         size:weight pairs that file sizes are picked from\r\n" + //
+			"                            (default: 4kb:60,64kb:30,1mb:9,16mb:1)\r\n" + //
+			"      -huge <count>x<size>  Huge text files to add to the root, such as 1x100gb\r\n" + //
+			"      -hits <n>             Needles planted per MiB of text (default: 16)\r\n" + //
+			"      -binary <ratio>       The share of binary files (default: 0.05)\r\n" + //
+			"      -duplicates <ratio>   The share of duplicated files (default: 0.1)\r\n" + //
+			"      -needle <string>      The search-string to plant (default: needle)\r\n" + //
+			"      -lineLength <n>       The average line length (default: 80)\r\n" + //
+			"      -seed <n>             The seed that the tree is generated from (default: 1)\r\n" + //
+			"\r\n" + //
+			"  run <folder> [options]\r\n" + //
+			"      Searches the tree for its needle, and reports the throughput, peak\r\n" + //
+			"      memory and garbage collection of the search.\r\n" + //
+			"      Exits with 4 if the tree's planted needles weren't all replaced.\r\n" + //
+			"      -dest <folder>        Where the output goes (default: <folder>-out)\r\n" + //
+			"      -clean                Delete the destination folder's files first\r\n" + //
+			"      -replace <string>     What the needle is replaced with (default: NEEDLE)\r\n" + //
+			"      -label <name>         The name of the run in the report (default: the\r\n" + //
+			"                            tree's folder name)\r\n" + //
+			"      -report <file>        Append the results to this tab-separated report\r\n" + //
+			"      -log <file>           Write the search's status messages to this log\r\n" + //
+			"                            file (by default, they are discarded)\r\n" + //
+			"      The search itself can be tuned with these options, which work as they\r\n" + //
+			"      do for java -jar BatchFindAndReplace.jar (see -help there):\r\n" + //
+			"      -fileWorkers <n>, -fileOrder <name>, -chunkThreshold <bytes>,\r\n" + //
+			"      -maxLineLength <bytes>, -fileTimeout <ms>, -memoryBudget <size>,\r\n" + //
+			"      -kernel <name>, -normalizeLineEndings, -dedup, -archives,\r\n" + //
+			"      -onlyCopyMatching, -noPreScan\r\n" + //
+			"\r\n" + //
+			"  compare <report>\r\n" + //
+			"      Compares the last run of each label in the report with the run before.";
+	
+	/** The columns of the report, in order */
+	private static final String[] COLUMNS = {"date", "label", "tree", "java", "files", "bytes", "hits", "exit", "seconds", "mibPerSecond", "filesPerSecond", "replacements", "failures", "timedOut", "peakRssMiB", "peakHeapMiB", "maxHeapMiB", "gcCount", "gcMillis", "gcPercent", "options"};
+	/** The columns that {@link #compare(File)} compares, and whether bigger is
+	 * better for each */
+	private static final String[] COMPARED = {"mibPerSecond", "filesPerSecond", "peakRssMiB", "peakHeapMiB", "gcMillis"};
+	private static final boolean[] BIGGER_IS_BETTER = {true, true, false, false, false};
+	
+	private SoakTest() {
+	}
+	
+	private static final String nextArg(String[] args, int i) {
+		if(i >= args.length) {
+			throw new IllegalArgumentException(String.format("Missing value for option \"%s\"", args[i - 1]));
+		}
+		return args[i];
+	}
+	
+	/** @param args Program command line arguments (see {@link #USAGE}) */
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+	
+	/** Runs the given soak test command.
+	 * 
+	 * @param args The command and its arguments (see {@link #USAGE})
+	 * @return The exit code: <tt>0</tt> on success, <tt>1</tt> for invalid
+	 *         arguments, <tt>2</tt> if a file could not be read or written,
+	 *         or <tt>4</tt> if a search didn't replace every planted needle */
+	public static final int run(String[] args) {
+		if(args.length < 2) {
+			System.err.println(USAGE);
+			return 1;
+		}
+		final File file = new File(args[1]);
+		final String[] options = Arrays.copyOfRange(args, 2, args.length);
+		try {
+			switch(args[0]) {
+			case "generate":
+				return generate(file, options);
+			case "run":
+				return runSearch(file, options);
+			case "compare":
+				return compare(file);
+			default:
+				throw new IllegalArgumentException(String.format("Unknown command \"%s\"", args[0]));
+			}
+		} catch(IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println(USAGE);
+			return 1;
+		} catch(IOException ex) {
+			System.err.print("Soak test failed: ");
+			ex.printStackTrace(System.err);
+			return 2;
+		}
+	}
+	
+	private static final int generate(File folder, String[] args) throws IOException {
+		SyntheticTree tree = new SyntheticTree();
+		int depth = 3, fanout = 16;
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			try {
+				switch(arg.startsWith("--") ? arg.substring(1) : arg) {
+				case "-files":
+					tree.setFiles(RateLimiter.parseRate(nextArg(args, ++i)));
+					break;
+				case "-filesPerFolder":
+					tree.setFilesPerFolder(Integer.parseInt(nextArg(args, ++i)));
+					break;
+				case "-depth":
+					depth = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-fanout":
+					fanout = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-sizes":
+					tree.setSizes(nextArg(args, ++i));
+					break;
+				case "-huge": {
+					String value = nextArg(args, ++i);
+					int x = value.indexOf('x');
+					if(x < 0) {
+						throw new IllegalArgumentException(String.format("Invalid value for option \"%s\" (expected <count>x<size>): %s", arg, value));
+					}
+					tree.setHugeFiles(Integer.parseInt(value.substring(0, x)), RateLimiter.parseRate(value.substring(x + 1)));
+					break;
+				}
+				case "-hits":
+					tree.setHitDensity(Double.parseDouble(nextArg(args, ++i)));
+					break;
+				case "-binary":
+					tree.setBinaryRatio(Double.parseDouble(nextArg(args, ++i)));
+					break;
+				case "-duplicates":
+					tree.setDuplicateRatio(Double.parseDouble(nextArg(args, ++i)));
+					break;
+				case "-needle":
+					tree.setNeedle(nextArg(args, ++i));
+					break;
+				case "-lineLength":
+					tree.setLineLength(Integer.parseInt(nextArg(args, ++i)));
+					break;
+				case "-seed":
+					tree.setSeed(Long.parseLong(nextArg(args, ++i)));
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Unknown option \"%s\"", arg));
+				}
+			} catch(NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format("Invalid value for option \"%s\": %s", arg, args[i]));
+			}
+		}
+		tree.setNesting(depth, fanout).generate(folder, System.out);
+		return 0;
+	}
+	
+	private static final int runSearch(File folder, String[] args) throws IOException {
+		if(!folder.isDirectory()) {
+			throw new IllegalArgumentException(String.format("Tree \"%s\" doesn't exist; generate it first", folder.getAbsolutePath()));
+		}
+		File dest = null, reportFile = null, logFile = null;
+		String label = folder.getAbsoluteFile().getName(), replacement = "NEEDLE";
+		boolean clean = false;
+		//The options that tune the search, applied once the search has been created:
+		boolean normalizeLineEndings = false, dedup = false, archives = false, onlyCopyMatching = false, preScan = true;
+		long chunkThreshold = -1L, fileTimeout = -1L, memoryBudget = -1L;
+		int maxLineLength = -1, fileWorkers = -1;
+		FindReplaceSearch.FileOrder fileOrder = null;
+		SearchPlan.Kernel kernel = null;
+		List<String> passed = new ArrayList<>();
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			final int first = i;
+			try {
+				switch(arg.startsWith("--") ? arg.substring(1) : arg) {
+				case "-dest":
+					dest = new File(nextArg(args, ++i));
+					continue;
+				case "-clean":
+					clean = true;
+					continue;
+				case "-replace":
+					replacement = nextArg(args, ++i);
+					continue;
+				case "-label":
+					label = nextArg(args, ++i);
+					continue;
+				case "-report":
+					reportFile = new File(nextArg(args, ++i));
+					continue;
+				case "-log":
+					logFile = new File(nextArg(args, ++i));
+					continue;
+				case "-fileWorkers":
+					fileWorkers = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-fileOrder":
+					String order = nextArg(args, ++i);
+					try {
+						fileOrder = FindReplaceSearch.FileOrder.valueOf(order.toUpperCase());
+					} catch(IllegalArgumentException ex) {
+						throw new IllegalArgumentException(String.format("Unknown file order \"%s\"", order));
+					}
+					break;
+				case "-chunkThreshold":
+					chunkThreshold = Long.parseLong(nextArg(args, ++i));
+					break;
+				case "-maxLineLength":
+					maxLineLength = Integer.parseInt(nextArg(args, ++i));
+					break;
+				case "-fileTimeout":
+					fileTimeout = Long.parseLong(nextArg(args, ++i));
+					break;
+				case "-memoryBudget":
+					memoryBudget = RateLimiter.parseRate(nextArg(args, ++i));
+					if(memoryBudget <= 0L) {
+						throw new IllegalArgumentException("The memory budget must be larger than 0");
+					}
+					break;
+				case "-kernel":
+					String name = nextArg(args, ++i);
+					try {
+						kernel = SearchPlan.Kernel.valueOf(name.toUpperCase());
+					} catch(IllegalArgumentException ex) {
+						throw new IllegalArgumentException(String.format("Unknown kernel \"%s\"", name));
+					}
+					break;
+				case "-normalizeLineEndings":
+					normalizeLineEndings = true;
+					break;
+				case "-dedup":
+					dedup = true;
+					break;
+				case "-archives":
+					archives = true;
+					break;
+				case "-onlyCopyMatching":
+					onlyCopyMatching = true;
+					break;
+				case "-noPreScan":
+					preScan = false;
+					break;
+				default:
+					throw new IllegalArgumentException(String.format("Option \"%s\" can't be given to a soak test run", arg));
+				}
+			} catch(NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format("Invalid value for option \"%s\": %s", arg, args[i]));
+			}
+			//Only the options that tune the search get this far, and are recorded in the report:
+			passed.addAll(Arrays.asList(args).subList(first, i + 1));
+		}
+		if(dest == null) {
+			dest = new File(folder.getAbsoluteFile().getPath().concat("-out"));
+		}
+		
+		Properties description = SyntheticTree.readDescription(folder);
+		final String needle;
+		final long files, bytes, hits;
+		if(description != null) {
+			needle = description.getProperty("needle", "needle");
+			files = Long.parseLong(description.getProperty("files", "0"));
+			bytes = Long.parseLong(description.getProperty("bytes", "0"));
+			hits = Long.parseLong(description.getProperty("hits", "-1"));
+		} else {
+			System.out.println(String.format("Tree \"%s\" has no description; searching it for \"needle\" and counting its files first...", folder.getAbsolutePath()));
+			needle = "needle";
+			long[] counts = count(folder.toPath());
+			files = counts[0];
+			bytes = counts[1];
+			hits = -1L;
+		}
+		String[] existing = dest.list();
+		if(existing != null && existing.length > 0) {
+			if(!clean) {
+				throw new IllegalArgumentException(String.format("Destination folder \"%s\" already has files in it; give -clean to delete them first", dest.getAbsolutePath()));
+			}
+			System.out.println(String.format("Deleting the files in \"%s\"...", dest.getAbsolutePath()));
+			delete(dest.toPath());
+		}
+		dest.mkdirs();
+		if(!dest.isDirectory()) {
+			throw new IOException(String.format("Unable to create the destination folder \"%s\"", dest.getAbsolutePath()));
+		}
+		
+		final FindReplaceSearch search = new FindReplaceSearch(folder, dest, onlyCopyMatching, true, false, new String[] {needle}, new String[] {replacement});
+		search.setLineEndingsPreserved(!normalizeLineEndings).setArchiveSearchEnabled(archives).setDedupEnabled(dedup).setPreScanEnabled(preScan);
+		if(chunkThreshold >= 0L) {
+			search.setChunkThreshold(chunkThreshold);
+		}
+		if(maxLineLength > 0) {
+			search.setMaxLineLength(maxLineLength);
+		}
+		if(fileTimeout >= 0L) {
+			search.setFileTimeout(fileTimeout);
+		}
+		if(fileWorkers > 0) {
+			search.setFileWorkers(fileWorkers);
+		}
+		if(fileOrder != null) {
+			search.setFileOrder(fileOrder);
+		}
+		if(kernel != null) {
+			SearchPlan.setKernel(kernel);
+		}
+		if(memoryBudget > 0L) {
+			MemoryBudget.getGlobal().setLimit(memoryBudget);
+		}
+		//Without a log file, the sink has no listeners either, so the status messages are dropped as soon as they are printed:
+		final LogSink pr = new LogSink(logFile, LogSink.Format.PLAIN);
+		if(pr.getError() != null) {
+			pr.close();
+			throw new IOException(String.format("Failed to create log file \"%s\"", logFile.getAbsolutePath()), pr.getError());
+		}
+		
+		System.out.println(String.format("Searching tree \"%s\" for \"%s\"...", folder.getAbsolutePath(), needle));
+		final MemorySampler sampler = new MemorySampler();
+		final long gcCount = getGcCount(), gcMillis = getGcMillis();
+		final long startTime = System.nanoTime();
+		sampler.start();
+		try {
+			Thread thread = search.startSearch(pr);
+			long lastProgressUpdate = System.currentTimeMillis();
+			while(thread != null && thread.isAlive()) {
+				try {
+					thread.join(500L);
+				} catch(InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					search.stopSearch();
+					break;
+				}
+				long now = System.currentTimeMillis();
+				if(now - lastProgressUpdate >= 5000L && thread.isAlive()) {
+					lastProgressUpdate = now;
+					System.err.println(search.getProgressSummary());
+				}
+			}
+		} finally {
+			sampler.interrupt();
+			pr.close();
+		}
+		final long elapsed = Math.max(1L, (System.nanoTime() - startTime) / 1000000L);
+		try {
+			sampler.join();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		final long gcCountUsed = getGcCount() - gcCount, gcMillisUsed = getGcMillis() - gcMillis;
+		if(pr.getError() != null) {
+			System.err.print(String.format("Failed to write to log file \"%s\": ", logFile.getAbsolutePath()));
+			pr.getError().printStackTrace(System.err);
+		}
+		final long replacements = search.getReplacementsPerformed();
+		final long failures = search.getFailures();
+		final long timedOut = search.getFilesTimedOut();
+		final long peakRss = getPeakRss();
+		final int code = hits >= 0L && replacements != hits ? 4 : 0;
+		
+		final double seconds = elapsed / 1000.0;
+		Map<String, String> row = new LinkedHashMap<>();
+		row.put("date", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date()));
+		row.put("label", label);
+		row.put("tree", description == null ? folder.getAbsoluteFile().getName() : String.format("%s(seed=%s)", folder.getAbsoluteFile().getName(), description.getProperty("seed")));
+		row.put("java", System.getProperty("java.version"));
+		row.put("files", Long.toString(files));
+		row.put("bytes", Long.toString(bytes));
+		row.put("hits", Long.toString(hits));
+		row.put("exit", Integer.toString(code));
+		row.put("seconds", String.format("%.3f", Double.valueOf(seconds)));
+		row.put("mibPerSecond", String.format("%.2f", Double.valueOf(bytes / 1048576.0 / seconds)));
+		row.put("filesPerSecond", String.format("%.1f", Double.valueOf(files / seconds)));
+		row.put("replacements", Long.toString(replacements));
+		row.put("failures", Long.toString(failures));
+		row.put("timedOut", Long.toString(timedOut));
+		row.put("peakRssMiB", peakRss < 0L ? "" : Long.toString(peakRss / 1048576L));
+		row.put("peakHeapMiB", Long.toString(sampler.peakHeap / 1048576L));
+		row.put("maxHeapMiB", Long.toString(Runtime.getRuntime().maxMemory() / 1048576L));
+		row.put("gcCount", Long.toString(gcCountUsed));
+		row.put("gcMillis", Long.toString(gcMillisUsed));
+		row.put("gcPercent", String.format("%.2f", Double.valueOf(gcMillisUsed * 100.0 / elapsed)));
+		row.put("options", String.join(" ", passed));
+		
+		System.out.println(search.getResults());
+		System.out.println(String.format("Soak test \"%s\": searched %s files (%s) in %s", label, Long.toString(files), FindReplaceSearch.formatSize(bytes), FindReplaceSearch.formatDuration(elapsed)));
+		System.out.println(String.format("\tThroughput: %s MiB/s, %s files/s", row.get("mibPerSecond"), row.get("filesPerSecond")));
+		System.out.println(String.format("\tPeak memory: %s resident, %s of %s heap", peakRss < 0L ? "(unknown)" : FindReplaceSearch.formatSize(peakRss), FindReplaceSearch.formatSize(sampler.peakHeap), FindReplaceSearch.formatSize(Runtime.getRuntime().maxMemory())));
+		System.out.println(String.format("\tGarbage collection: %s collections, %s ms (%s%% of the run)", Long.toString(gcCountUsed), Long.toString(gcMillisUsed), row.get("gcPercent")));
+		if(reportFile != null) {
+			appendRow(reportFile, row);
+			System.out.println(String.format("\tAppended the results to report \"%s\".", reportFile.getAbsolutePath()));
+		}
+		if(code != 0) {
+			System.err.println(String.format("The tree has %s planted needles, but %s replacements were performed.", Long.toString(hits), Long.toString(replacements)));
+		}
+		return code;
+	}
+	
+	/** Samples how much of the heap is used while a search runs. */
+	private static final class MemorySampler extends Thread {
+		private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		volatile long peakHeap = 0L;
+		
+		MemorySampler() {
+			super("Soak test memory sampler");
+			this.setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while(true) {
+				this.peakHeap = Math.max(this.peakHeap, this.memory.getHeapMemoryUsage().getUsed());
+				if(this.isInterrupted()) {
+					return;
+				}
+				try {
+					Thread.sleep(50L);
+				} catch(InterruptedException ex) {
+					this.peakHeap = Math.max(this.peakHeap, this.memory.getHeapMemoryUsage().getUsed());
+					return;
+				}
+			}
+		}
+	}
+	
+	private static final long getGcCount() {
+		long count = 0L;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0L, gc.getCollectionCount());
+		}
+		return count;
+	}
+	
+	private static final long getGcMillis() {
+		long millis = 0L;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0L, gc.getCollectionTime());
+		}
+		return millis;
+	}
+	
+	/** @return The peak resident set size of this process in bytes, or
+	 *         <tt>-1</tt> if it isn't known (it is only read on Linux) */
+	private static final long getPeakRss() {
+		File status = new File("/proc/self/status");
+		if(!status.isFile()) {
+			return -1L;
+		}
+		try(BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(status), StandardCharsets.ISO_8859_1))) {
+			String line;
+			while((line = br.readLine()) != null) {
+				if(line.startsWith("VmHWM:")) {
+					return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024L;
+				}
+			}
+		} catch(IOException | NumberFormatException ex) {
+		}
+		return -1L;
+	}
+	
+	/** @return The number of files in the given folder and their total size */
+	private static final long[] count(Path folder) throws IOException {
+		final long[] counts = {0L, 0L};
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if(attrs.isRegularFile()) {
+					counts[0]++;
+					counts[1] += attrs.size();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return counts;
+	}
+	
+	/** Deletes the contents of the given folder (but not the folder itself). */
+	private static final void delete(final Path folder) throws IOException {
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+				if(ex != null) {
+					throw ex;
+				}
+				if(!dir.equals(folder)) {
+					Files.delete(dir);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	private static final void appendRow(File reportFile, Map<String, String> row) throws IOException {
+		final boolean header = !reportFile.isFile() || reportFile.length() == 0L;
+		try(Writer out = new OutputStreamWriter(new FileOutputStream(reportFile, true), StandardCharsets.UTF_8)) {
+			if(header) {
+				out.write(String.join("\t", COLUMNS));
+				out.write('\n');
+			}
+			List<String> values = new ArrayList<>(COLUMNS.length);
+			for(String column : COLUMNS) {
+				values.add(row.get(column).replace('\t', ' ').replace('\n', ' '));
+			}
+			out.write(String.join("\t", values));
+			out.write('\n');
+		}
+	}
+	
+	/** Prints, for each label in the report, how its last run compares with
+	 * the run before it. */
+	private static final int compare(File reportFile) throws IOException {
+		List<String> lines = Files.readAllLines(reportFile.toPath(), StandardCharsets.UTF_8);
+		if(lines.isEmpty()) {
+			throw new IOException(String.format("Report \"%s\" is empty", reportFile.getAbsolutePath()));
+		}
+		List<String> header = Arrays.asList(lines.get(0).split("\t", -1));
+		Map<String, List<String[]>> runs = new LinkedHashMap<>();
+		for(String line : lines.subList(1, lines.size())) {
+			if(!line.isEmpty()) {
+				String[] values = line.split("\t", -1);
+				runs.computeIfAbsent(value(header, values, "label"), (label) -> new ArrayList<>()).add(values);
+			}
+		}
+		for(Map.Entry<String, List<String[]>> entry : runs.entrySet()) {
+			List<String[]> labelRuns = entry.getValue();
+			String[] last = labelRuns.get(labelRuns.size() - 1), previous = labelRuns.size() > 1 ? labelRuns.get(labelRuns.size() - 2) : null;
+			System.out.println(String.format("%s: %s (Java %s)%s", entry.getKey(), value(header, last, "date"), value(header, last, "java"), previous == null ? "" : String.format(", compared with %s (Java %s)", value(header, previous, "date"), value(header, previous, "java"))));
+			for(int i = 0; i < COMPARED.length; i++) {
+				String now = value(header, last, COMPARED[i]);
+				String before = previous == null ? "" : value(header, previous, COMPARED[i]);
+				String change = "";
+				try {
+					double a = Double.parseDouble(before), b = Double.parseDouble(now);
+					if(a != 0.0) {
+						double percent = (b - a) * 100.0 / a;
+						change = String.format(" (%+.1f%%%s)", Double.valueOf(percent), Math.abs(percent) < 5.0 ? "" : (percent > 0.0) == BIGGER_IS_BETTER[i] ? ", better" : ", worse");
+					}
+				} catch(NumberFormatException ex) {
+				}
+				System.out.println(String.format("\t%s: %s%s%s", COMPARED[i], now.isEmpty() ? "-" : now, before.isEmpty() ? "" : String.format(" (was %s)", before), change));
+			}
+		}
+		return 0;
+	}
+	
+	private static final String value(List<String> header, String[] values, String column) {
+		int index = header.indexOf(column);
+		return index < 0 || index >= values.length ? "" : values[index];
+	}
+	
+}